@@ -2,17 +2,24 @@ package dog.giraffe;
 
 import dog.giraffe.cluster.ClusterColors;
 import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Hamerly;
 import dog.giraffe.cluster.InitialCenters;
 import dog.giraffe.cluster.Isodata;
 import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.KMeansParallel;
+import dog.giraffe.cluster.MiniBatchKMeans;
 import dog.giraffe.cluster.Otsu;
 import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.cluster.StreamingClusteringStrategy;
 import dog.giraffe.image.BufferedImageReader;
 import dog.giraffe.image.BufferedImageWriter;
 import dog.giraffe.image.FileImageReader;
 import dog.giraffe.image.FileImageWriter;
 import dog.giraffe.image.Image;
 import dog.giraffe.image.ImageWriter;
+import dog.giraffe.image.MappedRawImageReader;
+import dog.giraffe.image.TiffImageReader;
+import dog.giraffe.image.TiffImageWriter;
 import dog.giraffe.image.transform.Cluster1;
 import dog.giraffe.image.transform.Cluster2;
 import dog.giraffe.image.transform.Hue;
@@ -24,6 +31,8 @@ import dog.giraffe.image.transform.NormalizedDifferenceVegetationIndex;
 import dog.giraffe.image.transform.NormalizedHyperHue;
 import dog.giraffe.image.transform.Select;
 import dog.giraffe.points.KDTree;
+import dog.giraffe.points.Kernels;
+import dog.giraffe.points.Sum;
 import dog.giraffe.threads.AsyncJoin;
 import dog.giraffe.threads.Batch;
 import dog.giraffe.threads.BatchRunner;
@@ -173,28 +182,43 @@ public class CmdLine {
            return;
         }
         config.setDefaultValues();
+        if (config.scalarKernels) {
+            System.setProperty(Kernels.SCALAR_PROPERTY, "true");
+        }
 
-        ClusteringStrategy<KDTree> strategy=strategy(config);
+        StreamingClusteringStrategy streamingStrategy=streamingStrategy(config);
+        ClusteringStrategy<KDTree> strategy=(null==streamingStrategy)?strategy(config):null;
 
         Mask mask=mask(config);
 
         Function<Image, Image> imageMap;
         if (null==config.saturationBased) {
-            imageMap=(image)->Cluster1.create(
-                    image,
-                    config.rgbClusterColors
-                            ?ClusterColors.falseColors(0, 1, 2)
-                            :ClusterColors.falseGrays(1),
-                    mask,
-                    strategy);
+            ClusterColors colors=config.rgbClusterColors
+                    ?ClusterColors.falseColors(0, 1, 2)
+                    :ClusterColors.falseGrays(1);
+            if (null!=streamingStrategy) {
+                imageMap=(image)->Cluster1.create(image, colors, config.outputLabels, mask, streamingStrategy);
+            }
+            else if (config.offHeapPoints) {
+                Path scratchDirectory=(null==config.scratchDirectory)?null:Paths.get(config.scratchDirectory);
+                imageMap=(image)->Cluster1.createOffHeap(
+                        image, colors, config.outputLabels, mask, scratchDirectory, strategy);
+            }
+            else {
+                imageMap=(image)->Cluster1.create(image, colors, config.outputLabels, mask, strategy);
+            }
         }
         else {
             switch (config.saturationBased) {
                 case CmdLineConfig.SATURATION_BASED_HUE:
-                    imageMap=(image)->Cluster2.createHue(image, mask, strategy);
+                    imageMap=(image)->(null==streamingStrategy)
+                            ?Cluster2.createHue(image, config.outputLabels, mask, strategy)
+                            :Cluster2.createHue(image, config.outputLabels, mask, streamingStrategy);
                     break;
                 case CmdLineConfig.SATURATION_BASED_HYPER_HUE:
-                    imageMap=(image)->Cluster2.createHyperHue(image, mask, strategy);
+                    imageMap=(image)->(null==streamingStrategy)
+                            ?Cluster2.createHyperHue(image, config.outputLabels, mask, strategy)
+                            :Cluster2.createHyperHue(image, config.outputLabels, mask, streamingStrategy);
                     break;
                 default:
                     throw new RuntimeException(
@@ -252,7 +276,9 @@ public class CmdLine {
             imageMap=imageMap.compose(imageMap2);
         }
 
-        try (Context context=new StandardContext(config.threads)) {
+        try (Context context=new StandardContext(
+                config.threads,
+                config.compensatedSums?Sum.KAHAN:Sum.SINGLE_VARIABLE)) {
             AsyncJoin join=new AsyncJoin();
             if (config.batchMode) {
                 batchMode(config, context, imageMap, join);
@@ -285,6 +311,19 @@ public class CmdLine {
         return mask;
     }
 
+    private static int outputCompression(CmdLineConfig config) {
+        switch (config.outputCompression) {
+            case CmdLineConfig.OUTPUT_COMPRESSION_DEFLATE:
+                return TiffImageWriter.COMPRESSION_DEFLATE;
+            case CmdLineConfig.OUTPUT_COMPRESSION_LZW:
+                return TiffImageWriter.COMPRESSION_LZW;
+            case CmdLineConfig.OUTPUT_COMPRESSION_NONE:
+                return TiffImageWriter.COMPRESSION_NONE;
+            default:
+                throw new RuntimeException("unexpected output compression "+config.outputCompression);
+        }
+    }
+
     private static void singleFileMode(
             CmdLineConfig config, Context context, Function<Image, Image> imageMap, String inputFile,
             String outputFile, String logFile, Continuation<Void> continuation) throws Throwable {
@@ -295,29 +334,48 @@ public class CmdLine {
         ImageWriter.write(
                 context,
                 imageMap,
-                config.bufferedInput
-                        ?BufferedImageReader.factory(inputPath)
-                        :FileImageReader.factory(inputPath),
-                config.bufferedOutput
-                        ?BufferedImageWriter.factory(outputFormat, outputPath)
-                        :FileImageWriter.factory(outputFormat, outputPath),
+                MappedRawImageReader.factory(
+                        inputPath,
+                        config.bufferedInput
+                                ?BufferedImageReader.factory(inputPath)
+                                :TiffImageReader.factory(inputPath, FileImageReader.factory(inputPath))),
+                (null!=config.outputCompression)
+                        ?TiffImageWriter.factory(outputPath, outputCompression(config), context.executor())
+                        :(config.bufferedOutput
+                                ?BufferedImageWriter.factory(outputFormat, outputPath)
+                                :FileImageWriter.factory(outputFormat, outputPath)),
                 (null==logFile)
                         ?null
                         :(log)->Log.write(Paths.get(logFile), log),
                 continuation);
     }
 
-    private static ClusteringStrategy<KDTree> strategy(CmdLineConfig config) throws Throwable {
+    private static List<InitialCenters<KDTree>> initialCenters(CmdLineConfig config) {
         List<InitialCenters<KDTree>> initialCenters=new ArrayList<>();
         if (config.initialCentersKDTree) {
             initialCenters.add(KDTree.initialCenters(false));
         }
+        if (config.initialCentersKMeansParallel) {
+            initialCenters.add(KMeansParallel.kMeansParallel(2.0, 5));
+        }
         if (config.initialCentersMean) {
             initialCenters.add(InitialCenters.meanAndFarthest(false));
         }
         for (int ii=config.initialCentersRandom; 0<ii; --ii) {
             initialCenters.add(InitialCenters.random());
         }
+        return initialCenters;
+    }
+
+    private static ClusteringStrategy<KDTree> best(
+            CmdLineConfig config, List<ClusteringStrategy<KDTree>> strategies) {
+        return config.race
+                ?ClusteringStrategy.race(strategies, 1.1, 3)
+                :ClusteringStrategy.best(strategies);
+    }
+
+    private static ClusteringStrategy<KDTree> strategy(CmdLineConfig config) throws Throwable {
+        List<InitialCenters<KDTree>> initialCenters=initialCenters(config);
         List<ReplaceEmptyCluster<KDTree>> replaceEmptyClusters=new ArrayList<>();
         if (config.replaceEmptyClustersFarthest) {
             replaceEmptyClusters.add(ReplaceEmptyCluster.farthest(false));
@@ -325,7 +383,7 @@ public class CmdLine {
         for (int ii=config.replaceEmptyClustersRandom; 0<ii; --ii) {
             replaceEmptyClusters.add(ReplaceEmptyCluster.random());
         }
-        Function<Integer, ClusteringStrategy<KDTree>> strategyGenerator;
+        ClusteringStrategy.WarmStart<KDTree> strategyGenerator;
         switch (config.clusteringAlgorithm) {
             case CmdLineConfig.CLUSTERING_ALGORITHM_ISODATA:
                 config.elbow=false;
@@ -342,37 +400,94 @@ public class CmdLine {
                                 config.std_deviation,
                                 init,
                                 replace))));
-                strategyGenerator=(clusters)->ClusteringStrategy.best(strategies);
+                strategyGenerator=(clusters, warmStart)->ClusteringStrategy.best(strategies);
                 break;
             case CmdLineConfig.CLUSTERING_ALGORITHM_K_MEANS:
-                strategyGenerator=(clusters)->{
+                strategyGenerator=(clusters, warmStart)->{
+                    List<ClusteringStrategy<KDTree>> strategies2=new ArrayList<>();
+                    ((null==warmStart)?initialCenters:List.of(warmStart)).forEach((init)->
+                            replaceEmptyClusters.forEach((replace)->
+                                    strategies2.add(KMeans.kMeans(
+                                            clusters,
+                                            config.errorLimit,
+                                            init,
+                                            config.maxIterations,
+                                            replace))));
+                    return best(config, strategies2);
+                };
+                break;
+            case CmdLineConfig.CLUSTERING_ALGORITHM_K_MEANS_HAMERLY:
+                strategyGenerator=(clusters, warmStart)->{
                     List<ClusteringStrategy<KDTree>> strategies2=new ArrayList<>();
-                    initialCenters.forEach((init)->replaceEmptyClusters.forEach((replace)->
-                            strategies2.add(KMeans.kMeans(
-                                    clusters,
-                                    config.errorLimit,
-                                    init,
-                                    config.maxIterations,
-                                    replace))));
-                    return ClusteringStrategy.best(strategies2);
+                    ((null==warmStart)?initialCenters:List.of(warmStart)).forEach((init)->
+                            replaceEmptyClusters.forEach((replace)->
+                                    strategies2.add(Hamerly.hamerly(
+                                            clusters,
+                                            config.errorLimit,
+                                            init,
+                                            config.maxIterations,
+                                            replace))));
+                    return best(config, strategies2);
                 };
                 break;
             case CmdLineConfig.CLUSTERING_ALGORITHM_OTSU:
-                strategyGenerator=(clusters)->Otsu.linear(config.bins, clusters);
+                strategyGenerator=(clusters, warmStart)->Otsu.linear(config.bins, clusters);
                 break;
             case CmdLineConfig.CLUSTERING_ALGORITHM_OTSU_CIRCULAR:
-                strategyGenerator=(clusters)->Otsu.circular(config.bins, clusters);
+                strategyGenerator=(clusters, warmStart)->Otsu.circular(config.bins, clusters);
                 break;
             default:
                 throw new RuntimeException("unexpected clustering algorithm "+config.clusteringAlgorithm);
         }
-        return config.elbow
-                ?ClusteringStrategy.elbow(
+        ClusteringStrategy<KDTree> strategy=strategy(config, strategyGenerator);
+        if ((0<config.histogramBins)
+                && (!CmdLineConfig.CLUSTERING_ALGORITHM_OTSU.equals(config.clusteringAlgorithm))
+                && (!CmdLineConfig.CLUSTERING_ALGORITHM_OTSU_CIRCULAR.equals(config.clusteringAlgorithm))) {
+            strategy=Otsu.histogram(config.histogramBins, strategy);
+        }
+        return strategy;
+    }
+
+    private static ClusteringStrategy<KDTree> strategy(
+            CmdLineConfig config, ClusteringStrategy.WarmStart<KDTree> strategyGenerator) throws Throwable {
+        if (!config.elbow) {
+            return strategyGenerator.strategy(config.maxClusters, null);
+        }
+        if (config.elbowAdaptive) {
+            return ClusteringStrategy.elbowAdaptive(
+                    config.errorLimit,
+                    config.maxClusters,
+                    config.minClusters,
+                    2.0,
+                    strategyGenerator,
+                    1,
+                    config.elbowWarmStart);
+        }
+        return config.elbowWarmStart
+                ?ClusteringStrategy.elbowWarmStart(
                         config.errorLimit,
                         config.maxClusters,
                         config.minClusters,
                         strategyGenerator,
                         1)
-                :strategyGenerator.apply(config.maxClusters);
+                :ClusteringStrategy.elbow(
+                        config.errorLimit,
+                        config.maxClusters,
+                        config.minClusters,
+                        (clusters)->strategyGenerator.strategy(clusters, null),
+                        1);
+    }
+
+    private static StreamingClusteringStrategy streamingStrategy(CmdLineConfig config) {
+        if (!CmdLineConfig.CLUSTERING_ALGORITHM_K_MEANS_MINI_BATCH.equals(config.clusteringAlgorithm)) {
+            return null;
+        }
+        List<StreamingClusteringStrategy> strategies=new ArrayList<>();
+        initialCenters(config).forEach((init)->strategies.add(MiniBatchKMeans.miniBatchKMeans(
+                config.maxClusters,
+                config.miniBatchSize,
+                init,
+                config.maxIterations)));
+        return StreamingClusteringStrategy.best(strategies);
     }
 }
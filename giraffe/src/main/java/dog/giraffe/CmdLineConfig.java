@@ -11,6 +11,8 @@ import picocli.CommandLine;
 public class CmdLineConfig {
     public static final String CLUSTERING_ALGORITHM_ISODATA="isodata";
     public static final String CLUSTERING_ALGORITHM_K_MEANS="k-means";
+    public static final String CLUSTERING_ALGORITHM_K_MEANS_HAMERLY="k-means-hamerly";
+    public static final String CLUSTERING_ALGORITHM_K_MEANS_MINI_BATCH="k-means-mini-batch";
     public static final String CLUSTERING_ALGORITHM_OTSU="otsu";
     public static final String CLUSTERING_ALGORITHM_OTSU_CIRCULAR="otsu-circular";
     public static final String IMAGE_TRANSFORM_HUE="hue";
@@ -24,6 +26,9 @@ public class CmdLineConfig {
     public static final Pattern IMAGE_TRANSFORM_NORMALIZED_HYPER_HUE
             =Pattern.compile("normalized-hyper-hue\\(([0-9.]+)\\)");
     public static final Pattern IMAGE_TRANSFORM_SELECT=Pattern.compile("select\\(([0-9]+(?:,[0-9])+)\\)");
+    public static final String OUTPUT_COMPRESSION_DEFLATE="deflate";
+    public static final String OUTPUT_COMPRESSION_LZW="lzw";
+    public static final String OUTPUT_COMPRESSION_NONE="none";
     public static final String SATURATION_BASED_HUE="hue";
     public static final String SATURATION_BASED_HYPER_HUE="hyper-hue";
 
@@ -65,13 +70,22 @@ public class CmdLineConfig {
 
     /**
      * Specify the clustering algorithm.
-     * Valid values: isodata, k-means, otsu, and otsu-circular. Default: kMeans with elbow.
+     * Valid values: isodata, k-means, k-means-hamerly, k-means-mini-batch, otsu, and otsu-circular.
+     * Default: kMeans with elbow.
      */
     @CommandLine.Option(names={"-a", "--algorithm"}, paramLabel="CLUSTER",
             description="Specify the clustering algorithm."
-                    +" Valid values: isodata, k-means, otsu, and otsu-circular. Default: kMeans with elbow.")
+                    +" Valid values: isodata, k-means, k-means-hamerly, k-means-mini-batch, otsu, and otsu-circular."
+                    +" Default: kMeans with elbow.")
     public String clusteringAlgorithm=CLUSTERING_ALGORITHM_K_MEANS;
 
+    /**
+     * Use Kahan summation for means, deviations, and the sums of kd-trees.
+     */
+    @CommandLine.Option(names={"--compensated-sums"}, paramLabel="COMPENSATEDSUMS",
+            description="Use Kahan summation for means, deviations, and the sums of kd-trees.")
+    public boolean compensatedSums;
+
     /**
      * Use the elbow method
      */
@@ -79,6 +93,22 @@ public class CmdLineConfig {
             description="Use the elbow method")
     public Boolean elbow;
 
+    /**
+     * Sample the number of clusters of the elbow method in geometric steps, and refine only around the elbow
+     */
+    @CommandLine.Option(names={"--elbow-adaptive"}, paramLabel="ELBOWADAPTIVE",
+            description="Sample the number of clusters of the elbow method in geometric steps,"
+                    +" and refine only around the elbow")
+    public Boolean elbowAdaptive;
+
+    /**
+     * Start the clustering of every number of clusters of the elbow method from the result for fewer clusters
+     */
+    @CommandLine.Option(names={"--elbow-warm-start"}, paramLabel="ELBOWWARMSTART",
+            description="Start the clustering of every number of clusters of the elbow method"
+                    +" from the result for fewer clusters")
+    public Boolean elbowWarmStart;
+
     /**
      * Elbow of the curve, as used by the elbow method and k-means. Default value is 0.95.
      */
@@ -86,6 +116,15 @@ public class CmdLineConfig {
             description="Elbow of the curve, as used by the elbow method and k-means. Default value is 0.95.")
     public double errorLimit=0.95;
 
+    /**
+     * Number of bins of the histogram one dimensional data is clustered on by k-means and ISODATA.
+     * 0 disables the histogram.
+     */
+    @CommandLine.Option(names={"--histogram-bins"}, paramLabel="BINS",
+            description="Number of bins of the histogram one dimensional data is clustered on by k-means and ISODATA."
+                    +" 0 disables the histogram.")
+    public int histogramBins;
+
     /**
      * Display a help message.
      */
@@ -106,6 +145,13 @@ public class CmdLineConfig {
                     +", select(channel,...), hue-hyper-hue.")
     public List<String> imageTransforms=new ArrayList<>();
 
+    /**
+     * Use k-means|| to select initial cluster centers.
+     */
+    @CommandLine.Option(names={"--initial-centers-k-means-parallel"}, paramLabel="INITKMEANSPARALLEL",
+            description="Use k-means|| to select initial cluster centers.")
+    public Boolean initialCentersKMeansParallel;
+
     /**
      * Use kd-tree nodes as initial cluster centers.
      */
@@ -169,6 +215,39 @@ public class CmdLineConfig {
             description="Minimum number of clusters.")
     public int minClusters=2;
 
+    /**
+     * Number of pixels read in an iteration of mini-batch k-means.
+     */
+    @CommandLine.Option(names={"--mini-batch-size"}, paramLabel="BATCHSIZE",
+            description="Number of pixels read in an iteration of mini-batch k-means.")
+    public int miniBatchSize=4096;
+
+    /**
+     * Store the pixels to be clustered outside of the java heap.
+     * Direct buffers count against the limit -XX:MaxDirectMemorySize of the JVM.
+     */
+    @CommandLine.Option(names={"--off-heap-points"}, paramLabel="OFFHEAPPOINTS",
+            description="Store the pixels to be clustered outside of the java heap."
+                    +" Direct buffers count against the limit -XX:MaxDirectMemorySize of the JVM.")
+    public boolean offHeapPoints;
+
+    /**
+     * Write the output image as a BigTIFF, compressing strips in parallel.
+     * Valid values: deflate, lzw, and none.
+     */
+    @CommandLine.Option(names={"--output-compression"}, paramLabel="OUTPUTCOMPRESSION",
+            description="Write the output image as a BigTIFF, compressing strips in parallel."
+                    +" Valid values: deflate, lzw, and none.")
+    public String outputCompression;
+
+    /**
+     * Replace pixels with the index of their cluster instead of a color, the colors are written to the log.
+     */
+    @CommandLine.Option(names={"--output-labels"}, paramLabel="OUTPUTLABELS",
+            description="Replace pixels with the index of their cluster instead of a color,"
+                    +" the colors are written to the log.")
+    public Boolean outputLabels;
+
     /**
      * Format name for the output image.
      */
@@ -183,6 +262,14 @@ public class CmdLineConfig {
             description="Output image file.")
     public String outputFile;
 
+    /**
+     * Stop clusterings early whose errors fall behind the best one when multiple initial centers are used.
+     */
+    @CommandLine.Option(names={"--race"}, paramLabel="RACE",
+            description="Stop clusterings early whose errors fall behind the best one"
+                    +" when multiple initial centers are used.")
+    public Boolean race;
+
     /**
      * Use different hues for clusters in the result.
      */
@@ -211,6 +298,20 @@ public class CmdLineConfig {
             description="Use saturation based clustering. Valid values: hue, hyper-hue")
     public String saturationBased;
 
+    /**
+     * Force the use of the scalar kernels, even if the vector API is available.
+     */
+    @CommandLine.Option(names={"--scalar-kernels"}, paramLabel="SCALARKERNELS",
+            description="Force the use of the scalar kernels, even if the vector API is available.")
+    public boolean scalarKernels;
+
+    /**
+     * Memory map the off-heap pixels to scratch files in this directory, instead of direct buffers.
+     */
+    @CommandLine.Option(names={"--scratch-directory"}, paramLabel="SCRATCHDIRECTORY",
+            description="Memory map the off-heap pixels to scratch files in this directory, instead of direct buffers.")
+    public String scratchDirectory;
+
     /**
      * Number of threads used.
      */
@@ -262,12 +363,27 @@ public class CmdLineConfig {
         if (null==elbow) {
             elbow=true;
         }
+        if (null==elbowAdaptive) {
+            elbowAdaptive=false;
+        }
+        if (null==elbowWarmStart) {
+            elbowWarmStart=false;
+        }
         if (null==initialCentersKDTree) {
             initialCentersKDTree=false;
         }
+        if (null==initialCentersKMeansParallel) {
+            initialCentersKMeansParallel=false;
+        }
         if (null==initialCentersMean) {
             initialCentersMean=true;
         }
+        if (null==outputLabels) {
+            outputLabels=false;
+        }
+        if (null==race) {
+            race=false;
+        }
         if (null==rgbClusterColors) {
             rgbClusterColors=true;
         }
@@ -19,6 +19,14 @@ public interface Context extends AutoCloseable {
         }
     }
 
+    /**
+     * Called by iterative clustering algorithms with the error of the clustering after every iteration.
+     * Used to stop clusterings early which are not going to produce the best result.
+     * The default implementation ignores errors.
+     */
+    default void clusteringError(double error) {
+    }
+
     /**
      * Closes this Context.
      */
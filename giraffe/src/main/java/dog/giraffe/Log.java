@@ -3,6 +3,7 @@ package dog.giraffe;
 import dog.giraffe.cluster.Clusters;
 import dog.giraffe.image.Image;
 import dog.giraffe.image.ImageWriter;
+import dog.giraffe.points.Kernels;
 import dog.giraffe.points.Vector;
 import dog.giraffe.util.Lists;
 import java.io.BufferedOutputStream;
@@ -92,6 +93,13 @@ public interface Log {
         logField(name, image, log);
     }
 
+    /**
+     * Writes the implementation of the {@link Kernels} to the metadata.
+     */
+    static void logKernels(Map<String, Object> log) {
+        log.put("kernels", Kernels.kernels().type());
+    }
+
     /**
      * Writers the metadata of an {@link dog.giraffe.image.ImageWriter ImageWtiter}.
      */
@@ -43,13 +43,16 @@ public class StandardContext implements Context {
     private final Executor executor;
     private final ScheduledExecutorService realExecutor;
     private final AtomicBoolean stopped=new AtomicBoolean(false);
+    private final Sum.Factory sum;
 
     /**
      * Creates a new instance.
      *
      * @param threads the number of java threads used to run tasks
+     * @param sum the factory of sums, it also selects the mode of the sums of means and deviations
      */
-    public StandardContext(int threads) {
+    public StandardContext(int threads, Sum.Factory sum) {
+        this.sum=sum;
         executor=new Executor() {
             @Override
             public void execute(Block block) throws Throwable {
@@ -71,6 +74,15 @@ public class StandardContext implements Context {
                 });
     }
 
+    /**
+     * Creates a new instance with {@link Sum#SINGLE_VARIABLE} sums.
+     *
+     * @param threads the number of java threads used to run tasks
+     */
+    public StandardContext(int threads) {
+        this(threads, Sum.SINGLE_VARIABLE);
+    }
+
     @Override
     public void close() {
         if (stopped.compareAndSet(false, true)) {
@@ -110,6 +122,6 @@ public class StandardContext implements Context {
 
     @Override
     public Sum.Factory sum() {
-        return Sum.SINGLE_VARIABLE;
+        return sum;
     }
 }
@@ -0,0 +1,323 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Log;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.points.UnsignedShortArrayPoints;
+import dog.giraffe.points.Vector;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns points to clusters by their nearest center.
+ *
+ * The vectors of the centers and the colors of the clusters are stored in flat arrays,
+ * clusters are identified by their index in {@link Clusters#centers}.
+ * Classifying a point allocates nothing and does no hashing, the coordinates are read directly from the points.
+ * The nearest vector is searched for linearly, the summation of the distance of a vector stops
+ * as soon as it exceeds the best distance found so far.
+ *
+ * Classifiers are immutable and thread-safe.
+ *
+ * A {@link Reader} uses the type of the points to replace the search with a lookup.
+ * The labels of all possible unsigned 8 bit 1 or 2 dimensional, and unsigned 16 bit 1 dimensional points
+ * are precomputed into a table.
+ * Unsigned 8 bit 3 dimensional points are looked up in a bounded cache keyed by the packed coordinates,
+ * which is filled on demand.
+ * Other 1 dimensional points are classified by a binary search among the sorted centers.
+ */
+public class Classifier implements Log {
+    /**
+     * The number of entries of the cache of a {@link Reader} of unsigned 8 bit 3 dimensional points.
+     */
+    public static final int CACHE_SIZE=1<<14;
+    private static final int MAX_TABLE_SIZE=1<<16;
+
+    /**
+     * Classifies points of the type the classifier was created for.
+     * Readers are not thread-safe.
+     */
+    public interface Reader {
+        /**
+         * Returns the index of the cluster of the center nearest to the vector index of points.
+         */
+        int classify(MutablePoints points, int index);
+    }
+
+    /**
+     * Caches the labels of unsigned 8 bit 3 dimensional points.
+     * The cache is direct mapped, an entry holds the packed coordinates plus one, and the label.
+     */
+    private class CacheReader implements Reader {
+        private final int[] keys=new int[CACHE_SIZE];
+        private final int[] values=new int[CACHE_SIZE];
+        private final MutablePoints point=new FloatArrayPoints(3, 1);
+
+        public CacheReader() {
+            point.size(1);
+        }
+
+        @Override
+        public int classify(MutablePoints points, int index) {
+            int c0=(int)points.get(0, index);
+            int c1=(int)points.get(1, index);
+            int c2=(int)points.get(2, index);
+            int key=((c0<<16)|(c1<<8)|c2)+1;
+            int slot=(key*0x9e3779b1)>>>(32-Integer.numberOfTrailingZeros(CACHE_SIZE));
+            if (key==keys[slot]) {
+                return values[slot];
+            }
+            point.set(0, 0, c0);
+            point.set(1, 0, c1);
+            point.set(2, 0, c2);
+            int label=Classifier.this.classify(point, 0);
+            keys[slot]=key;
+            values[slot]=label;
+            return label;
+        }
+    }
+
+    private final int[] centerLabels;
+    private final double[] centers;
+    private final int colorDimensions;
+    private final double[] colors;
+    private final int dimensions;
+    private final int labels;
+    private final String readerType;
+    private final int[] sortedCenters;
+    private final double[] sortedValues;
+    private final int[] table;
+
+    private Classifier(
+            int[] centerLabels, double[] centers, int colorDimensions, double[] colors, int dimensions,
+            int labels, Points points) {
+        this.centerLabels=centerLabels;
+        this.centers=centers;
+        this.colorDimensions=colorDimensions;
+        this.colors=colors;
+        this.dimensions=dimensions;
+        this.labels=labels;
+        boolean unsignedByte=points instanceof UnsignedByteArrayPoints;
+        boolean unsignedShort=points instanceof UnsignedShortArrayPoints;
+        int tableSize=0;
+        if ((unsignedByte && (2>=dimensions)) || (unsignedShort && (1==dimensions))) {
+            tableSize=1<<((unsignedByte?8:16)*dimensions);
+        }
+        if ((0<tableSize) && (MAX_TABLE_SIZE>=tableSize)) {
+            readerType="table";
+            sortedCenters=null;
+            sortedValues=null;
+            table=table(tableSize, unsignedByte?8:16);
+        }
+        else if (unsignedByte && (3==dimensions)) {
+            readerType="cache";
+            sortedCenters=null;
+            sortedValues=null;
+            table=null;
+        }
+        else if (1==dimensions) {
+            readerType="sorted";
+            sortedCenters=sortedCenters();
+            sortedValues=new double[sortedCenters.length];
+            for (int ii=0; sortedCenters.length>ii; ++ii) {
+                sortedValues[ii]=centers[sortedCenters[ii]];
+            }
+            table=null;
+        }
+        else {
+            readerType="linear";
+            sortedCenters=null;
+            sortedValues=null;
+            table=null;
+        }
+    }
+
+    /**
+     * Returns the index of the cluster of the center nearest to the vector index of points.
+     * Ties are broken in favor of the center listed first.
+     */
+    public int classify(MutablePoints points, int index) {
+        double[] centers=this.centers;
+        int dimensions=this.dimensions;
+        int bestCenter=0;
+        double bestDistance=Double.POSITIVE_INFINITY;
+        for (int cc=0, oo=0; centerLabels.length>cc; ++cc, oo+=dimensions) {
+            double distance=0.0;
+            for (int dd=0; dimensions>dd; ++dd) {
+                double di=centers[oo+dd]-points.get(dd, index);
+                distance+=di*di;
+                if (distance>=bestDistance) {
+                    break;
+                }
+            }
+            if (distance<bestDistance) {
+                bestCenter=cc;
+                bestDistance=distance;
+            }
+        }
+        return centerLabels[bestCenter];
+    }
+
+    /**
+     * Returns the normalized coordinate dimension of the color of the cluster label.
+     */
+    public double color(int label, int dimension) {
+        return colors[label*colorDimensions+dimension];
+    }
+
+    /**
+     * Returns the number of components of the colors.
+     */
+    public int colorDimensions() {
+        return colorDimensions;
+    }
+
+    /**
+     * Creates a new classifier for the centers of clusters.
+     * The color of a cluster is the color colorMap assigns to its first vector.
+     *
+     * @param colorDimensions the number of components of the colors
+     * @param points the type of the points the readers of the classifier will classify
+     */
+    public static Classifier create(
+            Clusters clusters, Map<Vector, Vector> colorMap, int colorDimensions, Points points) {
+        List<List<Vector>> centers=clusters.centers;
+        if (centers.isEmpty()) {
+            throw new RuntimeException("cannot select nearest center");
+        }
+        int dimensions=centers.get(0).get(0).dimensions();
+        int vectors=0;
+        for (List<Vector> center: centers) {
+            vectors+=center.size();
+        }
+        int[] centerLabels=new int[vectors];
+        double[] centers2=new double[vectors*dimensions];
+        double[] colors=new double[centers.size()*colorDimensions];
+        for (int ll=0, cc=0; centers.size()>ll; ++ll) {
+            List<Vector> center=centers.get(ll);
+            for (Vector vector: center) {
+                centerLabels[cc]=ll;
+                for (int dd=0; dimensions>dd; ++dd) {
+                    centers2[cc*dimensions+dd]=vector.coordinate(dd);
+                }
+                ++cc;
+            }
+            Vector color=colorMap.get(center.get(0));
+            for (int dd=0; colorDimensions>dd; ++dd) {
+                colors[ll*colorDimensions+dd]=color.coordinate(dd);
+            }
+        }
+        return new Classifier(
+                centerLabels, centers2, colorDimensions, colors, dimensions, centers.size(), points);
+    }
+
+    /**
+     * Returns the number of components of the centers.
+     */
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the number of clusters.
+     */
+    public int labels() {
+        return labels;
+    }
+
+    @Override
+    public void log(Map<String, Object> log) {
+        log.put("reader", readerType);
+    }
+
+    /**
+     * Creates a new reader for points of the type the classifier was created for.
+     */
+    public Reader reader() {
+        if (null!=table) {
+            int[] table=this.table;
+            if (1==dimensions) {
+                return (points, index)->table[(int)points.get(0, index)];
+            }
+            return (points, index)->table[((int)points.get(0, index)<<8)|(int)points.get(1, index)];
+        }
+        if (null!=sortedValues) {
+            return this::classifySorted;
+        }
+        if ("cache".equals(readerType)) {
+            return new CacheReader();
+        }
+        return this::classify;
+    }
+
+    /**
+     * Finds the nearest center of a 1 dimensional point among the neighbours of the point in the sorted centers.
+     * Ties are broken in favor of the center listed first, like {@link #classify(MutablePoints, int)}.
+     */
+    private int classifySorted(MutablePoints points, int index) {
+        double value=points.get(0, index);
+        int position=Arrays.binarySearch(sortedValues, value);
+        if (0<=position) {
+            return centerLabels[sortedCenters[position]];
+        }
+        position=-position-1;
+        if (0>=position) {
+            return centerLabels[sortedCenters[0]];
+        }
+        if (sortedValues.length<=position) {
+            return centerLabels[sortedCenters[sortedValues.length-1]];
+        }
+        double d0=sortedValues[position-1]-value;
+        double d1=sortedValues[position]-value;
+        d0*=d0;
+        d1*=d1;
+        int center=((d0<d1) || ((d0==d1) && (sortedCenters[position-1]<sortedCenters[position])))
+                ?sortedCenters[position-1]
+                :sortedCenters[position];
+        return centerLabels[center];
+    }
+
+    /**
+     * Returns the indices of the 1 dimensional center vectors sorted by their values.
+     * From vectors with equal values only the one listed first is kept.
+     */
+    private int[] sortedCenters() {
+        Integer[] indices=new Integer[centerLabels.length];
+        for (int ii=0; indices.length>ii; ++ii) {
+            indices[ii]=ii;
+        }
+        Arrays.sort(indices, (index0, index1)->{
+            int cc=Double.compare(centers[index0], centers[index1]);
+            return (0==cc)?Integer.compare(index0, index1):cc;
+        });
+        int[] result=new int[indices.length];
+        int size=0;
+        for (int index: indices) {
+            if ((0==size) || (centers[result[size-1]]!=centers[index])) {
+                result[size]=index;
+                ++size;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Precomputes the labels of all points with dimensions coordinates of the given number of bits.
+     */
+    private int[] table(int size, int bits) {
+        int[] table=new int[size];
+        MutablePoints point=new FloatArrayPoints(dimensions, 1);
+        point.size(1);
+        int mask=(1<<bits)-1;
+        for (int ii=0; size>ii; ++ii) {
+            for (int dd=0; dimensions>dd; ++dd) {
+                point.set(dd, 0, (ii>>>((dimensions-dd-1)*bits))&mask);
+            }
+            table[ii]=classify(point, 0);
+        }
+        return table;
+    }
+}
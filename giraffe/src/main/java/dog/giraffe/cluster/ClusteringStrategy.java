@@ -2,24 +2,36 @@ package dog.giraffe.cluster;
 
 import dog.giraffe.Context;
 import dog.giraffe.Log;
+import dog.giraffe.StoppedException;
 import dog.giraffe.points.Points;
 import dog.giraffe.threads.AsyncSupplier;
 import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
-import dog.giraffe.threads.ParallelSearch;
-import dog.giraffe.util.Block;
+import dog.giraffe.threads.DelegatorContext;
 import dog.giraffe.util.Function;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.Objects;
-import java.util.TreeMap;
 
 /**
  * A method for clustering vectors. All possible method specific parameters are captured by instances.
  */
 public interface ClusteringStrategy<P extends Points> extends Log {
+    /**
+     * Creates strategies for a fixed number of clusters which can start from the specified initial centers.
+     */
+    @FunctionalInterface
+    interface WarmStart<P extends Points> {
+        /**
+         * Creates a strategy for clusters clusters.
+         *
+         * @param initialCenters the initial centers to start from, or null when the strategy should use its own
+         */
+        ClusteringStrategy<P> strategy(int clusters, InitialCenters<P> initialCenters) throws Throwable;
+    }
+
     /**
      * Executes all the strategies and selects the result with the smallest error.
      * All the strategies will be run in parallel.
@@ -66,6 +78,151 @@ public interface ClusteringStrategy<P extends Points> extends Log {
         };
     }
 
+    /**
+     * Executes all the strategies in parallel and selects the result with the smallest error,
+     * like {@link #best(List)}, but stops strategies which are clearly losing.
+     * Strategies report their errors after every iteration through {@link Context#clusteringError(double)}.
+     * A strategy is stopped when it has completed at least minIterations iterations,
+     * and its last error is larger than errorMargin times the smallest error of all the other strategies.
+     * The number of stopped strategies is added to the stats of the result as race-stopped.
+     *
+     * @param errorMargin the ratio of errors a strategy can fall behind by, at least 1
+     * @param minIterations the number of iterations a strategy is never stopped in
+     */
+    static <P extends Points> ClusteringStrategy<P> race(
+            List<ClusteringStrategy<P>> strategies, double errorMargin, int minIterations) {
+        if (strategies.isEmpty()) {
+            throw new IllegalArgumentException("empty strategies");
+        }
+        if (1.0>errorMargin) {
+            throw new IllegalArgumentException("1.0 > errorMargin "+errorMargin);
+        }
+        if (1==strategies.size()) {
+            return strategies.get(0);
+        }
+        return new ClusteringStrategy<>() {
+            @Override
+            public void cluster(Context context, P points, Continuation<Clusters> continuation) throws Throwable {
+                int size=strategies.size();
+                double[] errors=new double[size];
+                Arrays.fill(errors, Double.POSITIVE_INFINITY);
+                int[] iterations=new int[size];
+                boolean[] stopped=new boolean[size];
+                List<AsyncSupplier<Clusters>> forks=new ArrayList<>(size);
+                for (int ss=0; size>ss; ++ss) {
+                    int ss2=ss;
+                    Context context2=new DelegatorContext(context) {
+                        @Override
+                        public void clusteringError(double error) {
+                            synchronized (errors) {
+                                errors[ss2]=error;
+                                ++iterations[ss2];
+                                int running=0;
+                                for (boolean stopped2: stopped) {
+                                    if (!stopped2) {
+                                        ++running;
+                                    }
+                                }
+                                for (int ii=0; size>ii; ++ii) {
+                                    if ((1<running) && (!stopped[ii]) && (minIterations<=iterations[ii])) {
+                                        double best=Double.POSITIVE_INFINITY;
+                                        for (int jj=0; size>jj; ++jj) {
+                                            if (ii!=jj) {
+                                                best=Math.min(best, errors[jj]);
+                                            }
+                                        }
+                                        if (errorMargin*best<errors[ii]) {
+                                            stopped[ii]=true;
+                                            --running;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+
+                        @Override
+                        public boolean stopped() {
+                            synchronized (errors) {
+                                if (stopped[ss2]) {
+                                    return true;
+                                }
+                            }
+                            return super.stopped();
+                        }
+                    };
+                    ClusteringStrategy<P> strategy=strategies.get(ss);
+                    forks.add((continuation2)->{
+                        Continuation<Clusters> continuation3=new Continuation<>() {
+                            @Override
+                            public void completed(Clusters result) throws Throwable {
+                                synchronized (errors) {
+                                    errors[ss2]=result.error;
+                                }
+                                continuation2.completed(result);
+                            }
+
+                            @Override
+                            public void failed(Throwable throwable) throws Throwable {
+                                boolean stopped2;
+                                synchronized (errors) {
+                                    stopped2=stopped[ss2];
+                                }
+                                if (stopped2
+                                        && (throwable instanceof StoppedException)
+                                        && (!context.stopped())) {
+                                    continuation2.completed(null);
+                                }
+                                else {
+                                    continuation2.failed(throwable);
+                                }
+                            }
+                        };
+                        try {
+                            context2.checkStopped();
+                            strategy.cluster(context2, points, continuation3);
+                        }
+                        catch (Throwable throwable) {
+                            continuation3.failed(throwable);
+                        }
+                    });
+                }
+                Continuation<List<Clusters>> join=Continuations.map(
+                        (clustersList, continuation2)->{
+                            Clusters best=null;
+                            int stopped2=0;
+                            for (Clusters clusters: clustersList) {
+                                if (null==clusters) {
+                                    ++stopped2;
+                                }
+                                else if ((null==best)
+                                        || (best.error>clusters.error)) {
+                                    best=clusters;
+                                }
+                            }
+                            if (null==best) {
+                                continuation2.failed(new IllegalStateException("all strategies stopped"));
+                                return;
+                            }
+                            Map<String, Object> stats=new HashMap<>(best.stats);
+                            stats.put("race-stopped", stopped2);
+                            continuation2.completed(new Clusters(best.centers, best.error, stats));
+                        },
+                        continuation);
+                Continuations.forkJoin(forks, join, context.executor());
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "race");
+                log.put("error-margin", errorMargin);
+                log.put("min-iterations", minIterations);
+                for (int ii=0; strategies.size()>ii; ++ii) {
+                    Log.logField(String.format("strategy%1$02d", ii), strategies.get(ii), log);
+                }
+            }
+        };
+    }
+
     /**
      * Cluster the specified points.
      */
@@ -81,115 +238,76 @@ public interface ClusteringStrategy<P extends Points> extends Log {
     static <P extends Points> ClusteringStrategy<P> elbow(
             double errorLimit, int maxClusters, int minClusters,
             Function<Integer, ClusteringStrategy<P>> strategy, int threads) {
+        return elbow(
+                errorLimit, maxClusters, minClusters, 0.0, (clusters, initialCenters)->strategy.apply(clusters),
+                threads, false);
+    }
+
+    /**
+     * The elbow method where the clustering of every number of clusters is started
+     * from the result of the largest smaller number of clusters already completed,
+     * extended by the data points {@link ReplaceEmptyCluster#farthest(boolean) farthest} from their nearest centers.
+     * Clusterings for which no smaller result is available yet are run speculatively with their own initial centers.
+     *
+     * @param threads the maximum number of threads used to run strategies
+     * @see #elbow(double, int, int, Function, int)
+     */
+    static <P extends Points> ClusteringStrategy<P> elbowWarmStart(
+            double errorLimit, int maxClusters, int minClusters, WarmStart<P> strategy, int threads) {
+        return elbow(errorLimit, maxClusters, minClusters, 0.0, strategy, threads, true);
+    }
+
+    /**
+     * The elbow method which samples the number of clusters in geometric steps from minClusters to maxClusters,
+     * and searches linearly only around the first step where the error stops to decrease
+     * by at least a factor of errorLimit per cluster.
+     * The number of clusterings computed is added to the stats of the result as elbow-clusterings,
+     * the other elbow methods don't add it.
+     *
+     * @param step the ratio of consecutive numbers of clusters sampled, greater than 1
+     * @param threads the maximum number of threads used to run strategies
+     * @param warmStart start clusterings from smaller results
+     * like {@link #elbowWarmStart(double, int, int, WarmStart, int)}
+     * @see #elbow(double, int, int, Function, int)
+     */
+    static <P extends Points> ClusteringStrategy<P> elbowAdaptive(
+            double errorLimit, int maxClusters, int minClusters, double step, WarmStart<P> strategy, int threads,
+            boolean warmStart) {
+        if (1.0>=step) {
+            throw new IllegalArgumentException("1.0 >= step "+step);
+        }
+        return elbow(errorLimit, maxClusters, minClusters, step, strategy, threads, warmStart);
+    }
+
+    /**
+     * The elbow method searching linearly if step is not greater than 1.
+     */
+    private static <P extends Points> ClusteringStrategy<P> elbow(
+            double errorLimit, int maxClusters, int minClusters, double step, WarmStart<P> strategy, int threads,
+            boolean warmStart) {
         return new ClusteringStrategy<>() {
             @Override
             public void cluster(Context context, P points, Continuation<Clusters> continuation) throws Throwable {
-                class ClustersOrEmpty {
-                    public final Clusters clusters;
-                    public final EmptyClusterException empty;
-
-                    public ClustersOrEmpty(Clusters clusters) {
-                        this.clusters=Objects.requireNonNull(clusters, "clusters");
-                        empty=null;
-                    }
-
-                    public ClustersOrEmpty(EmptyClusterException empty) {
-                        this.empty=Objects.requireNonNull(empty, "empty");
-                        clusters=null;
-                    }
+                Elbow<P> elbow=new Elbow<>(context, errorLimit, points, strategy, threads, warmStart);
+                if (1.0<step) {
+                    elbow.adaptive(minClusters, maxClusters, step, continuation);
+                }
+                else {
+                    elbow.linear(minClusters, maxClusters, continuation);
                 }
-                ParallelSearch.search(
-                        (clusters, continuation2)->{
-                            Continuation<Clusters> continuation3=new Continuation<>() {
-                                @Override
-                                public void completed(Clusters result) throws Throwable {
-                                    continuation2.completed(new ClustersOrEmpty(result));
-                                }
-
-                                @Override
-                                public void failed(Throwable throwable) throws Throwable {
-                                    if (throwable instanceof EmptyClusterException) {
-                                        continuation2.completed(new ClustersOrEmpty((EmptyClusterException)throwable));
-                                    }
-                                    else {
-                                        continuation2.failed(throwable);
-                                    }
-                                }
-                            };
-                            try {
-                                strategy.apply(clusters).cluster(context, points, continuation3);
-                            }
-                            catch (Throwable throwable) {
-                                continuation3.failed(throwable);
-                            }
-                        },
-                        minClusters,
-                        maxClusters+1,
-                        new ParallelSearch<ClustersOrEmpty, Clusters>() {
-                            private final NavigableMap<Integer, ClustersOrEmpty> clusters=new TreeMap<>();
-                            private int index;
-                            private Clusters selected;
-
-                            @Override
-                            public void search(
-                                    Map<Integer, ClustersOrEmpty> newElements, Block continueSearch,
-                                    Continuation<Clusters> continuation) throws Throwable {
-                                context.checkStopped();
-                                clusters.putAll(newElements);
-                                while (true) {
-                                    if (null==selected) {
-                                        ClustersOrEmpty next=clusters.remove(minClusters);
-                                        if (null==next) {
-                                            continueSearch.run();
-                                            return;
-                                        }
-                                        else if (null==next.clusters) {
-                                            continuation.failed(new EmptyClusterException(next.empty));
-                                            return;
-                                        }
-                                        else {
-                                            selected=next.clusters;
-                                            index=minClusters;
-                                        }
-                                    }
-                                    else if (maxClusters<=index) {
-                                        continuation.completed(selected);
-                                        return;
-                                    }
-                                    else {
-                                        ClustersOrEmpty next=clusters.remove(index+1);
-                                        if (null==next) {
-                                            continueSearch.run();
-                                            return;
-                                        }
-                                        else if (null==next.clusters) {
-                                            continuation.completed(selected);
-                                            return;
-                                        }
-                                        else if (selected.error*errorLimit>next.clusters.error) {
-                                            selected=next.clusters;
-                                            ++index;
-                                        }
-                                        else {
-                                            continuation.completed(selected);
-                                            return;
-                                        }
-                                    }
-                                }
-                            }
-                        },
-                        context.executor(),
-                        threads,
-                        continuation);
             }
 
             @Override
             public void log(Map<String, Object> log) throws Throwable {
-                log.put("type", "elbow");
+                log.put("type", (1.0<step)?"elbow-adaptive":(warmStart?"elbow-warm-start":"elbow"));
                 log.put("error-limit", errorLimit);
                 log.put("max-clusters", maxClusters);
                 log.put("min-clusters", minClusters);
-                Log.logField("strategy", strategy.apply(minClusters), log);
+                if (1.0<step) {
+                    log.put("step", step);
+                    log.put("warm-start", warmStart);
+                }
+                Log.logField("strategy", strategy.strategy(minClusters, null), log);
             }
         };
     }
@@ -0,0 +1,264 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Context;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import dog.giraffe.threads.DelegatorContext;
+import dog.giraffe.threads.ParallelSearch;
+import dog.giraffe.util.Block;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The search of the elbow method over the number of clusters.
+ * The result of every number of clusters is computed at most once,
+ * searches reaching a number of clusters already being clustered wait for the same result.
+ *
+ * @see ClusteringStrategy#elbow(double, int, int, dog.giraffe.util.Function, int)
+ */
+class Elbow<P extends Points> {
+    private static class ClustersOrEmpty {
+        public final Clusters clusters;
+        public final EmptyClusterException empty;
+
+        public ClustersOrEmpty(Clusters clusters) {
+            this.clusters=Objects.requireNonNull(clusters, "clusters");
+            empty=null;
+        }
+
+        public ClustersOrEmpty(EmptyClusterException empty) {
+            this.empty=Objects.requireNonNull(empty, "empty");
+            clusters=null;
+        }
+    }
+
+    private boolean adaptive;
+    private int clusterings;
+    private final Context context;
+    private final double errorLimit;
+    private final Map<Integer, List<Continuation<ClustersOrEmpty>>> pending=new HashMap<>();
+    private final P points;
+    private final NavigableMap<Integer, ClustersOrEmpty> results=new TreeMap<>();
+    private final ClusteringStrategy.WarmStart<P> strategy;
+    private final int threads;
+    private final boolean warmStart;
+
+    Elbow(
+            Context context, double errorLimit, P points, ClusteringStrategy.WarmStart<P> strategy, int threads,
+            boolean warmStart) {
+        this.context=new DelegatorContext(context) {
+            @Override
+            public void clusteringError(double error) {
+                // errors of different numbers of clusters are not comparable
+            }
+        };
+        this.errorLimit=errorLimit;
+        this.points=points;
+        this.strategy=strategy;
+        this.threads=threads;
+        this.warmStart=warmStart;
+    }
+
+    /**
+     * Samples the number of clusters in geometric steps first,
+     * and searches linearly only around the first step where the error stops to decrease significantly.
+     *
+     * @param step the ratio of the consecutive numbers of clusters sampled, greater than 1
+     */
+    void adaptive(int minClusters, int maxClusters, double step, Continuation<Clusters> continuation)
+            throws Throwable {
+        adaptive=true;
+        List<Integer> samples=new ArrayList<>();
+        for (int clusters=minClusters; maxClusters>clusters;
+                clusters=Math.max(clusters+1, (int)Math.ceil(step*clusters))) {
+            samples.add(clusters);
+        }
+        samples.add(maxClusters);
+        search(
+                samples,
+                Continuations.map(
+                        (index, continuation2)->linear(
+                                samples.get(Math.max(0, index-1)),
+                                samples.get(Math.min(samples.size()-1, index+1)),
+                                continuation2),
+                        continuation));
+    }
+
+    private void cluster(int clusters, Continuation<ClustersOrEmpty> continuation) throws Throwable {
+        InitialCenters<P> initialCenters=null;
+        ClustersOrEmpty result;
+        synchronized (results) {
+            result=results.get(clusters);
+            if (null==result) {
+                List<Continuation<ClustersOrEmpty>> waiting=pending.get(clusters);
+                if (null!=waiting) {
+                    waiting.add(continuation);
+                    return;
+                }
+                pending.put(clusters, new ArrayList<>());
+                ++clusterings;
+                if (warmStart) {
+                    for (ClustersOrEmpty smaller: results.headMap(clusters, false).descendingMap().values()) {
+                        if (null!=smaller.clusters) {
+                            List<Vector> centers=new ArrayList<>(clusters);
+                            smaller.clusters.centers.forEach(centers::addAll);
+                            initialCenters=InitialCenters.extend(centers, ReplaceEmptyCluster.farthest(true));
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (null!=result) {
+            continuation.completed(result);
+            return;
+        }
+        Continuation<Clusters> continuation2=new Continuation<>() {
+            @Override
+            public void completed(Clusters result) throws Throwable {
+                completed(new ClustersOrEmpty(result));
+            }
+
+            private void completed(ClustersOrEmpty result) throws Throwable {
+                List<Continuation<ClustersOrEmpty>> waiting;
+                synchronized (results) {
+                    results.put(clusters, result);
+                    waiting=pending.remove(clusters);
+                }
+                continuation.completed(result);
+                for (Continuation<ClustersOrEmpty> continuation2: waiting) {
+                    continuation2.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) throws Throwable {
+                if (throwable instanceof EmptyClusterException) {
+                    completed(new ClustersOrEmpty((EmptyClusterException)throwable));
+                    return;
+                }
+                List<Continuation<ClustersOrEmpty>> waiting;
+                synchronized (results) {
+                    waiting=pending.remove(clusters);
+                }
+                continuation.failed(throwable);
+                for (Continuation<ClustersOrEmpty> continuation2: waiting) {
+                    continuation2.failed(throwable);
+                }
+            }
+        };
+        try {
+            strategy.strategy(clusters, initialCenters).cluster(context, points, continuation2);
+        }
+        catch (Throwable throwable) {
+            continuation2.failed(throwable);
+        }
+    }
+
+    /**
+     * Searches linearly the interval [minClusters, maxClusters].
+     */
+    void linear(int minClusters, int maxClusters, Continuation<Clusters> continuation) throws Throwable {
+        List<Integer> clusters=new ArrayList<>(maxClusters-minClusters+1);
+        for (int cc=minClusters; maxClusters>=cc; ++cc) {
+            clusters.add(cc);
+        }
+        search(
+                clusters,
+                Continuations.map(
+                        (index, continuation2)->result(clusters.get(index), continuation2),
+                        continuation));
+    }
+
+    /**
+     * Completes continuation with the result of clusters clusters.
+     * The result of the adaptive search is extended by the number of clusterings computed.
+     */
+    private void result(int clusters, Continuation<Clusters> continuation) throws Throwable {
+        Clusters result;
+        synchronized (results) {
+            result=results.get(clusters).clusters;
+            if (adaptive) {
+                Map<String, Object> stats=new HashMap<>(result.stats);
+                stats.put("elbow-clusterings", clusterings);
+                result=new Clusters(result.centers, result.error, stats);
+            }
+        }
+        continuation.completed(result);
+    }
+
+    /**
+     * Walks the list of the increasing numbers of clusters while the error keeps decreasing
+     * by at least a factor of errorLimit per cluster, and returns the index of the last number of clusters reached.
+     */
+    private void search(List<Integer> clusters, Continuation<Integer> continuation) throws Throwable {
+        ParallelSearch.search(
+                (index, continuation2)->cluster(clusters.get(index), continuation2),
+                0,
+                clusters.size(),
+                new ParallelSearch<ClustersOrEmpty, Integer>() {
+                    private final NavigableMap<Integer, ClustersOrEmpty> elements=new TreeMap<>();
+                    private int index;
+                    private Clusters selected;
+
+                    @Override
+                    public void search(
+                            Map<Integer, ClustersOrEmpty> newElements, Block continueSearch,
+                            Continuation<Integer> continuation) throws Throwable {
+                        context.checkStopped();
+                        elements.putAll(newElements);
+                        while (true) {
+                            if (null==selected) {
+                                ClustersOrEmpty next=elements.remove(0);
+                                if (null==next) {
+                                    continueSearch.run();
+                                    return;
+                                }
+                                else if (null==next.clusters) {
+                                    continuation.failed(new EmptyClusterException(next.empty));
+                                    return;
+                                }
+                                else {
+                                    selected=next.clusters;
+                                    index=0;
+                                }
+                            }
+                            else if (clusters.size()-1<=index) {
+                                continuation.completed(index);
+                                return;
+                            }
+                            else {
+                                ClustersOrEmpty next=elements.remove(index+1);
+                                if (null==next) {
+                                    continueSearch.run();
+                                    return;
+                                }
+                                else if (null==next.clusters) {
+                                    continuation.completed(index);
+                                    return;
+                                }
+                                else if (selected.error*Math.pow(errorLimit, clusters.get(index+1)-clusters.get(index))
+                                        >next.clusters.error) {
+                                    selected=next.clusters;
+                                    ++index;
+                                }
+                                else {
+                                    continuation.completed(index);
+                                    return;
+                                }
+                            }
+                        }
+                    }
+                },
+                context.executor(),
+                threads,
+                continuation);
+    }
+}
@@ -0,0 +1,362 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Context;
+import dog.giraffe.Log;
+import dog.giraffe.points.Distance;
+import dog.giraffe.points.EmptySetException;
+import dog.giraffe.points.Mean;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Sum;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.AsyncFunction;
+import dog.giraffe.threads.AsyncSupplier;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lloyd's algorithm accelerated by Hamerly's bounds.
+ * Every point keeps an upper bound on the distance to its assigned center
+ * and a lower bound on the distance to all the other centers.
+ * The bounds are loosened by the movement of the centers after every iteration,
+ * and the nearest center is only searched for points where the bounds cannot rule out a change of assignment.
+ */
+public class Hamerly<P extends Points> {
+    /**
+     * The per-point state of a part of the input data.
+     * The points of the part are indexed in the order of {@link Points#forEach(Points.ForEach)}.
+     */
+    private static class Part {
+        public final int[] assignments;
+        public final Sum error;
+        public final double[] lower;
+        public final List<Mean> means;
+        public final Points points;
+        public long scans;
+        public final double[] upper;
+
+        public Part(Sum error, List<Mean> means, Points points) {
+            this.error=error;
+            this.means=means;
+            this.points=points;
+            assignments=new int[points.size()];
+            lower=new double[points.size()];
+            upper=new double[points.size()];
+            reset();
+        }
+
+        /**
+         * Invalidates all the bounds. Every point will be assigned by a full search.
+         */
+        public void reset() {
+            Arrays.fill(assignments, -1);
+        }
+    }
+
+    private final int clusters;
+    private final Context context;
+    private double[] deltas;
+    private final double errorLimit;
+    private final int maxIterations;
+    private final List<Part> parts;
+    private final P points;
+    private final ReplaceEmptyCluster<P> replaceEmptyCluster;
+
+    private Hamerly(
+            int clusters, Context context, double errorLimit, int maxIterations, List<Part> parts, P points,
+            ReplaceEmptyCluster<P> replaceEmptyCluster) {
+        this.clusters=clusters;
+        this.context=context;
+        this.errorLimit=errorLimit;
+        this.maxIterations=maxIterations;
+        this.parts=parts;
+        this.points=points;
+        this.replaceEmptyCluster=replaceEmptyCluster;
+    }
+
+    /**
+     * Assigns data points to centers.
+     *
+     * @param halfDistances half of the distance of every center to its nearest other center
+     */
+    private AsyncSupplier<Void> classify(List<Vector> centers, double[] deltas, double[] halfDistances, Part part) {
+        return (continuation)->{
+            double maxDelta=0.0;
+            double secondMaxDelta=0.0;
+            int maxDeltaIndex=-1;
+            if (null!=deltas) {
+                for (int cc=0; deltas.length>cc; ++cc) {
+                    double delta=deltas[cc];
+                    if (maxDelta<delta) {
+                        secondMaxDelta=maxDelta;
+                        maxDelta=delta;
+                        maxDeltaIndex=cc;
+                    }
+                    else if (secondMaxDelta<delta) {
+                        secondMaxDelta=delta;
+                    }
+                }
+            }
+            double maxDelta2=maxDelta;
+            double secondMaxDelta2=secondMaxDelta;
+            int maxDeltaIndex2=maxDeltaIndex;
+            int[] index2={0};
+            part.points.forEach((points, index)->{
+                int ii=index2[0];
+                ++index2[0];
+                int assignment=part.assignments[ii];
+                double error=-1.0;
+                if (0<=assignment) {
+                    if (null!=deltas) {
+                        part.upper[ii]+=deltas[assignment];
+                        part.lower[ii]-=(assignment==maxDeltaIndex2)?secondMaxDelta2:maxDelta2;
+                    }
+                    double bound=Math.max(halfDistances[assignment], part.lower[ii]);
+                    if (part.upper[ii]>bound) {
+                        error=points.distance(centers.get(assignment), index);
+                        part.upper[ii]=Math.sqrt(error);
+                        if (part.upper[ii]>bound) {
+                            assignment=-1;
+                        }
+                    }
+                }
+                if (0>assignment) {
+                    ++part.scans;
+                    double nearest=Double.POSITIVE_INFINITY;
+                    double second=Double.POSITIVE_INFINITY;
+                    for (int cc=0; centers.size()>cc; ++cc) {
+                        double distance=points.distance(centers.get(cc), index);
+                        if (nearest>distance) {
+                            second=nearest;
+                            nearest=distance;
+                            assignment=cc;
+                        }
+                        else if (second>distance) {
+                            second=distance;
+                        }
+                    }
+                    part.assignments[ii]=assignment;
+                    error=nearest;
+                    part.upper[ii]=Math.sqrt(nearest);
+                    part.lower[ii]=Math.sqrt(second);
+                }
+                else if (0.0>error) {
+                    error=points.distance(centers.get(assignment), index);
+                }
+                points.addTo(index, part.means.get(assignment));
+                part.error.add(points.weight(index)*error);
+            });
+            continuation.completed(null);
+        };
+    }
+
+    /**
+     * Forks classification.
+     */
+    private void fork(
+            List<Vector> centers, Continuation<Clusters> continuation, double error, int iteration) throws Throwable {
+        context.checkStopped();
+        if (maxIterations<=iteration) {
+            continuation.completed(clusters(centers, error, iteration));
+            return;
+        }
+        for (Part part: parts) {
+            part.error.clear();
+            for (Mean mean: part.means) {
+                mean.clear();
+            }
+        }
+        double[] halfDistances=new double[centers.size()];
+        Arrays.fill(halfDistances, Double.POSITIVE_INFINITY);
+        for (int c0=0; centers.size()>c0; ++c0) {
+            for (int c1=c0+1; centers.size()>c1; ++c1) {
+                double distance=0.5*Math.sqrt(Distance.distance(centers.get(c0), centers.get(c1)));
+                halfDistances[c0]=Math.min(halfDistances[c0], distance);
+                halfDistances[c1]=Math.min(halfDistances[c1], distance);
+            }
+        }
+        List<AsyncSupplier<Void>> forks=new ArrayList<>(parts.size());
+        for (Part part: parts) {
+            forks.add(classify(centers, deltas, halfDistances, part));
+        }
+        Continuations.forkJoin(
+                forks,
+                Continuations.map(
+                        join(centers, error, iteration),
+                        continuation),
+                context.executor());
+    }
+
+    private Clusters clusters(List<Vector> centers, double error, int iteration) {
+        long scans=0L;
+        long size=0L;
+        for (Part part: parts) {
+            scans+=part.scans;
+            size+=part.points.size();
+        }
+        Map<String, Object> stats=new HashMap<>();
+        stats.put("full-scans", scans);
+        stats.put("iterations", iteration);
+        stats.put("skipped-scans", iteration*size-scans);
+        return Clusters.createWithStats(centers, error, stats);
+    }
+
+    /**
+     * Calculates new cluster centers.
+     * The error is the sum of the squared distances of the points to their assigned centers.
+     */
+    private AsyncFunction<List<Void>, Clusters> join(List<Vector> centers, double error, int iteration) {
+        return (input, continuation)->{
+            Sum error2=parts.get(0).error;
+            List<Mean> means2=parts.get(0).means;
+            for (int ii=1; parts.size()>ii; ++ii) {
+                Part part=parts.get(ii);
+                part.error.addTo(error2);
+                for (int jj=0; clusters>jj; ++jj) {
+                    part.means.get(jj).addTo(means2.get(jj));
+                }
+            }
+            List<Vector> newCenters=new ArrayList<>(clusters);
+            Set<Vector> newCentersSet=new HashSet<>(clusters);
+            for (int jj=0; clusters>jj; ++jj) {
+                Vector center;
+                try {
+                    center=means2.get(jj).mean();
+                }
+                catch (EmptySetException ignore) {
+                    continue;
+                }
+                newCenters.add(center);
+                newCentersSet.add(center);
+            }
+            double error3=error2.sum();
+            if (clusters==newCentersSet.size()) {
+                deltas=new double[clusters];
+                for (int jj=0; clusters>jj; ++jj) {
+                    deltas[jj]=Math.sqrt(Distance.distance(centers.get(jj), newCenters.get(jj)));
+                }
+                next(newCenters, continuation, error, error3, iteration);
+                return;
+            }
+            InitialCenters.newCenters(
+                    newCentersSet,
+                    clusters,
+                    context,
+                    Continuations.map(
+                            (newCenters2, continuation2)->{
+                                deltas=null;
+                                for (Part part: parts) {
+                                    part.reset();
+                                }
+                                next(newCenters2, continuation2, error, error3, iteration);
+                            },
+                            continuation),
+                    maxIterations,
+                    points,
+                    Collections.unmodifiableList(partPoints()),
+                    replaceEmptyCluster,
+                    replaceEmptyCluster);
+        };
+    }
+
+    /**
+     * The k-means algorithm accelerated by Hamerly's bounds.
+     * It visits the same sequence of clusters as {@link KMeans#kMeans(int, double, InitialCenters, int,
+     * ReplaceEmptyCluster) kMeans} but computes far fewer distances once the centers settle.
+     * The algorithm uses early stopping when the new clusters error/current cluster error &gt;= errorLimit.
+     *
+     * @param clusters the number of clusters to use
+     * @param maxIterations the maximum number of iterations the algorithm recalculates centers
+     */
+    public static <P extends Points> ClusteringStrategy<P> hamerly(
+            int clusters, double errorLimit, InitialCenters<P> initialCenters, int maxIterations,
+            ReplaceEmptyCluster<P> replaceEmptyCluster) {
+        return new ClusteringStrategy<>() {
+            @Override
+            public void cluster(Context context, P points, Continuation<Clusters> continuation) throws Throwable {
+                if (0>=clusters) {
+                    continuation.failed(new IllegalStateException(Integer.toString(clusters)));
+                    return;
+                }
+                if (points.size()<clusters) {
+                    continuation.failed(new CannotSelectInitialCentersException(String.format(
+                            "too few data points; clusters: %1$d, data points: %2$d", clusters, points.size())));
+                    return;
+                }
+                List<Points> points2=points.split(context.executor().threads());
+                List<Part> parts=new ArrayList<>(points2.size());
+                for (Points points3: points2) {
+                    int expected=(parts.isEmpty()?points:points3).size();
+                    List<Mean> means=new ArrayList<>(clusters);
+                    for (int ii=clusters; 0<ii; --ii) {
+                        means.add(points.mean().create(expected, context.sum()));
+                    }
+                    parts.add(new Part(
+                            context.sum().create(expected),
+                            Collections.unmodifiableList(means),
+                            points3));
+                }
+                initialCenters.initialCenters(
+                        clusters,
+                        context,
+                        maxIterations,
+                        points,
+                        points2,
+                        Continuations.map(
+                                (centers, continuation2)->{
+                                    if (centers.size()!=clusters) {
+                                        continuation2.failed(new CannotSelectInitialCentersException());
+                                        return;
+                                    }
+                                    Hamerly<P> hamerly=new Hamerly<>(
+                                            clusters,
+                                            context,
+                                            errorLimit,
+                                            maxIterations,
+                                            Collections.unmodifiableList(parts),
+                                            points,
+                                            replaceEmptyCluster);
+                                    hamerly.fork(centers, continuation2, Double.POSITIVE_INFINITY, 0);
+                                },
+                                continuation));
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "k-means-hamerly");
+                log.put("clusters", clusters);
+                log.put("error-limit", errorLimit);
+                Log.logField("initial-centers", initialCenters, log);
+                log.put("max-iterations", maxIterations);
+                Log.logField("replace-empty-cluster", replaceEmptyCluster, log);
+            }
+        };
+    }
+
+    private void next(
+            List<Vector> newCenters, Continuation<Clusters> continuation, double error, double error2,
+            int iteration) throws Throwable {
+        context.clusteringError(error2);
+        if (error*errorLimit<=error2) {
+            continuation.completed(clusters(newCenters, error2, iteration+1));
+        }
+        else {
+            fork(newCenters, continuation, error2, iteration+1);
+        }
+    }
+
+    private List<Points> partPoints() {
+        List<Points> result=new ArrayList<>(parts.size());
+        for (Part part: parts) {
+            result.add(part.points);
+        }
+        return result;
+    }
+}
@@ -30,6 +30,47 @@ public interface InitialCenters<P extends Points> extends Log {
             int clusters, Context context, int maxIterations, P points, List<Points> points2,
             Continuation<List<Vector>> continuation) throws Throwable;
 
+    /**
+     * Starts from the specified centers and selects the missing ones by replaceEmptyCluster.
+     * Extra centers are dropped when more centers are specified than the number of clusters.
+     *
+     * @param centers the centers to start from, usually the result of a clustering with fewer clusters
+     */
+    static <P extends Points> InitialCenters<P> extend(
+            List<Vector> centers, ReplaceEmptyCluster<P> replaceEmptyCluster) {
+        return new InitialCenters<>() {
+            @Override
+            public void initialCenters(
+                    int clusters, Context context, int maxIterations, P points, List<Points> points2,
+                    Continuation<List<Vector>> continuation) throws Throwable {
+                Set<Vector> centers2=new HashSet<>(clusters);
+                for (Vector center: centers) {
+                    if (clusters<=centers2.size()) {
+                        break;
+                    }
+                    centers2.add(center);
+                }
+                newCenters(
+                        centers2,
+                        clusters,
+                        context,
+                        continuation,
+                        maxIterations,
+                        points,
+                        points2,
+                        replaceEmptyCluster,
+                        replaceEmptyCluster);
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "extend");
+                log.put("centers", centers.size());
+                Log.logField("replace-empty-cluster", replaceEmptyCluster, log);
+            }
+        };
+    }
+
     /**
      * Select the mean of the points for the first center.
      * The rest of the centers are selected by {@link ReplaceEmptyCluster#farthest(boolean)}.
@@ -150,7 +191,7 @@ public interface InitialCenters<P extends Points> extends Log {
                         continuation.failed(new CannotSelectInitialCentersException());
                         return;
                     }
-                    centers.add(points.get(context.random().nextInt(points.size())));
+                    centers.add(points.get(points.randomIndex(context.random())));
                 }
                 continuation.completed(List.copyOf(centers));
             }
@@ -1,626 +1,392 @@
 package dog.giraffe.cluster;
 
 import dog.giraffe.Context;
-import dog.giraffe.points.MeanDouble;
-import dog.giraffe.points.Sum;
+import dog.giraffe.points.Deviation;
 import dog.giraffe.points.Distance;
 import dog.giraffe.points.Mean;
 import dog.giraffe.points.Points;
-import dog.giraffe.points.Deviation;
 import dog.giraffe.points.Vector;
+import dog.giraffe.threads.AsyncFunction;
 import dog.giraffe.threads.AsyncSupplier;
 import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
-import java.util.AbstractMap.SimpleEntry;
+import dog.giraffe.util.Function;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
+/**
+ * The ISODATA clustering algorithm.
+ * The data points are never copied, every iteration is a single parallel classification
+ * of the {@link Points} accumulating the count, the mean, and the deviation of every cluster.
+ */
 public class Isodata<P extends Points> {
-    public static class Clusterss {
-      public final List<Cluster> clusters;
-      public final List<Vector> points;
-      public Double avg_dist;
-
-      public Clusterss(List<Cluster> clusters, List<Vector> points) {
-         this.clusters = clusters;
-         this.points = points;
-      }
+    /**
+     * A cluster center with its index in the current list of clusters.
+     */
+    private static class Center {
+        public final int index;
+        public final Vector point;
 
-      public List<Vector> getCenters() {
-         List<Vector> centers = new ArrayList<>();
-         for (Cluster cluster : clusters) {
-             centers.add(cluster.center);
-         }
-         return centers;
-      }
+        public Center(int index, Vector point) {
+            this.index=index;
+            this.point=point;
+        }
 
-      public Cluster get(Vector center) throws Throwable {
-         for (Cluster cluster : clusters) {
-             if (cluster.center.equals(center)) {
-                return cluster;
-             }
-         }
-         throw new Exception();
-      }
+        public Vector point() {
+            return point;
+        }
     }
 
-    public static class Cluster {
-      public List<Vector> points;
-      public Vector center;
-
-      public Double avg_dist;
-      public Vector std_dev;
-
-      public Cluster(List<Vector> points, Vector center) {
-        this.points = points;
-        this.center = center;
-      }
+    /**
+     * A cluster and the statistics of the data points assigned to it in the last distribution.
+     */
+    private static class Cluster {
+        public double avgDistance;
+        public final Vector center;
+        public long count;
+        public Vector deviation;
+
+        public Cluster(Vector center) {
+            this.center=center;
+        }
+    }
 
-      public Vector point() {
-         return center;
-      }
+    /**
+     * The per-cluster accumulators of a part of the data points.
+     */
+    private static class Part {
+        public final long[] counts;
+        public final List<Deviation> deviations;
+        public final List<Mean> means;
+
+        public Part(long[] counts, List<Deviation> deviations, List<Mean> means) {
+            this.counts=counts;
+            this.deviations=deviations;
+            this.means=means;
+        }
     }
 
-    private final Function<Cluster, Vector> centerPoint=Cluster::point;
-    private int N_c;
-    private final int K;
-    private final int L;
-    private final int theta_N;
-    private double lumping;
-    private final double std_deviation;
+    private final Function<Center, Vector> centerPoint=Center::point;
+    private double avgDistance;
+    private List<Cluster> clusters;
     private final Context context;
+    private final int desiredClusters;
+    private double error;
     private final double errorLimit;
+    private final int L;
+    private double lumping;
     private final int maxIterations;
-    private final List<List<Mean>> means;
     private final P points;
     private final List<Points> points2;
-    private final ReplaceEmptyCluster<P> replaceEmptyCluster;
-    private final List<Sum> sums;
-    private final Sum sum;
-
-    private final Map<String, Double> stats;
-
-    private void increment(String name) {
-        double new_value = stats.containsKey(name) ? stats.get(name) + 1 : 1;
-
-        stats.put(name, new_value);
-    }
-
-    private void stats_set(String name, Double value) {
-        stats.put(name, value);
-    }
-
-    private Double stats_get(String name) {
-        return stats.get(name);
-    }
-
-    private void reset(String name) {
-        stats.put(name, 0.0);
-    }
-
-    public static class Comp {
-       private int maxInd(Vector self) {
-          double max = self.coordinate(0);
-          int maxid = 0;
-          for (int i=1;i<self.dimensions();++i) {
-            if (max < self.coordinate(i)) {
-              max = self.coordinate(i);
-              maxid = i;
-            }
-          }
-          return maxid;
-       }
-         
-       public Double max(Vector self) {
-          return self.coordinate(maxInd(self));
-       }
-
-       public Vector maxVec(Vector self) {
-          Vector v = new Vector(self.dimensions());
-
-          int maxid = maxInd(self);
-          v.coordinate(maxid, self.coordinate(maxid));
-
-          return v;
-       }
-    }
-
-    private final Comp max = new Comp();
+    private final Map<String, Double> stats=new HashMap<>();
+    private final double stdDeviation;
+    private final int thetaN;
 
     private Isodata(
-            int N_c,
-            int K,
-            double theta_N,
-            double lumping,
-            int L,
-            double std_deviation,
-            Context context,
-            double errorLimit,
-            int maxIterations,
-            List<List<Mean>> means,
-            P points,
-            List<Points> points2,
-            ReplaceEmptyCluster<P> replaceEmptyCluster,
-            List<Sum> sums,
-            Sum sum){
-        this.N_c=N_c;
-        this.K=K;
-        this.L=L;
-        this.theta_N=(int)(theta_N * points.size());
-        this.lumping=lumping;
-        this.std_deviation=std_deviation;
+            List<Cluster> clusters, Context context, int desiredClusters, double errorLimit, int L, double lumping,
+            int maxIterations, P points, List<Points> points2, double stdDeviation, int thetaN) {
+        this.clusters=clusters;
         this.context=context;
+        this.desiredClusters=desiredClusters;
         this.errorLimit=errorLimit;
+        this.L=L;
+        this.lumping=lumping;
         this.maxIterations=maxIterations;
-        this.means=means;
         this.points=points;
         this.points2=points2;
-        this.replaceEmptyCluster=replaceEmptyCluster;
-        this.sums=sums;
-        this.sum=sum;
-        this.stats=new HashMap<>();
+        this.stdDeviation=stdDeviation;
+        this.thetaN=thetaN;
+        for (String name: new String[]{
+                "distribute", "discard_sample", "discarded_cluster", "lumping", "lumpped_cluster", "split_cluster",
+                "splitted_cluster", "update_centers"}) {
+            stats.put(name, 0.0);
+        }
+    }
+
+    private void increment(String name) {
+        stats.merge(name, 1.0, Double::sum);
     }
 
-    public static <P extends Points> void cluster(
-            int N_c,
-            int K,
-            double theta_N,
-            double lumping,
-            int L,
-            double std_deviation,
-            Context context,
-            Continuation<Clusters> continuation,
-            double errorLimit,
-            InitialCenters<P> initialCenters,
-            int maxIterations,
-            P points,
-            ReplaceEmptyCluster<P> replaceEmptyCluster) throws Throwable {
-        if (0>=N_c) {
-            continuation.failed(new IllegalStateException(Integer.toString(N_c)));
+    private static <P extends Points> void cluster(
+            int startClusters, int desiredClusters, double thetaN, double lumping, int L, double stdDeviation,
+            Context context, Continuation<Clusters> continuation, double errorLimit,
+            InitialCenters<P> initialCenters, int maxIterations, P points) throws Throwable {
+        if (0>=startClusters) {
+            continuation.failed(new IllegalStateException(Integer.toString(startClusters)));
             return;
         }
-        if (points.size()<N_c) {
+        if (points.size()<startClusters) {
             continuation.failed(new CannotSelectInitialCentersException(String.format(
-                    "too few data points; N_c: %1$d, data points: %2$d", N_c, points.size())));
+                    "too few data points; N_c: %1$d, data points: %2$d", startClusters, points.size())));
             return;
         }
-        List<Vector> pointss = new ArrayList<>(points.size());
         List<Points> points2=points.split(context.executor().threads());
-        List<List<Mean>> means=new ArrayList<>(points2.size());
-        List<Sum> sums=new ArrayList<>(points2.size());
-        for (Points points3: points2) {
-            List<Mean> means2=new ArrayList<>(N_c);
-            for (int ii=N_c; 0<ii; --ii) {
-                means2.add(points.mean().create((means.isEmpty()?points:points3).size(), context.sum()));
-            }
-            means.add(Collections.unmodifiableList(means2));
-        }
-
-        for (int i=0;i<2*K+1;++i) {
-            sums.add(context.sum().create(10));
-        }
-
-        List<Vector> pointlist = new ArrayList<>();
-        for (int i = 0;i<points.size(); ++i) {
-            pointlist.add(points.get(i));
-        }
         initialCenters.initialCenters(
-                N_c,
+                startClusters,
                 context,
                 maxIterations,
                 points,
                 points2,
                 Continuations.map(
                         (centers, continuation2)->{
-                            if (centers.size()!=N_c) {
+                            if (centers.size()!=startClusters) {
                                 continuation2.failed(new CannotSelectInitialCentersException());
                                 return;
                             }
-                            List<Cluster> clusters = new ArrayList<>(points.size());
-                            for (Vector center : centers) {
-                              clusters.add(new Cluster(new ArrayList<>(), center));
+                            List<Cluster> clusters=new ArrayList<>(centers.size());
+                            for (Vector center: centers) {
+                                clusters.add(new Cluster(center));
                             }
-                            Clusterss p = new Clusterss(clusters, pointlist);
-                            Isodata<P> isodata=new Isodata<>(
-                                    N_c, //number of cluster
-                                    K,   //desrired cluster
-                                    theta_N,
-                                    lumping,
-                                    L,
-                                    std_deviation,
+                            new Isodata<>(
+                                    clusters,
                                     context,
+                                    desiredClusters,
                                     errorLimit,
+                                    L,
+                                    lumping,
                                     maxIterations,
-                                    Collections.unmodifiableList(means),
                                     points,
                                     points2,
-                                    replaceEmptyCluster,
-                                    Collections.unmodifiableList(sums),
-                                    context.sum().create(points.size())
-                            );
-                            isodata.start(p, Continuations.map((res,cont)->{
-                                               List<Vector> cl = new ArrayList<>();
-                                               for (Vector c : res.keySet()) {
-                                                  cl.add(c);
-                                               }
-                                               cont.completed(Clusters.createWithStats(cl, isodata.stats_get("error"), new HashMap<>(isodata.stats)));
-                                             },continuation), 0, 0); },
+                                    stdDeviation,
+                                    (int)(thetaN*points.weight()))
+                                    .distribute(continuation2, 0.0, 0);
+                        },
                         continuation));
     }
 
-    public void resetStats() {
-                stats_set("distribute", 0.0);
-                stats_set("discard_sample", 0.0);
-                stats_set("discarded_cluster", 0.0);
-                stats_set("lumping", 0.0);
-                stats_set("lumpped_cluster", 0.0);
-                stats_set("split_cluster", 0.0);
-                stats_set("splitted_cluster", 0.0);
-                stats_set("update_centers", 0.0);
-    }
-
-    public void start(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
-                resetStats();
-                distribute(p, continuation, error, 0);
+    private AsyncSupplier<Part> classify(List<Center> centers, Points points) {
+        return (continuation)->{
+            long[] counts=new long[centers.size()];
+            List<Deviation> deviations=new ArrayList<>(centers.size());
+            List<Mean> means=new ArrayList<>(centers.size());
+            for (Center center: centers) {
+                deviations.add(points.variance().create(points.size(), center.point, context.sum()));
+                means.add(points.mean().create(points.size(), context.sum()));
+            }
+            points.classify(
+                    centerPoint,
+                    centers,
+                    new Points.Classification<>() {
+                        @Override
+                        public void nearestCenter(Center center, Points points) {
+                            counts[center.index]+=points.weight();
+                            points.addAllTo(deviations.get(center.index));
+                            points.addAllTo(means.get(center.index));
+                        }
+
+                        @Override
+                        public void nearestCenter(Center center, Points points, int index) {
+                            counts[center.index]+=points.weight(index);
+                            points.addTo(index, deviations.get(center.index));
+                            points.addTo(index, means.get(center.index));
+                        }
+                    });
+            continuation.completed(new Part(counts, deviations, means));
+        };
     }
 
     // Step 2, distribute points between cluster centers
-    public void distribute(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
+    private void distribute(Continuation<Clusters> continuation, double error, int iteration) throws Throwable {
         context.checkStopped();
-        double err = sum.sum();
-        double err_bot = error*errorLimit;
-        if ((maxIterations<=iteration) || (err > 0 && error > 0 && (err > err_bot))) {
-            Map<Vector,List<Vector>> a=new HashMap<>();
-            for (Vector center : p.getCenters()) {
-                a.put(center,new ArrayList<>());
+        if ((maxIterations<=iteration)
+                || ((0.0<this.error) && (0.0<error) && (this.error>error*errorLimit))) {
+            List<Vector> centers=new ArrayList<>(clusters.size());
+            for (Cluster cluster: clusters) {
+                centers.add(cluster.center);
             }
-            stats_set("error", err);
-            stats_set("iteration", (double)iteration);
-            stats_set("number_of_cluster", (double)a.size());
-            continuation.completed(a);
+            stats.put("error", this.error);
+            stats.put("iteration", (double)iteration);
+            stats.put("number_of_cluster", (double)centers.size());
+            continuation.completed(Clusters.createWithStats(centers, this.error, new HashMap<>(stats)));
             return;
         }
-
         increment("distribute");
-
-        List<Vector> points = Collections.unmodifiableList(p.points);
-        List<Vector> centers = p.getCenters();
-
-
-        int threads=Math.max(1, Math.min(points.size(), context.executor().threads()));
-        List<AsyncSupplier<Map.Entry<Sum, Map<Vector, List<Vector>>>>> forks=new ArrayList<>(threads);
-        for (int tt=0; threads>tt; ++tt) {
-            int start=tt*points.size()/threads;
-            int end=(tt+1)*points.size()/threads;
-            forks.add((continuation2)->{
-                Map<Vector, List<Vector>> voronoi=new HashMap<>(centers.size());
-                for (Vector center: centers) {
-                    voronoi.put(center, new ArrayList<>(end-start));
-                }
-                Sum errorSum=context.sum().create(end-start);
-                for (int ii=start; end>ii; ++ii) {
-                    Vector point=points.get(ii);
-                    Vector center=nearestCenter(centers, point);
-                    errorSum.add(Distance.distance(center, point));
-                    voronoi.get(center).add(point);
-                }
-                continuation2.completed(new SimpleEntry<>(errorSum, voronoi));
-            });
+        List<Center> centers=new ArrayList<>(clusters.size());
+        for (int cc=0; clusters.size()>cc; ++cc) {
+            centers.add(new Center(cc, clusters.get(cc).center));
+        }
+        List<AsyncSupplier<Part>> forks=new ArrayList<>(points2.size());
+        for (Points points3: points2) {
+            forks.add(classify(centers, points3));
         }
         Continuations.forkJoin(
                 forks,
                 Continuations.map(
-                        (results, continuation2)->{
-                            Sum errorSum=context.sum().create(points.size());
-                            for (Vector center: p.getCenters()) {
-                                List<Vector> cluster=new ArrayList<>(points.size());
-                                p.get(center).points.clear();
-                            }
-                            for (Map.Entry<Sum, Map<Vector, List<Vector>>> result: results) {
-                                for (Map.Entry<Vector, List<Vector>> entry: result.getValue().entrySet()) {
-                                    p.get(entry.getKey()).points.addAll(entry.getValue());
-                                }
-                            }
-                            discard_sample(p, continuation2, error, iteration);
-                        },
+                        distributeJoin(error, iteration),
                         continuation),
                 context.executor());
     }
 
+    private AsyncFunction<List<Part>, Clusters> distributeJoin(double error, int iteration) {
+        return (parts, continuation)->{
+            Part part=parts.get(0);
+            for (int ii=1; parts.size()>ii; ++ii) {
+                Part part2=parts.get(ii);
+                for (int cc=0; clusters.size()>cc; ++cc) {
+                    part.counts[cc]+=part2.counts[cc];
+                    part2.deviations.get(cc).addTo(part.deviations.get(cc));
+                    part2.means.get(cc).addTo(part.means.get(cc));
+                }
+            }
+            updateClusters(continuation, error, iteration, part);
+        };
+    }
+
     // Step 3, discard samples that has fewer then theta_N number of points
-    public void discard_sample(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration)
+    // Step 4, update each cluster centers
+    // Step 5, compute avg distance D_j
+    // Step 6, compute overall avg distance
+    // Step 8, find std deviation vector
+    private void updateClusters(Continuation<Clusters> continuation, double error, int iteration, Part part)
             throws Throwable {
-
-         context.checkStopped();
-         increment("discard_sample");
-
-         List<Cluster> clusters2=new ArrayList<>();
-         int discarded=0;
-         for (Vector v : p.getCenters()) {
-             Cluster cluster=p.get(v);
-             if (cluster.points.size() >= theta_N || (N_c-discarded) <= 2) {
-                clusters2.add(cluster);
-             } else {
+        context.checkStopped();
+        increment("discard_sample");
+        increment("update_centers");
+        List<Cluster> clusters2=new ArrayList<>(clusters.size());
+        int discarded=0;
+        double error2=0.0;
+        for (int cc=0; clusters.size()>cc; ++cc) {
+            long count=part.counts[cc];
+            if ((thetaN>count) && (2<clusters.size()-discarded)) {
                 ++discarded;
                 increment("discarded_cluster");
-             }
-         }
-         if (discarded > 0) {
-            N_c=clusters2.size();
-            p.clusters.clear();
-            p.clusters.addAll(clusters2);
-         }
-
-         update_centers(p, continuation, error, iteration);
-    }
-
-    private List<Map.Entry<Integer,Integer>> nthSmallest(List<Map.Entry<Integer,Integer>> filter, double dist[][], int n) {
-       filter.sort(new Comparator<Map.Entry<Integer,Integer>>() {
-                          @Override
-                          public int compare(Map.Entry<Integer,Integer> m1, Map.Entry<Integer,Integer> m2) {
-                                  if (dist[m1.getKey()][m1.getValue()] < dist[m2.getKey()][m2.getValue()]) return -1;
-                                  if (dist[m1.getKey()][m1.getValue()] > dist[m2.getKey()][m2.getValue()]) return +1;
-                                  return 0;
-                           }});
-      return filter.subList(0,Math.min(n,filter.size()));
-    }
-
-    private Cluster merge_cluster(Cluster z1, Cluster z2) {
-         int N_z1 = Math.max(1,z1.points.size());
-         int N_z2 = Math.max(1,z2.points.size());
-         Vector new_center = z1.center.mul(N_z1).add(z2.center.mul(N_z2)).div(N_z1+N_z2);
-         List<Vector> points = z1.points;      
-         points.addAll(z2.points);
-         Cluster z_3 = new Cluster(points, new_center);
-
-         return z_3;
+                continue;
+            }
+            Vector center=clusters.get(cc).center;
+            Vector deviation;
+            if (0L>=count) {
+                deviation=new Vector(center.dimensions());
+            }
+            else {
+                center=part.means.get(cc).mean();
+                deviation=part.deviations.get(cc).deviation(center);
+            }
+            Cluster cluster=new Cluster(center);
+            cluster.count=count;
+            cluster.deviation=deviation;
+            for (int dd=0; deviation.dimensions()>dd; ++dd) {
+                cluster.avgDistance+=deviation.coordinate(dd)*deviation.coordinate(dd);
+            }
+            error2+=count*cluster.avgDistance;
+            clusters2.add(cluster);
+        }
+        clusters=clusters2;
+        avgDistance=error2/points.weight();
+        double error3=this.error;
+        this.error=error2;
+        selectNextAction(continuation, error3, iteration);
     }
-   
 
     // Step 11, Step 12, finding pairwise center distance and lumping clusters
-    public void lumping(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration)
-            throws Throwable {
-         context.checkStopped();
-
-         increment("lumping");
-
-         double dist[][] = new double[p.clusters.size()][p.clusters.size()];
-         List<Map.Entry<Integer,Integer>> map = new ArrayList<>();
-         for (int i=0;i<p.clusters.size();++i) {
-              dist[i][i] = 0; //not lumped
-         }
-         for (int i=0;i<p.clusters.size();++i) {
-             for (int j=i+1;j<p.clusters.size();++j) {
-                 double d_ij= Distance.distance(p.clusters.get(i).center, p.clusters.get(j).center);
-                 dist[i][j] = d_ij;
-                 if (i!=j && d_ij < lumping) {
-                     map.add(new SimpleEntry<>(i,j));
-                 }
-             }
-         }
-
-         List<Cluster> new_clusters = new ArrayList<>();
-         int lumpped=0;
-         for (Map.Entry<Integer, Integer> pair : nthSmallest(map, dist, L)) {
-             int i = pair.getKey();
-             int j = pair.getValue();
-
-             if (dist[i][i] == 1 || dist[j][j] == 1) continue;//either of them lumped we skip
-             if (N_c-lumpped <= 2) continue;//we should keep at least two clusters
-
-             new_clusters.add(merge_cluster(p.clusters.get(i), p.clusters.get(j)));
-             dist[i][i] = dist[j][j] = 1;
-             increment("lumpped_cluster");
-             ++lumpped;
-         }
-
-         for (int i=0;i<p.clusters.size();++i) {
-              if (dist[i][i] == 0) { //not lumped
-                 new_clusters.add(p.clusters.get(i));
-              }
-         }
-         p.clusters.clear();
-         p.clusters.addAll(new_clusters);
-         N_c=p.clusters.size();
-
-         distribute(p, continuation, error, iteration+1);
-    }
-
-    // Step 10, split clusters
-    public void split_cluster(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration)
-            throws Throwable {
+    private void lumping(Continuation<Clusters> continuation, double error, int iteration) throws Throwable {
         context.checkStopped();
-
-        increment("split_cluster");
-        boolean split=false;
-        List<Cluster> new_clusters = new ArrayList<>();
-        List<Cluster> rm_clusters = new ArrayList<>();
-        for (Cluster cluster : p.clusters) {
-                double ro_max = max.max(cluster.std_dev);
-                final Vector ro_maxVec = max.maxVec(cluster.std_dev);
-                if ((ro_max > std_deviation) &&
-                    ((cluster.avg_dist > p.avg_dist) && (cluster.points.size() > 2 * (theta_N + 1)) ||
-                     (p.clusters.size() <= K/2))) {
-                        split=true;
-                        Cluster z_plus = new Cluster(new ArrayList<>(), cluster.center.add(ro_maxVec));
-                        Cluster z_minus = new Cluster(new ArrayList<>(), cluster.center.sub(ro_maxVec));
-
-                        rm_clusters.add(cluster);
-                        new_clusters.add(z_plus);
-                        new_clusters.add(z_minus);
-
-                        increment("splitted_cluster");
-
+        increment("lumping");
+        int size=clusters.size();
+        double[][] distances=new double[size][size];
+        List<int[]> pairs=new ArrayList<>();
+        for (int ii=0; size>ii; ++ii) {
+            for (int jj=ii+1; size>jj; ++jj) {
+                double distance=Distance.distance(clusters.get(ii).center, clusters.get(jj).center);
+                distances[ii][jj]=distance;
+                if (lumping>distance) {
+                    pairs.add(new int[]{ii, jj});
                 }
+            }
         }
-        p.clusters.removeAll(rm_clusters);
-        p.clusters.addAll(new_clusters);
-        N_c=p.clusters.size();
-        if (split) {
-           distribute(p, continuation, error, iteration+1);
+        pairs.sort(Comparator.comparingDouble((pair)->distances[pair[0]][pair[1]]));
+        boolean[] lumped=new boolean[size];
+        List<Cluster> clusters2=new ArrayList<>(size);
+        int lumped2=0;
+        for (int pp=0; Math.min(L, pairs.size())>pp; ++pp) {
+            int ii=pairs.get(pp)[0];
+            int jj=pairs.get(pp)[1];
+            if (lumped[ii] || lumped[jj]) {
+                continue;
+            }
+            // we should keep at least two clusters
+            if (2>=size-lumped2) {
+                continue;
+            }
+            Cluster cluster0=clusters.get(ii);
+            Cluster cluster1=clusters.get(jj);
+            long count0=Math.max(1L, cluster0.count);
+            long count1=Math.max(1L, cluster1.count);
+            clusters2.add(new Cluster(cluster0.center.mul(count0).add(cluster1.center.mul(count1))
+                    .div(count0+count1)));
+            lumped[ii]=true;
+            lumped[jj]=true;
+            increment("lumpped_cluster");
+            ++lumped2;
         }
-        else {
-           lumping(p, continuation, error, iteration);
+        for (int ii=0; size>ii; ++ii) {
+            if (!lumped[ii]) {
+                clusters2.add(clusters.get(ii));
+            }
         }
+        clusters=clusters2;
+        distribute(continuation, error, iteration+1);
     }
 
-    //Step 4, update each cluster centers
-    public void update_centers(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
-        context.checkStopped();
-
-        increment("update_centers");
-
-        List<Cluster> clusters = Collections.unmodifiableList(p.clusters);
-        List<Vector> points = Collections.unmodifiableList(p.points);
-
-        List<AsyncSupplier<Map.Entry<Vector, Vector>>> forks=new ArrayList<>(clusters.size());
-        for (Cluster cluster : clusters) {
-            forks.add((continuation2)->{
-                Mean mean=this.points.mean().create(cluster.points.size(), context.sum());
-                for (Vector point : cluster.points) {
-                    mean.add(point);
-                }
-                cluster.center = mean.mean();
-                continuation2.completed(new SimpleEntry<>(cluster.center, mean.mean()));
-            });
+    // Step 7, select next action
+    private void selectNextAction(Continuation<Clusters> continuation, double error, int iteration) throws Throwable {
+        if (iteration+1==maxIterations) {
+            lumping=0.0;
+            lumping(continuation, error, iteration);
         }
-        Continuations.forkJoin(
-                forks,
-                Continuations.map(
-                        (results, continuation2)->{
-                            for (Map.Entry<Vector, Vector> pair : results) {
-                                 p.get(pair.getKey()).center = pair.getValue();
-                            }
-                            avg_distance(p, continuation2, error, iteration);
-                        },
-                        continuation),
-                context.executor());
-    }
-
-    //Step 5, compute avg distance D_j
-    public void avg_distance(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
-        context.checkStopped();
-        List<Cluster> clusters = Collections.unmodifiableList(p.clusters);
-
-        for (Sum sum : sums) {
-           sum.clear();
+        else if (clusters.size()<=desiredClusters/2) {
+            splitCluster(continuation, error, iteration);
         }
-
-        List<AsyncSupplier<Void>> forks=new ArrayList<>(clusters.size());
-        Integer ind=0;
-        for (int i=0;i<clusters.size();++i) {//Cluster cluster : clusters) {
-            Cluster cluster = clusters.get(i);
-            Sum s = sums.get(i);
-            forks.add((continuation2)->{
-                MeanDouble mean = new MeanDouble(cluster.points.size(), context.sum());
-                for (Vector point: cluster.points) {
-                    double distance = Distance.distance(cluster.center, point);
-                    mean.add(distance);
-                    s.add(distance);
-                }
-                cluster.avg_dist = mean.mean();
-                continuation2.completed(null);
-            });
+        else if ((0==iteration%2) || (clusters.size()>=2*desiredClusters)) {
+            lumping(continuation, error, iteration);
         }
-        Continuations.forkJoin(
-                forks,
-                Continuations.map(
-                        (results, continuation2)->{
-                            double error2 = sum.sum();
-
-                            sum.clear();
-                            for (Sum s : sums) {
-                                sum.add(s.sum());
-                            }       
-                            all_avg_distance(p, continuation2, error2, iteration);
-                        },
-                        continuation),
-                context.executor());
-    }
-
-    //Step 6, compute overall avg distance L2Points.Distance
-    public void all_avg_distance(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
-        context.checkStopped();
-        double all_avg_distance = 0.0;
-
-        for (Cluster cluster : p.clusters) {
-           all_avg_distance += cluster.points.size() * cluster.avg_dist;
+        else {
+            splitCluster(continuation, error, iteration);
         }
-        all_avg_distance /= p.points.size();
-        p.avg_dist = all_avg_distance;
-
-       select_next_action(p, continuation, error, iteration);       
     }
 
-    //Step 7, select next action
-    public void select_next_action(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
-       if (iteration + 1 == maxIterations) {
-          lumping = 0;
-          lumping(p, continuation, error, iteration);
-          return;
-       }
-       if (p.clusters.size() <= K/2) {
-          std_deviation(p, continuation, error, iteration);
-          return;
-       }
-       if (iteration % 2 == 0 || p.clusters.size() >= 2*K) {
-          lumping(p, continuation, error, iteration);
-          return;
-       }
-
-       std_deviation(p, continuation, error, iteration);
-    }
-
-    //Step 8, find std deviation vector
-    public void std_deviation(Clusterss p, Continuation<Map<Vector,List<Vector>>> continuation, double error, int iteration) throws Throwable {
+    // Step 9, Step 10, split clusters
+    private void splitCluster(Continuation<Clusters> continuation, double error, int iteration) throws Throwable {
         context.checkStopped();
-        List<Cluster> clusters = Collections.unmodifiableList(p.clusters);
-
-        List<AsyncSupplier<Void>> forks=new ArrayList<>(clusters.size());
-        for (Cluster cluster : clusters) {
-            forks.add((continuation2)->{
-                Deviation dev = this.points.variance().create(16, cluster.center, context.sum());
-                for (Vector point: cluster.points) {
-                    dev.add(point);
+        increment("split_cluster");
+        List<Cluster> clusters2=new ArrayList<>(clusters.size());
+        List<Cluster> newClusters=new ArrayList<>();
+        for (Cluster cluster: clusters) {
+            int maxDimension=0;
+            for (int dd=1; cluster.deviation.dimensions()>dd; ++dd) {
+                if (cluster.deviation.coordinate(maxDimension)<cluster.deviation.coordinate(dd)) {
+                    maxDimension=dd;
                 }
-                cluster.std_dev = dev.deviation();
-                continuation2.completed(null);
-            });
-        }
-        Continuations.forkJoin(
-                forks,
-                Continuations.map(
-                        (results, continuation2)->{
-                            split_cluster(p, continuation2, error, iteration);
-                        },
-                        continuation),
-                context.executor());
-    }
-
-    public static Vector nearestCenter(Iterable<Vector> centers, Vector point) {
-        Vector bestCenter=null;
-        double bestDistance=Double.POSITIVE_INFINITY;
-        for (Vector cc: centers) {
-            double dd=Distance.distance(cc, point);
-            if (dd<bestDistance) {
-                bestCenter=cc;
-                bestDistance=dd;
+            }
+            double maxDeviation=cluster.deviation.coordinate(maxDimension);
+            if ((stdDeviation<maxDeviation)
+                    && (((avgDistance<cluster.avgDistance) && (2L*(thetaN+1)<cluster.count))
+                            || (clusters.size()<=desiredClusters/2))) {
+                Vector maxVector=new Vector(cluster.center.dimensions());
+                maxVector.coordinate(maxDimension, maxDeviation);
+                newClusters.add(new Cluster(cluster.center.add(maxVector)));
+                newClusters.add(new Cluster(cluster.center.sub(maxVector)));
+                increment("splitted_cluster");
+            }
+            else {
+                clusters2.add(cluster);
             }
         }
-        if (null==bestCenter) {
-            throw new RuntimeException("cannot select nearest center");
+        if (newClusters.isEmpty()) {
+            lumping(continuation, error, iteration);
+        }
+        else {
+            clusters2.addAll(newClusters);
+            clusters=clusters2;
+            distribute(continuation, error, iteration+1);
         }
-        return bestCenter;
     }
 
     /**
      * The ISODATA clustering algorithm.
-     * 
+     *
      * @param startClusters  the number of clusters to start with
      * @param desiredClusters the number of clusters it should aim to create
      * @param errorLimit  an early exit happens if an iteration improvement is smaller then this limit
@@ -629,7 +395,7 @@ public class Isodata<P extends Points> {
      * @param lumping a cluster pair is candidate of merging if their centers are closer than this parameter
      * @param L the number of clusters lumping can merge per iteration
      * @param std_deviation clusters are split into two if their standard deviation is larger (split may not happen based on the number of clusters)
-     * 
+     *
      * The implementation is based on the Julius T. Tou, Rafael C. Gonzalez: Pattern Recognition Principles book.
      */
     public static <P extends Points> ClusteringStrategy<P> isodata(
@@ -651,8 +417,7 @@ public class Isodata<P extends Points> {
                         errorLimit,
                         initialCenters,
                         maxIteration,
-                        points,
-                        replaceEmptyCluster);
+                        points);
             }
 
             @Override
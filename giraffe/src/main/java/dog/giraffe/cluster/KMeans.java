@@ -166,6 +166,7 @@ public class KMeans<P extends Points> {
                     Continuations.map(
                             (newCenters, continuation2)->{
                                 double error2=sum2.sum();
+                                context.clusteringError(error2);
                                 if (error*errorLimit<=error2) {
                                     continuation2.completed(Clusters.create(newCenters, error2));
                                 }
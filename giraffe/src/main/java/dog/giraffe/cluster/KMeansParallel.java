@@ -0,0 +1,349 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Context;
+import dog.giraffe.points.Distance;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.AsyncFunction;
+import dog.giraffe.threads.AsyncSupplier;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Scalable k-means++, also known as k-means||.
+ * Starting from a random data point it oversamples candidate centers in a few rounds.
+ * In every round all the data points are sampled independently
+ * with a probability proportional to their squared distance to the nearest candidate.
+ * The candidates are weighted by the number of data points nearest to them,
+ * and the initial centers are selected by a weighted k-means++ and Lloyd's algorithm on the candidates.
+ * Every round is a parallel pass over the data points,
+ * and a pass only computes the distances to the candidates selected in the previous round.
+ */
+public class KMeansParallel<P extends Points> {
+    /**
+     * The per-point state of a part of the input data.
+     * The points of the part are indexed in the order of {@link Points#forEach(Points.ForEach)}.
+     */
+    private static class Part {
+        public final double[] distances;
+        public final int[] nearest;
+        public final Points points;
+
+        public Part(Points points) {
+            this.points=points;
+            distances=new double[points.size()];
+            nearest=new int[points.size()];
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        }
+    }
+
+    /**
+     * The result of an update pass over a part.
+     */
+    private static class Cost {
+        public final double cost;
+        public final long[] weights;
+
+        public Cost(double cost, long[] weights) {
+            this.cost=cost;
+            this.weights=weights;
+        }
+    }
+
+    private final List<Vector> candidates=new ArrayList<>();
+    private final Set<Vector> candidatesSet=new HashSet<>();
+    private final int clusters;
+    private final Context context;
+    private final int maxIterations;
+    private final double oversampling;
+    private final List<Part> parts;
+    private final P points;
+    private final List<Points> points2;
+    private final int rounds;
+
+    private KMeansParallel(
+            int clusters, Context context, int maxIterations, double oversampling, List<Part> parts, P points,
+            List<Points> points2, int rounds) {
+        this.clusters=clusters;
+        this.context=context;
+        this.maxIterations=maxIterations;
+        this.oversampling=oversampling;
+        this.parts=parts;
+        this.points=points;
+        this.points2=points2;
+        this.rounds=rounds;
+    }
+
+    /**
+     * Adds vector to the candidates if it's not already a candidate.
+     */
+    private void addCandidate(Vector vector) {
+        if (candidatesSet.add(vector)) {
+            candidates.add(vector);
+        }
+    }
+
+    /**
+     * Returns the index of the center nearest to point.
+     */
+    private static int nearest(List<Vector> centers, Vector point) {
+        int nearest=0;
+        double nearestDistance=Distance.distance(centers.get(0), point);
+        for (int cc=1; centers.size()>cc; ++cc) {
+            double distance=Distance.distance(centers.get(cc), point);
+            if (nearestDistance>distance) {
+                nearest=cc;
+                nearestDistance=distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Reduces the weighted candidates to the initial centers.
+     */
+    private void reduce(long[] weights, Continuation<List<Vector>> continuation) throws Throwable {
+        context.checkStopped();
+        Random random=context.random();
+        Set<Vector> centers=new HashSet<>(clusters);
+        if (candidates.size()<=clusters) {
+            centers.addAll(candidates);
+        }
+        else {
+            double[] weights2=new double[candidates.size()];
+            for (int ii=0; candidates.size()>ii; ++ii) {
+                weights2[ii]=weights[ii];
+            }
+            List<Vector> centers2=new ArrayList<>(clusters);
+            centers2.add(candidates.get(select(random, weights2)));
+            double[] distances=new double[candidates.size()];
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            while (clusters>centers2.size()) {
+                Vector last=centers2.get(centers2.size()-1);
+                for (int ii=0; candidates.size()>ii; ++ii) {
+                    distances[ii]=Math.min(distances[ii], Distance.distance(last, candidates.get(ii)));
+                    weights2[ii]=weights[ii]*distances[ii];
+                }
+                int selected=select(random, weights2);
+                if (0>selected) {
+                    break;
+                }
+                centers2.add(candidates.get(selected));
+            }
+            int[] assignments=new int[candidates.size()];
+            Arrays.fill(assignments, -1);
+            for (int iteration=0; maxIterations>iteration; ++iteration) {
+                boolean changed=false;
+                for (int ii=0; candidates.size()>ii; ++ii) {
+                    int nearest=nearest(centers2, candidates.get(ii));
+                    if (assignments[ii]!=nearest) {
+                        assignments[ii]=nearest;
+                        changed=true;
+                    }
+                }
+                if (!changed) {
+                    break;
+                }
+                int dimensions=points.dimensions();
+                double[][] sums=new double[centers2.size()][dimensions];
+                double[] counts=new double[centers2.size()];
+                for (int ii=0; candidates.size()>ii; ++ii) {
+                    Vector candidate=candidates.get(ii);
+                    int cc=assignments[ii];
+                    counts[cc]+=weights[ii];
+                    for (int dd=0; dimensions>dd; ++dd) {
+                        sums[cc][dd]+=weights[ii]*candidate.coordinate(dd);
+                    }
+                }
+                for (int cc=0; centers2.size()>cc; ++cc) {
+                    if (0.0<counts[cc]) {
+                        Vector center=new Vector(dimensions);
+                        for (int dd=0; dimensions>dd; ++dd) {
+                            center.coordinate(dd, sums[cc][dd]/counts[cc]);
+                        }
+                        centers2.set(cc, center);
+                    }
+                }
+            }
+            centers.addAll(centers2);
+        }
+        ReplaceEmptyCluster<P> farthest=ReplaceEmptyCluster.farthest(false);
+        InitialCenters.newCenters(
+                centers,
+                clusters,
+                context,
+                continuation,
+                maxIterations,
+                points,
+                points2,
+                farthest,
+                farthest);
+    }
+
+    /**
+     * Samples new candidates.
+     */
+    private void sample(double cost, int round, Continuation<List<Vector>> continuation) throws Throwable {
+        context.checkStopped();
+        double factor=oversampling*clusters/cost;
+        List<AsyncSupplier<List<Vector>>> forks=new ArrayList<>(parts.size());
+        for (Part part: parts) {
+            long seed=context.random().nextLong();
+            forks.add((continuation2)->{
+                Random random=new Random(seed);
+                List<Vector> sample=new ArrayList<>();
+                int[] index2={0};
+                part.points.forEach((points, index)->{
+                    int ii=index2[0];
+                    ++index2[0];
+                    if (random.nextDouble()<factor*points.weight(index)*part.distances[ii]) {
+                        sample.add(points.get(index));
+                    }
+                });
+                continuation2.completed(sample);
+            });
+        }
+        Continuations.forkJoin(
+                forks,
+                Continuations.map(
+                        (samples, continuation2)->{
+                            int from=candidates.size();
+                            for (List<Vector> sample: samples) {
+                                for (Vector vector: sample) {
+                                    addCandidate(vector);
+                                }
+                            }
+                            update(from, round+1, continuation2);
+                        },
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Selects an index randomly with probability proportional to its weight.
+     * Returns -1 if all the weights are zero.
+     */
+    private static int select(Random random, double[] weights) {
+        double sum=0.0;
+        for (double weight: weights) {
+            sum+=weight;
+        }
+        if (0.0>=sum) {
+            return -1;
+        }
+        double target=sum*random.nextDouble();
+        int last=-1;
+        for (int ii=0; weights.length>ii; ++ii) {
+            if (0.0<weights[ii]) {
+                last=ii;
+                target-=weights[ii];
+                if (0.0>target) {
+                    return ii;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Updates the distances of the data points with the candidates [from, candidates.size()).
+     */
+    private void update(int from, int round, Continuation<List<Vector>> continuation) throws Throwable {
+        context.checkStopped();
+        List<Vector> newCandidates=List.copyOf(candidates.subList(from, candidates.size()));
+        int size=candidates.size();
+        List<AsyncSupplier<Cost>> forks=new ArrayList<>(parts.size());
+        for (Part part: parts) {
+            forks.add((continuation2)->{
+                double[] cost={0.0};
+                long[] weights=new long[size];
+                int[] index2={0};
+                part.points.forEach((points, index)->{
+                    int ii=index2[0];
+                    ++index2[0];
+                    for (int cc=0; newCandidates.size()>cc; ++cc) {
+                        double distance=points.distance(newCandidates.get(cc), index);
+                        if (part.distances[ii]>distance) {
+                            part.distances[ii]=distance;
+                            part.nearest[ii]=from+cc;
+                        }
+                    }
+                    int weight=points.weight(index);
+                    cost[0]+=weight*part.distances[ii];
+                    weights[part.nearest[ii]]+=weight;
+                });
+                continuation2.completed(new Cost(cost[0], weights));
+            });
+        }
+        Continuations.forkJoin(
+                forks,
+                Continuations.map(
+                        updateJoin(from, round),
+                        continuation),
+                context.executor());
+    }
+
+    private AsyncFunction<List<Cost>, List<Vector>> updateJoin(int from, int round) {
+        return (costs, continuation)->{
+            double cost=0.0;
+            long[] weights=new long[candidates.size()];
+            for (Cost cost2: costs) {
+                cost+=cost2.cost;
+                for (int ii=0; weights.length>ii; ++ii) {
+                    weights[ii]+=cost2.weights[ii];
+                }
+            }
+            if ((rounds<=round)
+                    || (from>=candidates.size())
+                    || (0.0>=cost)) {
+                reduce(weights, continuation);
+            }
+            else {
+                sample(cost, round, continuation);
+            }
+        };
+    }
+
+    /**
+     * Selects initial centers by k-means||.
+     *
+     * @param oversampling the expected number of candidates selected in a round is oversampling*clusters
+     * @param rounds the number of sampling rounds
+     */
+    public static <P extends Points> InitialCenters<P> kMeansParallel(double oversampling, int rounds) {
+        return new InitialCenters<>() {
+            @Override
+            public void initialCenters(
+                    int clusters, Context context, int maxIterations, P points, List<Points> points2,
+                    Continuation<List<Vector>> continuation) throws Throwable {
+                if (points.size()<clusters) {
+                    continuation.failed(new CannotSelectInitialCentersException(String.format(
+                            "too few data points; clusters: %1$d, data points: %2$d", clusters, points.size())));
+                    return;
+                }
+                List<Part> parts=new ArrayList<>(points2.size());
+                for (Points points3: points2) {
+                    parts.add(new Part(points3));
+                }
+                KMeansParallel<P> kMeansParallel=new KMeansParallel<>(
+                        clusters, context, maxIterations, oversampling, parts, points, points2, rounds);
+                kMeansParallel.addCandidate(points.get(points.randomIndex(context.random())));
+                kMeansParallel.update(0, 0, continuation);
+            }
+
+            @Override
+            public void log(Map<String, Object> log) {
+                log.put("type", "k-means-parallel");
+                log.put("oversampling", oversampling);
+                log.put("rounds", rounds);
+            }
+        };
+    }
+}
@@ -0,0 +1,338 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Context;
+import dog.giraffe.Log;
+import dog.giraffe.points.KDTree;
+import dog.giraffe.points.Mean;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.AsyncFunction;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mini-batch k-means. Every iteration reads a batch of randomly selected lines,
+ * classifies its data points, and moves the centers towards the means of the batch.
+ * The step size of a center is the ratio of its batch points and all the points assigned to it so far,
+ * so every center is the running mean of the data points it has seen.
+ * The memory used is bounded by the batch size.
+ */
+public class MiniBatchKMeans {
+    /**
+     * The classification of a part of a batch.
+     */
+    private static class Batch {
+        public final long[] counts;
+        public double error;
+        public final List<Mean> means;
+        public long points;
+
+        public Batch(long[] counts, List<Mean> means) {
+            this.counts=counts;
+            this.means=means;
+        }
+    }
+
+    /**
+     * The number of consecutive batches without the improvement of the smoothed error before stopping.
+     */
+    public static final int PATIENCE=10;
+    /**
+     * The weight of the error of the latest batch in the exponential moving average of the errors.
+     */
+    public static final double SMOOTHING=0.1;
+
+    private final int batchLines;
+    private double bestError=Double.POSITIVE_INFINITY;
+    private final int clusters;
+    private final Context context;
+    private final long[] counts;
+    private double lastError=Double.POSITIVE_INFINITY;
+    private final StreamingClusteringStrategy.Lines lines;
+    private long linesRead;
+    private final int maxIterations;
+    private int noImprovement;
+    private long pointsRead;
+    private double smoothedError=Double.POSITIVE_INFINITY;
+
+    private MiniBatchKMeans(
+            int batchLines, int clusters, Context context, StreamingClusteringStrategy.Lines lines,
+            long linesRead, int maxIterations, long pointsRead) {
+        this.batchLines=batchLines;
+        this.clusters=clusters;
+        this.context=context;
+        this.lines=lines;
+        this.linesRead=linesRead;
+        this.maxIterations=maxIterations;
+        this.pointsRead=pointsRead;
+        counts=new long[clusters];
+    }
+
+    /**
+     * Reads the selected lines into a single {@link MutablePoints}.
+     */
+    private static void read(
+            Context context, StreamingClusteringStrategy.Lines lines, int[] selected,
+            Continuation<MutablePoints> continuation) throws Throwable {
+        Continuations.<MutablePoints>forkJoin(
+                (from, to)->(continuation2)->{
+                    StreamingClusteringStrategy.Reader reader=lines.reader();
+                    MutablePoints line=lines.createPoints(lines.width());
+                    MutablePoints points=lines.createPoints((to-from)*lines.width());
+                    for (int ii=from; to>ii; ++ii) {
+                        reader.setLineTo(selected[ii], line);
+                        int size=points.size();
+                        points.size(size+line.size());
+                        line.setNormalizedTo(0, line.size(), points, size);
+                    }
+                    continuation2.completed(points);
+                },
+                0,
+                selected.length,
+                Continuations.map(
+                        (pointsList, continuation2)->{
+                            int size=0;
+                            for (MutablePoints points: pointsList) {
+                                size+=points.size();
+                            }
+                            MutablePoints points=lines.createPoints(size);
+                            points.size(size);
+                            int offset=0;
+                            for (MutablePoints points2: pointsList) {
+                                points2.setNormalizedTo(0, points2.size(), points, offset);
+                                offset+=points2.size();
+                            }
+                            continuation2.completed(points);
+                        },
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Selects batchLines lines randomly with replacement.
+     */
+    private static int[] select(Context context, int batchLines, int lines) {
+        int[] result=new int[batchLines];
+        for (int ii=0; batchLines>ii; ++ii) {
+            result[ii]=context.random().nextInt(lines);
+        }
+        return result;
+    }
+
+    /**
+     * Assigns the data points of the selected lines to centers.
+     */
+    private Continuations.IntForks<Batch> classify(List<Vector> centers, int[] selected) {
+        return (from, to)->(continuation)->{
+            StreamingClusteringStrategy.Reader reader=lines.reader();
+            MutablePoints points=lines.createPoints(lines.width());
+            List<Mean> means=new ArrayList<>(clusters);
+            for (int cc=clusters; 0<cc; --cc) {
+                means.add(points.mean().create((to-from)*lines.width(), context.sum()));
+            }
+            Batch batch=new Batch(new long[clusters], means);
+            for (int ii=from; to>ii; ++ii) {
+                reader.setLineTo(selected[ii], points);
+                for (int index=0; points.size()>index; ++index) {
+                    int nearest=0;
+                    double nearestDistance=points.distance(centers.get(0), index);
+                    for (int cc=1; centers.size()>cc; ++cc) {
+                        double distance=points.distance(centers.get(cc), index);
+                        if (nearestDistance>distance) {
+                            nearest=cc;
+                            nearestDistance=distance;
+                        }
+                    }
+                    ++batch.counts[nearest];
+                    batch.error+=nearestDistance;
+                    points.addTo(index, means.get(nearest));
+                }
+                batch.points+=points.size();
+            }
+            continuation.completed(batch);
+        };
+    }
+
+    private Clusters clusters(List<Vector> centers, int iteration) {
+        Map<String, Object> stats=new HashMap<>();
+        stats.put("batches", iteration);
+        stats.put("sampled-points", pointsRead);
+        double error=(0L>=linesRead)
+                ?Double.POSITIVE_INFINITY
+                :lastError*pointsRead*lines.lines()/linesRead;
+        return Clusters.createWithStats(centers, error, stats);
+    }
+
+    /**
+     * Forks the classification of a new batch.
+     */
+    private void fork(List<Vector> centers, Continuation<Clusters> continuation, int iteration) throws Throwable {
+        context.checkStopped();
+        if ((maxIterations<=iteration)
+                || (PATIENCE<=noImprovement)) {
+            continuation.completed(clusters(centers, iteration));
+            return;
+        }
+        int[] selected=select(context, batchLines, lines.lines());
+        Continuations.forkJoin(
+                classify(centers, selected),
+                0,
+                selected.length,
+                Continuations.map(
+                        join(centers, iteration, selected.length),
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Moves the centers towards the means of the batch.
+     */
+    private AsyncFunction<List<Batch>, Clusters> join(List<Vector> centers, int iteration, int selectedLines) {
+        return (batches, continuation)->{
+            Batch batch=batches.get(0);
+            for (int ii=1; batches.size()>ii; ++ii) {
+                Batch batch2=batches.get(ii);
+                for (int cc=0; clusters>cc; ++cc) {
+                    batch.counts[cc]+=batch2.counts[cc];
+                    batch2.means.get(cc).addTo(batch.means.get(cc));
+                }
+                batch.error+=batch2.error;
+                batch.points+=batch2.points;
+            }
+            linesRead+=selectedLines;
+            pointsRead+=batch.points;
+            if (0L>=batch.points) {
+                fork(centers, continuation, iteration+1);
+                return;
+            }
+            List<Vector> newCenters=new ArrayList<>(clusters);
+            for (int cc=0; clusters>cc; ++cc) {
+                Vector center=centers.get(cc);
+                if (0L>=batch.counts[cc]) {
+                    newCenters.add(center);
+                    continue;
+                }
+                counts[cc]+=batch.counts[cc];
+                double eta=((double)batch.counts[cc])/counts[cc];
+                Vector mean=batch.means.get(cc).mean();
+                Vector newCenter=new Vector(center.dimensions());
+                for (int dd=0; center.dimensions()>dd; ++dd) {
+                    double cd=center.coordinate(dd);
+                    newCenter.coordinate(dd, cd+eta*(mean.coordinate(dd)-cd));
+                }
+                newCenters.add(newCenter);
+            }
+            double error=batch.error/batch.points;
+            lastError=error;
+            smoothedError=Double.isInfinite(smoothedError)
+                    ?error
+                    :smoothedError+SMOOTHING*(error-smoothedError);
+            if (bestError>smoothedError) {
+                bestError=smoothedError;
+                noImprovement=0;
+            }
+            else {
+                ++noImprovement;
+            }
+            fork(newCenters, continuation, iteration+1);
+        };
+    }
+
+    /**
+     * Mini-batch k-means.
+     * The initial centers are selected from a first batch of data points.
+     * The algorithm stops after maxIterations batches,
+     * or when the exponential moving average of the batch errors fails to improve for {@link #PATIENCE} batches.
+     * The error of the result is estimated from the error of the last batch
+     * and the sampled density of the data points.
+     *
+     * @param clusters the number of clusters to use
+     * @param batchSize the number of data points to read in an iteration, rounded up to whole lines
+     * @param maxIterations the maximum number of batches used to recalculate centers
+     */
+    public static StreamingClusteringStrategy miniBatchKMeans(
+            int clusters, int batchSize, InitialCenters<KDTree> initialCenters, int maxIterations) {
+        return new StreamingClusteringStrategy() {
+            @Override
+            public void cluster(
+                    Context context, StreamingClusteringStrategy.Lines lines, Continuation<Clusters> continuation)
+                    throws Throwable {
+                if (0>=clusters) {
+                    continuation.failed(new IllegalStateException(Integer.toString(clusters)));
+                    return;
+                }
+                if (0>=batchSize) {
+                    continuation.failed(new IllegalStateException(Integer.toString(batchSize)));
+                    return;
+                }
+                if (0>=lines.lines()) {
+                    continuation.failed(new CannotSelectInitialCentersException("no data points"));
+                    return;
+                }
+                int width=Math.max(1, lines.width());
+                int batchLines=(int)Math.min(lines.lines(), (batchSize+(long)width-1L)/width);
+                int[] selected=select(context, batchLines, lines.lines());
+                read(
+                        context,
+                        lines,
+                        selected,
+                        Continuations.map(
+                                (points, continuation2)->{
+                                    if (points.size()<clusters) {
+                                        continuation2.failed(new CannotSelectInitialCentersException(String.format(
+                                                "too few data points; clusters: %1$d, data points: %2$d",
+                                                clusters,
+                                                points.size())));
+                                        return;
+                                    }
+                                    KDTree.create(
+                                            context,
+                                            4096,
+                                            points,
+                                            Continuations.map(
+                                                    (kdTree, continuation3)->initialCenters.initialCenters(
+                                                            clusters,
+                                                            context,
+                                                            maxIterations,
+                                                            kdTree,
+                                                            kdTree.split(context.executor().threads()),
+                                                            continuation3),
+                                                    Continuations.<List<Vector>, Clusters>map(
+                                                            (centers, continuation3)->{
+                                                                if (new HashSet<>(centers).size()!=clusters) {
+                                                                    continuation3.failed(
+                                                                            new CannotSelectInitialCentersException());
+                                                                    return;
+                                                                }
+                                                                MiniBatchKMeans miniBatchKMeans=new MiniBatchKMeans(
+                                                                        batchLines,
+                                                                        clusters,
+                                                                        context,
+                                                                        lines,
+                                                                        selected.length,
+                                                                        maxIterations,
+                                                                        points.size());
+                                                                miniBatchKMeans.fork(
+                                                                        List.copyOf(centers), continuation3, 0);
+                                                            },
+                                                            continuation2)));
+                                },
+                                continuation));
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "k-means-mini-batch");
+                log.put("batch-size", batchSize);
+                log.put("clusters", clusters);
+                Log.logField("initial-centers", initialCenters, log);
+                log.put("max-iterations", maxIterations);
+            }
+        };
+    }
+}
@@ -1,9 +1,13 @@
 package dog.giraffe.cluster;
 
 import dog.giraffe.Context;
+import dog.giraffe.Log;
+import dog.giraffe.points.KDTree;
 import dog.giraffe.points.Points;
-import dog.giraffe.points.Sum;
+import dog.giraffe.points.Sums;
 import dog.giraffe.points.Vector;
+import dog.giraffe.points.VectorList;
+import dog.giraffe.points.WeightedPoints;
 import dog.giraffe.threads.AsyncSupplier;
 import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
@@ -11,21 +15,228 @@ import dog.giraffe.util.Pair;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.DoubleAccumulator;
 
 /**
  * Implementation of Otsu's method.
  */
 public abstract class Otsu {
     private static class Circular extends Otsu {
-        public Circular(int bins, int clusters, Context context, Points points) {
-            super(bins, clusters, context, points);
+        public Circular(int bins, int clusters, Context context, boolean exhaustive, Points points) {
+            super(bins, clusters, context, exhaustive, points);
         }
 
         @Override
         protected void cluster(Histogram histogram, Continuation<Clusters> continuation) throws Throwable {
+            if (exhaustive) {
+                clusterShifts(histogram, continuation);
+            }
+            else {
+                clusterCyclic(histogram.cycle(), continuation);
+            }
+        }
+
+        /**
+         * The state of the search of the cyclic partitions for a range of smallest thresholds.
+         */
+        private class Search {
+            private Thresholds best;
+            private final double[][] errors=new double[clusters][bins];
+            private long evaluations;
+            private final int[][] live=new int[2][bins];
+            private final int[][] previous=new int[clusters][bins];
+            private long prunedStarts;
+            private long skippedStarts;
+            private final int[] thresholds=new int[clusters+1];
+
+            /**
+             * Selects the best thresholds of the cyclic partitions whose smallest threshold is start.
+             * The other thresholds are selected from (start, bins) by dynamic programming,
+             * and the last cluster wraps around to start+bins.
+             * errors[cc][ii] is the smallest error of the partitioning of [start, ii) into cc clusters.
+             * Only the partial partitions with an error not larger than limit are extended,
+             * and the start is abandoned when none of them is left.
+             *
+             * @param cycle the histogram returned by {@link Histogram#cycle()}
+             * @return the error of the best partitioning, or positive infinity if all the partitions were pruned
+             */
+            private double threshold(Histogram cycle, double limit, int start) {
+                int end=start+bins;
+                int[] live2=live[0];
+                int lives=0;
+                for (int jj=start+1; bins-clusters+1>=jj; ++jj) {
+                    errors[1][jj]=cycle.variance(start, jj);
+                    ++evaluations;
+                    if (limit>=errors[1][jj]) {
+                        live2[lives]=jj;
+                        ++lives;
+                    }
+                }
+                for (int cc=2; clusters>cc; ++cc) {
+                    double[] errors2=errors[cc-1];
+                    int[] live3=live[(cc+1)%2];
+                    int lives3=0;
+                    int lastBin=bins-clusters+cc;
+                    for (int jj=start+cc; lastBin>=jj; ++jj) {
+                        double bestError=Double.POSITIVE_INFINITY;
+                        int bestPrevious=-1;
+                        for (int ll=0; lives>ll; ++ll) {
+                            int ii=live2[ll];
+                            if (jj<=ii) {
+                                break;
+                            }
+                            double error=errors2[ii]+cycle.variance(ii, jj);
+                            ++evaluations;
+                            if (bestError>error) {
+                                bestError=error;
+                                bestPrevious=ii;
+                            }
+                        }
+                        errors[cc][jj]=bestError;
+                        previous[cc][jj]=bestPrevious;
+                        if ((0<=bestPrevious) && (limit>=bestError)) {
+                            live3[lives3]=jj;
+                            ++lives3;
+                        }
+                    }
+                    live2=live3;
+                    lives=lives3;
+                }
+                double bestError=Double.POSITIVE_INFINITY;
+                int bestPrevious=-1;
+                for (int ll=0; lives>ll; ++ll) {
+                    int ii=live2[ll];
+                    double error=errors[clusters-1][ii]+cycle.variance(ii, end);
+                    ++evaluations;
+                    if (bestError>error) {
+                        bestError=error;
+                        bestPrevious=ii;
+                    }
+                }
+                if (0>bestPrevious) {
+                    ++prunedStarts;
+                    return Double.POSITIVE_INFINITY;
+                }
+                thresholds[0]=start;
+                thresholds[clusters]=end;
+                thresholds[clusters-1]=bestPrevious;
+                for (int cc=clusters-1; 1<cc; --cc) {
+                    thresholds[cc-1]=previous[cc][thresholds[cc]];
+                }
+                double error=0.0;
+                for (int cc=0; clusters>cc; ++cc) {
+                    error+=cycle.variance(thresholds[cc], thresholds[cc+1]);
+                }
+                best=Thresholds.better(best, error, thresholds);
+                return error;
+            }
+        }
+
+        /**
+         * Searches all the cyclic partitions of the histogram without rotating it.
+         * Every partition is enumerated once, by its smallest threshold.
+         * The best linear partition, the partitions with the smallest threshold 0, is searched first.
+         * The starts up to its first threshold are searched next, they usually contain the best cyclic partition,
+         * and then the remaining starts, all of them pruned by the best error found so far.
+         * A start is skipped when the bin before it is empty, as the start before it has the same partitions
+         * with the same errors.
+         * The search stays exact, so it still takes O(clusters*bins^3) time in the worst case.
+         * The variances of the intervals don't satisfy the quadrangle inequality,
+         * the best cyclic partition may have no threshold before the first threshold of the best linear partition.
+         * The stats record the number of variance evaluations, and the number of pruned and skipped starts.
+         *
+         * @param cycle the histogram returned by {@link Histogram#cycle()}
+         */
+        private void clusterCyclic(Histogram cycle, Continuation<Clusters> continuation) throws Throwable {
+            Search linear=new Search();
+            double linearError=linear.threshold(cycle, Double.POSITIVE_INFINITY, 0);
+            DoubleAccumulator bestError=new DoubleAccumulator(Math::min, linearError);
+            int lastStart=bins-clusters;
+            int middle=Math.min(linear.best.thresholds[1], lastStart)+1;
+            List<Search> searches=new ArrayList<>();
+            searches.add(linear);
+            Continuations.IntForks<Search> forks=(from, to)->(continuation2)->{
+                Search search=new Search();
+                for (int ss=from; to>ss; ++ss) {
+                    context.checkStopped();
+                    if (0==cycle.counts[ss-1]) {
+                        ++search.skippedStarts;
+                        continue;
+                    }
+                    double limit=(null==search.best)?bestError.get():Math.min(search.best.error, bestError.get());
+                    bestError.accumulate(search.threshold(cycle, limit, ss));
+                }
+                continuation2.completed(search);
+            };
+            Continuations.forkJoin(
+                    forks,
+                    1,
+                    middle,
+                    Continuations.<List<Search>, List<Search>>map(
+                            (searches2, continuation2)->{
+                                searches.addAll(searches2);
+                                Continuations.forkJoin(
+                                        forks,
+                                        middle,
+                                        lastStart+1,
+                                        continuation2,
+                                        context.executor());
+                            },
+                            Continuations.map(
+                                    (searches2, continuation2)->{
+                                        searches.addAll(searches2);
+                                        continuation2.completed(clusters(searches));
+                                    },
+                                    continuation)),
+                    context.executor());
+        }
+
+        private Clusters clusters(List<Search> searches) {
+            long evaluations=0L;
+            long prunedStarts=0L;
+            long skippedStarts=0L;
+            List<Thresholds> thresholdsList=new ArrayList<>(searches.size());
+            for (Search search: searches) {
+                evaluations+=search.evaluations;
+                prunedStarts+=search.prunedStarts;
+                skippedStarts+=search.skippedStarts;
+                if (null!=search.best) {
+                    thresholdsList.add(search.best);
+                }
+            }
+            Thresholds thresholds=Thresholds.best(thresholdsList).first;
+            List<List<Vector>> centers=new ArrayList<>(clusters);
+            for (int cc=0; clusters>cc; ++cc) {
+                int from=thresholds.thresholds[cc];
+                int to=thresholds.thresholds[cc+1];
+                if (from>=to) {
+                    throw new IllegalStateException();
+                }
+                if (bins>=to) {
+                    centers.add(center(from, to));
+                }
+                else {
+                    List<Vector> center=new ArrayList<>(4);
+                    center.addAll(center(from, bins));
+                    center.addAll(center(0, to-bins));
+                    centers.add(Collections.unmodifiableList(center));
+                }
+            }
+            Map<String, Object> stats=new HashMap<>();
+            stats.put("pruned-starts", prunedStarts);
+            stats.put("skipped-starts", skippedStarts);
+            stats.put("variance-evaluations", evaluations);
+            return new Clusters(Collections.unmodifiableList(centers), thresholds.error, stats);
+        }
+
+        /**
+         * Enumerates all the rotations of the histogram and thresholds them one by one.
+         */
+        private void clusterShifts(Histogram histogram, Continuation<Clusters> continuation) throws Throwable {
             List<AsyncSupplier<Thresholds>> forks=new ArrayList<>(bins);
             for (int tt=0; bins>tt; ++tt) {
                 int uu=tt;
@@ -113,29 +324,74 @@ public abstract class Otsu {
             this.moment2Sums=moment2Sums;
         }
 
-        private static Histogram create(List<PartialHistogram> histograms) {
-            int bins=histograms.get(0).bins;
+        /**
+         * Merges the partial histograms in parallel. Every fork sums an interval of the bins of all the partials.
+         */
+        private static void create(
+                Context context, List<PartialHistogram> histograms, Continuation<Histogram> continuation)
+                throws Throwable {
+            int bins=histograms.get(0).counts.length;
+            boolean compensated=context.sum().compensated();
             int[] counts=new int[bins];
-            double[] moment1s=new double[bins];
-            double[] moment2s=new double[bins];
-            for (PartialHistogram histogram: histograms) {
-                for (int bb=0; bins>bb; ++bb) {
-                    counts[bb]+=histogram.counts[bb];
-                    moment1s[bb]+=histogram.moment1s[bb].sum();
-                    moment2s[bb]+=histogram.moment2s[bb].sum();
-                }
-            }
+            Sums moment1s=new Sums(bins, compensated);
+            Sums moment2s=new Sums(bins, compensated);
+            Continuations.forkJoin(
+                    (from, to)->(continuation2)->{
+                        for (PartialHistogram histogram: histograms) {
+                            for (int bb=from; to>bb; ++bb) {
+                                counts[bb]+=histogram.counts[bb];
+                                moment1s.add(bb, histogram.moment1s.sum(bb));
+                                moment2s.add(bb, histogram.moment2s.sum(bb));
+                            }
+                        }
+                        continuation2.completed(null);
+                    },
+                    0,
+                    bins,
+                    Continuations.map(
+                            (input, continuation2)->continuation2.completed(
+                                    create(compensated, counts, moment1s, moment2s)),
+                            continuation),
+                    context.executor());
+        }
+
+        private static Histogram create(boolean compensated, int[] counts, Sums moment1s, Sums moment2s) {
+            int bins=counts.length;
             int[] countSums=new int[bins+1];
             double[] moment1Sums=new double[bins+1];
             double[] moment2Sums=new double[bins+1];
+            Sums prefixSums=new Sums(2, compensated);
             for (int bb=0; bins>bb; ++bb) {
                 countSums[bb+1]=countSums[bb]+counts[bb];
-                moment1Sums[bb+1]=moment1Sums[bb]+moment1s[bb];
-                moment2Sums[bb+1]=moment2Sums[bb]+moment2s[bb];
+                prefixSums.add(0, moment1s.sum(bb));
+                prefixSums.add(1, moment2s.sum(bb));
+                moment1Sums[bb+1]=prefixSums.sum(0);
+                moment2Sums[bb+1]=prefixSums.sum(1);
             }
             return new Histogram(bins, counts, countSums, moment1Sums, moment2Sums);
         }
 
+        /**
+         * Returns a histogram of 2*bins bins which contains the counts of this twice.
+         * The values of the new histogram are the indices of the bins.
+         * Cyclic intervals of this can be evaluated as the intervals [from, to) of the new histogram,
+         * where 0&lt;=from&lt;bins and from&lt;to&lt;=from+bins.
+         */
+        private Histogram cycle() {
+            int[] counts=new int[2*bins];
+            System.arraycopy(this.counts, 0, counts, 0, bins);
+            System.arraycopy(this.counts, 0, counts, bins, bins);
+            int[] countSums=new int[2*bins+1];
+            double[] moment1Sums=new double[2*bins+1];
+            double[] moment2Sums=new double[2*bins+1];
+            for (int bb=0; 2*bins>bb; ++bb) {
+                countSums[bb+1]=countSums[bb]+counts[bb];
+                moment1Sums[bb+1]=moment1Sums[bb]+((double)counts[bb])*bb;
+                moment2Sums[bb+1]=moment2Sums[bb]+((double)counts[bb])*bb*bb;
+            }
+            return new Histogram(2*bins, counts, countSums, moment1Sums, moment2Sums);
+        }
+
         /**
          * Rotates counts right by shift index.
          */
@@ -176,8 +432,8 @@ public abstract class Otsu {
     }
 
     private static class Linear extends Otsu {
-        private Linear(int bins, int clusters, Context context, Points points) {
-            super(bins, clusters, context, points);
+        private Linear(int bins, int clusters, Context context, boolean exhaustive, Points points) {
+            super(bins, clusters, context, exhaustive, points);
         }
 
         @Override
@@ -205,26 +461,18 @@ public abstract class Otsu {
 
     /**
      * Histogram of a slice of the input data.
+     * Moments are accumulated in dense {@link Sums}, compensated if the Sum.Factory of the context is,
+     * and they are checked for finiteness only when read.
      */
     private static class PartialHistogram {
-        private final int bins;
         private final int[] counts;
-        private final Sum[] moment1s;
-        private final Sum[] moment2s;
-
-        private PartialHistogram(int bins, int[] counts, Sum[] moment1s, Sum[] moment2s) {
-            this.bins=bins;
-            this.counts=counts;
-            this.moment1s=moment1s;
-            this.moment2s=moment2s;
-        }
+        private final Sums moment1s;
+        private final Sums moment2s;
 
-        private PartialHistogram(int bins, int expectedSize, Sum.Factory sum) {
-            this(bins, new int[bins], new Sum[bins], new Sum[bins]);
-            for (int ii=0; bins>ii; ++ii) {
-                moment1s[ii]=sum.create(expectedSize);
-                moment2s[ii]=sum.create(expectedSize);
-            }
+        private PartialHistogram(int bins, boolean compensated) {
+            counts=new int[bins];
+            moment1s=new Sums(bins, compensated);
+            moment2s=new Sums(bins, compensated);
         }
     }
 
@@ -259,16 +507,80 @@ public abstract class Otsu {
         }
     }
 
+    /**
+     * Clusters the bins of the histogram instead of the input data.
+     * Every non-empty bin is replaced by the mean of its values weighted by the number of its values.
+     */
+    private static class Weighted extends Otsu {
+        private static final int MAX_LEAF_SIZE=64;
+
+        private final ClusteringStrategy<? super KDTree> strategy;
+
+        private Weighted(int bins, Context context, Points points, ClusteringStrategy<? super KDTree> strategy) {
+            super(bins, 0, context, false, points);
+            this.strategy=strategy;
+        }
+
+        /**
+         * The error of the clusters is increased by the squared deviation of the values from the means of their bins,
+         * so it's comparable to the error of the clustering of the input data.
+         * The error in the stats of the strategy is updated the same way,
+         * the deviation is recorded as histogram-bins-error.
+         */
+        @Override
+        protected void cluster(Histogram histogram, Continuation<Clusters> continuation) throws Throwable {
+            List<Vector> means=new ArrayList<>(bins);
+            int[] weights=new int[bins];
+            double error=0.0;
+            for (int bb=0; bins>bb; ++bb) {
+                int count=histogram.countSums[bb+1]-histogram.countSums[bb];
+                if (0>=count) {
+                    continue;
+                }
+                weights[means.size()]=count;
+                means.add(new Vector(new double[]{
+                        (histogram.moment1Sums[bb+1]-histogram.moment1Sums[bb])/count}));
+                error+=count*histogram.variance(bb, bb+1);
+            }
+            double binsError=error;
+            KDTree.create(
+                    context,
+                    MAX_LEAF_SIZE,
+                    new WeightedPoints(new VectorList(means), weights),
+                    Continuations.map(
+                            (tree, continuation2)->strategy.cluster(
+                                    context,
+                                    tree,
+                                    Continuations.map(
+                                            (clusters, continuation3)->{
+                                                double error2=clusters.error+binsError;
+                                                Map<String, Object> stats=new HashMap<>(clusters.stats);
+                                                if (stats.containsKey("error")) {
+                                                    stats.put("error", error2);
+                                                }
+                                                stats.put("histogram-bins-error", binsError);
+                                                continuation3.completed(new Clusters(
+                                                        clusters.centers,
+                                                        error2,
+                                                        Collections.unmodifiableMap(stats)));
+                                            },
+                                            continuation2)),
+                            continuation));
+        }
+    }
+
     protected final int bins;
     protected final int clusters;
     protected final Context context;
     protected double[] endpoints;
+    protected final boolean exhaustive;
     protected final Points points;
 
-    private Otsu(int bins, int clusters, Context context, Points points) {
+    private Otsu(int bins, int clusters, Context context, boolean exhaustive, Points points) {
         this.bins=bins;
         this.clusters=clusters;
         this.context=context;
+        this.exhaustive=exhaustive;
         this.points=points;
     }
 
@@ -285,15 +597,28 @@ public abstract class Otsu {
     /**
      * Modified Otsu's method for circular data like hues.
      * It considers all of the rotations of the histogram as well.
+     * Thresholds are selected by dynamic programming.
      *
      * @param bins the size of the histogram
      * @param clusters the number of clusters to generate
      */
     public static <P extends Points> ClusteringStrategy<P> circular(int bins, int clusters) {
+        return circular(bins, clusters, false);
+    }
+
+    /**
+     * Modified Otsu's method for circular data like hues.
+     * It considers all of the rotations of the histogram as well.
+     *
+     * @param bins the size of the histogram
+     * @param clusters the number of clusters to generate
+     * @param exhaustive enumerate all the combinations of thresholds instead of using dynamic programming
+     */
+    public static <P extends Points> ClusteringStrategy<P> circular(int bins, int clusters, boolean exhaustive) {
         return new ClusteringStrategy<>() {
             @Override
             public void cluster(Context context, P points, Continuation<Clusters> continuation) throws Throwable {
-                new Circular(bins, clusters, context, points)
+                new Circular(bins, clusters, context, exhaustive, points)
                         .otsu(continuation);
             }
 
@@ -302,6 +627,42 @@ public abstract class Otsu {
                 log.put("type", "otsu-circular");
                 log.put("bins", bins);
                 log.put("clusters", clusters);
+                log.put("exhaustive", exhaustive);
+            }
+        };
+    }
+
+    /**
+     * Clusters one dimensional data on its histogram by strategy.
+     * The histogram has bins bins of equal width between the minimum and maximum value of the data,
+     * every non-empty bin is clustered as a single vector, the mean of its values, weighted by its count.
+     * The iterations of strategy take time proportional to the number of bins instead of the size of the data.
+     * Data of other dimensionality is clustered directly by strategy.
+     *
+     * @param bins the size of the histogram
+     * @param strategy clustering algorithm to be used on the bins
+     */
+    public static ClusteringStrategy<KDTree> histogram(int bins, ClusteringStrategy<? super KDTree> strategy) {
+        if (1>bins) {
+            throw new IllegalArgumentException(Integer.toString(bins));
+        }
+        return new ClusteringStrategy<>() {
+            @Override
+            public void cluster(Context context, KDTree points, Continuation<Clusters> continuation)
+                    throws Throwable {
+                if (1!=points.dimensions()) {
+                    strategy.cluster(context, points, continuation);
+                    return;
+                }
+                new Weighted(bins, context, points, strategy)
+                        .createHistogram(continuation);
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "histogram");
+                log.put("bins", bins);
+                Log.logField("strategy", strategy, log);
             }
         };
     }
@@ -312,20 +673,32 @@ public abstract class Otsu {
     protected abstract void cluster(Histogram histogram, Continuation<Clusters> continuation) throws Throwable;
 
     private void histograms(List<PartialHistogram> histograms, Continuation<Clusters> continuation) throws Throwable {
-        cluster(Histogram.create(histograms), continuation);
+        Histogram.create(context, histograms, Continuations.map(this::cluster, continuation));
     }
 
     /**
      * The original Otsu's method.
+     * Thresholds are selected by dynamic programming.
      *
      * @param bins the size of the histogram
      * @param clusters the number of clusters to generate
      */
     public static <P extends Points> ClusteringStrategy<P> linear(int bins, int clusters) {
+        return linear(bins, clusters, false);
+    }
+
+    /**
+     * The original Otsu's method.
+     *
+     * @param bins the size of the histogram
+     * @param clusters the number of clusters to generate
+     * @param exhaustive enumerate all the combinations of thresholds instead of using dynamic programming
+     */
+    public static <P extends Points> ClusteringStrategy<P> linear(int bins, int clusters, boolean exhaustive) {
         return new ClusteringStrategy<>() {
             @Override
             public void cluster(Context context, P points, Continuation<Clusters> continuation) throws Throwable {
-                new Linear(bins, clusters, context, points)
+                new Linear(bins, clusters, context, exhaustive, points)
                         .otsu(continuation);
             }
 
@@ -334,6 +707,7 @@ public abstract class Otsu {
                 log.put("type", "otsu-linear");
                 log.put("bins", bins);
                 log.put("clusters", clusters);
+                log.put("exhaustive", exhaustive);
             }
         };
     }
@@ -356,15 +730,14 @@ public abstract class Otsu {
         for (int ii=0; bins>ii; ++ii) {
             endpoints[ii+1]=Math.max(endpoints[ii+1], endpoints[ii]+Math.ulp(endpoints[ii]));
         }
+        double scale=bins/(endpoints[bins]-endpoints[0]);
         Continuations.IntForks<PartialHistogram> forks=(from, to)->new AsyncSupplier<>() {
+            /**
+             * Selects the bin of value in constant time.
+             * The estimate based on the uniform width of the bins can only be off by the rounding of endpoints.
+             */
             private int bin(double value) {
-                if (endpoints[1]>value) {
-                    return 0;
-                }
-                if (endpoints[bins-1]<=value) {
-                    return bins-1;
-                }
-                int bin=(int)(bins*(value-endpoints[0])/(endpoints[bins]-endpoints[0]));
+                int bin=(int)((value-endpoints[0])*scale);
                 if (0>bin) {
                     return 0;
                 }
@@ -376,7 +749,7 @@ public abstract class Otsu {
                         --bin;
                     }
                 }
-                else if (endpoints[bin+1]<=value) {
+                else if ((bins-1>bin) && (endpoints[bin+1]<=value)) {
                     while ((bins-1>bin) && (endpoints[bin+1]<=value)) {
                         ++bin;
                     }
@@ -386,13 +759,17 @@ public abstract class Otsu {
 
             @Override
             public void get(Continuation<PartialHistogram> continuation2) throws Throwable {
-                PartialHistogram histogram=new PartialHistogram(bins, points.size()/bins+1, context.sum());
+                PartialHistogram histogram=new PartialHistogram(bins, context.sum().compensated());
+                int[] counts=histogram.counts;
+                Sums moment1s=histogram.moment1s;
+                Sums moment2s=histogram.moment2s;
                 for (int ii=from; to>ii; ++ii) {
                     double vv=points.get(0, ii);
+                    int weight=points.weight(ii);
                     int bin=bin(vv);
-                    ++histogram.counts[bin];
-                    histogram.moment1s[bin].add(vv);
-                    histogram.moment2s[bin].add(vv*vv);
+                    counts[bin]+=weight;
+                    moment1s.add(bin, weight*vv);
+                    moment2s.add(bin, weight*vv*vv);
                 }
                 continuation2.completed(histogram);
             }
@@ -406,20 +783,9 @@ public abstract class Otsu {
     }
 
     /**
-     * Starts the thresholding by computing the minimum and maximum value of the input data.
+     * Starts the creation of the histogram by computing the minimum and maximum value of the input data.
      */
-    protected void otsu(Continuation<Clusters> continuation) throws Throwable {
-        if (2>clusters) {
-            throw new RuntimeException(String.format("not enough clusters required: %1$d", clusters));
-        }
-        if (bins<clusters) {
-            throw new RuntimeException(String.format(
-                    "fewer bins than clusters. bins %1$d, clusters: %2$d", bins, clusters));
-        }
-        if (1!=points.dimensions()) {
-            throw new RuntimeException(String.format(
-                    "Otsu's method only works on single dimensional data. dim.: %1$d", points.dimensions()));
-        }
+    protected void createHistogram(Continuation<Clusters> continuation) throws Throwable {
         Continuations.forkJoin(
                 (from, to)->(continuation2)->{
                     double max=points.minValue();
@@ -438,9 +804,87 @@ public abstract class Otsu {
     }
 
     /**
-     * Selects the best threshold. Forks on all of the possible first threshold.
+     * Starts the thresholding by creating the histogram of the input data.
+     */
+    protected void otsu(Continuation<Clusters> continuation) throws Throwable {
+        if (2>clusters) {
+            throw new RuntimeException(String.format("not enough clusters required: %1$d", clusters));
+        }
+        if (bins<clusters) {
+            throw new RuntimeException(String.format(
+                    "fewer bins than clusters. bins %1$d, clusters: %2$d", bins, clusters));
+        }
+        if (1!=points.dimensions()) {
+            throw new RuntimeException(String.format(
+                    "Otsu's method only works on single dimensional data. dim.: %1$d", points.dimensions()));
+        }
+        createHistogram(continuation);
+    }
+
+    /**
+     * Selects the best thresholds.
      */
     protected void threshold(Histogram histogram, Continuation<Thresholds> continuation) throws Throwable {
+        if (exhaustive) {
+            thresholdExhaustive(histogram, continuation);
+        }
+        else {
+            continuation.completed(thresholdDynamic(histogram));
+        }
+    }
+
+    /**
+     * Selects the best thresholds by dynamic programming in O(clusters*bins^2) time.
+     * errors[cc][ii] is the smallest error of the partitioning of the bins [ii, bins) into cc+1 clusters,
+     * and next[cc][ii] is the first threshold of that partitioning.
+     * Ties are resolved in favor of the smaller threshold, like the order of the exhaustive search.
+     */
+    protected Thresholds thresholdDynamic(Histogram histogram) throws Throwable {
+        double[][] errors=new double[clusters][bins];
+        int[][] next=new int[clusters][bins];
+        for (int ii=clusters-1; bins>ii; ++ii) {
+            errors[0][ii]=histogram.variance(ii, bins);
+        }
+        for (int cc=1; clusters>cc; ++cc) {
+            context.checkStopped();
+            double[] errors2=errors[cc-1];
+            int firstBin=clusters-1-cc;
+            int lastBin=bins-1-cc;
+            for (int ii=firstBin; lastBin>=ii; ++ii) {
+                double bestError=Double.POSITIVE_INFINITY;
+                int bestNext=-1;
+                for (int jj=ii+1; lastBin+1>=jj; ++jj) {
+                    double error=histogram.variance(ii, jj)+errors2[jj];
+                    if (bestError>error) {
+                        bestError=error;
+                        bestNext=jj;
+                    }
+                }
+                if (0>bestNext) {
+                    throw new IllegalStateException("empty cluster");
+                }
+                errors[cc][ii]=bestError;
+                next[cc][ii]=bestNext;
+            }
+        }
+        int[] thresholds=new int[clusters+1];
+        thresholds[clusters]=bins;
+        for (int cc=1; clusters>cc; ++cc) {
+            thresholds[cc]=next[clusters-cc][thresholds[cc-1]];
+        }
+        double error=0.0;
+        for (int cc=0; clusters>cc; ++cc) {
+            error+=histogram.variance(thresholds[cc], thresholds[cc+1]);
+        }
+        return new Thresholds(error, thresholds);
+    }
+
+    /**
+     * Selects the best thresholds by enumerating all the combinations.
+     * Forks on all of the possible first threshold.
+     */
+    protected void thresholdExhaustive(Histogram histogram, Continuation<Thresholds> continuation)
+            throws Throwable {
         int[] thresholds=new int[clusters+1];
         thresholds[clusters]=bins;
         int firstBin=1;
@@ -452,7 +896,7 @@ public abstract class Otsu {
                 context.checkStopped();
                 int[] thresholds2=Arrays.copyOf(thresholds, thresholds.length);
                 thresholds2[1]=uu;
-                Thresholds best2=threshold(
+                Thresholds best2=thresholdExhaustive(
                         histogram,
                         null,
                         histogram.variance(0, uu),
@@ -477,7 +921,7 @@ public abstract class Otsu {
      * @param thresholds the indices of selected thresholds
      * @param selectedThresholds the number of selected thresholds
      */
-    protected Thresholds threshold(
+    protected Thresholds thresholdExhaustive(
             Histogram histogram, Thresholds best, double error, int[] thresholds, int selectedThresholds)
             throws Throwable {
         context.checkStopped();
@@ -495,7 +939,7 @@ public abstract class Otsu {
         }
         for (int tt=firstBin; lastBin>=tt; ++tt) {
             thresholds[selectedThresholds+1]=tt;
-            best=threshold(
+            best=thresholdExhaustive(
                     histogram,
                     best,
                     error+histogram.variance(thresholds[selectedThresholds], thresholds[selectedThresholds+1]),
@@ -153,7 +153,7 @@ public interface ReplaceEmptyCluster<P extends Points> extends Log {
                     List<Vector> centers, Context context, int maxIterations, P points, List<Points> points2,
                     Continuation<Vector> continuation) throws Throwable {
                 for (int ii=maxIterations; 0<ii; --ii) {
-                    Vector point=points.get(context.random().nextInt(points.size()));
+                    Vector point=points.get(points.randomIndex(context.random()));
                     if (!centers.contains(point)) {
                         continuation.completed(point);
                         return;
@@ -0,0 +1,104 @@
+package dog.giraffe.cluster;
+
+import dog.giraffe.Context;
+import dog.giraffe.Log;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.threads.AsyncSupplier;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A method for clustering vectors which are read on demand line by line.
+ * Unlike {@link ClusteringStrategy} the data points are never held in memory all at once.
+ */
+public interface StreamingClusteringStrategy extends Log {
+    /**
+     * A source of data points organized into lines, like the pixels of an image.
+     */
+    interface Lines {
+        /**
+         * Creates a new {@link MutablePoints} instance compatible with the data points.
+         */
+        MutablePoints createPoints(int expectedSize) throws Throwable;
+
+        /**
+         * Returns the number of lines.
+         */
+        int lines();
+
+        /**
+         * Returns a new {@link Reader} object that can be used to read lines.
+         */
+        Reader reader() throws Throwable;
+
+        /**
+         * Returns the maximum number of data points in a line.
+         */
+        int width();
+    }
+
+    /**
+     * A Reader contains all information to read a line of data points.
+     * Readers doesn't have to be thread-safe.
+     */
+    interface Reader {
+        /**
+         * Replaces the content of points with the data points of the line yy.
+         */
+        void setLineTo(int yy, MutablePoints points) throws Throwable;
+    }
+
+    /**
+     * Executes all the strategies and selects the result with the smallest error.
+     * All the strategies will be run in parallel.
+     */
+    static StreamingClusteringStrategy best(List<StreamingClusteringStrategy> strategies) {
+        if (strategies.isEmpty()) {
+            throw new IllegalArgumentException("empty strategies");
+        }
+        if (1==strategies.size()) {
+            return strategies.get(0);
+        }
+        return new StreamingClusteringStrategy() {
+            @Override
+            public void cluster(Context context, Lines lines, Continuation<Clusters> continuation) throws Throwable {
+                List<AsyncSupplier<Clusters>> forks=new ArrayList<>(strategies.size());
+                for (StreamingClusteringStrategy strategy: strategies) {
+                    forks.add((continuation2)->{
+                        context.checkStopped();
+                        strategy.cluster(context, lines, continuation2);
+                    });
+                }
+                Continuation<List<Clusters>> join=Continuations.map(
+                        (clustersList, continuation2)->{
+                            Clusters best=null;
+                            for (Clusters clusters: clustersList) {
+                                if ((null==best)
+                                        || (best.error>clusters.error)) {
+                                    best=clusters;
+                                }
+                            }
+                            continuation2.completed(best);
+                        },
+                        continuation);
+                Continuations.forkJoin(forks, join, context.executor());
+            }
+
+            @Override
+            public void log(Map<String, Object> log) throws Throwable {
+                log.put("type", "best");
+                for (int ii=0; strategies.size()>ii; ++ii) {
+                    Log.logField(String.format("strategy%1$02d", ii), strategies.get(ii), log);
+                }
+            }
+        };
+    }
+
+    /**
+     * Cluster the data points of lines.
+     */
+    void cluster(Context context, Lines lines, Continuation<Clusters> continuation) throws Throwable;
+}
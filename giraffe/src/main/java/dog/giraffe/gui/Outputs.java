@@ -2,6 +2,7 @@ package dog.giraffe.gui;
 
 import dog.giraffe.cluster.ClusterColors;
 import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Hamerly;
 import dog.giraffe.cluster.InitialCenters;
 import dog.giraffe.cluster.Isodata;
 import dog.giraffe.cluster.KMeans;
@@ -236,6 +237,25 @@ public class Outputs {
                                     return ClusteringStrategy.best(strategies);
                                 };
                                 break;
+                            case K_MEANS_HAMERLY:
+                                if (initialCenters.isEmpty()) {
+                                    throw new RuntimeException("no strategy to select initial centers");
+                                }
+                                if (replaceEmptyClusters.isEmpty()) {
+                                    throw new RuntimeException("no strategy to select replacement for empty clusters");
+                                }
+                                strategyGenerator=(clusters)->{
+                                    List<ClusteringStrategy<KDTree>> strategies=new ArrayList<>();
+                                    initialCenters.forEach((init)->replaceEmptyClusters.forEach((replace)->
+                                            strategies.add(Hamerly.hamerly(
+                                                    clusters,
+                                                    cluster.errorLimit,
+                                                    init,
+                                                    cluster.maxIterations,
+                                                    replace))));
+                                    return ClusteringStrategy.best(strategies);
+                                };
+                                break;
                             case OTSU:
                                 strategyGenerator=(clusters)->Otsu.linear(cluster.bins, clusters);
                                 break;
@@ -257,11 +277,11 @@ public class Outputs {
                     switch (cluster.type) {
                         case CLUSTER_1:
                             return Cluster1.create(
-                                    image, ClusterColors.falseColors(0, 1, 2), mask, strategy);
+                                    image, ClusterColors.falseColors(0, 1, 2), false, mask, strategy);
                         case CLUSTER_HUE:
-                            return Cluster2.createHue(image, mask, strategy);
+                            return Cluster2.createHue(image, false, mask, strategy);
                         case CLUSTER_HYPER_HUE:
-                            return Cluster2.createHyperHue(image, mask, strategy);
+                            return Cluster2.createHyperHue(image, false, mask, strategy);
                         default:
                             throw new RuntimeException("unexpected cluster type "+cluster.type);
                     }
@@ -13,6 +13,11 @@ public class SubContext implements Context {
         this.context=context;
     }
 
+    @Override
+    public void clusteringError(double error) {
+        context.clusteringError(error);
+    }
+
     @Override
     public void close() {
         closed=true;
@@ -8,6 +8,7 @@ public interface Transform {
         public enum Algorithm {
             ISODATA("isodata"),
             K_MEANS("k-means"),
+            K_MEANS_HAMERLY("k-means Hamerly"),
             OTSU("Otsu"),
             OTSU_CIRCULAR("Otsu-circular");
 
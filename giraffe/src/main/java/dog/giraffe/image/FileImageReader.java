@@ -22,8 +22,15 @@ import javax.imageio.stream.ImageInputStream;
 
 /**
  * An {@link ImageReader} that reads every line directly from disk.
+ * Baseline JPEGs and non-interlaced PNGs are decoded sequentially by a {@link StripDecoder},
+ * other images are read line by line with a one line source region.
  */
 public abstract class FileImageReader implements ImageReader {
+    /**
+     * The number of lines kept by a pass of the {@link StripDecoder}.
+     */
+    public static final int STRIP_LINES=64;
+
     private static class UnsignedByte extends FileImageReader {
         public UnsignedByte(
                 ImageInputStream imageInputStream, javax.imageio.ImageReader imageReader, Path path) throws Throwable {
@@ -74,6 +81,7 @@ public abstract class FileImageReader implements ImageReader {
     protected final javax.imageio.ImageReader imageReader;
     protected final Object lock=new Object();
     private final Path path;
+    private final StripDecoder stripDecoder;
     protected final int width;
 
     /**
@@ -87,15 +95,23 @@ public abstract class FileImageReader implements ImageReader {
         dimensions=imageReader.getRawImageType(0).getNumBands();
         height=imageReader.getHeight(0);
         width=imageReader.getWidth(0);
+        stripDecoder=StripDecoder.create(imageReader, path, STRIP_LINES);
     }
 
     @Override
     public void close() throws IOException {
         try {
-            imageReader.dispose();
+            if (null!=stripDecoder) {
+                stripDecoder.close();
+            }
         }
         finally {
-            imageInputStream.close();
+            try {
+                imageReader.dispose();
+            }
+            finally {
+                imageInputStream.close();
+            }
         }
     }
 
@@ -165,6 +181,7 @@ public abstract class FileImageReader implements ImageReader {
     public void log(Map<String, Object> log) {
         log.put("buffered", true);
         log.put("file", path);
+        log.put("streaming", null!=stripDecoder);
         log.put("type", logType());
     }
 
@@ -175,6 +192,9 @@ public abstract class FileImageReader implements ImageReader {
 
     @Override
     public void prepare(Context context, Continuation<Void> continuation) throws Throwable {
+        if (null!=stripDecoder) {
+            stripDecoder.threads(context.executor().threads());
+        }
         continuation.completed(null);
     }
 
@@ -185,14 +205,19 @@ public abstract class FileImageReader implements ImageReader {
 
             @Override
             public void setNormalizedLineTo(int yy, MutablePoints points, int offset) throws Throwable {
-                ImageReadParam readParam=new ImageReadParam();
-                readParam.setSourceRegion(new Rectangle(0, yy, width, 1));
-                BufferedImage lineImage;
-                synchronized (lock) {
-                    lineImage=imageReader.read(0, readParam);
+                if (null==stripDecoder) {
+                    ImageReadParam readParam=new ImageReadParam();
+                    readParam.setSourceRegion(new Rectangle(0, yy, width, 1));
+                    BufferedImage lineImage;
+                    synchronized (lock) {
+                        lineImage=imageReader.read(0, readParam);
+                    }
+                    Raster raster=lineImage.getRaster();
+                    buffer=raster.getPixels(0, 0, width, 1, buffer);
+                }
+                else {
+                    buffer=stripDecoder.pixels(yy, buffer);
                 }
-                Raster raster=lineImage.getRaster();
-                buffer=raster.getPixels(0, 0, width, 1, buffer);
                 for (int ii=0, xx=0; width>xx; ++xx, ++offset) {
                     for (int dd=0; dimensions>dd; ++dd, ++ii) {
                         setNormalized(points, dd, offset, buffer[ii]);
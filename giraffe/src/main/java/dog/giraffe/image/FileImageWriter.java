@@ -5,11 +5,16 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.TreeMap;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
@@ -18,41 +23,68 @@ import javax.imageio.stream.ImageOutputStream;
 
 /**
  * An {@link ImageWriter} that writes an image line by line to the disk directly.
- * Instances will only buffer line data for lines actively written to by some thread.
+ *
+ * Finished lines are queued, and written by a dedicated thread in strips of consecutive lines.
+ * Lines can be finished in any order, the writer thread collects the runs of consecutive lines.
+ * Threads finishing lines wait when the queue is full.
+ * All lines are written by the time the writer is closed.
  */
 public class FileImageWriter implements ImageWriter {
+    /**
+     * The maximum number of lines waiting to be written.
+     */
+    public static final int QUEUE_LINES=256;
+    /**
+     * The maximum number of lines written at once.
+     */
+    public static final int STRIP_LINES=64;
+
     private class LineImpl implements Line {
-        private final int[] data;
-        private final BufferedImage image;
+        private final byte[] data;
         private final int yy;
 
         private LineImpl(int yy) {
             this.yy=yy;
-            data=new int[dimensions*width];
-            image=Images.createUnsignedByte(width, 1, dimensions);
+            byte[] data2;
+            synchronized (lock) {
+                data2=free.pollFirst();
+            }
+            data=(null==data2)?new byte[dimensions*width]:data2;
         }
 
         @Override
         public void setNormalized(int dimension, int xx, double value) {
-            data[dimensions*xx+dimension]=UnsignedByteArrayPoints.denormalize(value)&0xff;
+            data[dimensions*xx+dimension]=UnsignedByteArrayPoints.denormalize(value);
         }
 
         @Override
         public void write() throws Throwable {
-            image.getRaster().setPixels(0, 0, width, 1, data);
-            ImageWriteParam writeParam=new ImageWriteParam(Locale.US);
-            writeParam.setDestinationOffset(new Point(0, yy));
             synchronized (lock) {
-                imageWriter.replacePixels(image, writeParam);
+                while ((null==error) && (QUEUE_LINES<=queue.size())) {
+                    lock.wait();
+                }
+                if (null!=error) {
+                    throw new IOException("writing failed", error);
+                }
+                if (closed) {
+                    throw new IllegalStateException("closed");
+                }
+                queue.put(yy, data);
+                lock.notifyAll();
             }
         }
     }
 
+    private boolean closed;
     private final int dimensions;
+    private Throwable error;
+    private final Deque<byte[]> free=new ArrayDeque<>();
     private final ImageOutputStream imageOutputStream;
     private final javax.imageio.ImageWriter imageWriter;
     protected final Object lock=new Object();
     private final Path path;
+    private final NavigableMap<Integer, byte[]> queue=new TreeMap<>();
+    private final Thread thread;
     private final int width;
 
     private FileImageWriter(
@@ -63,13 +95,31 @@ public class FileImageWriter implements ImageWriter {
         this.imageWriter=imageWriter;
         this.path=path;
         this.width=width;
+        thread=new Thread(this::writeStrips, "image-writer "+path);
+        thread.setDaemon(true);
     }
 
     @Override
     public void close() throws IOException {
+        Throwable error2;
         try {
             try {
-                imageWriter.endReplacePixels();
+                try {
+                    synchronized (lock) {
+                        closed=true;
+                        lock.notifyAll();
+                    }
+                    thread.join();
+                }
+                catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                synchronized (lock) {
+                    error2=error;
+                }
+                if (null==error2) {
+                    imageWriter.endReplacePixels();
+                }
             }
             finally {
                 imageWriter.dispose();
@@ -78,6 +128,9 @@ public class FileImageWriter implements ImageWriter {
         finally {
             imageOutputStream.close();
         }
+        if (null!=error2) {
+            throw new IOException("writing failed", error2);
+        }
     }
 
     private static FileImageWriter create(
@@ -105,6 +158,7 @@ public class FileImageWriter implements ImageWriter {
                 iw.endWriteEmpty();
                 iw.prepareReplacePixels(0, new Rectangle(0, 0, width, height));
                 FileImageWriter result=new FileImageWriter(dimensions, ios, iw, path, width);
+                result.thread.start();
                 error=false;
                 return result;
             }
@@ -140,5 +194,82 @@ public class FileImageWriter implements ImageWriter {
     public void log(Map<String, Object> log) {
         log.put("buffered", false);
         log.put("file", path);
+        log.put("strip-lines", STRIP_LINES);
+    }
+
+    /**
+     * Removes the lines ready to be written from the queue.
+     * Only runs of at least STRIP_LINES consecutive lines are ready,
+     * unless the queue is half full or the writer is closed.
+     */
+    private NavigableMap<Integer, byte[]> readyLines() {
+        NavigableMap<Integer, byte[]> lines=new TreeMap<>();
+        if (closed || (QUEUE_LINES/2<=queue.size())) {
+            lines.putAll(queue);
+            queue.clear();
+            return lines;
+        }
+        int start=-1;
+        int previous=-2;
+        for (int yy: queue.keySet()) {
+            if (previous+1!=yy) {
+                start=yy;
+            }
+            previous=yy;
+            if (start+STRIP_LINES-1==yy) {
+                lines.putAll(queue.subMap(start, true, yy, true));
+                start=yy+1;
+            }
+        }
+        queue.keySet().removeAll(lines.keySet());
+        return lines;
+    }
+
+    /**
+     * The body of the writer thread.
+     */
+    private void writeStrips() {
+        try {
+            BufferedImage strip=Images.createUnsignedByte(width, STRIP_LINES, dimensions);
+            byte[] stripData=((DataBufferByte)strip.getRaster().getDataBuffer()).getData();
+            int lineLength=dimensions*width;
+            while (true) {
+                NavigableMap<Integer, byte[]> lines;
+                synchronized (lock) {
+                    while (true) {
+                        lines=readyLines();
+                        if ((!lines.isEmpty()) || closed) {
+                            break;
+                        }
+                        lock.wait();
+                    }
+                    lock.notifyAll();
+                }
+                if (lines.isEmpty()) {
+                    return;
+                }
+                while (!lines.isEmpty()) {
+                    int start=lines.firstKey();
+                    int length=0;
+                    for (byte[] data; (STRIP_LINES>length) && (null!=(data=lines.remove(start+length))); ++length) {
+                        System.arraycopy(data, 0, stripData, length*lineLength, lineLength);
+                        synchronized (lock) {
+                            free.addLast(data);
+                        }
+                    }
+                    ImageWriteParam writeParam=new ImageWriteParam(Locale.US);
+                    writeParam.setDestinationOffset(new Point(0, start));
+                    imageWriter.replacePixels(
+                            (STRIP_LINES==length)?strip:strip.getSubimage(0, 0, width, length),
+                            writeParam);
+                }
+            }
+        }
+        catch (Throwable throwable) {
+            synchronized (lock) {
+                error=throwable;
+                lock.notifyAll();
+            }
+        }
     }
 }
@@ -135,6 +135,7 @@ public interface ImageWriter extends AutoCloseable, Log {
                                     Map<String, Object> log=new TreeMap<>();
                                     Log.logElapsedTime(start, end, log);
                                     Log.logImages(image, log);
+                                    Log.logKernels(log);
                                     Log.logWriter(imageWriter2, log);
                                     logger.accept(log);
                                 }
@@ -0,0 +1,335 @@
+package dog.giraffe.image;
+
+import dog.giraffe.Context;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.points.UnsignedShortArrayPoints;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.util.Supplier;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An {@link ImageReader} for raw images described by an ENVI header.
+ *
+ * The data file is memory mapped, and lines are copied from the mapping by every read,
+ * for band sequential (bsq), band interleaved by line (bil), and band interleaved by pixel (bip) data.
+ * Images larger than the heap can be read, as only the lines read are copied to the heap.
+ * Unsigned 8 bit (data type 1) and unsigned 16 bit (data type 12) samples are supported.
+ */
+public class MappedRawImageReader implements ImageReader {
+    /**
+     * The size of a single mapping is 2<sup>MAPPING_SHIFT</sup> bytes, except for the last one.
+     */
+    public static final int MAPPING_SHIFT=30;
+    private static final String[] DATA_EXTENSIONS={"", ".img", ".dat", ".raw", ".bsq", ".bil", ".bip"};
+
+    private final long bandStride;
+    private ByteBuffer[] buffers;
+    private final int dimensions;
+    private final int height;
+    private final String interleave;
+    private final long lineStride;
+    private final long mask;
+    private final Path path;
+    private final long pixelStride;
+    private final int shift;
+    private final boolean unsignedShort;
+    private final int width;
+
+    private MappedRawImageReader(
+            long bandStride, ByteBuffer[] buffers, int dimensions, int height, String interleave, long lineStride,
+            Path path, long pixelStride, int shift, boolean unsignedShort, int width) {
+        this.bandStride=bandStride;
+        this.buffers=buffers;
+        this.dimensions=dimensions;
+        this.height=height;
+        this.interleave=interleave;
+        this.lineStride=lineStride;
+        this.path=path;
+        this.pixelStride=pixelStride;
+        this.shift=shift;
+        this.unsignedShort=unsignedShort;
+        this.width=width;
+        mask=(1L<<shift)-1L;
+    }
+
+    /**
+     * Drops the references to the mappings, so they can be unmapped by the garbage collector.
+     * The file channel is already closed after the file has been mapped.
+     */
+    @Override
+    public void close() {
+        buffers=null;
+    }
+
+    /**
+     * Creates a reader for the image described by the ENVI header headerPath, stored in dataPath.
+     *
+     * @param shift the size of a mapping is at most 2<sup>shift</sup>
+     */
+    public static MappedRawImageReader create(Path dataPath, Path headerPath, int shift) throws Throwable {
+        Map<String, String> header=header(headerPath);
+        if (!standard(header)) {
+            throw new IOException("unsupported file type "+header.get("file type"));
+        }
+        int width=intValue(header, "samples");
+        int height=intValue(header, "lines");
+        int dimensions=intValue(header, "bands");
+        long headerOffset=header.containsKey("header offset")?Long.parseLong(header.get("header offset")):0L;
+        ByteOrder order="1".equals(header.get("byte order"))?ByteOrder.BIG_ENDIAN:ByteOrder.LITTLE_ENDIAN;
+        boolean unsignedShort;
+        switch (intValue(header, "data type")) {
+            case 1:
+                unsignedShort=false;
+                break;
+            case 12:
+                unsignedShort=true;
+                break;
+            default:
+                throw new IOException("unsupported data type "+header.get("data type"));
+        }
+        if ((0>=width) || (0>=height) || (0>=dimensions) || (0L>headerOffset)) {
+            throw new IOException("invalid header "+header);
+        }
+        long sampleSize=unsignedShort?2L:1L;
+        String interleave=header.getOrDefault("interleave", "").toLowerCase(Locale.ROOT);
+        long bandStride;
+        long lineStride;
+        long pixelStride;
+        switch (interleave) {
+            case "bil":
+                bandStride=sampleSize*width;
+                lineStride=sampleSize*width*dimensions;
+                pixelStride=sampleSize;
+                break;
+            case "bip":
+                bandStride=sampleSize;
+                lineStride=sampleSize*width*dimensions;
+                pixelStride=sampleSize*dimensions;
+                break;
+            case "bsq":
+                bandStride=sampleSize*width*height;
+                lineStride=sampleSize*width;
+                pixelStride=sampleSize;
+                break;
+            default:
+                throw new IOException("unsupported interleave "+interleave);
+        }
+        long length=sampleSize*width*height*dimensions;
+        if ((sampleSize>(1L<<shift)) || (Integer.MAX_VALUE<(length>>>shift))) {
+            throw new IOException("invalid mapping size "+shift);
+        }
+        ByteBuffer[] buffers=new ByteBuffer[(int)((length+(1L<<shift)-1L)>>>shift)];
+        try (FileChannel channel=FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            if (channel.size()<headerOffset+length) {
+                throw new IOException(String.format(
+                        "data file too short; expected: %1$d, actual: %2$d", headerOffset+length, channel.size()));
+            }
+            for (int bb=0; buffers.length>bb; ++bb) {
+                long position=(long)bb<<shift;
+                buffers[bb]=channel.map(
+                                FileChannel.MapMode.READ_ONLY,
+                                headerOffset+position,
+                                Math.min(1L<<shift, length-position))
+                        .order(order);
+            }
+        }
+        return new MappedRawImageReader(
+                bandStride, buffers, dimensions, height, interleave, lineStride, dataPath, pixelStride, shift,
+                unsignedShort, width);
+    }
+
+    @Override
+    public MutablePoints createPoints(int dimensions, int expectedSize) {
+        return unsignedShort
+                ?new UnsignedShortArrayPoints(dimensions, expectedSize)
+                :new UnsignedByteArrayPoints(dimensions, expectedSize);
+    }
+
+    @Override
+    public List<Image> dependencies() {
+        return List.of();
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Creates a factory that creates a {@link MappedRawImageReader} when path is the header or the data file
+     * of a raw ENVI image, and falls back to fallback otherwise.
+     * ENVI headers of other file types, like the sidecars of TIFF files, are left to fallback.
+     */
+    public static Supplier<ImageReader> factory(Path path, Supplier<ImageReader> fallback) {
+        return ()->{
+            Path[] paths=paths(path);
+            return (null==paths)
+                    ?fallback.get()
+                    :create(paths[0], paths[1], MAPPING_SHIFT);
+        };
+    }
+
+    /**
+     * Parses an ENVI header. Keys are lower case, braces are removed from values.
+     */
+    private static Map<String, String> header(Path headerPath) throws Throwable {
+        List<String> lines=Files.readAllLines(headerPath);
+        if (lines.isEmpty() || (!"ENVI".equals(lines.get(0).trim()))) {
+            throw new IOException("not an ENVI header "+headerPath);
+        }
+        Map<String, String> header=new HashMap<>();
+        for (int ii=1; lines.size()>ii; ++ii) {
+            String line=lines.get(ii);
+            int equals=line.indexOf('=');
+            if (0>equals) {
+                continue;
+            }
+            String key=line.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+            StringBuilder value=new StringBuilder(line.substring(equals+1).trim());
+            if ((0<value.length()) && ('{'==value.charAt(0))) {
+                while ((0>value.indexOf("}")) && (lines.size()>ii+1)) {
+                    ++ii;
+                    value.append('\n').append(lines.get(ii));
+                }
+                int close=value.indexOf("}");
+                value=new StringBuilder(value.substring(1, (0>close)?value.length():close).trim());
+            }
+            header.put(key, value.toString());
+        }
+        return header;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    private static int intValue(Map<String, String> header, String key) throws IOException {
+        String value=header.get(key);
+        if (null==value) {
+            throw new IOException("missing header value "+key);
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public void log(Map<String, Object> log) {
+        log.put("buffered", false);
+        log.put("file", path);
+        log.put("interleave", interleave);
+        log.put("type", unsignedShort?"unsigned-short":"unsigned-byte");
+    }
+
+    /**
+     * Finds the data file and the header of an ENVI image.
+     * The header is the data file with its extension replaced by, or extended with, ".hdr".
+     * Returns the data file and the header, or null when path is not part of a raw ENVI image.
+     */
+    private static Path[] paths(Path path) throws Throwable {
+        String name=path.getFileName().toString();
+        if (name.toLowerCase(Locale.ROOT).endsWith(".hdr")) {
+            String base=name.substring(0, name.length()-4);
+            for (String extension: DATA_EXTENSIONS) {
+                Path dataPath=path.resolveSibling(base+extension);
+                if (Files.isRegularFile(dataPath) && rawHeader(path)) {
+                    return new Path[]{dataPath, path};
+                }
+            }
+            return null;
+        }
+        int dot=name.lastIndexOf('.');
+        for (Path headerPath: new Path[]{
+                path.resolveSibling(name+".hdr"),
+                path.resolveSibling(((0>dot)?name:name.substring(0, dot))+".hdr")}) {
+            if (Files.isRegularFile(headerPath) && rawHeader(headerPath)) {
+                return new Path[]{path, headerPath};
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void prepare(Context context, Continuation<Void> continuation) throws Throwable {
+        continuation.completed(null);
+    }
+
+    /**
+     * Returns whether headerPath is the ENVI header of a raw image.
+     */
+    private static boolean rawHeader(Path headerPath) throws Throwable {
+        Map<String, String> header;
+        try {
+            header=header(headerPath);
+        }
+        catch (IOException ex) {
+            return false;
+        }
+        return standard(header);
+    }
+
+    @Override
+    public Reader reader() {
+        ByteBuffer[] buffers=this.buffers;
+        if (null==buffers) {
+            throw new IllegalStateException("closed");
+        }
+        return (yy, points, offset)->{
+            boolean samples=unsignedShort
+                    ?(points instanceof UnsignedShortArrayPoints)
+                    :(points instanceof UnsignedByteArrayPoints);
+            long address=yy*lineStride;
+            for (int xx=0; width>xx; ++xx, ++offset, address+=pixelStride) {
+                long address2=address;
+                for (int dd=0; dimensions>dd; ++dd, address2+=bandStride) {
+                    int sample=sample(buffers, address2);
+                    if (!samples) {
+                        points.setNormalized(dd, offset, sample/(unsignedShort?65535.0:255.0));
+                    }
+                    else if (unsignedShort) {
+                        points.set(dd, offset, (short)sample);
+                    }
+                    else {
+                        points.set(dd, offset, (byte)sample);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the unsigned sample at address, the buffers are treated as one long address space.
+     */
+    private int sample(ByteBuffer[] buffers, long address) {
+        ByteBuffer buffer=buffers[(int)(address>>>shift)];
+        int position=(int)(address&mask);
+        return unsignedShort
+                ?(buffer.getShort(position)&0xffff)
+                :(buffer.get(position)&0xff);
+    }
+
+    /**
+     * Returns whether the file type of header is ENVI Standard, the file type of raw images.
+     * A missing file type is accepted.
+     */
+    private static boolean standard(Map<String, String> header) {
+        String fileType=header.get("file type");
+        return (null==fileType)
+                || "envi standard".equals(fileType.trim().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+}
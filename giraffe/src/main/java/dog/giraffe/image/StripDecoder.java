@@ -0,0 +1,414 @@
+package dog.giraffe.image;
+
+import dog.giraffe.threads.AsyncSupplier;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import dog.giraffe.threads.Executor;
+import dog.giraffe.util.Block;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Node;
+
+/**
+ * Decodes sequential images, like baseline JPEGs and non-interlaced PNGs, line by line in a single pass.
+ *
+ * Reading a one line source region of these formats with ImageIO decodes the image from its first line every time.
+ * A {@link Pass} runs a single read of the whole image into a destination
+ * which keeps only a ring of the most recently decoded lines.
+ * Passes are forked on a thread pool owned by the decoder, not on the executor of the context,
+ * as a pass blocks while it's ahead of the readers, and the readers themselves run on the executor of the context.
+ * The pass decodes ahead of the lines requested by at most half of the ring, and waits for requests otherwise.
+ *
+ * Lines are served from any pass which still has them in its ring.
+ * Readers of distant parts of the image get separate passes, up to a limit,
+ * so concurrent readers of contiguous ranges of lines decode the image at most once per reader.
+ */
+class StripDecoder implements AutoCloseable {
+    /**
+     * Thrown into the decoding of an aborted pass.
+     */
+    private static class AbortedException extends RuntimeException {
+        private static final long serialVersionUID=0L;
+    }
+
+    /**
+     * A DataBuffer that is as large as the whole image, but stores only the last ringLines lines.
+     * Only the decoding thread calls {@link #setElem(int, int, int)}.
+     */
+    private class RingBuffer extends DataBuffer {
+        private final Pass pass;
+        private final int[] ring=new int[ringLines*scanlineStride];
+        private int row=-1;
+
+        public RingBuffer(Pass pass) {
+            super(StripDecoder.this.dataType, scanlineStride*height);
+            this.pass=pass;
+        }
+
+        @Override
+        public int getElem(int bank, int index) {
+            int row2=index/scanlineStride;
+            return ring[(row2%ringLines)*scanlineStride+index-row2*scanlineStride];
+        }
+
+        @Override
+        public void setElem(int bank, int index, int value) {
+            int row2=index/scanlineStride;
+            if (row!=row2) {
+                pass.startRow(row2);
+                row=row2;
+            }
+            ring[(row2%ringLines)*scanlineStride+index-row2*scanlineStride]=value;
+        }
+    }
+
+    /**
+     * One sequential decoding of the image.
+     * Lines before current are decoded, lines after current-ringLines are in the ring.
+     */
+    private class Pass implements AsyncSupplier<Void> {
+        private boolean aborted;
+        private int current=-1;
+        private Throwable error;
+        private long lastUse;
+        private final WritableRaster raster;
+        private int wanted=-1;
+
+        public Pass() {
+            raster=Raster.createWritableRaster(sampleModel, new RingBuffer(this), new Point(0, 0));
+        }
+
+        public boolean available(int yy) {
+            return (current>yy) && (current-ringLines<yy);
+        }
+
+        /**
+         * The pass has been stopped or failed, and cannot serve any more lines.
+         */
+        public boolean dead() {
+            return aborted || (null!=error);
+        }
+
+        /**
+         * Returns the continuation that publishes the end of the pass to the readers.
+         */
+        public Continuation<List<Void>> finished() {
+            return new Continuation<>() {
+                @Override
+                public void completed(List<Void> result) {
+                    synchronized (lock) {
+                        current=height;
+                        lock.notifyAll();
+                    }
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    synchronized (lock) {
+                        if (!aborted) {
+                            error=throwable;
+                        }
+                        lock.notifyAll();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void get(Continuation<Void> continuation) throws Throwable {
+            ImageInputStream imageInputStream=new FileImageInputStream(path.toFile());
+            try {
+                javax.imageio.ImageReader imageReader
+                        =Objects.requireNonNull(ImageIO.getImageReaders(imageInputStream).next(), "imageReader");
+                try {
+                    imageReader.setInput(imageInputStream);
+                    ImageReadParam readParam=imageReader.getDefaultReadParam();
+                    readParam.setDestination(new BufferedImage(colorModel, raster, false, null));
+                    imageReader.read(0, readParam);
+                }
+                finally {
+                    imageReader.dispose();
+                }
+            }
+            finally {
+                imageInputStream.close();
+            }
+            continuation.completed(null);
+        }
+
+        /**
+         * Called by the decoding thread when it starts to write the line row.
+         * All the lines before row are complete.
+         */
+        public void startRow(int row) {
+            synchronized (lock) {
+                if (current>row) {
+                    throw new IllegalStateException(String.format("lines out of order %1$d, %2$d", current, row));
+                }
+                current=row;
+                lock.notifyAll();
+                while ((!aborted) && (wanted+ringLines/2<row)) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException ex) {
+                        aborted=true;
+                    }
+                }
+                if (aborted) {
+                    throw new AbortedException();
+                }
+            }
+        }
+    }
+
+    private long clock;
+    private boolean closed;
+    private final ColorModel colorModel;
+    private final int dataType;
+    private final Executor executor;
+    private final int height;
+    private final Object lock=new Object();
+    private int maxPasses;
+    private final List<Pass> passes=new ArrayList<>();
+    private final Path path;
+    private final int ringLines;
+    private final SampleModel sampleModel;
+    private final int scanlineStride;
+    private final ExecutorService threadPool;
+    private final int width;
+
+    private StripDecoder(
+            ImageTypeSpecifier imageType, int height, int maxPasses, Path path, int ringLines, int scanlineStride,
+            int width) {
+        this.height=height;
+        this.maxPasses=maxPasses;
+        this.path=path;
+        this.ringLines=ringLines;
+        this.scanlineStride=scanlineStride;
+        this.width=width;
+        colorModel=imageType.getColorModel();
+        sampleModel=imageType.getSampleModel(width, height);
+        dataType=sampleModel.getDataType();
+        threadPool=Executors.newCachedThreadPool(
+                (runnable)->{
+                    Thread thread=new Thread(runnable, "strip-decoder "+path);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor=new Executor() {
+            @Override
+            public void execute(Block block) {
+                threadPool.execute(()->{
+                    try {
+                        block.run();
+                    }
+                    catch (Throwable throwable) {
+                        throw new RuntimeException(throwable);
+                    }
+                });
+            }
+
+            @Override
+            public int threads() {
+                synchronized (lock) {
+                    return maxPasses;
+                }
+            }
+        };
+    }
+
+    private static String attribute(Node node, String name) {
+        Node attribute=node.getAttributes().getNamedItem(name);
+        return (null==attribute)?null:attribute.getNodeValue();
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed=true;
+            for (Pass pass: passes) {
+                pass.aborted=true;
+            }
+            passes.clear();
+            lock.notifyAll();
+        }
+        threadPool.shutdown();
+    }
+
+    /**
+     * Creates a decoder for the first image read by imageReader, when the image is stored sequentially.
+     * Returns null for all other images.
+     */
+    public static StripDecoder create(
+            javax.imageio.ImageReader imageReader, Path path, int ringLines) throws Throwable {
+        if (!sequential(imageReader)) {
+            return null;
+        }
+        int height=imageReader.getHeight(0);
+        int width=imageReader.getWidth(0);
+        ImageTypeSpecifier imageType=imageReader.getImageTypes(0).next();
+        SampleModel sampleModel=imageType.getSampleModel(width, height);
+        int scanlineStride;
+        if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel componentSampleModel=(ComponentSampleModel)sampleModel;
+            for (int bank: componentSampleModel.getBankIndices()) {
+                if (0!=bank) {
+                    return null;
+                }
+            }
+            scanlineStride=componentSampleModel.getScanlineStride();
+        }
+        else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            scanlineStride=((MultiPixelPackedSampleModel)sampleModel).getScanlineStride();
+        }
+        else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            scanlineStride=((SinglePixelPackedSampleModel)sampleModel).getScanlineStride();
+        }
+        else {
+            return null;
+        }
+        if ((long)Integer.MAX_VALUE<(long)scanlineStride*height) {
+            return null;
+        }
+        return new StripDecoder(
+                imageType, height, Runtime.getRuntime().availableProcessors()+1, path, ringLines, scanlineStride,
+                width);
+    }
+
+    private static Node child(Node node, String name) {
+        if (null==node) {
+            return null;
+        }
+        for (Node child=node.getFirstChild(); null!=child; child=child.getNextSibling()) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the maximum number of passes decoding the image at the same time.
+     * There's one pass for every thread reading, and a spare one.
+     */
+    public void threads(int threads) {
+        synchronized (lock) {
+            maxPasses=Math.max(1, threads)+1;
+        }
+    }
+
+    /**
+     * Reads the pixels of line yy into buffer.
+     */
+    public int[] pixels(int yy, int[] buffer) throws Throwable {
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("closed");
+                }
+                Pass pass=select(yy);
+                pass.wanted=Math.max(pass.wanted, yy);
+                lock.notifyAll();
+                while ((!pass.dead()) && (pass.current<=yy)) {
+                    lock.wait();
+                }
+                if (null!=pass.error) {
+                    throw new RuntimeException(pass.error);
+                }
+                if (pass.available(yy)) {
+                    pass.lastUse=++clock;
+                    return pass.raster.getPixels(0, yy, width, 1, buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the pass that has or will soon have line yy, and starts a new pass if there's none.
+     */
+    private Pass select(int yy) throws Throwable {
+        passes.removeIf(Pass::dead);
+        Pass ahead=null;
+        Pass near=null;
+        for (Pass pass: passes) {
+            if (pass.available(yy)) {
+                return pass;
+            }
+            if ((pass.current<=yy) && (height>pass.current)) {
+                if ((null==ahead) || (ahead.current<pass.current)) {
+                    ahead=pass;
+                }
+                if ((Math.max(pass.current, pass.wanted)+ringLines>yy)
+                        && ((null==near) || (near.current<pass.current))) {
+                    near=pass;
+                }
+            }
+        }
+        if (null!=near) {
+            return near;
+        }
+        if (maxPasses<=passes.size()) {
+            if (null!=ahead) {
+                return ahead;
+            }
+            Pass leastRecentlyUsed=passes.get(0);
+            for (Pass pass: passes) {
+                if (leastRecentlyUsed.lastUse>pass.lastUse) {
+                    leastRecentlyUsed=pass;
+                }
+            }
+            leastRecentlyUsed.aborted=true;
+            passes.remove(leastRecentlyUsed);
+        }
+        Pass pass=new Pass();
+        pass.lastUse=++clock;
+        passes.add(pass);
+        Continuations.forkJoin(List.of(pass), pass.finished(), executor);
+        return pass;
+    }
+
+    /**
+     * Checks whether ImageIO writes the lines of the image in order exactly once.
+     */
+    private static boolean sequential(javax.imageio.ImageReader imageReader) throws Throwable {
+        IIOMetadata metadata=imageReader.getImageMetadata(0);
+        if (null==metadata) {
+            return false;
+        }
+        String formatName=metadata.getNativeMetadataFormatName();
+        if ("javax_imageio_jpeg_image_1.0".equals(formatName)) {
+            Node sof=child(child(metadata.getAsTree(formatName), "markerSequence"), "sof");
+            if (null==sof) {
+                return false;
+            }
+            String process=attribute(sof, "process");
+            return "0".equals(process) || "1".equals(process);
+        }
+        if ("javax_imageio_png_1.0".equals(formatName)) {
+            Node ihdr=child(metadata.getAsTree(formatName), "IHDR");
+            return (null!=ihdr) && "none".equals(attribute(ihdr, "interlaceMethod"));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,690 @@
+package dog.giraffe.image;
+
+import dog.giraffe.Context;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.points.UnsignedShortArrayPoints;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.util.Supplier;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An {@link ImageReader} that decodes TIFF files without ImageIO.
+ *
+ * The directory of the first image is parsed once.
+ * Every {@link Image.Reader} decodes the strips or tiles it needs on its own,
+ * with positional reads from a shared FileChannel, so readers on different threads never wait for each other.
+ *
+ * Supports classic TIFF and BigTIFF, unsigned 8 and 16 bit samples, any number of bands,
+ * chunky and planar configuration, strips and tiles,
+ * and uncompressed, PackBits, LZW, and Deflate compressed data with or without horizontal differencing.
+ */
+public abstract class TiffImageReader implements ImageReader {
+    private static final int COMPRESSION_DEFLATE=8;
+    private static final int COMPRESSION_DEFLATE_OLD=32946;
+    private static final int COMPRESSION_LZW=5;
+    private static final int COMPRESSION_NONE=1;
+    private static final int COMPRESSION_PACK_BITS=32773;
+    private static final int TAG_BITS_PER_SAMPLE=258;
+    private static final int TAG_COMPRESSION=259;
+    private static final int TAG_IMAGE_LENGTH=257;
+    private static final int TAG_IMAGE_WIDTH=256;
+    private static final int TAG_PHOTOMETRIC_INTERPRETATION=262;
+    private static final int TAG_PLANAR_CONFIGURATION=284;
+    private static final int TAG_PREDICTOR=317;
+    private static final int TAG_ROWS_PER_STRIP=278;
+    private static final int TAG_SAMPLE_FORMAT=339;
+    private static final int TAG_SAMPLES_PER_PIXEL=277;
+    private static final int TAG_STRIP_BYTE_COUNTS=279;
+    private static final int TAG_STRIP_OFFSETS=273;
+    private static final int TAG_TILE_BYTE_COUNTS=325;
+    private static final int TAG_TILE_LENGTH=323;
+    private static final int TAG_TILE_OFFSETS=324;
+    private static final int TAG_TILE_WIDTH=322;
+
+    /**
+     * The layout of the image data, as described by the image file directory.
+     */
+    private static class Layout {
+        public final int bytesPerSample;
+        public final long[] byteCounts;
+        public final int chunkHeight;
+        public final int chunkWidth;
+        public final int chunksAcross;
+        public final int chunksDown;
+        public final int compression;
+        public final int dimensions;
+        public final int height;
+        public final long[] offsets;
+        public final ByteOrder order;
+        public final boolean planar;
+        public final boolean predictor;
+        public final boolean tiled;
+        public final int width;
+
+        public Layout(
+                int bytesPerSample, long[] byteCounts, int chunkHeight, int chunkWidth, int compression,
+                int dimensions, int height, long[] offsets, ByteOrder order, boolean planar, boolean predictor,
+                boolean tiled, int width) {
+            this.bytesPerSample=bytesPerSample;
+            this.byteCounts=byteCounts;
+            this.chunkHeight=chunkHeight;
+            this.chunkWidth=chunkWidth;
+            this.compression=compression;
+            this.dimensions=dimensions;
+            this.height=height;
+            this.offsets=offsets;
+            this.order=order;
+            this.planar=planar;
+            this.predictor=predictor;
+            this.tiled=tiled;
+            this.width=width;
+            chunksAcross=(width+chunkWidth-1)/chunkWidth;
+            chunksDown=(height+chunkHeight-1)/chunkHeight;
+        }
+
+        /**
+         * The number of bytes of a row of a chunk.
+         */
+        public int rowBytes() {
+            return chunkWidth*(planar?1:dimensions)*bytesPerSample;
+        }
+    }
+
+    private static class UnsignedByte extends TiffImageReader {
+        public UnsignedByte(FileChannel channel, Layout layout, Path path) {
+            super(channel, layout, path);
+        }
+
+        @Override
+        public UnsignedByteArrayPoints createPoints(int dimensions, int expectedSize) {
+            return new UnsignedByteArrayPoints(dimensions, expectedSize);
+        }
+
+        @Override
+        protected String logType() {
+            return "unsigned-byte";
+        }
+
+        @Override
+        protected void set(MutablePoints points, int dimension, int index, byte[] data, int offset) {
+            points.set(dimension, index, data[offset]);
+        }
+    }
+
+    private static class UnsignedShort extends TiffImageReader {
+        private final boolean bigEndian;
+
+        public UnsignedShort(FileChannel channel, Layout layout, Path path) {
+            super(channel, layout, path);
+            bigEndian=ByteOrder.BIG_ENDIAN.equals(layout.order);
+        }
+
+        @Override
+        public UnsignedShortArrayPoints createPoints(int dimensions, int expectedSize) {
+            return new UnsignedShortArrayPoints(dimensions, expectedSize);
+        }
+
+        @Override
+        protected String logType() {
+            return "unsigned-short";
+        }
+
+        @Override
+        protected void set(MutablePoints points, int dimension, int index, byte[] data, int offset) {
+            points.set(
+                    dimension,
+                    index,
+                    bigEndian
+                            ?(short)((data[offset]<<8)|(data[offset+1]&0xff))
+                            :(short)((data[offset+1]<<8)|(data[offset]&0xff)));
+        }
+    }
+
+    private final FileChannel channel;
+    private final Layout layout;
+    private final Path path;
+
+    private TiffImageReader(FileChannel channel, Layout layout, Path path) {
+        this.channel=channel;
+        this.layout=layout;
+        this.path=path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Creates a reader for the file path.
+     * Returns null when the file is not a TIFF or uses a feature not supported by this reader.
+     */
+    public static TiffImageReader create(Path path) throws Throwable {
+        boolean error=true;
+        FileChannel channel=FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            Layout layout=layout(channel);
+            if (null==layout) {
+                return null;
+            }
+            TiffImageReader result=(1==layout.bytesPerSample)
+                    ?new UnsignedByte(channel, layout, path)
+                    :new UnsignedShort(channel, layout, path);
+            error=false;
+            return result;
+        }
+        finally {
+            if (error) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public List<Image> dependencies() {
+        return List.of();
+    }
+
+    @Override
+    public int dimensions() {
+        return layout.dimensions;
+    }
+
+    /**
+     * Creates a factory that creates {@link TiffImageReader TiffImageReaders} for path,
+     * and falls back to fallback when this reader cannot read the file.
+     */
+    public static Supplier<ImageReader> factory(Path path, Supplier<ImageReader> fallback) {
+        return ()->{
+            ImageReader reader=create(path);
+            return (null==reader)?fallback.get():reader;
+        };
+    }
+
+    @Override
+    public int height() {
+        return layout.height;
+    }
+
+    private static Layout layout(FileChannel channel) throws Throwable {
+        if (16>channel.size()) {
+            return null;
+        }
+        ByteBuffer header=read(channel, 0L, 16, ByteOrder.BIG_ENDIAN);
+        ByteOrder order;
+        switch (header.getShort(0)) {
+            case 0x4949:
+                order=ByteOrder.LITTLE_ENDIAN;
+                break;
+            case 0x4d4d:
+                order=ByteOrder.BIG_ENDIAN;
+                break;
+            default:
+                return null;
+        }
+        header.order(order);
+        boolean bigTiff;
+        long directoryOffset;
+        switch (header.getShort(2)) {
+            case 42:
+                bigTiff=false;
+                directoryOffset=header.getInt(4)&0xffffffffL;
+                break;
+            case 43:
+                if ((8!=header.getShort(4)) || (0!=header.getShort(6))) {
+                    return null;
+                }
+                bigTiff=true;
+                directoryOffset=header.getLong(8);
+                break;
+            default:
+                return null;
+        }
+        int entrySize=bigTiff?20:12;
+        long entries=bigTiff
+                ?read(channel, directoryOffset, 8, order).getLong(0)
+                :read(channel, directoryOffset, 2, order).getShort(0)&0xffff;
+        if ((0>entries) || (4096<entries)) {
+            throw new IOException("invalid number of directory entries "+entries);
+        }
+        ByteBuffer directory=read(
+                channel, directoryOffset+(bigTiff?8:2), (int)entries*entrySize, order);
+        Map<Integer, long[]> tags=new HashMap<>();
+        for (int ee=0; entries>ee; ++ee) {
+            int position=ee*entrySize;
+            int tag=directory.getShort(position)&0xffff;
+            int type=directory.getShort(position+2)&0xffff;
+            long count=bigTiff?directory.getLong(position+4):(directory.getInt(position+4)&0xffffffffL);
+            int typeSize;
+            switch (type) {
+                case 1:
+                    typeSize=1;
+                    break;
+                case 3:
+                    typeSize=2;
+                    break;
+                case 4:
+                    typeSize=4;
+                    break;
+                case 16:
+                    typeSize=8;
+                    break;
+                default:
+                    continue;
+            }
+            if ((0>count) || (Integer.MAX_VALUE/8<count)) {
+                throw new IOException("invalid count "+count+" of tag "+tag);
+            }
+            int valueSize=(int)count*typeSize;
+            ByteBuffer values;
+            int valuesPosition;
+            if (valueSize<=(bigTiff?8:4)) {
+                values=directory;
+                valuesPosition=position+(bigTiff?12:8);
+            }
+            else {
+                values=read(
+                        channel,
+                        bigTiff?directory.getLong(position+12):(directory.getInt(position+8)&0xffffffffL),
+                        valueSize,
+                        order);
+                valuesPosition=0;
+            }
+            long[] values2=new long[(int)count];
+            for (int ii=0; count>ii; ++ii, valuesPosition+=typeSize) {
+                switch (typeSize) {
+                    case 1:
+                        values2[ii]=values.get(valuesPosition)&0xffL;
+                        break;
+                    case 2:
+                        values2[ii]=values.getShort(valuesPosition)&0xffffL;
+                        break;
+                    case 4:
+                        values2[ii]=values.getInt(valuesPosition)&0xffffffffL;
+                        break;
+                    default:
+                        values2[ii]=values.getLong(valuesPosition);
+                        break;
+                }
+            }
+            tags.put(tag, values2);
+        }
+        int width=(int)tag(tags, TAG_IMAGE_WIDTH, -1L);
+        int height=(int)tag(tags, TAG_IMAGE_LENGTH, -1L);
+        int dimensions=(int)tag(tags, TAG_SAMPLES_PER_PIXEL, 1L);
+        long photometricInterpretation=tag(tags, TAG_PHOTOMETRIC_INTERPRETATION, -1L);
+        int compression=(int)tag(tags, TAG_COMPRESSION, COMPRESSION_NONE);
+        long planarConfiguration=tag(tags, TAG_PLANAR_CONFIGURATION, 1L);
+        long predictor=tag(tags, TAG_PREDICTOR, 1L);
+        if ((0>=width) || (0>=height) || (0>=dimensions)
+                || ((1L!=photometricInterpretation)
+                        && (2L!=photometricInterpretation)
+                        && (5L!=photometricInterpretation))
+                || ((COMPRESSION_DEFLATE!=compression)
+                        && (COMPRESSION_DEFLATE_OLD!=compression)
+                        && (COMPRESSION_LZW!=compression)
+                        && (COMPRESSION_NONE!=compression)
+                        && (COMPRESSION_PACK_BITS!=compression))
+                || ((1L!=planarConfiguration) && (2L!=planarConfiguration))
+                || ((1L!=predictor) && (2L!=predictor))) {
+            return null;
+        }
+        long[] bitsPerSample=tags.getOrDefault(TAG_BITS_PER_SAMPLE, new long[]{1L});
+        if ((1!=bitsPerSample.length) && (dimensions!=bitsPerSample.length)) {
+            return null;
+        }
+        for (long bits: bitsPerSample) {
+            if ((bitsPerSample[0]!=bits) || ((8L!=bits) && (16L!=bits))) {
+                return null;
+            }
+        }
+        for (long sampleFormat: tags.getOrDefault(TAG_SAMPLE_FORMAT, new long[]{1L})) {
+            if (1L!=sampleFormat) {
+                return null;
+            }
+        }
+        boolean planar=2L==planarConfiguration;
+        boolean tiled=tags.containsKey(TAG_TILE_OFFSETS);
+        int chunkHeight;
+        int chunkWidth;
+        long[] offsets;
+        long[] byteCounts;
+        if (tiled) {
+            chunkHeight=(int)tag(tags, TAG_TILE_LENGTH, -1L);
+            chunkWidth=(int)tag(tags, TAG_TILE_WIDTH, -1L);
+            offsets=tags.get(TAG_TILE_OFFSETS);
+            byteCounts=tags.get(TAG_TILE_BYTE_COUNTS);
+        }
+        else {
+            chunkHeight=(int)Math.min(height, tag(tags, TAG_ROWS_PER_STRIP, height));
+            chunkWidth=width;
+            offsets=tags.get(TAG_STRIP_OFFSETS);
+            byteCounts=tags.get(TAG_STRIP_BYTE_COUNTS);
+        }
+        if ((0>=chunkHeight) || (0>=chunkWidth) || (null==offsets) || (null==byteCounts)) {
+            return null;
+        }
+        Layout layout=new Layout(
+                (int)(bitsPerSample[0]/8L), byteCounts, chunkHeight, chunkWidth, compression, dimensions, height,
+                offsets, order, planar, 2L==predictor, tiled, width);
+        long chunks=(long)layout.chunksAcross*layout.chunksDown*(planar?dimensions:1);
+        if ((chunks!=offsets.length) || (chunks!=byteCounts.length)
+                || (Integer.MAX_VALUE<(long)layout.rowBytes()*chunkHeight)) {
+            return null;
+        }
+        return layout;
+    }
+
+    @Override
+    public void log(Map<String, Object> log) {
+        log.put("buffered", false);
+        log.put("compression", layout.compression);
+        log.put("file", path);
+        log.put("planar", layout.planar);
+        log.put("tiled", layout.tiled);
+        log.put("type", logType());
+    }
+
+    /**
+     * Returns the type of the image.
+     */
+    protected abstract String logType();
+
+    /**
+     * Decompresses the TIFF variant of LZW, with 9 to 12 bit codes and early change.
+     */
+    private static void lzw(byte[] input, byte[] output, int outputLength) throws IOException {
+        int[] prefixes=new int[4096];
+        byte[] firsts=new byte[4096];
+        byte[] suffixes=new byte[4096];
+        int[] lengths=new int[4096];
+        for (int ii=0; 256>ii; ++ii) {
+            firsts[ii]=(byte)ii;
+            suffixes[ii]=(byte)ii;
+            lengths[ii]=1;
+        }
+        int bits=0;
+        int bitCount=0;
+        int codeWidth=9;
+        int ii=0;
+        int next=258;
+        int oo=0;
+        int previous=-1;
+        while (outputLength>oo) {
+            while ((codeWidth>bitCount) && (input.length>ii)) {
+                bits=(bits<<8)|(input[ii]&0xff);
+                bitCount+=8;
+                ++ii;
+            }
+            if (codeWidth>bitCount) {
+                break;
+            }
+            bitCount-=codeWidth;
+            int code=(bits>>>bitCount)&((1<<codeWidth)-1);
+            bits&=(1<<bitCount)-1;
+            if (257==code) {
+                break;
+            }
+            if (256==code) {
+                codeWidth=9;
+                next=258;
+                previous=-1;
+                continue;
+            }
+            if (0>previous) {
+                if (256<=code) {
+                    throw new IOException("invalid lzw code "+code);
+                }
+                output[oo]=(byte)code;
+                ++oo;
+                previous=code;
+                continue;
+            }
+            if (next<code) {
+                throw new IOException("invalid lzw code "+code);
+            }
+            if (4096>next) {
+                prefixes[next]=previous;
+                firsts[next]=firsts[previous];
+                suffixes[next]=(code==next)?firsts[previous]:firsts[code];
+                lengths[next]=lengths[previous]+1;
+                ++next;
+                if ((12>codeWidth) && ((1<<codeWidth)-1<=next)) {
+                    ++codeWidth;
+                }
+            }
+            int length=lengths[code];
+            int cc=code;
+            for (int pp=length-1; 0<=pp; --pp, cc=prefixes[cc]) {
+                if (outputLength>oo+pp) {
+                    output[oo+pp]=suffixes[cc];
+                }
+            }
+            oo+=length;
+            previous=code;
+        }
+        if (outputLength>oo) {
+            throw new IOException("lzw data too short");
+        }
+    }
+
+    private static void packBits(byte[] input, byte[] output, int outputLength) throws IOException {
+        int ii=0;
+        int oo=0;
+        while ((input.length>ii) && (outputLength>oo)) {
+            int header=input[ii];
+            ++ii;
+            if (0<=header) {
+                int length=Math.min(header+1, Math.min(input.length-ii, outputLength-oo));
+                System.arraycopy(input, ii, output, oo, length);
+                ii+=header+1;
+                oo+=length;
+            }
+            else if (-128!=header) {
+                if (input.length<=ii) {
+                    break;
+                }
+                int length=Math.min(1-header, outputLength-oo);
+                for (byte value=input[ii]; 0<length; --length, ++oo) {
+                    output[oo]=value;
+                }
+                ++ii;
+            }
+        }
+        if (outputLength>oo) {
+            throw new IOException("packbits data too short");
+        }
+    }
+
+    @Override
+    public void prepare(Context context, Continuation<Void> continuation) throws Throwable {
+        continuation.completed(null);
+    }
+
+    private static ByteBuffer read(
+            FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer=ByteBuffer.allocate(length);
+        read(channel, position, buffer);
+        return buffer.order(order);
+    }
+
+    private static void read(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read=channel.read(buffer, position);
+            if (0>read) {
+                throw new EOFException();
+            }
+            position+=read;
+        }
+    }
+
+    @Override
+    public Reader reader() {
+        return new Reader() {
+            private final int chunks=layout.chunksAcross*(layout.planar?layout.dimensions:1);
+            private final byte[][] data=new byte[chunks][];
+            private int down=-1;
+            private final int rowBytes=layout.rowBytes();
+
+            /**
+             * Index of the chunk in the current row of chunks.
+             */
+            private int chunk(int across, int dimension) {
+                return dimension*layout.chunksAcross+across;
+            }
+
+            /**
+             * Reads all chunks of the row of chunks down.
+             * Uncompressed chunks are only read one row at a time.
+             */
+            private void read(int down, int yy) throws Throwable {
+                int rows=layout.tiled
+                        ?layout.chunkHeight
+                        :Math.min(layout.chunkHeight, height()-down*layout.chunkHeight);
+                for (int cc=0; chunks>cc; ++cc) {
+                    int across=cc%layout.chunksAcross;
+                    int dimension=cc/layout.chunksAcross;
+                    int index=(dimension*layout.chunksDown+down)*layout.chunksAcross+across;
+                    if (COMPRESSION_NONE==layout.compression) {
+                        if (null==data[cc]) {
+                            data[cc]=new byte[rowBytes];
+                        }
+                        TiffImageReader.read(
+                                channel,
+                                layout.offsets[index]+(long)(yy-down*layout.chunkHeight)*rowBytes,
+                                ByteBuffer.wrap(data[cc]));
+                        unpredict(data[cc], 1);
+                        continue;
+                    }
+                    if ((null==data[cc]) || (rows*rowBytes>data[cc].length)) {
+                        data[cc]=new byte[layout.chunkHeight*rowBytes];
+                    }
+                    if (Integer.MAX_VALUE<layout.byteCounts[index]) {
+                        throw new IOException("chunk too large "+layout.byteCounts[index]);
+                    }
+                    byte[] compressed=new byte[(int)layout.byteCounts[index]];
+                    TiffImageReader.read(channel, layout.offsets[index], ByteBuffer.wrap(compressed));
+                    if (COMPRESSION_LZW==layout.compression) {
+                        lzw(compressed, data[cc], rows*rowBytes);
+                    }
+                    else if (COMPRESSION_PACK_BITS==layout.compression) {
+                        packBits(compressed, data[cc], rows*rowBytes);
+                    }
+                    else {
+                        Inflater inflater=new Inflater();
+                        try {
+                            inflater.setInput(compressed);
+                            int length=0;
+                            while (rows*rowBytes>length) {
+                                int inflated=inflater.inflate(data[cc], length, rows*rowBytes-length);
+                                if ((0>=inflated)
+                                        && (inflater.finished() || inflater.needsInput()
+                                                || inflater.needsDictionary())) {
+                                    throw new DataFormatException("deflate data too short");
+                                }
+                                length+=inflated;
+                            }
+                        }
+                        finally {
+                            inflater.end();
+                        }
+                    }
+                    unpredict(data[cc], rows);
+                }
+            }
+
+            @Override
+            public void setNormalizedLineTo(int yy, MutablePoints points, int offset) throws Throwable {
+                int down2=yy/layout.chunkHeight;
+                if (COMPRESSION_NONE==layout.compression) {
+                    read(down2, yy);
+                }
+                else if (down!=down2) {
+                    down=-1;
+                    read(down2, yy);
+                    down=down2;
+                }
+                int row=(COMPRESSION_NONE==layout.compression)?0:(yy-down2*layout.chunkHeight)*rowBytes;
+                int bytesPerSample=layout.bytesPerSample;
+                int dimensions=layout.dimensions;
+                for (int across=0; layout.chunksAcross>across; ++across) {
+                    int x0=across*layout.chunkWidth;
+                    int xn=Math.min(layout.chunkWidth, width()-x0);
+                    if (layout.planar) {
+                        for (int dd=0; dimensions>dd; ++dd) {
+                            byte[] data2=data[chunk(across, dd)];
+                            for (int xx=0, ii=row; xn>xx; ++xx, ii+=bytesPerSample) {
+                                set(points, dd, offset+x0+xx, data2, ii);
+                            }
+                        }
+                    }
+                    else {
+                        byte[] data2=data[chunk(across, 0)];
+                        for (int xx=0, ii=row; xn>xx; ++xx) {
+                            for (int dd=0; dimensions>dd; ++dd, ii+=bytesPerSample) {
+                                set(points, dd, offset+x0+xx, data2, ii);
+                            }
+                        }
+                    }
+                }
+            }
+
+            /**
+             * Reverses horizontal differencing.
+             */
+            private void unpredict(byte[] data, int rows) {
+                if (!layout.predictor) {
+                    return;
+                }
+                int samples=layout.planar?1:layout.dimensions;
+                boolean bigEndian=ByteOrder.BIG_ENDIAN.equals(layout.order);
+                for (int rr=0; rows>rr; ++rr) {
+                    int start=rr*rowBytes;
+                    if (1==layout.bytesPerSample) {
+                        for (int ii=start+samples, end=start+rowBytes; end>ii; ++ii) {
+                            data[ii]+=data[ii-samples];
+                        }
+                    }
+                    else {
+                        int high=bigEndian?0:1;
+                        int low=1-high;
+                        for (int ii=start+2*samples, end=start+rowBytes; end>ii; ii+=2) {
+                            int previous=ii-2*samples;
+                            int value=((data[ii+high]&0xff)<<8)+(data[ii+low]&0xff)
+                                    +((data[previous+high]&0xff)<<8)+(data[previous+low]&0xff);
+                            data[ii+high]=(byte)(value>>8);
+                            data[ii+low]=(byte)value;
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets the dimension-th coordinate of the vector indexed by index in points to the sample at offset in data.
+     */
+    protected abstract void set(MutablePoints points, int dimension, int index, byte[] data, int offset);
+
+    private static long tag(Map<Integer, long[]> tags, int tag, long defaultValue) {
+        long[] values=tags.get(tag);
+        return ((null==values) || (0==values.length))?defaultValue:values[0];
+    }
+
+    @Override
+    public int width() {
+        return layout.width;
+    }
+}
@@ -0,0 +1,482 @@
+package dog.giraffe.image;
+
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.threads.Executor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link ImageWriter} that writes BigTIFF files without ImageIO.
+ *
+ * The image is cut into strips of {@link #STRIP_LINES} lines.
+ * A strip is compressed on the executor as soon as all of its lines are written.
+ * Compressed strips are appended to the file by one thread at a time, lower strips first,
+ * and their offsets are collected for the image file directory, which is written when the writer is closed.
+ * Closing the writer compresses the remaining strips on the closing thread,
+ * so it never waits for tasks queued on the executor.
+ *
+ * Samples are unsigned 8 bit, compressed strips use horizontal differencing.
+ */
+public class TiffImageWriter implements ImageWriter {
+    public static final int COMPRESSION_DEFLATE=8;
+    public static final int COMPRESSION_LZW=5;
+    public static final int COMPRESSION_NONE=1;
+    private static final int HEADER_SIZE=16;
+    private static final int LZW_CLEAR=256;
+    private static final int LZW_END_OF_INFORMATION=257;
+    private static final int LZW_FIRST_CODE=258;
+    private static final int LZW_LAST_CODE=4094;
+    private static final int LZW_TABLE_SIZE=1<<13;
+    /**
+     * The number of lines of a strip.
+     */
+    public static final int STRIP_LINES=64;
+    private static final short TYPE_LONG=4;
+    private static final short TYPE_LONG8=16;
+    private static final short TYPE_SHORT=3;
+
+    /**
+     * Packs codes most significant bit first.
+     */
+    private static class BitOutput extends ByteArrayOutputStream {
+        private int bits;
+        private int bitCount;
+
+        public BitOutput(int size) {
+            super(size);
+        }
+
+        public void put(int code, int codeWidth) {
+            bits=(bits<<codeWidth)|code;
+            bitCount+=codeWidth;
+            while (8<=bitCount) {
+                bitCount-=8;
+                write(bits>>>bitCount);
+            }
+            bits&=(1<<bitCount)-1;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            if (0<bitCount) {
+                write(bits<<(8-bitCount));
+                bitCount=0;
+            }
+            return super.toByteArray();
+        }
+    }
+
+    private class LineImpl implements Line {
+        private final Strip strip;
+        private final int offset;
+
+        private LineImpl(Strip strip, int yy) {
+            this.strip=strip;
+            offset=(yy-strip.index*STRIP_LINES)*dimensions*width;
+        }
+
+        @Override
+        public void setNormalized(int dimension, int xx, double value) {
+            strip.data[offset+dimensions*xx+dimension]=UnsignedByteArrayPoints.denormalize(value);
+        }
+
+        @Override
+        public void write() throws Throwable {
+            synchronized (lock) {
+                if (null!=error) {
+                    throw new IOException("writing failed", error);
+                }
+                if (closed) {
+                    throw new IllegalStateException("closed");
+                }
+                --strip.lines;
+                if (0<strip.lines) {
+                    return;
+                }
+                strips.remove(strip.index);
+                queued[strip.index]=true;
+                ready.addLast(strip);
+            }
+            executor.execute(TiffImageWriter.this::compressStrips);
+        }
+    }
+
+    private static class Strip {
+        public final byte[] data;
+        public final int index;
+        public int lines;
+
+        public Strip(int index, int lines, int rowBytes) {
+            this.index=index;
+            this.lines=lines;
+            data=new byte[lines*rowBytes];
+        }
+    }
+
+    private final long[] byteCounts;
+    private final FileChannel channel;
+    private boolean closed;
+    private int compressing;
+    private final NavigableMap<Integer, byte[]> compressed=new TreeMap<>();
+    private final int compression;
+    private final int dimensions;
+    private Throwable error;
+    private final Executor executor;
+    private final int height;
+    private final Object lock=new Object();
+    private final long[] offsets;
+    private final Path path;
+    private long position=HEADER_SIZE;
+    private final boolean[] queued;
+    private final Deque<Strip> ready=new ArrayDeque<>();
+    private final Map<Integer, Strip> strips=new HashMap<>();
+    private final int width;
+    private boolean writing;
+
+    private TiffImageWriter(
+            FileChannel channel, int compression, int dimensions, Executor executor, int height, Path path,
+            int width) {
+        this.channel=channel;
+        this.compression=compression;
+        this.dimensions=dimensions;
+        this.executor=executor;
+        this.height=height;
+        this.path=path;
+        this.width=width;
+        int strips=(height+STRIP_LINES-1)/STRIP_LINES;
+        byteCounts=new long[strips];
+        offsets=new long[strips];
+        queued=new boolean[strips];
+    }
+
+    @Override
+    public void close() throws IOException {
+        Throwable error2;
+        try {
+            synchronized (lock) {
+                closed=true;
+                for (int ss=0; queued.length>ss; ++ss) {
+                    if (!queued[ss]) {
+                        Strip strip=strips.remove(ss);
+                        ready.addLast((null==strip)?newStrip(ss):strip);
+                        queued[ss]=true;
+                    }
+                }
+            }
+            compressStrips();
+            try {
+                synchronized (lock) {
+                    while ((0<compressing) || writing) {
+                        lock.wait();
+                    }
+                    error2=error;
+                }
+            }
+            catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            if (null==error2) {
+                try {
+                    writeDirectory();
+                }
+                catch (Throwable throwable) {
+                    error2=throwable;
+                }
+            }
+        }
+        finally {
+            channel.close();
+        }
+        if (null!=error2) {
+            throw new IOException("writing failed", error2);
+        }
+    }
+
+    private byte[] compress(Strip strip) {
+        byte[] data=strip.data;
+        if (COMPRESSION_NONE==compression) {
+            return data;
+        }
+        int rowBytes=dimensions*width;
+        for (int start=data.length-rowBytes; 0<=start; start-=rowBytes) {
+            for (int ii=start+rowBytes-1; start+dimensions<=ii; --ii) {
+                data[ii]-=data[ii-dimensions];
+            }
+        }
+        return (COMPRESSION_LZW==compression)
+                ?lzw(data)
+                :deflate(data);
+    }
+
+    /**
+     * Compresses strips until there are no more strips ready to be compressed.
+     */
+    private void compressStrips() {
+        while (true) {
+            Strip strip;
+            synchronized (lock) {
+                strip=ready.pollFirst();
+                if (null==strip) {
+                    return;
+                }
+                ++compressing;
+            }
+            byte[] data;
+            try {
+                data=compress(strip);
+            }
+            catch (Throwable throwable) {
+                synchronized (lock) {
+                    --compressing;
+                    error=throwable;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            synchronized (lock) {
+                --compressing;
+                compressed.put(strip.index, data);
+                lock.notifyAll();
+            }
+            writeStrips();
+        }
+    }
+
+    private static TiffImageWriter create(
+            int width, int height, int dimensions, int compression, Executor executor, Path path)
+            throws Throwable {
+        if ((COMPRESSION_DEFLATE!=compression) && (COMPRESSION_LZW!=compression)
+                && (COMPRESSION_NONE!=compression)) {
+            throw new IllegalArgumentException("unsupported compression "+compression);
+        }
+        if (Integer.MAX_VALUE/STRIP_LINES<(long)dimensions*width) {
+            throw new IllegalArgumentException("image too wide "+width);
+        }
+        FileChannel channel=FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new TiffImageWriter(channel, compression, dimensions, executor, height, path, width);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater=new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output=new ByteArrayOutputStream(data.length/2+64);
+            byte[] buffer=new byte[16384];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Creates a new factory that creates {@link TiffImageWriter TiffImageWriters}
+     * writing to the file specified by path.
+     *
+     * @param compression one of {@link #COMPRESSION_DEFLATE}, {@link #COMPRESSION_LZW}, {@link #COMPRESSION_NONE}
+     * @param executor strips are compressed on this executor
+     */
+    public static Factory factory(Path path, int compression, Executor executor) {
+        return (width, height, dimension)->create(width, height, dimension, compression, executor, path);
+    }
+
+    @Override
+    public Line getLine(int yy) {
+        synchronized (lock) {
+            return new LineImpl(strips.computeIfAbsent(yy/STRIP_LINES, this::newStrip), yy);
+        }
+    }
+
+    @Override
+    public void log(Map<String, Object> log) {
+        log.put("buffered", false);
+        log.put("compression", compression);
+        log.put("file", path);
+        log.put("strip-lines", STRIP_LINES);
+        log.put("type", "bigtiff");
+    }
+
+    /**
+     * Compresses data with the TIFF variant of LZW, using 9 to 12 bit codes and early change.
+     */
+    static byte[] lzw(byte[] data) {
+        BitOutput output=new BitOutput(data.length/2+64);
+        int[] keys=new int[LZW_TABLE_SIZE];
+        short[] codes=new short[LZW_TABLE_SIZE];
+        int codeWidth=9;
+        int next=LZW_FIRST_CODE;
+        output.put(LZW_CLEAR, codeWidth);
+        if (0<data.length) {
+            int prefix=data[0]&0xff;
+            for (int ii=1; data.length>=ii; ++ii) {
+                boolean last=data.length==ii;
+                int value=last?0:(data[ii]&0xff);
+                if (!last) {
+                    int key=((prefix<<8)|value)+1;
+                    int slot=(key*0x9e3779b1)>>>19;
+                    while ((0!=keys[slot]) && (key!=keys[slot])) {
+                        slot=(slot+1)&(LZW_TABLE_SIZE-1);
+                    }
+                    if (0!=keys[slot]) {
+                        prefix=codes[slot];
+                        continue;
+                    }
+                    keys[slot]=key;
+                    codes[slot]=(short)next;
+                }
+                output.put(prefix, codeWidth);
+                ++next;
+                if (LZW_LAST_CODE<=next) {
+                    output.put(LZW_CLEAR, codeWidth);
+                    Arrays.fill(keys, 0);
+                    codeWidth=9;
+                    next=LZW_FIRST_CODE;
+                }
+                else if ((1<<codeWidth)<=next) {
+                    ++codeWidth;
+                }
+                prefix=value;
+            }
+        }
+        output.put(LZW_END_OF_INFORMATION, codeWidth);
+        return output.toByteArray();
+    }
+
+    private Strip newStrip(int index) {
+        return new Strip(index, Math.min(STRIP_LINES, height-index*STRIP_LINES), dimensions*width);
+    }
+
+    /**
+     * Writes the image file directory after the last strip, and the header pointing to it.
+     */
+    private void writeDirectory() throws Throwable {
+        boolean rgb=3<=dimensions;
+        int extraSamples=dimensions-(rgb?3:1);
+        int entries=10+((COMPRESSION_NONE==compression)?0:1)+((0<extraSamples)?1:0);
+        long directoryOffset=(position+7L)&~7L;
+        long arraysOffset=directoryOffset+8L+20L*entries+8L;
+        ByteBuffer arrays=ByteBuffer.allocate(2*2*dimensions+2*8*offsets.length).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer directory=ByteBuffer.allocate((int)(arraysOffset-directoryOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        directory.putLong(entries);
+        short[] bitsPerSample=new short[dimensions];
+        Arrays.fill(bitsPerSample, (short)8);
+        writeEntry(directory, 256, TYPE_LONG, width);
+        writeEntry(directory, 257, TYPE_LONG, height);
+        writeEntry(directory, arrays, arraysOffset, 258, bitsPerSample);
+        writeEntry(directory, 259, TYPE_SHORT, compression);
+        writeEntry(directory, 262, TYPE_SHORT, rgb?2:1);
+        writeEntry(directory, arrays, arraysOffset, 273, offsets);
+        writeEntry(directory, 277, TYPE_SHORT, dimensions);
+        writeEntry(directory, 278, TYPE_LONG, STRIP_LINES);
+        writeEntry(directory, arrays, arraysOffset, 279, byteCounts);
+        writeEntry(directory, 284, TYPE_SHORT, 1);
+        if (COMPRESSION_NONE!=compression) {
+            writeEntry(directory, 317, TYPE_SHORT, 2);
+        }
+        if (0<extraSamples) {
+            writeEntry(directory, arrays, arraysOffset, 338, new short[extraSamples]);
+        }
+        directory.putLong(0L);
+        ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte)'I').put((byte)'I').putShort((short)43).putShort((short)8).putShort((short)0)
+                .putLong(directoryOffset);
+        write(directory.flip(), directoryOffset);
+        write(arrays.flip(), arraysOffset);
+        write(header.flip(), 0L);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position+=channel.write(buffer, position);
+        }
+    }
+
+    private static void writeEntry(ByteBuffer directory, int tag, short type, long value) {
+        directory.putShort((short)tag).putShort(type).putLong(1L).putLong(value);
+    }
+
+    private static void writeEntry(
+            ByteBuffer directory, ByteBuffer arrays, long arraysOffset, int tag, long[] values) {
+        directory.putShort((short)tag).putShort(TYPE_LONG8).putLong(values.length);
+        if (1==values.length) {
+            directory.putLong(values[0]);
+            return;
+        }
+        directory.putLong(arraysOffset+arrays.position());
+        for (long value: values) {
+            arrays.putLong(value);
+        }
+    }
+
+    private static void writeEntry(
+            ByteBuffer directory, ByteBuffer arrays, long arraysOffset, int tag, short[] values) {
+        directory.putShort((short)tag).putShort(TYPE_SHORT).putLong(values.length);
+        if (4>=values.length) {
+            for (int ii=0; 4>ii; ++ii) {
+                directory.putShort((values.length>ii)?values[ii]:0);
+            }
+            return;
+        }
+        directory.putLong(arraysOffset+arrays.position());
+        for (short value: values) {
+            arrays.putShort(value);
+        }
+    }
+
+    /**
+     * Appends the compressed strips to the file, unless another thread is already doing that.
+     */
+    private void writeStrips() {
+        synchronized (lock) {
+            if (writing) {
+                return;
+            }
+            writing=true;
+        }
+        while (true) {
+            Map.Entry<Integer, byte[]> entry;
+            long position2;
+            synchronized (lock) {
+                entry=compressed.pollFirstEntry();
+                if ((null==entry) || (null!=error)) {
+                    writing=false;
+                    lock.notifyAll();
+                    return;
+                }
+                position2=position;
+                position+=entry.getValue().length;
+                offsets[entry.getKey()]=position2;
+                byteCounts[entry.getKey()]=entry.getValue().length;
+            }
+            try {
+                write(ByteBuffer.wrap(entry.getValue()), position2);
+            }
+            catch (Throwable throwable) {
+                synchronized (lock) {
+                    error=throwable;
+                    writing=false;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -1,53 +1,103 @@
 package dog.giraffe.image.transform;
 
+import dog.giraffe.cluster.Classifier;
 import dog.giraffe.cluster.ClusterColors;
 import dog.giraffe.cluster.ClusteringStrategy;
 import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.StreamingClusteringStrategy;
 import dog.giraffe.Context;
-import dog.giraffe.util.Lists;
 import dog.giraffe.Log;
-import dog.giraffe.points.Sum;
 import dog.giraffe.image.Image;
+import dog.giraffe.points.BandPoints;
 import dog.giraffe.points.KDTree;
 import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.OffHeapPoints;
 import dog.giraffe.points.UnsignedByteArrayPoints;
 import dog.giraffe.points.Vector;
+import dog.giraffe.points.WeightedPoints;
 import dog.giraffe.threads.AsyncFunction;
 import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
-import dog.giraffe.util.Function;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Clusters the pixel of an image and replaces every pixel with a color assigned to pixel's nearest center.
+ * Unsigned 8 bit pixels are clustered as {@link WeightedPoints}, every distinct pixel value is stored once,
+ * weighted by the number of its occurrences.
+ * Other pixels are copied into {@link OffHeapPoints} if requested,
+ * otherwise into {@link BandPoints}, if there are band points for the type of the pixels,
+ * which store every band in a separate array.
+ * In label mode every pixel is replaced with the index of the cluster of its nearest center,
+ * the colors of the clusters are only written to the log.
  */
 public class Cluster1 extends Image.Transform {
-    private List<Vector> centers;
+    private Classifier classifier;
     private Clusters clusters;
     private Map<Vector, Vector> colorMap;
     private final ClusterColors colors;
+    private int distinctPoints=-1;
+    private final boolean labels;
     private final Mask mask;
+    private final boolean offHeap;
+    private final Path scratchDirectory;
     private final ClusteringStrategy<? super KDTree> strategy;
-    private Sum.Factory sumFactory;
+    private final StreamingClusteringStrategy streamingStrategy;
 
-    private Cluster1(Image image, ClusterColors colors, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
+    private Cluster1(
+            Image image, ClusterColors colors, boolean labels, Mask mask, boolean offHeap, Path scratchDirectory,
+            ClusteringStrategy<? super KDTree> strategy, StreamingClusteringStrategy streamingStrategy) {
         super(image);
         this.colors=colors;
+        this.labels=labels;
         this.mask=mask;
+        this.offHeap=offHeap;
+        this.scratchDirectory=scratchDirectory;
         this.strategy=strategy;
+        this.streamingStrategy=streamingStrategy;
     }
 
     /**
      * Creates a new {@link Cluster1} instance.
      *
      * @param colors used to assign color to cluster centers
+     * @param labels replace pixels with cluster indices instead of colors
      * @param mask ignore parts of the input image
      * @param strategy clustering algorithm to be used
      */
     public static Image create(
-            Image image, ClusterColors colors, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
-        return new Cluster1(image, colors, mask, strategy);
+            Image image, ClusterColors colors, boolean labels, Mask mask,
+            ClusteringStrategy<? super KDTree> strategy) {
+        return new Cluster1(image, colors, labels, mask, false, null, strategy, null);
+    }
+
+    /**
+     * Creates a new {@link Cluster1} instance which holds the pixels in {@link OffHeapPoints}.
+     *
+     * @param colors used to assign color to cluster centers
+     * @param labels replace pixels with cluster indices instead of colors
+     * @param mask ignore parts of the input image
+     * @param scratchDirectory the directory of the memory mapped scratch files, or null to use direct buffers
+     * @param strategy clustering algorithm to be used
+     */
+    public static Image createOffHeap(
+            Image image, ClusterColors colors, boolean labels, Mask mask, Path scratchDirectory,
+            ClusteringStrategy<? super KDTree> strategy) {
+        return new Cluster1(image, colors, labels, mask, true, scratchDirectory, strategy, null);
+    }
+
+    /**
+     * Creates a new {@link Cluster1} instance which reads the pixels on demand instead of holding them in memory.
+     *
+     * @param colors used to assign color to cluster centers
+     * @param labels replace pixels with cluster indices instead of colors
+     * @param mask ignore parts of the input image
+     * @param strategy clustering algorithm to be used
+     */
+    public static Image create(
+            Image image, ClusterColors colors, boolean labels, Mask mask, StreamingClusteringStrategy strategy) {
+        return new Cluster1(image, colors, labels, mask, false, null, null, strategy);
     }
 
     @Override
@@ -58,9 +108,18 @@ public class Cluster1 extends Image.Transform {
     @Override
     public void log(Map<String, Object> log) throws Throwable {
         log.put("type", "cluster1");
-        Log.logField("strategy", strategy, log);
+        Log.logField("strategy", (null==strategy)?streamingStrategy:strategy, log);
+        log.put("labels", labels);
         log.put("mask", mask);
+        if (offHeap) {
+            log.put("off-heap", true);
+            log.put("scratch-directory", (null==scratchDirectory)?null:scratchDirectory.toString());
+        }
+        if (0<=distinctPoints) {
+            log.put("distinct-points", distinctPoints);
+        }
         Log.logClusters(clusters, colorMap, log);
+        Log.logField("classifier", classifier, log);
     }
 
     private AsyncFunction<KDTree, Dimensions> prepareCluster(Context context, MutablePoints points) {
@@ -69,18 +128,46 @@ public class Cluster1 extends Image.Transform {
                     context,
                     kdTree,
                     Continuations.map(
-                            (result2, continuation2)->{
-                                clusters=result2;
-                                centers=Lists.flatten(clusters.centers);
-                                colorMap=colors.colors(clusters.centers, points);
-                                continuation2.completed(new Dimensions(
-                                        colors.dimensions(),
-                                        image.height(),
-                                        image.width()));
-                            },
+                            prepareColors(points),
                             continuation));
     }
 
+    /**
+     * Counts the distinct visible pixel values of the lines [from, to).
+     */
+    private Continuations.IntForks<WeightedPoints.Counter> prepareCounters() {
+        return (from, to)->(continuation)->{
+            MutablePoints line=image.createPoints(image.dimensions(), image.width());
+            line.size(image.width());
+            Reader reader=image.reader();
+            WeightedPoints.Counter counter=new WeightedPoints.Counter(image.dimensions());
+            for (int yy=from; to>yy; ++yy) {
+                reader.setNormalizedLineTo(yy, line, 0);
+                for (int xx=0; image.width()>xx; ++xx) {
+                    if (mask.visible(xx, yy)) {
+                        counter.add(line, xx);
+                    }
+                }
+            }
+            continuation.completed(counter);
+        };
+    }
+
+    private AsyncFunction<Clusters, Dimensions> prepareColors(MutablePoints points) {
+        return (result, continuation)->{
+            clusters=result;
+            colorMap=colors.colors(clusters.centers, points);
+            classifier=Classifier.create(clusters, colorMap, colors.dimensions(), points);
+            if (labels) {
+                Labels.checkLabels(classifier.labels());
+            }
+            continuation.completed(new Dimensions(
+                    labels?1:colors.dimensions(),
+                    image.height(),
+                    image.width()));
+        };
+    }
+
     private AsyncFunction<List<MutablePoints.Interval>, Dimensions> prepareKDTree(
             Context context, MutablePoints points) {
         return (intervals, continuation)->{
@@ -90,16 +177,51 @@ public class Cluster1 extends Image.Transform {
                     4096,
                     points,
                     Continuations.map(
-                            prepareCluster(context, points),
+                            prepareCluster(context, image.createPoints(image.dimensions(), 1)),
                             continuation));
         };
     }
 
     @Override
     protected void prepareImpl(Context context, Continuation<Dimensions> continuation) throws Throwable {
-        sumFactory=context.sum();
-        MutablePoints points=image.createPoints(image.dimensions(), image.height()*image.width());
-        points.size(image.height()*image.width());
+        if (null!=streamingStrategy) {
+            streamingStrategy.cluster(
+                    context,
+                    streamingLines(),
+                    Continuations.map(
+                            prepareColors(image.createPoints(image.dimensions(), 1)),
+                            continuation));
+            return;
+        }
+        if ((image.createPoints(image.dimensions(), 0) instanceof UnsignedByteArrayPoints)
+                && (WeightedPoints.MAX_DIMENSIONS>=image.dimensions())) {
+            Continuations.forkJoin(
+                    prepareCounters(),
+                    0,
+                    image.height(),
+                    Continuations.map(
+                            prepareWeightedKDTree(context),
+                            continuation),
+                    context.executor());
+            return;
+        }
+        long pixels=(long)image.height()*image.width();
+        if (Integer.MAX_VALUE<pixels) {
+            throw new RuntimeException(String.format(
+                    "too many pixels to cluster; height: %1$d, width: %2$d", image.height(), image.width()));
+        }
+        MutablePoints type=image.createPoints(image.dimensions(), 0);
+        MutablePoints points=null;
+        if (offHeap) {
+            points=OffHeapPoints.create(type, image.dimensions(), scratchDirectory);
+        }
+        if (null==points) {
+            points=BandPoints.create(type, image.dimensions(), (int)pixels);
+        }
+        if (null==points) {
+            points=image.createPoints(image.dimensions(), (int)pixels);
+        }
+        points.size((int)pixels);
         Continuations.forkJoin(
                 prepareLines(points),
                 0,
@@ -132,22 +254,79 @@ public class Cluster1 extends Image.Transform {
         };
     }
 
+    private AsyncFunction<List<WeightedPoints.Counter>, Dimensions> prepareWeightedKDTree(Context context) {
+        return (counters, continuation)->{
+            WeightedPoints.Counter counter=counters.get(0);
+            for (int ii=1; counters.size()>ii; ++ii) {
+                counter.add(counters.get(ii));
+            }
+            distinctPoints=counter.size();
+            WeightedPoints points=counter.points();
+            KDTree.create(
+                    context,
+                    4096,
+                    points,
+                    Continuations.map(
+                            prepareCluster(context, points.points()),
+                            continuation));
+        };
+    }
+
+    private StreamingClusteringStrategy.Lines streamingLines() {
+        return new StreamingClusteringStrategy.Lines() {
+            @Override
+            public MutablePoints createPoints(int expectedSize) throws Throwable {
+                return image.createPoints(image.dimensions(), expectedSize);
+            }
+
+            @Override
+            public int lines() {
+                return image.height();
+            }
+
+            @Override
+            public StreamingClusteringStrategy.Reader reader() throws Throwable {
+                MutablePoints line=image.createPoints(image.dimensions(), image.width());
+                line.size(image.width());
+                Reader reader=image.reader();
+                return (yy, points)->{
+                    reader.setNormalizedLineTo(yy, line, 0);
+                    points.size(image.width());
+                    int size=0;
+                    for (int xx=0; image.width()>xx; ++xx) {
+                        if (mask.visible(xx, yy)) {
+                            for (int dd=0; image.dimensions()>dd; ++dd) {
+                                points.setNormalized(dd, size, line.getNormalized(dd, xx));
+                            }
+                            ++size;
+                        }
+                    }
+                    points.size(size);
+                };
+            }
+
+            @Override
+            public int width() {
+                return image.width();
+            }
+        };
+    }
+
     @Override
     public Reader reader() throws Throwable {
         return new TransformReader() {
-            private final Function<Vector, Vector> nearestCenter=KDTree.nearestCenter2(centers, sumFactory);
-            private final Vector point=new Vector(line.dimensions());
+            private final Classifier.Reader classifierReader=classifier.reader();
 
             @Override
             protected void setNormalizedLineToTransform(MutablePoints points, int offset) throws Throwable {
                 for (int xx=0; line.size()>xx; ++xx, ++offset) {
-                    for (int dd=0; line.dimensions()>dd; ++dd) {
-                        point.coordinate(dd, line.get(dd, xx));
+                    int label=classifierReader.classify(line, xx);
+                    if (labels) {
+                        points.setNormalized(0, offset, Labels.normalize(label));
+                        continue;
                     }
-                    Vector center=nearestCenter.apply(point);
-                    Vector color=colorMap.get(center);
-                    for (int dd=0; color.dimensions()>dd; ++dd) {
-                        points.setNormalized(dd, offset, color.coordinate(dd));
+                    for (int dd=0; classifier.colorDimensions()>dd; ++dd) {
+                        points.setNormalized(dd, offset, classifier.color(label, dd));
                     }
                 }
             }
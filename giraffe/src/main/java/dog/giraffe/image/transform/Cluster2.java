@@ -2,14 +2,15 @@ package dog.giraffe.image.transform;
 
 import dog.giraffe.Context;
 import dog.giraffe.Log;
+import dog.giraffe.cluster.Classifier;
 import dog.giraffe.cluster.ClusterColors;
 import dog.giraffe.cluster.ClusteringStrategy;
 import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.StreamingClusteringStrategy;
 import dog.giraffe.image.Image;
 import dog.giraffe.points.FloatArrayPoints;
 import dog.giraffe.points.KDTree;
 import dog.giraffe.points.MutablePoints;
-import dog.giraffe.points.Sum;
 import dog.giraffe.points.Vector;
 import dog.giraffe.threads.AsyncFunction;
 import dog.giraffe.threads.AsyncSupplier;
@@ -17,8 +18,6 @@ import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
 import dog.giraffe.util.ColorConverter;
 import dog.giraffe.util.Doubles;
-import dog.giraffe.util.Function;
-import dog.giraffe.util.Lists;
 import dog.giraffe.util.Pair;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -31,10 +30,12 @@ import java.util.Map;
  * The two class of pixels are clustered separately and assigned different colors.
  * Centers of grayish pixel will be assigned gray colors.
  * Centers of colorful pixels will be assigned fully saturated colors.
+ * In label mode every pixel is replaced with the index of the cluster of its nearest center,
+ * gray clusters come first, followed by the colorful ones.
  */
 public abstract class Cluster2 extends Image.Transform {
     private static class Data {
-        private List<Vector> centers;
+        private Classifier classifier;
         private Clusters clusters;
         private Map<Vector, Vector> colorMap;
         private final ClusterColors colors;
@@ -45,8 +46,10 @@ public abstract class Cluster2 extends Image.Transform {
     }
 
     private static class Hue extends Cluster2 {
-        public Hue(Image image, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
-            super(image, mask, strategy);
+        public Hue(
+                Image image, boolean labels, Mask mask, ClusteringStrategy<? super KDTree> strategy,
+                StreamingClusteringStrategy streamingStrategy) {
+            super(image, labels, mask, strategy, streamingStrategy);
         }
 
         @Override
@@ -105,8 +108,10 @@ public abstract class Cluster2 extends Image.Transform {
     }
 
     private static class HyperHue extends Cluster2 {
-        public HyperHue(Image image, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
-            super(image, mask, strategy);
+        public HyperHue(
+                Image image, boolean labels, Mask mask, ClusteringStrategy<? super KDTree> strategy,
+                StreamingClusteringStrategy streamingStrategy) {
+            super(image, labels, mask, strategy, streamingStrategy);
         }
 
         @Override
@@ -198,14 +203,19 @@ public abstract class Cluster2 extends Image.Transform {
 
     private final Data data1=new Data(ClusterColors.falseGrays(3));
     private final Data data2=new Data(ClusterColors.falseColors(0, 1, 2));
+    private final boolean labels;
     private final Mask mask;
     private final ClusteringStrategy<? super KDTree> strategy;
-    private Sum.Factory sumFactory;
+    private final StreamingClusteringStrategy streamingStrategy;
 
-    private Cluster2(Image image, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
+    private Cluster2(
+            Image image, boolean labels, Mask mask, ClusteringStrategy<? super KDTree> strategy,
+            StreamingClusteringStrategy streamingStrategy) {
         super(image);
+        this.labels=labels;
         this.mask=mask;
         this.strategy=strategy;
+        this.streamingStrategy=streamingStrategy;
     }
 
     /**
@@ -226,21 +236,51 @@ public abstract class Cluster2 extends Image.Transform {
     /**
      * Creates a new {@link Cluster2} instance which clusters pixels by value or hue depending on saturation.
      *
+     * @param labels replace pixels with cluster indices instead of colors
      * @param mask ignore parts of the input image
      * @param strategy clustering algorithm to be used
      */
-    public static Image createHue(Image image, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
-        return new Hue(image, mask, strategy);
+    public static Image createHue(
+            Image image, boolean labels, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
+        return new Hue(image, labels, mask, strategy, null);
+    }
+
+    /**
+     * Creates a new {@link Cluster2} instance which clusters pixels by value or hue depending on saturation.
+     * The pixels are read on demand instead of being held in memory.
+     *
+     * @param labels replace pixels with cluster indices instead of colors
+     * @param mask ignore parts of the input image
+     * @param strategy clustering algorithm to be used
+     */
+    public static Image createHue(
+            Image image, boolean labels, Mask mask, StreamingClusteringStrategy strategy) {
+        return new Hue(image, labels, mask, null, strategy);
+    }
+
+    /**
+     * Creates a new {@link Cluster2} instance which clusters pixels by intensity or hyper-hue depending on saturation.
+     *
+     * @param labels replace pixels with cluster indices instead of colors
+     * @param mask ignore parts of the input image
+     * @param strategy clustering algorithm to be used
+     */
+    public static Image createHyperHue(
+            Image image, boolean labels, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
+        return new HyperHue(image, labels, mask, strategy, null);
     }
 
     /**
      * Creates a new {@link Cluster2} instance which clusters pixels by intensity or hyper-hue depending on saturation.
+     * The pixels are read on demand instead of being held in memory.
      *
+     * @param labels replace pixels with cluster indices instead of colors
      * @param mask ignore parts of the input image
      * @param strategy clustering algorithm to be used
      */
-    public static Image createHyperHue(Image image, Mask mask, ClusteringStrategy<? super KDTree> strategy) {
-        return new HyperHue(image, mask, strategy);
+    public static Image createHyperHue(
+            Image image, boolean labels, Mask mask, StreamingClusteringStrategy strategy) {
+        return new HyperHue(image, labels, mask, null, strategy);
     }
 
     /**
@@ -251,15 +291,21 @@ public abstract class Cluster2 extends Image.Transform {
     @Override
     public void log(Map<String, Object> log) throws Throwable {
         log.put("type", "cluster2-"+logType());
-        Log.logField("strategy", strategy, log);
+        Log.logField("strategy", (null==strategy)?streamingStrategy:strategy, log);
+        log.put("labels", labels);
         log.put("mask", mask);
         log.put("error", data1.clusters.error+data2.clusters.error);
         Map<String, Object> temp=new HashMap<>();
         Log.logClusters(data1.clusters, data1.colorMap, temp);
+        Log.logField("classifier", data1.classifier, temp);
         temp.forEach((key, value)->log.put("gray-"+key, value));
         temp.clear();
         Log.logClusters(data2.clusters, data2.colorMap, temp);
+        Log.logField("classifier", data2.classifier, temp);
         temp.forEach((key, value)->log.put("color-"+key, value));
+        if (labels) {
+            log.put("color-labels-from", data1.clusters.centers.size());
+        }
     }
 
     /**
@@ -273,15 +319,19 @@ public abstract class Cluster2 extends Image.Transform {
                         context,
                         kdTree,
                         Continuations.map(
-                                (result2, continuation2)->{
-                                    data.clusters=result2;
-                                    data.centers=Lists.flatten(data.clusters.centers);
-                                    data.colorMap=data.colors.colors(data.clusters.centers, points);
-                                    continuation2.completed(null);
-                                },
+                                prepareColors(data, points),
                                 continuation));
     }
 
+    private AsyncFunction<Clusters, Void> prepareColors(Data data, MutablePoints points) {
+        return (result, continuation)->{
+            data.clusters=result;
+            data.colorMap=data.colors.colors(data.clusters.centers, points);
+            data.classifier=Classifier.create(data.clusters, data.colorMap, data.colors.dimensions(), points);
+            continuation.completed(null);
+        };
+    }
+
     private AsyncSupplier<Void> prepareKDTree(
             Context context, Data data, List<MutablePoints.Interval> intervals, MutablePoints points) {
         return (continuation)->{
@@ -299,7 +349,24 @@ public abstract class Cluster2 extends Image.Transform {
     @Override
     protected void prepareImpl(Context context, Continuation<Dimensions> continuation) throws Throwable {
         checkImageDimensions(image.dimensions());
-        sumFactory=context.sum();
+        if (null!=streamingStrategy) {
+            List<AsyncSupplier<Void>> forks=new ArrayList<>(2);
+            forks.add((continuation2)->streamingStrategy.cluster(
+                    context,
+                    streamingLines(true),
+                    Continuations.map(prepareColors(data1, createPoints1(1)), continuation2)));
+            forks.add((continuation2)->streamingStrategy.cluster(
+                    context,
+                    streamingLines(false),
+                    Continuations.map(prepareColors(data2, createPoints2(dimensions2(), 1)), continuation2)));
+            Continuations.forkJoin(
+                    forks,
+                    Continuations.map(
+                            (input, continuation2)->continuation2.completed(prepareLabels()),
+                            continuation),
+                    context.executor());
+            return;
+        }
         MutablePoints points1=createPoints1(image.height()*image.width());
         MutablePoints points2=createPoints2(dimensions2(), image.height()*image.width());
         points1.size(image.height()*image.width());
@@ -322,10 +389,7 @@ public abstract class Cluster2 extends Image.Transform {
                             Continuations.forkJoin(
                                     forks,
                                     Continuations.map(
-                                            (input, continuation3)->continuation3.completed(new Dimensions(
-                                                    3,
-                                                    image.height(),
-                                                    image.width())),
+                                            (input, continuation3)->continuation3.completed(prepareLabels()),
                                             continuation2),
                                     context.executor());
                         },
@@ -333,6 +397,16 @@ public abstract class Cluster2 extends Image.Transform {
                 context.executor());
     }
 
+    /**
+     * Checks the number of labels when both clusterings are done.
+     */
+    private Dimensions prepareLabels() {
+        if (labels) {
+            Labels.checkLabels(data1.classifier.labels()+data2.classifier.labels());
+        }
+        return new Dimensions(labels?1:3, image.height(), image.width());
+    }
+
     private Continuations.IntForks<Pair<MutablePoints.Interval, MutablePoints.Interval>> prepareLines(
             MutablePoints points1, MutablePoints points2) {
         return (from, to)->(continuation)->{
@@ -367,13 +441,65 @@ public abstract class Cluster2 extends Image.Transform {
      */
     protected abstract Projection projection();
 
+    /**
+     * Returns the grayish or the colorful pixels of the image as a source of data points.
+     */
+    private StreamingClusteringStrategy.Lines streamingLines(boolean gray) {
+        return new StreamingClusteringStrategy.Lines() {
+            @Override
+            public MutablePoints createPoints(int expectedSize) {
+                return gray
+                        ?createPoints1(expectedSize)
+                        :createPoints2(dimensions2(), expectedSize);
+            }
+
+            @Override
+            public int lines() {
+                return image.height();
+            }
+
+            @Override
+            public StreamingClusteringStrategy.Reader reader() throws Throwable {
+                MutablePoints line=image.createPoints(image.dimensions(), image.width());
+                line.size(image.width());
+                MutablePoints other=gray
+                        ?createPoints2(dimensions2(), 1)
+                        :createPoints1(1);
+                other.size(1);
+                Projection projection=projection();
+                Reader reader=image.reader();
+                return (yy, points)->{
+                    reader.setNormalizedLineTo(yy, line, 0);
+                    points.size(image.width());
+                    int size=0;
+                    for (int xx=0; image.width()>xx; ++xx) {
+                        if (mask.visible(xx, yy)) {
+                            if (gray) {
+                                if (projection.project(line, xx, points, size, other, 0)) {
+                                    ++size;
+                                }
+                            }
+                            else if (!projection.project(line, xx, other, 0, points, size)) {
+                                ++size;
+                            }
+                        }
+                    }
+                    points.size(size);
+                };
+            }
+
+            @Override
+            public int width() {
+                return image.width();
+            }
+        };
+    }
+
     @Override
     public Reader reader() throws Throwable {
         return new TransformReader() {
-            private final Function<Vector, Vector> nearestCenter1=KDTree.nearestCenter2(data1.centers, sumFactory);
-            private final Function<Vector, Vector> nearestCenter2=KDTree.nearestCenter2(data2.centers, sumFactory);
-            private final Vector point1=new Vector(1);
-            private final Vector point2=new Vector(dimensions2());
+            private final Classifier.Reader classifierReader1=data1.classifier.reader();
+            private final Classifier.Reader classifierReader2=data2.classifier.reader();
             private final MutablePoints points1=createPoints1(1);
             private final MutablePoints points2=createPoints2(dimensions2(), 1);
             private final Projection projection=projection();
@@ -386,29 +512,25 @@ public abstract class Cluster2 extends Image.Transform {
             @Override
             protected void setNormalizedLineToTransform(MutablePoints points, int offset) throws Throwable {
                 for (int xx=0; line.size()>xx; ++xx, ++offset) {
-                    Map<Vector, Vector> colorMap3;
-                    Function<Vector, Vector> nearestCenter3;
-                    Vector point3;
-                    MutablePoints points3;
+                    Classifier classifier;
+                    int label;
                     if (projection.project(line, xx, points1, 0, points2, 0)) {
-                        colorMap3=data1.colorMap;
-                        nearestCenter3=nearestCenter1;
-                        point3=point1;
-                        points3=points1;
+                        classifier=data1.classifier;
+                        label=classifierReader1.classify(points1, 0);
                     }
                     else {
-                        colorMap3=data2.colorMap;
-                        nearestCenter3=nearestCenter2;
-                        point3=point2;
-                        points3=points2;
+                        classifier=data2.classifier;
+                        label=classifierReader2.classify(points2, 0);
+                        if (labels) {
+                            label+=data1.classifier.labels();
+                        }
                     }
-                    for (int dd=0; point3.dimensions()>dd; ++dd) {
-                        point3.coordinate(dd, points3.get(dd, 0));
+                    if (labels) {
+                        points.setNormalized(0, offset, Labels.normalize(label));
+                        continue;
                     }
-                    Vector center=nearestCenter3.apply(point3);
-                    Vector color=colorMap3.get(center);
-                    for (int dd=0; color.dimensions()>dd; ++dd) {
-                        points.setNormalized(dd, offset, color.coordinate(dd));
+                    for (int dd=0; classifier.colorDimensions()>dd; ++dd) {
+                        points.setNormalized(dd, offset, classifier.color(label, dd));
                     }
                 }
             }
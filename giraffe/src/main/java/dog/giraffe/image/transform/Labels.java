@@ -0,0 +1,34 @@
+package dog.giraffe.image.transform;
+
+/**
+ * Helper methods for transforms replacing pixels with cluster indices.
+ * Labels are unsigned 8 bit values, as all image writers write 8 bit samples.
+ */
+class Labels {
+    /**
+     * The maximum number of distinct labels.
+     */
+    public static final int MAX_LABELS=256;
+
+    private Labels() {
+    }
+
+    /**
+     * Checks whether the number of clusters can be represented by labels.
+     */
+    public static void checkLabels(int labels) {
+        if (MAX_LABELS<labels) {
+            throw new RuntimeException(String.format(
+                    "too many clusters for labels. clusters: %1$d, max: %2$d",
+                    labels,
+                    MAX_LABELS));
+        }
+    }
+
+    /**
+     * Returns the normalized sample value of label.
+     */
+    public static double normalize(int label) {
+        return label/(MAX_LABELS-1.0);
+    }
+}
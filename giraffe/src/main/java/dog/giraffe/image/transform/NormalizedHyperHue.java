@@ -3,6 +3,7 @@ package dog.giraffe.image.transform;
 import dog.giraffe.Context;
 import dog.giraffe.image.Image;
 import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.Kernels;
 import dog.giraffe.points.MutablePoints;
 import dog.giraffe.threads.Continuation;
 import java.util.Map;
@@ -46,34 +47,18 @@ public class NormalizedHyperHue extends Image.Transform {
     @Override
     public Reader reader() throws Throwable {
         return new TransformReader() {
+            private final Kernels kernels=Kernels.kernels();
             private final double[] temp=new double[dimensions()];
 
             @Override
             protected void setNormalizedLineToTransform(MutablePoints points, int offset) {
                 for (int xx=0; width()>xx; ++xx, ++offset) {
-                    double dotProduct=0.0;
                     for (int dd=0; dimensions()>dd; ++dd) {
-                        double cc=line.getNormalized(dd, xx);
-                        dotProduct+=cc;
-                        temp[dd]=cc;
+                        temp[dd]=line.getNormalized(dd, xx);
                     }
-                    dotProduct/=dimensions();
-                    double length=0.0;
+                    kernels.normalizedHyperHue(temp, maxZero2);
                     for (int dd=0; dimensions()>dd; ++dd) {
-                        double cc=temp[dd]-dotProduct;
-                        length+=cc*cc;
-                        temp[dd]=cc;
-                    }
-                    if (maxZero2>length) {
-                        for (int dd=0; dimensions()>dd; ++dd) {
-                            points.setNormalized(dd, offset, 0.5);
-                        }
-                    }
-                    else {
-                        length=Math.sqrt(length);
-                        for (int dd=0; dimensions()>dd; ++dd) {
-                            points.setNormalized(dd, offset, 0.5+0.5*temp[dd]/length);
-                        }
+                        points.setNormalized(dd, offset, temp[dd]);
                     }
                 }
             }
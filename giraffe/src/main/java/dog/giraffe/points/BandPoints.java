@@ -0,0 +1,165 @@
+package dog.giraffe.points;
+
+import dog.giraffe.util.Function;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link MutablePoints} backed by one primitive array per dimension.
+ * The coordinates of a dimension of consecutive vectors are adjacent,
+ * the coordinate dimension of the vector index is stored at bands[dimension][offset+index].
+ *
+ * {@link #classify(Function, List, Classification)} computes the distances of a block of vectors
+ * to all the centers at once, one dimension at a time, in simple loops over the bands.
+ * The loops are implemented by {@link Kernels}.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public abstract class BandPoints<T> extends MutablePoints {
+    /**
+     * The number of vectors classified together.
+     */
+    public static final int BLOCK_SIZE=256;
+
+    T[] bands;
+    final int offset;
+    int size;
+
+    /**
+     * Creates a new instance with the arrays bands, size size, starting at offset.
+     * The dimensionality is the number of bands.
+     */
+    public BandPoints(T[] bands, int offset, int size) {
+        super(bands.length);
+        this.bands=bands;
+        this.offset=offset;
+        this.size=size;
+    }
+
+    /**
+     * Adds all vectors of this to mean.
+     * The coordinates are summed up a block at a time, and the block sums are added to mean.
+     */
+    @Override
+    public void addAllTo(Mean mean) {
+        mean.addends+=size;
+        for (int from=0; size>from; from+=BLOCK_SIZE) {
+            int length=Math.min(BLOCK_SIZE, size-from);
+            for (int dd=0; dimensions>dd; ++dd) {
+                mean.sums.add(dd, sum(dd, from, length));
+            }
+        }
+    }
+
+    /**
+     * Adds the squared differences between center and the coordinates dimension
+     * of the vectors [from, from+length) to distances[distancesOffset, distancesOffset+length).
+     */
+    protected abstract void addDistances(
+            int dimension, double center, int from, int length, double[] distances, int distancesOffset);
+
+    /**
+     * Determines the nearest center for all the vectors of this.
+     * Ties are broken in favor of the center listed first,
+     * like in {@link Points#classify(Function, List, Classification)}.
+     */
+    @Override
+    public <C> void classify(
+            Function<C, Vector> centerPoint, List<C> centers, Classification<C> classification) throws Throwable {
+        if (centers.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        int cs=centers.size();
+        double[] centers2=new double[cs*dimensions];
+        for (int cc=0; cs>cc; ++cc) {
+            Vector center=centerPoint.apply(centers.get(cc));
+            for (int dd=0; dimensions>dd; ++dd) {
+                centers2[cc*dimensions+dd]=center.coordinate(dd);
+            }
+        }
+        double[] distances=new double[cs*BLOCK_SIZE];
+        int[] nearestCenters=new int[BLOCK_SIZE];
+        Kernels kernels=Kernels.kernels();
+        for (int from=0; size>from; from+=BLOCK_SIZE) {
+            int length=Math.min(BLOCK_SIZE, size-from);
+            Arrays.fill(distances, 0.0);
+            for (int cc=0; cs>cc; ++cc) {
+                for (int dd=0; dimensions>dd; ++dd) {
+                    addDistances(dd, centers2[cc*dimensions+dd], from, length, distances, cc*BLOCK_SIZE);
+                }
+            }
+            kernels.nearestCenters(distances, BLOCK_SIZE, cs, length, nearestCenters);
+            for (int ii=0; length>ii; ++ii) {
+                classification.nearestCenter(centers.get(nearestCenters[ii]), this, from+ii);
+            }
+        }
+    }
+
+    /**
+     * Creates new empty band points with the coordinate type of points,
+     * dimensionality dimensions and pre-allocated size of expectedSize.
+     * Returns null if there are no band points with the coordinate type of points.
+     */
+    public static BandPoints<?> create(MutablePoints points, int dimensions, int expectedSize) {
+        if (points instanceof FloatArrayPoints) {
+            return new FloatBandPoints(dimensions, expectedSize);
+        }
+        if (points instanceof UnsignedByteArrayPoints) {
+            return new UnsignedByteBandPoints(dimensions, expectedSize);
+        }
+        if (points instanceof UnsignedShortArrayPoints) {
+            return new UnsignedShortBandPoints(dimensions, expectedSize);
+        }
+        return null;
+    }
+
+    /**
+     * Makes sure the backing arrays are large enough to hold newSize vectors.
+     */
+    protected abstract void ensureSize(int newSize);
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void size(int size) {
+        ensureSize(size);
+        this.size=size;
+    }
+
+    @Override
+    public List<Points> split(int parts) {
+        if ((2>parts)
+                || (2>size())) {
+            return Collections.singletonList(this);
+        }
+        parts=Math.min(parts, size());
+        List<Points> result=new ArrayList<>(parts);
+        for (int ii=0; parts>ii; ++ii) {
+            result.add(subPoints(ii*size/parts, (ii+1)*size/parts));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public void swap(int index0, int index1) {
+        index0+=offset;
+        index1+=offset;
+        for (int dd=0; dimensions>dd; ++dd) {
+            swapImpl(dd, index0, index1);
+        }
+    }
+
+    /**
+     * Returns the sum of the coordinates dimension of the vectors [from, from+length).
+     */
+    protected abstract double sum(int dimension, int from, int length);
+
+    /**
+     * Swaps the coordinates dimension of the vectors at the positions index0 and index1 of the band arrays.
+     */
+    protected abstract void swapImpl(int dimension, int index0, int index1);
+}
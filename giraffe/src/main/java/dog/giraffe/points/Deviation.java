@@ -1,12 +1,10 @@
 package dog.giraffe.points;
 
 import dog.giraffe.util.Doubles;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * Instances of Deviation represents the statistical deviation of a mutable list of vectors.
+ * The sums of the squared differences are stored in dense {@link Sums}, compensated if the Sum.Factory is.
  */
 public class Deviation {
     /**
@@ -29,22 +27,18 @@ public class Deviation {
          *
          * @param expectedAddends the expected number of vectors the new Deviation will contain
          * @param mean the mean of all the vectors that will be added to this Deviation
-         * @param sumFactory factory for the Sums to use for each dimension
+         * @param sumFactory selects whether the sums are compensated
          */
         public Deviation create(int expectedAddends, Vector mean, Sum.Factory sumFactory) {
-            List<Sum> sums=new ArrayList<>(dimensions);
-            for (int ii=0; ii<dimensions; ++ii) {
-                sums.add(sumFactory.create(expectedAddends));
-            }
-            return new Deviation(mean, Collections.unmodifiableList(sums));
+            return new Deviation(mean, new Sums(dimensions, sumFactory.compensated()));
         }
     }
 
-    private int addends;
-    private final Vector mean;
-    private final List<Sum> sums;
+    int addends;
+    final Vector mean;
+    final Sums sums;
 
-    private Deviation(Vector mean, List<Sum> sums) {
+    private Deviation(Vector mean, Sums sums) {
         this.mean=mean;
         this.sums=sums;
     }
@@ -55,10 +49,19 @@ public class Deviation {
     public void add(Vector addend) {
         ++addends;
         for (int ii=0;ii<addend.dimensions(); ++ii) {
-            sums.get(ii).add(Doubles.square(addend.coordinate(ii)-mean.coordinate(ii)));
+            sums.add(ii, Doubles.square(addend.coordinate(ii)-mean.coordinate(ii)));
         }
     }
 
+    /**
+     * Adds all of the vectors stored by this Deviation instance to deviation.
+     * Both instances must be created with the same mean.
+     */
+    public void addTo(Deviation deviation) {
+        deviation.addends+=addends;
+        sums.addTo(deviation.sums);
+    }
+
     /**
      * Returns the deviation of all of the stored vectors.
      */
@@ -68,7 +71,24 @@ public class Deviation {
         }
         Vector dev=new Vector(sums.size());
         for (int ii=0;ii<sums.size(); ++ii) {
-            dev.coordinate(ii, Math.sqrt(sums.get(ii).sum()/addends));
+            dev.coordinate(ii, Math.sqrt(sums.sum(ii)/addends));
+        }
+        return dev;
+    }
+
+    /**
+     * Returns the deviation of all of the stored vectors around mean.
+     * The mean this Deviation was created with is only used as a reference point,
+     * and mean should be the actual mean of the stored vectors.
+     */
+    public Vector deviation(Vector mean) {
+        if (0>=addends) {
+            throw new EmptySetException();
+        }
+        Vector dev=new Vector(sums.size());
+        for (int dd=0; sums.size()>dd; ++dd) {
+            double variance=sums.sum(dd)/addends-Doubles.square(mean.coordinate(dd)-this.mean.coordinate(dd));
+            dev.coordinate(dd, Math.sqrt(Math.max(0.0, variance)));
         }
         return dev;
     }
@@ -31,6 +31,27 @@ public class FloatArrayPoints extends ArrayPoints<float[]> {
         ++size;
     }
 
+    @Override
+    public void addAllTo(Deviation deviation) {
+        deviation.addends+=size;
+        for (int ii=dimensions*offset, end=dimensions*(offset+size); end>ii; ) {
+            for (int dd=0; dimensions>dd; ++dd, ++ii) {
+                double di=data[ii]-deviation.mean.coordinate(dd);
+                deviation.sums.add(dd, di*di);
+            }
+        }
+    }
+
+    @Override
+    public void addAllTo(Mean mean) {
+        mean.addends+=size;
+        for (int ii=dimensions*offset, end=dimensions*(offset+size); end>ii; ) {
+            for (int dd=0; dimensions>dd; ++dd, ++ii) {
+                mean.sums.add(dd, data[ii]);
+            }
+        }
+    }
+
     @Override
     protected void copy(int from, int to, int length) {
         System.arraycopy(
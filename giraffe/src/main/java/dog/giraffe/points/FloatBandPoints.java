@@ -0,0 +1,103 @@
+package dog.giraffe.points;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BandPoints} backed by float arrays.
+ * Coordinate values are considered to be between 0 and 1.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public class FloatBandPoints extends BandPoints<float[]> {
+    /**
+     * Creates a new instance with the arrays bands, size size, starting at offset.
+     */
+    public FloatBandPoints(float[][] bands, int offset, int size) {
+        super(bands, offset, size);
+    }
+
+    /**
+     * Creates a new instance with dimensionality dimensions and pre-allocated size of expectedSize.
+     */
+    public FloatBandPoints(int dimensions, int expectedSize) {
+        this(new float[dimensions][expectedSize], 0, 0);
+    }
+
+    @Override
+    public void add(Vector vector) {
+        ensureSize(size+1);
+        for (int dd=0; dimensions>dd; ++dd) {
+            bands[dd][offset+size]=(float)vector.coordinate(dd);
+        }
+        ++size;
+    }
+
+    @Override
+    protected void addDistances(
+            int dimension, double center, int from, int length, double[] distances, int distancesOffset) {
+        Kernels.kernels().addDistances(center, bands[dimension], offset+from, length, distances, distancesOffset);
+    }
+
+    @Override
+    protected void copy(int from, int to, int length) {
+        for (float[] band: bands) {
+            System.arraycopy(band, offset+from, band, offset+to, length);
+        }
+    }
+
+    @Override
+    protected void ensureSize(int newSize) {
+        for (int dd=0; dimensions>dd; ++dd) {
+            if (offset+newSize>bands[dd].length) {
+                bands[dd]=Arrays.copyOf(bands[dd], Math.max(offset+newSize, 2*bands[dd].length));
+            }
+        }
+    }
+
+    @Override
+    public double get(int dimension, int index) {
+        return bands[dimension][offset+index];
+    }
+
+    @Override
+    public double getNormalized(int dimension, int index) {
+        return get(dimension, index);
+    }
+
+    @Override
+    public double maxValue() {
+        return 1.0;
+    }
+
+    @Override
+    public double minValue() {
+        return 0.0;
+    }
+
+    @Override
+    public void set(int dimension, int index, double value) {
+        bands[dimension][offset+index]=(float)value;
+    }
+
+    @Override
+    public void setNormalized(int dimension, int index, double value) {
+        set(dimension, index, value);
+    }
+
+    @Override
+    public FloatBandPoints subPoints(int fromIndex, int toIndex) {
+        return new FloatBandPoints(bands, offset+fromIndex, toIndex-fromIndex);
+    }
+
+    @Override
+    protected double sum(int dimension, int from, int length) {
+        return Kernels.kernels().sum(bands[dimension], offset+from, length);
+    }
+
+    @Override
+    protected void swapImpl(int dimension, int index0, int index1) {
+        float[] band=bands[dimension];
+        float temp=band[index0];
+        band[index0]=band[index1];
+        band[index1]=temp;
+    }
+}
@@ -7,7 +7,6 @@ import dog.giraffe.threads.Continuation;
 import dog.giraffe.threads.Continuations;
 import dog.giraffe.util.Doubles;
 import dog.giraffe.util.Function;
-import dog.giraffe.util.QuickSort;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -17,6 +16,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 
@@ -33,7 +33,7 @@ public abstract class KDTree extends Points {
     private static final DoubleBinaryOperator MAX=Math::max;
     private static final DoubleBinaryOperator MIN=Math::min;
 
-    private static class Branch extends KDTree {
+    static class Branch extends KDTree {
         private final KDTree left;
         private final double maxValue;
         private final double minValue;
@@ -46,13 +46,20 @@ public abstract class KDTree extends Points {
                     perform(MIN, left.min, right.min),
                     left.size()+right.size(),
                     perform(ADD, left.sum, right.sum),
-                    perform(ADD, left.sum2, right.sum2));
+                    perform(ADD, left.sum2, right.sum2),
+                    left.weight+right.weight);
             this.left=left;
             this.right=right;
             maxValue=left.maxValue();
             minValue=left.minValue();
         }
 
+        @Override
+        public void addAllTo(Deviation deviation) {
+            left.addAllTo(deviation);
+            right.addAllTo(deviation);
+        }
+
         @Override
         public <C> void classify(
                 Function<C, Vector> centerPoint, List<C> centers, Classification<C> classification) throws Throwable {
@@ -86,6 +93,13 @@ public abstract class KDTree extends Points {
             return maxValue;
         }
 
+        @Override
+        public int randomIndex(Random random) {
+            return (random.nextInt(weight)<left.weight)
+                    ?left.randomIndex(random)
+                    :(left.size()+right.randomIndex(random));
+        }
+
         @Override
         public double minValue() {
             return minValue;
@@ -147,9 +161,16 @@ public abstract class KDTree extends Points {
             deque.addFirst(left);
             return true;
         }
+
+        @Override
+        public int weight(int index) {
+            return (left.size()>index)
+                    ?left.weight(index)
+                    :right.weight(index-left.size());
+        }
     }
 
-    private static class Leaf extends KDTree {
+    static class Leaf extends KDTree {
         private final MutablePoints points;
 
         public Leaf(MutablePoints points, Sum.Factory sumFactory) {
@@ -159,10 +180,16 @@ public abstract class KDTree extends Points {
                     points.perform(Double.POSITIVE_INFINITY, MIN),
                     points.size(),
                     points.sum(Doubles.IDENTITY, sums(points, sumFactory)),
-                    points.sum(Doubles.SQUARE, sums(points, sumFactory)));
+                    points.sum(Doubles.SQUARE, sums(points, sumFactory)),
+                    points.weight());
             this.points=points;
         }
 
+        @Override
+        public void addAllTo(Deviation deviation) {
+            points.addAllTo(deviation);
+        }
+
         @Override
         public <C> void classify(
                 Function<C, Vector> centerPoint, List<C> centers, Classification<C> classification) throws Throwable {
@@ -171,7 +198,7 @@ public abstract class KDTree extends Points {
                 classification.nearestCenter(centers.get(0), this);
             }
             else {
-                super.classify(centerPoint, centers, classification);
+                points.classify(centerPoint, centers, classification);
             }
         }
 
@@ -195,6 +222,11 @@ public abstract class KDTree extends Points {
             return points.minValue();
         }
 
+        @Override
+        public int randomIndex(Random random) {
+            return points.randomIndex(random);
+        }
+
         @Override
         protected void nearestCenter(NearestCenter nearestCenter, Vector point) {
             Vector nc=null;
@@ -223,6 +255,11 @@ public abstract class KDTree extends Points {
             }
             return sums;
         }
+
+        @Override
+        public int weight(int index) {
+            return points.weight(index);
+        }
     }
 
     private final Vector max;
@@ -232,27 +269,29 @@ public abstract class KDTree extends Points {
     private final Vector sum2;
     protected final int size;
     private final double variance;
+    protected final int weight;
 
-    private KDTree(int dimensions, Vector max, Vector min, int size, Vector sum, Vector sum2) {
+    private KDTree(int dimensions, Vector max, Vector min, int size, Vector sum, Vector sum2, int weight) {
         super(dimensions);
         this.max=max;
         this.min=min;
         this.size=size;
         this.sum=sum;
         this.sum2=sum2;
+        this.weight=weight;
         mean=new Vector(dimensions);
         double variance2=0.0;
         for (int dd=0; dimensions>dd; ++dd) {
             double s1=sum.coordinate(dd);
-            mean.coordinate(dd, s1/size);
-            variance2=sum2.coordinate(dd)-s1*s1/size;
+            mean.coordinate(dd, s1/weight);
+            variance2=sum2.coordinate(dd)-s1*s1/weight;
         }
-        variance=variance2/size;
+        variance=variance2/weight;
     }
 
     @Override
     public void addAllTo(Mean mean) {
-        mean.addAll(size(), sum);
+        mean.addAll(weight, sum);
     }
 
     /**
@@ -261,56 +300,19 @@ public abstract class KDTree extends Points {
      * @param maxLeafSize the maximum number of vectors a leaf can contain.
      */
     public static KDTree create(int maxLeafSize, MutablePoints points, Sum.Factory sumFactory) {
-        if (1>maxLeafSize) {
-            throw new IllegalArgumentException(Integer.toString(maxLeafSize));
-        }
-        if (maxLeafSize>=points.size()) {
-            return new Leaf(points, sumFactory);
-        }
-        int widestDimension=points.widestDimension();
-        int middle=QuickSort.medianSplit(
-                (index0, index1)->
-                        Double.compare(points.get(widestDimension, index0), points.get(widestDimension, index1)),
-                0,
-                points,
-                points.size());
-        return new Branch(
-                create(maxLeafSize, points.subPoints(0, middle), sumFactory),
-                create(maxLeafSize, points.subPoints(middle, points.size()), sumFactory));
+        return new KDTreeBuilder(maxLeafSize, KDTreeBuilder.PARALLEL_SIZE).build(points, sumFactory);
     }
 
     /**
      * Creates asynchronously a new kd-tree over points.
+     * Nodes of at least 2<sup>16</sup> vectors are split in parallel.
      *
      * @param maxLeafSize the maximum number of vectors a leaf can contain.
      */
     public static void create(
             Context context, int maxLeafSize, MutablePoints points, Continuation<KDTree> continuation)
             throws Throwable {
-        if (1>maxLeafSize) {
-            throw new IllegalArgumentException(Integer.toString(maxLeafSize));
-        }
-        if (maxLeafSize>=points.size()) {
-            continuation.completed(new Leaf(points, context.sum()));
-            return;
-        }
-        int widestDimension=points.widestDimension();
-        int middle=QuickSort.medianSplit(
-                (index0, index1)->
-                        Double.compare(points.get(widestDimension, index0), points.get(widestDimension, index1)),
-                0,
-                points,
-                points.size());
-        Continuations.<KDTree>forkJoin(
-                List.of(
-                        (continuation2)->create(
-                                context, maxLeafSize, points.subPoints(0, middle), continuation2),
-                        (continuation2)->create(
-                                context, maxLeafSize, points.subPoints(middle, points.size()), continuation2)),
-                Continuations.map(
-                        (result, continuation2)->continuation2.completed(new Branch(result.get(0), result.get(1))),
-                        continuation),
-                context.executor());
+        new KDTreeBuilder(maxLeafSize, KDTreeBuilder.PARALLEL_SIZE).build(context, points, continuation);
     }
 
     /**
@@ -446,6 +448,11 @@ public abstract class KDTree extends Points {
      */
     protected abstract boolean split(Deque<KDTree> deque);
 
+    @Override
+    public int weight() {
+        return weight;
+    }
+
     @Override
     public List<Points> split(int parts) {
         if (2>parts) {
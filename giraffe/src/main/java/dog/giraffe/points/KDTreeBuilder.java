@@ -0,0 +1,435 @@
+package dog.giraffe.points;
+
+import dog.giraffe.Context;
+import dog.giraffe.threads.AsyncSupplier;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.Continuations;
+import dog.giraffe.util.Pair;
+import dog.giraffe.util.QuickSort;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a {@link KDTree} by rearranging the vectors of a {@link MutablePoints} in place.
+ *
+ * Every node is split at the median of its widest dimension.
+ *
+ * Nodes of at least parallelSize vectors are split in parallel.
+ * The coordinates of the widest dimension of the node are extracted into an array of primitive keys,
+ * allocated only while the node is split,
+ * and the median is selected by comparing keys, the points are only touched when vectors are swapped.
+ * Keys are the bits of the coordinates mapped to longs ordered like {@link Double#compare(double, double)}.
+ * The widest dimension is selected by a parallel min-max reduction,
+ * the median key is selected by a parallel radix selection, skipping the low bits that are zero in every key,
+ * the parts of the node are partitioned in place in parallel,
+ * and the vectors left on the wrong side of the median are swapped in parallel.
+ * Smaller nodes, and {@link OffHeapPoints} which shouldn't be shadowed by keys on the heap,
+ * are split by {@link QuickSort} comparing the coordinates, and only the subtrees are built in parallel.
+ */
+class KDTreeBuilder {
+    /**
+     * The default minimum number of vectors of a node to be split in parallel.
+     */
+    static final int PARALLEL_SIZE=1<<16;
+    private static final int RADIX_BITS=16;
+
+    private final int maxLeafSize;
+    private final int parallelSize;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param maxLeafSize the maximum number of vectors a leaf can contain.
+     * @param parallelSize the minimum number of vectors of a node to be split in parallel
+     */
+    KDTreeBuilder(int maxLeafSize, int parallelSize) {
+        if (1>maxLeafSize) {
+            throw new IllegalArgumentException(Integer.toString(maxLeafSize));
+        }
+        if (2>parallelSize) {
+            throw new IllegalArgumentException(Integer.toString(parallelSize));
+        }
+        this.maxLeafSize=maxLeafSize;
+        this.parallelSize=parallelSize;
+    }
+
+    /**
+     * Builds a kd-tree over points.
+     */
+    KDTree build(MutablePoints points, Sum.Factory sumFactory) {
+        if (maxLeafSize>=points.size()) {
+            return new KDTree.Leaf(points, sumFactory);
+        }
+        int middle=split(points);
+        return new KDTree.Branch(
+                build(points.subPoints(0, middle), sumFactory),
+                build(points.subPoints(middle, points.size()), sumFactory));
+    }
+
+    /**
+     * Builds asynchronously a kd-tree over points.
+     */
+    void build(Context context, MutablePoints points, Continuation<KDTree> continuation) throws Throwable {
+        if (maxLeafSize>=points.size()) {
+            continuation.completed(new KDTree.Leaf(points, context.sum()));
+            return;
+        }
+        Continuation<Integer> fork=Continuations.map(
+                (middle, continuation2)->Continuations.<KDTree>forkJoin(
+                        List.of(
+                                (continuation3)->build(context, points.subPoints(0, middle), continuation3),
+                                (continuation3)->build(
+                                        context, points.subPoints(middle, points.size()), continuation3)),
+                        Continuations.map(
+                                (result, continuation3)->continuation3.completed(
+                                        new KDTree.Branch(result.get(0), result.get(1))),
+                                continuation2),
+                        context.executor()),
+                continuation);
+        if ((1<context.executor().threads())
+                && (parallelSize<=points.size())
+                && (!(points instanceof OffHeapPoints))) {
+            splitParallel(context, points, fork);
+        }
+        else {
+            fork.completed(split(points));
+        }
+    }
+
+    /**
+     * Swaps the vectors on the wrong side of the median.
+     * Every part is {from, to, number of vectors before the median}, and it's partitioned already.
+     */
+    private void exchange(
+            Context context, MutablePoints points, int middle, List<int[]> parts, Continuation<Integer> continuation)
+            throws Throwable {
+        List<int[]> lower=new ArrayList<>(parts.size());
+        List<int[]> upper=new ArrayList<>(parts.size());
+        int count=0;
+        for (int[] part: parts) {
+            int split=part[0]+part[2];
+            int to=Math.min(part[1], middle);
+            if (split<to) {
+                lower.add(new int[]{split, to});
+                count+=to-split;
+            }
+            int from=Math.max(part[0], middle);
+            if (from<split) {
+                upper.add(new int[]{from, split});
+            }
+        }
+        Continuations.forkJoin(
+                (from, to)->(continuation2)->{
+                    int[] position0=seek(lower, from);
+                    int[] position1=seek(upper, from);
+                    for (int ii=from; to>ii; ++ii) {
+                        points.swap(position0[1], position1[1]);
+                        next(lower, position0);
+                        next(upper, position1);
+                    }
+                    continuation2.completed(null);
+                },
+                0,
+                count,
+                Continuations.map(
+                        (result, continuation2)->continuation2.completed(middle),
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Returns the key of a coordinate.
+     * The order of keys is the same as the order of {@link Double#compare(double, double)}.
+     */
+    static long key(double value) {
+        long bits=Double.doubleToLongBits(value);
+        return bits^((bits>>63)&Long.MAX_VALUE);
+    }
+
+    /**
+     * Advances position, {interval index, vector index}, to the next vector of the intervals.
+     */
+    private static void next(List<int[]> intervals, int[] position) {
+        ++position[1];
+        if ((intervals.get(position[0])[1]<=position[1])
+                && (intervals.size()>position[0]+1)) {
+            ++position[0];
+            position[1]=intervals.get(position[0])[0];
+        }
+    }
+
+    /**
+     * Partitions the parts of points in parallel, every part is {from, to, lower keys, keys equal to the median}.
+     * The vectors with keys lower than the median, and the first ones with keys equal to the median,
+     * are moved to the beginning of their parts, so that middle vectors precede the median in total.
+     */
+    private void partition(
+            Context context, MutablePoints points, long[] keys, int middle, long median, List<int[]> parts,
+            Continuation<Integer> continuation) throws Throwable {
+        int quota=middle;
+        for (int[] part: parts) {
+            quota-=part[2];
+        }
+        List<AsyncSupplier<int[]>> forks=new ArrayList<>(parts.size());
+        for (int[] part: parts) {
+            int from=part[0];
+            int to=part[1];
+            int quota2=Math.min(quota, part[3]);
+            quota-=quota2;
+            forks.add((continuation2)->{
+                int lower=0;
+                int quota3=quota2;
+                for (int ii=from; to>ii; ++ii) {
+                    long key=keys[ii];
+                    if ((median>key)
+                            || ((median==key) && (0<quota3))) {
+                        if (median==key) {
+                            --quota3;
+                        }
+                        keys[ii]=0L;
+                        ++lower;
+                    }
+                    else {
+                        keys[ii]=1L;
+                    }
+                }
+                int ii=from;
+                int jj=to-1;
+                while (true) {
+                    while ((ii<jj) && (0L==keys[ii])) {
+                        ++ii;
+                    }
+                    while ((ii<jj) && (0L!=keys[jj])) {
+                        --jj;
+                    }
+                    if (ii>=jj) {
+                        break;
+                    }
+                    swap(points, keys, ii, jj);
+                    ++ii;
+                    --jj;
+                }
+                continuation2.completed(new int[]{from, to, lower});
+            });
+        }
+        Continuations.forkJoin(
+                forks,
+                Continuations.map(
+                        (result, continuation2)->exchange(context, points, middle, result, continuation2),
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Returns the position, {interval index, vector index}, of the vector with rank rank in the intervals.
+     */
+    private static int[] seek(List<int[]> intervals, int rank) {
+        for (int ii=0; intervals.size()>ii; ++ii) {
+            int[] interval=intervals.get(ii);
+            int length=interval[1]-interval[0];
+            if (length>rank) {
+                return new int[]{ii, interval[0]+rank};
+            }
+            rank-=length;
+        }
+        return new int[]{intervals.size()-1, intervals.get(intervals.size()-1)[1]};
+    }
+
+    /**
+     * One pass of the parallel radix selection of the key with rank rank among the keys of size vectors.
+     * The keys considered are the ones whose difference from lo starts with the bits prefix.
+     * The pass counts the next width bits of the differences, starting at bit shift.
+     * The lowest zeros bits are zero in every key, the selection stops above them.
+     */
+    private void select(
+            Context context, long[] keys, int size, long lo, int zeros, long prefix, int shift, int width,
+            int rank, Continuation<Long> continuation) throws Throwable {
+        int high=shift+width;
+        long mask=(1L<<width)-1L;
+        Continuations.<int[]>forkJoin(
+                (from, to)->(continuation2)->{
+                    int[] histogram=new int[1<<width];
+                    for (int ii=from; to>ii; ++ii) {
+                        long difference=keys[ii]-lo;
+                        if ((64<=high)
+                                || (prefix==(difference>>>high))) {
+                            ++histogram[(int)((difference>>>shift)&mask)];
+                        }
+                    }
+                    continuation2.completed(histogram);
+                },
+                0,
+                size,
+                Continuations.map(
+                        (result, continuation2)->{
+                            int digit=0;
+                            int rank2=rank;
+                            while (true) {
+                                int count=0;
+                                for (int[] histogram: result) {
+                                    count+=histogram[digit];
+                                }
+                                if (rank2<count) {
+                                    break;
+                                }
+                                rank2-=count;
+                                ++digit;
+                            }
+                            long prefix2=(prefix<<width)|digit;
+                            if (zeros>=shift) {
+                                continuation2.completed(lo+(prefix2<<shift));
+                            }
+                            else {
+                                int width2=Math.min(RADIX_BITS, shift-zeros);
+                                select(
+                                        context, keys, size, lo, zeros, prefix2, shift-width2, width2, rank2,
+                                        continuation2);
+                            }
+                        },
+                        continuation),
+                context.executor());
+    }
+
+    /**
+     * Splits points at the median of the widest dimension.
+     * Returns the index of the first vector after the median.
+     */
+    private static int split(MutablePoints points) {
+        int widestDimension=points.widestDimension();
+        return QuickSort.medianSplit(
+                (index0, index1)->
+                        Double.compare(points.get(widestDimension, index0), points.get(widestDimension, index1)),
+                0,
+                points,
+                points.size());
+    }
+
+    /**
+     * Splits points at the median of the widest dimension in parallel.
+     * Completes continuation with the index of the first vector after the median.
+     */
+    private void splitParallel(Context context, MutablePoints points, Continuation<Integer> continuation)
+            throws Throwable {
+        int size=points.size();
+        int middle=size/2;
+        Continuations.<Pair<double[], double[]>>forkJoin(
+                (from, to)->(continuation2)->{
+                    double[] maximums=new double[points.dimensions()];
+                    double[] minimums=new double[points.dimensions()];
+                    for (int dd=0; points.dimensions()>dd; ++dd) {
+                        double max=Double.NEGATIVE_INFINITY;
+                        double min=Double.POSITIVE_INFINITY;
+                        for (int ii=from; to>ii; ++ii) {
+                            double value=points.get(dd, ii);
+                            max=Math.max(max, value);
+                            min=Math.min(min, value);
+                        }
+                        maximums[dd]=max;
+                        minimums[dd]=min;
+                    }
+                    continuation2.completed(new Pair<>(maximums, minimums));
+                },
+                0,
+                size,
+                Continuations.map(
+                        (result, continuation2)->{
+                            double widestDifference=Double.NEGATIVE_INFINITY;
+                            int widestDimension=0;
+                            for (int dd=0; points.dimensions()>dd; ++dd) {
+                                double max=Double.NEGATIVE_INFINITY;
+                                double min=Double.POSITIVE_INFINITY;
+                                for (Pair<double[], double[]> pair: result) {
+                                    max=Math.max(max, pair.first[dd]);
+                                    min=Math.min(min, pair.second[dd]);
+                                }
+                                double di=max-min;
+                                if (di>widestDifference) {
+                                    widestDifference=di;
+                                    widestDimension=dd;
+                                }
+                            }
+                            splitParallel(context, points, widestDimension, middle, continuation2);
+                        },
+                        continuation),
+                context.executor());
+    }
+
+    private void splitParallel(
+            Context context, MutablePoints points, int widestDimension, int middle,
+            Continuation<Integer> continuation) throws Throwable {
+        int size=points.size();
+        long[] keys=new long[size];
+        Continuations.<long[]>forkJoin(
+                (from, to)->(continuation2)->{
+                    long max=Long.MIN_VALUE;
+                    long min=Long.MAX_VALUE;
+                    long or=0L;
+                    for (int ii=from; to>ii; ++ii) {
+                        long key=key(points.get(widestDimension, ii));
+                        keys[ii]=key;
+                        max=Math.max(max, key);
+                        min=Math.min(min, key);
+                        or|=key;
+                    }
+                    continuation2.completed(new long[]{max, min, or});
+                },
+                0,
+                size,
+                Continuations.map(
+                        (result, continuation2)->{
+                            long max=Long.MIN_VALUE;
+                            long min=Long.MAX_VALUE;
+                            long or=0L;
+                            for (long[] maxMinOr: result) {
+                                max=Math.max(max, maxMinOr[0]);
+                                min=Math.min(min, maxMinOr[1]);
+                                or|=maxMinOr[2];
+                            }
+                            Continuation<Long> partition=Continuations.map(
+                                    (median, continuation3)->Continuations.<int[]>forkJoin(
+                                            (from, to)->(continuation4)->{
+                                                int equal=0;
+                                                int lower=0;
+                                                for (int ii=from; to>ii; ++ii) {
+                                                    long key=keys[ii];
+                                                    if (median>key) {
+                                                        ++lower;
+                                                    }
+                                                    else if (median==key) {
+                                                        ++equal;
+                                                    }
+                                                }
+                                                continuation4.completed(new int[]{from, to, lower, equal});
+                                            },
+                                            0,
+                                            size,
+                                            Continuations.map(
+                                                    (result2, continuation4)->partition(
+                                                            context, points, keys, middle, median, result2,
+                                                            continuation4),
+                                                    continuation3),
+                                            context.executor()),
+                                    continuation2);
+                            if (min==max) {
+                                partition.completed(min);
+                            }
+                            else {
+                                int bits=64-Long.numberOfLeadingZeros(max-min);
+                                int zeros=Long.numberOfTrailingZeros(or);
+                                int width=Math.min(RADIX_BITS, bits-zeros);
+                                select(
+                                        context, keys, size, min, zeros, 0L, bits-width, width, middle,
+                                        partition);
+                            }
+                        },
+                        continuation),
+                context.executor());
+    }
+
+    private static void swap(MutablePoints points, long[] keys, int index0, int index1) {
+        points.swap(index0, index1);
+        long key=keys[index0];
+        keys[index0]=keys[index1];
+        keys[index1]=key;
+    }
+}
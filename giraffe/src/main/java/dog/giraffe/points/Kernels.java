@@ -0,0 +1,185 @@
+package dog.giraffe.points;
+
+/**
+ * The inner loops of the nearest center search, the distance and coordinate sums, and the hyper-hue projections.
+ * This implementation is plain scalar Java 11 code.
+ *
+ * The multi-release jar contains an implementation for Java 17 and newer which uses the incubating vector API.
+ * It's used by {@link #kernels()} when the module jdk.incubator.vector is added to the JVM,
+ * and the system property {@value #SCALAR_PROPERTY} is not set to true.
+ * Both implementations compute the same distances and nearest centers,
+ * sums of float coordinates may differ in rounding.
+ */
+public class Kernels {
+    /**
+     * Setting this system property to true forces the use of the scalar kernels.
+     */
+    public static final String SCALAR_PROPERTY="dog.giraffe.scalar-kernels";
+    private static final String VECTOR_KERNELS="dog.giraffe.points.VectorKernels";
+
+    private static class Holder {
+        private static final Kernels KERNELS=create();
+    }
+
+    /**
+     * Adds the squared differences between center and band[from, from+length)
+     * to distances[distancesOffset, distancesOffset+length).
+     */
+    public void addDistances(
+            double center, byte[] band, int from, int length, double[] distances, int distancesOffset) {
+        for (int ii=from, jj=distancesOffset; from+length>ii; ++ii, ++jj) {
+            double di=center-(band[ii]&0xff);
+            distances[jj]+=di*di;
+        }
+    }
+
+    /**
+     * Adds the squared differences between center and band[from, from+length)
+     * to distances[distancesOffset, distancesOffset+length).
+     */
+    public void addDistances(
+            double center, float[] band, int from, int length, double[] distances, int distancesOffset) {
+        for (int ii=from, jj=distancesOffset; from+length>ii; ++ii, ++jj) {
+            double di=center-band[ii];
+            distances[jj]+=di*di;
+        }
+    }
+
+    /**
+     * Adds the squared differences between center and band[from, from+length)
+     * to distances[distancesOffset, distancesOffset+length).
+     */
+    public void addDistances(
+            double center, short[] band, int from, int length, double[] distances, int distancesOffset) {
+        for (int ii=from, jj=distancesOffset; from+length>ii; ++ii, ++jj) {
+            double di=center-(band[ii]&0xffff);
+            distances[jj]+=di*di;
+        }
+    }
+
+    private static Kernels create() {
+        if (Boolean.getBoolean(SCALAR_PROPERTY)) {
+            return new Kernels();
+        }
+        try {
+            return (Kernels)Class.forName(VECTOR_KERNELS).getConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException|LinkageError ignore) {
+            return new Kernels();
+        }
+    }
+
+    /**
+     * Replaces the values with the hyper-hue of the vector values.
+     * The mean of the values is subtracted from every value, the differences are mapped from [-1, 1] to [0, 1].
+     */
+    public void hyperHue(double[] values) {
+        double mean=0.0;
+        for (double value: values) {
+            mean+=value;
+        }
+        mean/=values.length;
+        for (int ii=0; values.length>ii; ++ii) {
+            values[ii]=0.5+0.5*(values[ii]-mean);
+        }
+    }
+
+    /**
+     * Returns the kernels used by the points.
+     */
+    public static Kernels kernels() {
+        return Holder.KERNELS;
+    }
+
+    /**
+     * Selects the nearest center of the vectors [0, length).
+     * The distance between the vector ii and the center cc is distances[cc*stride+ii].
+     * Ties are broken in favor of the center with the smaller index.
+     * The minimum distances are written to distances[0, length).
+     */
+    public void nearestCenters(double[] distances, int stride, int centers, int length, int[] nearestCenters) {
+        for (int ii=0; length>ii; ++ii) {
+            int nc=0;
+            double nd=distances[ii];
+            for (int cc=1; centers>cc; ++cc) {
+                double dd=distances[cc*stride+ii];
+                if (nd>dd) {
+                    nc=cc;
+                    nd=dd;
+                }
+            }
+            distances[ii]=nd;
+            nearestCenters[ii]=nc;
+        }
+    }
+
+    /**
+     * Replaces the values with the normalized hyper-hue of the vector values.
+     * The hyper-hue is scaled to unit length and mapped from [-1, 1] to [0, 1].
+     * Hyper-hues with a squared length smaller than maxZero2 are replaced with the zero point.
+     */
+    public void normalizedHyperHue(double[] values, double maxZero2) {
+        double mean=0.0;
+        for (double value: values) {
+            mean+=value;
+        }
+        mean/=values.length;
+        double length=0.0;
+        for (int ii=0; values.length>ii; ++ii) {
+            double cc=values[ii]-mean;
+            length+=cc*cc;
+            values[ii]=cc;
+        }
+        if (maxZero2>length) {
+            for (int ii=0; values.length>ii; ++ii) {
+                values[ii]=0.5;
+            }
+        }
+        else {
+            length=Math.sqrt(length);
+            for (int ii=0; values.length>ii; ++ii) {
+                values[ii]=0.5+0.5*values[ii]/length;
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of band[from, from+length).
+     */
+    public double sum(byte[] band, int from, int length) {
+        double sum=0.0;
+        for (int ii=from; from+length>ii; ++ii) {
+            sum+=band[ii]&0xff;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of band[from, from+length).
+     */
+    public double sum(float[] band, int from, int length) {
+        double sum=0.0;
+        for (int ii=from; from+length>ii; ++ii) {
+            sum+=band[ii];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of band[from, from+length).
+     */
+    public double sum(short[] band, int from, int length) {
+        double sum=0.0;
+        for (int ii=from; from+length>ii; ++ii) {
+            sum+=band[ii]&0xffff;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the name of this implementation.
+     */
+    public String type() {
+        return "scalar";
+    }
+}
@@ -1,11 +1,8 @@
 package dog.giraffe.points;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * Instances of Mean represents the statistical mean of a mutable list of vectors.
+ * The coordinate sums are stored in dense {@link Sums}, compensated if the Sum.Factory is.
  */
 public class Mean {
     /**
@@ -27,21 +24,17 @@ public class Mean {
          * Creates a new empty Mean.
          *
          * @param expectedAddends the expected number of vectors the new Mean will contain
-         * @param sumFactory factory for the Sums to use for each dimension
+         * @param sumFactory selects whether the sums are compensated
          */
         public Mean create(int expectedAddends, Sum.Factory sumFactory) {
-            List<Sum> sums=new ArrayList<>(dimensions);
-            for (int dd=dimensions; 0<dd; --dd) {
-                sums.add(sumFactory.create(expectedAddends));
-            }
-            return new Mean(Collections.unmodifiableList(sums));
+            return new Mean(new Sums(dimensions, sumFactory.compensated()));
         }
     }
 
     int addends;
-    final List<Sum> sums;
+    final Sums sums;
 
-    private Mean(List<Sum> sums) {
+    private Mean(Sums sums) {
         this.sums=sums;
     }
 
@@ -51,7 +44,7 @@ public class Mean {
     public void add(Vector addend) {
         ++addends;
         for (int dd=0; sums.size()>dd; ++dd) {
-            sums.get(dd).add(addend.coordinate(dd));
+            sums.add(dd, addend.coordinate(dd));
         }
     }
 
@@ -64,7 +57,7 @@ public class Mean {
     public void addAll(int addends, Vector sum) {
         this.addends+=addends;
         for (int dd=0; sums.size()>dd; ++dd) {
-            sums.get(dd).add(sum.coordinate(dd));
+            sums.add(dd, sum.coordinate(dd));
         }
     }
 
@@ -73,9 +66,7 @@ public class Mean {
      */
     public void addTo(Mean mean) {
         mean.addends+=addends;
-        for (int dd=0; sums.size()>dd; ++dd) {
-            sums.get(dd).addTo(mean.sums.get(dd));
-        }
+        sums.addTo(mean.sums);
     }
 
     /**
@@ -83,9 +74,7 @@ public class Mean {
      */
     public void clear() {
         addends=0;
-        for (Sum sum: sums) {
-            sum.clear();
-        }
+        sums.clear();
     }
 
     /**
@@ -97,7 +86,7 @@ public class Mean {
         }
         Vector mean=new Vector(sums.size());
         for (int dd=0; sums.size()>dd; ++dd) {
-            mean.coordinate(dd, sums.get(dd).sum()/addends);
+            mean.coordinate(dd, sums.sum(dd)/addends);
         }
         return mean;
     }
@@ -0,0 +1,268 @@
+package dog.giraffe.points;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link MutablePoints} storing unsigned 8 or 16 bit, or float samples outside of the java heap,
+ * in direct byte buffers or in memory mapped scratch files.
+ * Coordinate values are considered to be between 0 and 255, 0 and 65535, or 0 and 1.
+ *
+ * The samples are interleaved like in {@link ArrayPoints}, but addresses are longs,
+ * so the number of samples is not limited by the maximum size of an array.
+ * The buffers are treated as one long address space, every buffer holds the same power of two bytes,
+ * 2<sup>{@value #SEGMENT_SHIFT}</sup> by default.
+ * Growing appends new buffers, existing samples are never copied.
+ * Scratch files are deleted when they're mapped, the mapping keeps the storage alive until it's garbage collected.
+ * Direct buffers count against the limit -XX:MaxDirectMemorySize of the JVM, mapped files don't.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public class OffHeapPoints extends MutablePoints {
+    /**
+     * The default base 2 logarithm of the size of a buffer in bytes.
+     */
+    public static final int SEGMENT_SHIFT=24;
+
+    /**
+     * The buffers shared by an instance and all of its sub-points.
+     */
+    private static class Segments {
+        private ByteBuffer[] buffers=new ByteBuffer[0];
+        private final long mask;
+        private final Path scratchDirectory;
+        private final int shift;
+
+        public Segments(Path scratchDirectory, int shift) {
+            this.scratchDirectory=scratchDirectory;
+            this.shift=shift;
+            mask=(1L<<shift)-1L;
+        }
+
+        private ByteBuffer allocate() throws IOException {
+            if (null==scratchDirectory) {
+                return ByteBuffer.allocateDirect(1<<shift);
+            }
+            Path file=Files.createTempFile(scratchDirectory, "giraffe-", ".points");
+            try (FileChannel channel=FileChannel.open(
+                    file,
+                    StandardOpenOption.DELETE_ON_CLOSE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0L, 1L<<shift);
+            }
+        }
+
+        public void ensureCapacity(long bytes) {
+            int segments=(int)((bytes+mask)>>>shift);
+            if (buffers.length>=segments) {
+                return;
+            }
+            ByteBuffer[] buffers=Arrays.copyOf(this.buffers, segments);
+            try {
+                for (int ii=this.buffers.length; segments>ii; ++ii) {
+                    buffers[ii]=allocate().order(ByteOrder.nativeOrder());
+                }
+            }
+            catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            this.buffers=buffers;
+        }
+    }
+
+    private final long offset;
+    private final int sampleBytes;
+    private final Segments segments;
+    private int size;
+
+    private OffHeapPoints(int dimensions, long offset, int sampleBytes, Segments segments, int size) {
+        super(dimensions);
+        this.offset=offset;
+        this.sampleBytes=sampleBytes;
+        this.segments=segments;
+        this.size=size;
+    }
+
+    @Override
+    public void add(Vector vector) {
+        size(size+1);
+        for (int dd=0; dimensions>dd; ++dd) {
+            set(dd, size-1, vector.coordinate(dd));
+        }
+    }
+
+    private long address(int dimension, int index) {
+        return (offset+(long)index*dimensions+dimension)*sampleBytes;
+    }
+
+    @Override
+    protected void copy(int from, int to, int length) {
+        long fromAddress=address(0, from);
+        long toAddress=address(0, to);
+        for (long bytes=(long)length*dimensions*sampleBytes; 0L<bytes; ) {
+            int fromPosition=(int)(fromAddress&segments.mask);
+            int toPosition=(int)(toAddress&segments.mask);
+            int chunk=(int)Math.min(bytes, (1L<<segments.shift)-Math.max(fromPosition, toPosition));
+            ByteBuffer fromBuffer=segments.buffers[(int)(fromAddress>>>segments.shift)].duplicate();
+            fromBuffer.limit(fromPosition+chunk).position(fromPosition);
+            ByteBuffer toBuffer=segments.buffers[(int)(toAddress>>>segments.shift)].duplicate();
+            toBuffer.position(toPosition);
+            toBuffer.put(fromBuffer);
+            bytes-=chunk;
+            fromAddress+=chunk;
+            toAddress+=chunk;
+        }
+    }
+
+    /**
+     * Creates new empty off-heap points with the coordinate type of points and dimensionality dimensions.
+     * Returns null if there are no off-heap points with the coordinate type of points.
+     *
+     * @param scratchDirectory the directory of the memory mapped scratch files, or null to use direct buffers
+     */
+    public static OffHeapPoints create(MutablePoints points, int dimensions, Path scratchDirectory) {
+        return create(points, dimensions, scratchDirectory, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Creates new empty off-heap points with buffers of 2<sup>segmentShift</sup> bytes.
+     */
+    static OffHeapPoints create(MutablePoints points, int dimensions, Path scratchDirectory, int segmentShift) {
+        if ((3>segmentShift) || (30<segmentShift)) {
+            throw new IllegalArgumentException(Integer.toString(segmentShift));
+        }
+        int sampleBytes;
+        if ((points instanceof UnsignedByteArrayPoints) || (points instanceof UnsignedByteBandPoints)) {
+            sampleBytes=1;
+        }
+        else if ((points instanceof UnsignedShortArrayPoints) || (points instanceof UnsignedShortBandPoints)) {
+            sampleBytes=2;
+        }
+        else if ((points instanceof FloatArrayPoints) || (points instanceof FloatBandPoints)) {
+            sampleBytes=4;
+        }
+        else {
+            return null;
+        }
+        return new OffHeapPoints(dimensions, 0L, sampleBytes, new Segments(scratchDirectory, segmentShift), 0);
+    }
+
+    @Override
+    public double get(int dimension, int index) {
+        long address=address(dimension, index);
+        ByteBuffer buffer=segments.buffers[(int)(address>>>segments.shift)];
+        int position=(int)(address&segments.mask);
+        switch (sampleBytes) {
+            case 1:
+                return buffer.get(position)&0xff;
+            case 2:
+                return buffer.getShort(position)&0xffff;
+            default:
+                return buffer.getFloat(position);
+        }
+    }
+
+    @Override
+    public double getNormalized(int dimension, int index) {
+        return get(dimension, index)/maxValue();
+    }
+
+    @Override
+    public double maxValue() {
+        switch (sampleBytes) {
+            case 1:
+                return 255.0;
+            case 2:
+                return 65535.0;
+            default:
+                return 1.0;
+        }
+    }
+
+    @Override
+    public double minValue() {
+        return 0.0;
+    }
+
+    @Override
+    public void set(int dimension, int index, double value) {
+        long address=address(dimension, index);
+        ByteBuffer buffer=segments.buffers[(int)(address>>>segments.shift)];
+        int position=(int)(address&segments.mask);
+        switch (sampleBytes) {
+            case 1:
+                buffer.put(position, (byte)value);
+                break;
+            case 2:
+                buffer.putShort(position, (short)value);
+                break;
+            default:
+                buffer.putFloat(position, (float)value);
+                break;
+        }
+    }
+
+    @Override
+    public void setNormalized(int dimension, int index, double value) {
+        switch (sampleBytes) {
+            case 1:
+                set(dimension, index, UnsignedByteArrayPoints.denormalize(value)&0xff);
+                break;
+            case 2:
+                set(dimension, index, UnsignedShortArrayPoints.denormalize(value)&0xffff);
+                break;
+            default:
+                set(dimension, index, value);
+                break;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void size(int size) {
+        segments.ensureCapacity(address(0, size));
+        this.size=size;
+    }
+
+    @Override
+    public List<Points> split(int parts) {
+        if ((2>parts)
+                || (2>size())) {
+            return Collections.singletonList(this);
+        }
+        parts=Math.min(parts, size());
+        List<Points> result=new ArrayList<>(parts);
+        for (int ii=0; parts>ii; ++ii) {
+            result.add(subPoints((int)((long)ii*size/parts), (int)((long)(ii+1)*size/parts)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public OffHeapPoints subPoints(int fromIndex, int toIndex) {
+        return new OffHeapPoints(
+                dimensions, offset+(long)fromIndex*dimensions, sampleBytes, segments, toIndex-fromIndex);
+    }
+
+    @Override
+    public void swap(int index0, int index1) {
+        for (int dd=0; dimensions>dd; ++dd) {
+            double temp=get(dd, index0);
+            set(dd, index0, get(dd, index1));
+            set(dd, index1, temp);
+        }
+    }
+}
@@ -2,11 +2,14 @@ package dog.giraffe.points;
 
 import dog.giraffe.util.Function;
 import java.util.List;
+import java.util.Random;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
 
 /**
  * A list of vectors.
+ * Every vector has a weight, the number of times it occurs in the list.
+ * Sums, means, deviations and distance sums count every vector as many times as its weight.
  */
 public abstract class Points {
     /**
@@ -59,6 +62,15 @@ public abstract class Points {
         }
     }
 
+    /**
+     * Adds all vectors of this to deviation.
+     */
+    public void addAllTo(Deviation deviation) {
+        for (int ii=0; size()>ii; ++ii) {
+            addTo(ii, deviation);
+        }
+    }
+
     /**
      * Adds all vectors of this to mean.
      */
@@ -72,9 +84,22 @@ public abstract class Points {
      * Adds the distance between center and the point indexed by index to sum.
      */
     public void addDistanceTo(Vector center, int index, Sum sum) {
+        int weight=weight(index);
         for (int dd=0; dimensions>dd; ++dd) {
             double di=center.coordinate(dd)-get(dd, index);
-            sum.add(di*di);
+            sum.add(weight*di*di);
+        }
+    }
+
+    /**
+     * Adds the vector indexed by index to deviation.
+     */
+    public void addTo(int index, Deviation deviation) {
+        int weight=weight(index);
+        deviation.addends+=weight;
+        for (int dd=0; dimensions>dd; ++dd) {
+            double di=get(dd, index)-deviation.mean.coordinate(dd);
+            deviation.sums.add(dd, weight*di*di);
         }
     }
 
@@ -82,9 +107,10 @@ public abstract class Points {
      * Adds the vector indexed by index to mean.
      */
     public void addTo(int index, Mean mean) {
-        ++mean.addends;
+        int weight=weight(index);
+        mean.addends+=weight;
         for (int dd=0; dimensions>dd; ++dd) {
-            mean.sums.get(dd).add(get(dd, index));
+            mean.sums.add(dd, weight*get(dd, index));
         }
     }
 
@@ -179,6 +205,13 @@ public abstract class Points {
 
     public abstract double minValue();
 
+    /**
+     * Selects the index of a vector randomly with probability proportional to its weight.
+     */
+    public int randomIndex(Random random) {
+        return random.nextInt(size());
+    }
+
     /**
      * Performs the pointwise operator on all the vectors of this and returns the result.
      */
@@ -206,7 +239,7 @@ public abstract class Points {
     public abstract List<Points> split(int parts);
 
     /**
-     * Performs the pointwise operator on all the vectors of this and returns the sum of all of the results.
+     * Performs the pointwise operator on all the vectors of this and returns the weighted sum of all of the results.
      */
     Vector sum(DoubleUnaryOperator operator, List<Sum> sums) {
         for (int dd=0; dimensions>dd; ++dd) {
@@ -214,8 +247,9 @@ public abstract class Points {
         }
         Vector result=new Vector(dimensions);
         for (int offset=0, size=size(); 0<size; ++offset, --size) {
+            int weight=weight(offset);
             for (int dd=0; dimensions>dd; ++dd) {
-                sums.get(dd).add(operator.applyAsDouble(get(dd, offset)));
+                sums.get(dd).add(weight*operator.applyAsDouble(get(dd, offset)));
             }
         }
         for (int dd=0; dimensions>dd; ++dd) {
@@ -231,6 +265,20 @@ public abstract class Points {
         return variance;
     }
 
+    /**
+     * Returns the sum of the weights of all the vectors of this.
+     */
+    public int weight() {
+        return size();
+    }
+
+    /**
+     * Returns the weight of the vector indexed by index.
+     */
+    public int weight(int index) {
+        return 1;
+    }
+
     /**
      * Returns the index of the dimension
      * which has the largest difference between its maximal and minimal coordinate values.
@@ -6,6 +6,7 @@ import dog.giraffe.util.Doubles;
  * Instances of Sum represents the sum of a mutable list of double values.
  * As this is a reference type, instances can be used in generic containers, and they are mutable unlike Doubles.
  * The default implementation only stores a single running sum, trading numerical stability for speed.
+ * {@link #KAHAN} creates compensated sums.
  */
 public interface Sum {
     /**
@@ -18,6 +19,49 @@ public interface Sum {
          * @param expectedAddends the expected number of values the new Sum will contain
          */
         Sum create(int expectedAddends);
+
+        /**
+         * Returns whether the Sums created by this factory are compensated.
+         * {@link Mean} and {@link Deviation} don't store their sums in Sum instances,
+         * they use this to select the mode of their dense sums.
+         */
+        default boolean compensated() {
+            return false;
+        }
+    }
+
+    /**
+     * A Sum using Kahan summation.
+     * The running compensation keeps the error of the sum mostly independent of the number of addends.
+     */
+    class Kahan implements Sum {
+        private double compensation;
+        private double sum;
+
+        @Override
+        public void add(double addend) {
+            Doubles.checkFinite(addend);
+            double yy=addend-compensation;
+            double tt=Doubles.checkFinite(sum+yy);
+            compensation=(tt-sum)-yy;
+            sum=tt;
+        }
+
+        @Override
+        public void addTo(Sum sum) {
+            sum.add(sum());
+        }
+
+        @Override
+        public void clear() {
+            compensation=0.0;
+            sum=0.0;
+        }
+
+        @Override
+        public double sum() {
+            return Doubles.checkFinite(sum-compensation);
+        }
     }
 
     class SingleVariable implements Sum {
@@ -50,6 +94,21 @@ public interface Sum {
      */
     Factory SINGLE_VARIABLE=(expectedAddends)->new SingleVariable();
 
+    /**
+     * Factory of compensated Sums.
+     */
+    Factory KAHAN=new Factory() {
+        @Override
+        public boolean compensated() {
+            return true;
+        }
+
+        @Override
+        public Sum create(int expectedAddends) {
+            return new Kahan();
+        }
+    };
+
     /**
      * Adds the value addend to the list of values.
      */
@@ -0,0 +1,76 @@
+package dog.giraffe.points;
+
+import dog.giraffe.util.Doubles;
+import java.util.Arrays;
+
+/**
+ * Dense running sums of a fixed number of variables,
+ * the accumulators of {@link Mean}, {@link Deviation} and the histograms of Otsu's method.
+ * The sums are stored in a double array, compensated sums keep the Kahan compensations in a second array.
+ * Addends are not checked one by one, the finiteness of the sums is checked when they are read.
+ * A non-finite addend makes its sum non-finite.
+ */
+public class Sums {
+    private final double[] compensations;
+    private final double[] sums;
+
+    /**
+     * Creates new zero sums for size variables.
+     */
+    public Sums(int size, boolean compensated) {
+        compensations=compensated?new double[size]:null;
+        sums=new double[size];
+    }
+
+    /**
+     * Adds addend to the sum indexed by index.
+     */
+    public void add(int index, double addend) {
+        if (null==compensations) {
+            sums[index]+=addend;
+        }
+        else {
+            double yy=addend-compensations[index];
+            double tt=sums[index]+yy;
+            compensations[index]=(tt-sums[index])-yy;
+            sums[index]=tt;
+        }
+    }
+
+    /**
+     * Adds all the sums of this to sums.
+     */
+    public void addTo(Sums sums) {
+        for (int ii=0; this.sums.length>ii; ++ii) {
+            sums.add(ii, sum(ii));
+        }
+    }
+
+    /**
+     * Sets all the sums to zero.
+     */
+    public void clear() {
+        if (null!=compensations) {
+            Arrays.fill(compensations, 0.0);
+        }
+        Arrays.fill(sums, 0.0);
+    }
+
+    /**
+     * Returns the number of variables.
+     */
+    public int size() {
+        return sums.length;
+    }
+
+    /**
+     * Returns the sum indexed by index.
+     * Throws an exception if the sum is not finite.
+     */
+    public double sum(int index) {
+        double sum=Doubles.checkFinite(sums[index]);
+        return (null==compensations)
+                ?sum
+                :(sum-compensations[index]);
+    }
+}
@@ -0,0 +1,108 @@
+package dog.giraffe.points;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BandPoints} backed by byte arrays.
+ * Coordinate values are considered to be between 0 and 255.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public class UnsignedByteBandPoints extends BandPoints<byte[]> {
+    /**
+     * Creates a new instance with the arrays bands, size size, starting at offset.
+     */
+    public UnsignedByteBandPoints(byte[][] bands, int offset, int size) {
+        super(bands, offset, size);
+    }
+
+    /**
+     * Creates a new instance with dimensionality dimensions and pre-allocated size of expectedSize.
+     */
+    public UnsignedByteBandPoints(int dimensions, int expectedSize) {
+        this(new byte[dimensions][expectedSize], 0, 0);
+    }
+
+    @Override
+    public void add(Vector vector) {
+        ensureSize(size+1);
+        for (int dd=0; dimensions>dd; ++dd) {
+            bands[dd][offset+size]=(byte)vector.coordinate(dd);
+        }
+        ++size;
+    }
+
+    @Override
+    protected void addDistances(
+            int dimension, double center, int from, int length, double[] distances, int distancesOffset) {
+        Kernels.kernels().addDistances(center, bands[dimension], offset+from, length, distances, distancesOffset);
+    }
+
+    @Override
+    protected void copy(int from, int to, int length) {
+        for (byte[] band: bands) {
+            System.arraycopy(band, offset+from, band, offset+to, length);
+        }
+    }
+
+    @Override
+    protected void ensureSize(int newSize) {
+        for (int dd=0; dimensions>dd; ++dd) {
+            if (offset+newSize>bands[dd].length) {
+                bands[dd]=Arrays.copyOf(bands[dd], Math.max(offset+newSize, 2*bands[dd].length));
+            }
+        }
+    }
+
+    @Override
+    public double get(int dimension, int index) {
+        return bands[dimension][offset+index]&0xff;
+    }
+
+    @Override
+    public double getNormalized(int dimension, int index) {
+        return get(dimension, index)/255.0;
+    }
+
+    @Override
+    public double maxValue() {
+        return 255.0;
+    }
+
+    @Override
+    public double minValue() {
+        return 0.0;
+    }
+
+    @Override
+    public void set(int dimension, int index, byte value) {
+        bands[dimension][offset+index]=value;
+    }
+
+    @Override
+    public void set(int dimension, int index, double value) {
+        bands[dimension][offset+index]=(byte)value;
+    }
+
+    @Override
+    public void setNormalized(int dimension, int index, double value) {
+        bands[dimension][offset+index]=UnsignedByteArrayPoints.denormalize(value);
+    }
+
+    @Override
+    public UnsignedByteBandPoints subPoints(int fromIndex, int toIndex) {
+        return new UnsignedByteBandPoints(bands, offset+fromIndex, toIndex-fromIndex);
+    }
+
+    @Override
+    protected double sum(int dimension, int from, int length) {
+        return Kernels.kernels().sum(bands[dimension], offset+from, length);
+    }
+
+    @Override
+    protected void swapImpl(int dimension, int index0, int index1) {
+        byte[] band=bands[dimension];
+        byte temp=band[index0];
+        band[index0]=band[index1];
+        band[index1]=temp;
+    }
+}
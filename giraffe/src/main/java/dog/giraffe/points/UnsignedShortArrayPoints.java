@@ -38,6 +38,27 @@ public class UnsignedShortArrayPoints extends ArrayPoints<short[]> {
         ++size;
     }
 
+    @Override
+    public void addAllTo(Deviation deviation) {
+        deviation.addends+=size;
+        for (int ii=dimensions*offset, end=dimensions*(offset+size); end>ii; ) {
+            for (int dd=0; dimensions>dd; ++dd, ++ii) {
+                double di=(data[ii]&0xffff)-deviation.mean.coordinate(dd);
+                deviation.sums.add(dd, di*di);
+            }
+        }
+    }
+
+    @Override
+    public void addAllTo(Mean mean) {
+        mean.addends+=size;
+        for (int ii=dimensions*offset, end=dimensions*(offset+size); end>ii; ) {
+            for (int dd=0; dimensions>dd; ++dd, ++ii) {
+                mean.sums.add(dd, data[ii]&0xffff);
+            }
+        }
+    }
+
     @Override
     protected void copy(int from, int to, int length) {
         System.arraycopy(
@@ -0,0 +1,113 @@
+package dog.giraffe.points;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BandPoints} backed by short arrays.
+ * Coordinate values are considered to be between 0 and 65535.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public class UnsignedShortBandPoints extends BandPoints<short[]> {
+    /**
+     * Creates a new instance with the arrays bands, size size, starting at offset.
+     */
+    public UnsignedShortBandPoints(short[][] bands, int offset, int size) {
+        super(bands, offset, size);
+    }
+
+    /**
+     * Creates a new instance with dimensionality dimensions and pre-allocated size of expectedSize.
+     */
+    public UnsignedShortBandPoints(int dimensions, int expectedSize) {
+        this(new short[dimensions][expectedSize], 0, 0);
+    }
+
+    @Override
+    public void add(Vector vector) {
+        ensureSize(size+1);
+        for (int dd=0; dimensions>dd; ++dd) {
+            bands[dd][offset+size]=(short)vector.coordinate(dd);
+        }
+        ++size;
+    }
+
+    @Override
+    protected void addDistances(
+            int dimension, double center, int from, int length, double[] distances, int distancesOffset) {
+        Kernels.kernels().addDistances(center, bands[dimension], offset+from, length, distances, distancesOffset);
+    }
+
+    @Override
+    protected void copy(int from, int to, int length) {
+        for (short[] band: bands) {
+            System.arraycopy(band, offset+from, band, offset+to, length);
+        }
+    }
+
+    @Override
+    protected void ensureSize(int newSize) {
+        for (int dd=0; dimensions>dd; ++dd) {
+            if (offset+newSize>bands[dd].length) {
+                bands[dd]=Arrays.copyOf(bands[dd], Math.max(offset+newSize, 2*bands[dd].length));
+            }
+        }
+    }
+
+    @Override
+    public double get(int dimension, int index) {
+        return bands[dimension][offset+index]&0xffff;
+    }
+
+    @Override
+    public double getNormalized(int dimension, int index) {
+        return get(dimension, index)/65535.0;
+    }
+
+    @Override
+    public double maxValue() {
+        return 65535.0;
+    }
+
+    @Override
+    public double minValue() {
+        return 0.0;
+    }
+
+    @Override
+    public void set(int dimension, int index, byte value) {
+        bands[dimension][offset+index]=(short)(value&0xff);
+    }
+
+    @Override
+    public void set(int dimension, int index, short value) {
+        bands[dimension][offset+index]=value;
+    }
+
+    @Override
+    public void set(int dimension, int index, double value) {
+        bands[dimension][offset+index]=(short)value;
+    }
+
+    @Override
+    public void setNormalized(int dimension, int index, double value) {
+        bands[dimension][offset+index]=UnsignedShortArrayPoints.denormalize(value);
+    }
+
+    @Override
+    public UnsignedShortBandPoints subPoints(int fromIndex, int toIndex) {
+        return new UnsignedShortBandPoints(bands, offset+fromIndex, toIndex-fromIndex);
+    }
+
+    @Override
+    protected double sum(int dimension, int from, int length) {
+        return Kernels.kernels().sum(bands[dimension], offset+from, length);
+    }
+
+    @Override
+    protected void swapImpl(int dimension, int index0, int index1) {
+        short[] band=bands[dimension];
+        short temp=band[index0];
+        band[index0]=band[index1];
+        band[index1]=temp;
+    }
+}
@@ -0,0 +1,281 @@
+package dog.giraffe.points;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link MutablePoints} that stores every distinct vector only once, weighted by the number of its occurrences.
+ * Sub-points are only mutable as far as swap goes.
+ */
+public class WeightedPoints extends MutablePoints {
+    /**
+     * Counts the distinct vectors of unsigned 8 bit points.
+     * The counts are stored in an open addressing hash table keyed by the packed coordinates.
+     */
+    public static class Counter {
+        private static final int INITIAL_CAPACITY=1<<10;
+
+        private int[] counts;
+        private final int dimensions;
+        private int[] keys;
+        private int shift;
+        private int size;
+
+        /**
+         * Creates a new empty counter for vectors with dimensionality dimensions.
+         */
+        public Counter(int dimensions) {
+            if ((1>dimensions) || (MAX_DIMENSIONS<dimensions)) {
+                throw new IllegalArgumentException(Integer.toString(dimensions));
+            }
+            this.dimensions=dimensions;
+            counts=new int[INITIAL_CAPACITY];
+            keys=new int[INITIAL_CAPACITY];
+            shift=32-Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Adds all the vectors counted by counter to this.
+         */
+        public void add(Counter counter) {
+            for (int ii=0; counter.keys.length>ii; ++ii) {
+                if (0<counter.counts[ii]) {
+                    add(counter.keys[ii], counter.counts[ii]);
+                }
+            }
+        }
+
+        /**
+         * Adds the vector of points indexed by index to this.
+         * The coordinates must be between 0 and 255.
+         */
+        public void add(Points points, int index) {
+            int key=0;
+            for (int dd=0; dimensions>dd; ++dd) {
+                key=(key<<8)|(int)points.get(dd, index);
+            }
+            add(key, 1);
+        }
+
+        private void add(int key, int count) {
+            for (int slot=(key*0x9e3779b1)>>>shift; ; slot=(slot+1)&(keys.length-1)) {
+                if (0>=counts[slot]) {
+                    counts[slot]=count;
+                    keys[slot]=key;
+                    ++size;
+                    if (2*size>keys.length) {
+                        grow();
+                    }
+                    return;
+                }
+                if (key==keys[slot]) {
+                    counts[slot]+=count;
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] counts=this.counts;
+            int[] keys=this.keys;
+            this.counts=new int[2*counts.length];
+            this.keys=new int[2*keys.length];
+            --shift;
+            size=0;
+            for (int ii=0; keys.length>ii; ++ii) {
+                if (0<counts[ii]) {
+                    add(keys[ii], counts[ii]);
+                }
+            }
+        }
+
+        /**
+         * Creates new weighted points of the counted vectors.
+         */
+        public WeightedPoints points() {
+            UnsignedByteArrayPoints points=new UnsignedByteArrayPoints(dimensions, size);
+            points.size(size);
+            int[] weights=new int[size];
+            for (int ii=0, index=0; keys.length>ii; ++ii) {
+                if (0<counts[ii]) {
+                    for (int dd=0; dimensions>dd; ++dd) {
+                        points.set(dd, index, (byte)(keys[ii]>>>(8*(dimensions-dd-1))));
+                    }
+                    weights[index]=counts[ii];
+                    ++index;
+                }
+            }
+            return new WeightedPoints(points, weights, 0);
+        }
+
+        /**
+         * Returns the number of distinct vectors counted.
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * The maximum dimensionality of the vectors a {@link Counter} can count.
+     */
+    public static final int MAX_DIMENSIONS=4;
+
+    private final int offset;
+    private final MutablePoints points;
+    private int[] weights;
+
+    private WeightedPoints(MutablePoints points, int[] weights, int offset) {
+        super(points.dimensions());
+        this.offset=offset;
+        this.points=points;
+        this.weights=weights;
+    }
+
+    /**
+     * Creates a new instance of the vectors of points, the weight of the vector indexed by ii is weights[ii].
+     */
+    public WeightedPoints(MutablePoints points, int[] weights) {
+        this(points, weights, 0);
+        if (weights.length<points.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "too few weights; points: %1$d, weights: %2$d", points.size(), weights.length));
+        }
+    }
+
+    /**
+     * Adds vector to this with weight 1.
+     */
+    @Override
+    public void add(Vector vector) {
+        points.add(vector);
+        ensureSize(points.size());
+        weights[offset+points.size()-1]=1;
+    }
+
+    @Override
+    protected void copy(int from, int to, int length) {
+        points.copy(from, to, length);
+        System.arraycopy(weights, offset+from, weights, offset+to, length);
+    }
+
+    private void ensureSize(int newSize) {
+        if (offset+newSize>weights.length) {
+            weights=Arrays.copyOf(weights, Math.max(offset+newSize, 2*weights.length));
+        }
+    }
+
+    @Override
+    public double get(int dimension, int index) {
+        return points.get(dimension, index);
+    }
+
+    @Override
+    public double getNormalized(int dimension, int index) {
+        return points.getNormalized(dimension, index);
+    }
+
+    @Override
+    public double maxValue() {
+        return points.maxValue();
+    }
+
+    @Override
+    public double minValue() {
+        return points.minValue();
+    }
+
+    /**
+     * Returns the points storing the coordinates of the vectors of this.
+     */
+    public MutablePoints points() {
+        return points;
+    }
+
+    @Override
+    public int randomIndex(Random random) {
+        int target=random.nextInt(weight());
+        for (int ii=0; size()>ii; ++ii) {
+            target-=weights[offset+ii];
+            if (0>target) {
+                return ii;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public void set(int dimension, int index, double value) {
+        points.set(dimension, index, value);
+    }
+
+    @Override
+    public void setNormalized(int dimension, int index, double value) {
+        points.setNormalized(dimension, index, value);
+    }
+
+    @Override
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * Sets the size of this to size.
+     * New vectors have weight 1.
+     */
+    @Override
+    public void size(int size) {
+        int oldSize=points.size();
+        points.size(size);
+        ensureSize(size);
+        if (oldSize<size) {
+            Arrays.fill(weights, offset+oldSize, offset+size, 1);
+        }
+    }
+
+    @Override
+    public List<Points> split(int parts) {
+        if ((2>parts)
+                || (2>size())) {
+            return Collections.singletonList(this);
+        }
+        parts=Math.min(parts, size());
+        List<Points> result=new ArrayList<>(parts);
+        for (int ii=0; parts>ii; ++ii) {
+            result.add(subPoints(ii*size()/parts, (ii+1)*size()/parts));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public WeightedPoints subPoints(int fromIndex, int toIndex) {
+        return new WeightedPoints(points.subPoints(fromIndex, toIndex), weights, offset+fromIndex);
+    }
+
+    @Override
+    public void swap(int index0, int index1) {
+        points.swap(index0, index1);
+        index0+=offset;
+        index1+=offset;
+        int temp=weights[index0];
+        weights[index0]=weights[index1];
+        weights[index1]=temp;
+    }
+
+    @Override
+    public int weight() {
+        int weight=0;
+        for (int ii=0; size()>ii; ++ii) {
+            weight+=weights[offset+ii];
+        }
+        return weight;
+    }
+
+    @Override
+    public int weight(int index) {
+        return weights[offset+index];
+    }
+}
@@ -4,7 +4,11 @@ import dog.giraffe.Context;
 import dog.giraffe.points.Sum;
 import java.util.Random;
 
-class DelegatorContext implements Context {
+/**
+ * A Context which forwards all calls to another Context.
+ * Subclasses can override methods to add their own conditions to stop, like a per-task stop flag.
+ */
+public class DelegatorContext implements Context {
     private final Context context;
 
     public DelegatorContext(Context context) {
@@ -12,8 +16,8 @@ class DelegatorContext implements Context {
     }
 
     @Override
-    public void checkStopped() throws Throwable {
-        context.checkStopped();
+    public void clusteringError(double error) {
+        context.clusteringError(error);
     }
 
     @Override
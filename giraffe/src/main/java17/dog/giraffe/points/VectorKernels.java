@@ -0,0 +1,250 @@
+package dog.giraffe.points;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} implemented with the incubating vector API of Java 17.
+ * The loops are processed in vectors of the preferred double species,
+ * narrower coordinates are loaded into vectors with the same number of lanes or a multiple of it,
+ * and converted to doubles part by part.
+ * The remainders of the loops, and the hyper-hues of vectors shorter than a double vector,
+ * are processed by the scalar kernels.
+ * Loaded by {@link Kernels#kernels()} by name, it's only compiled into the multi-release jar.
+ */
+public class VectorKernels extends Kernels {
+    private static final VectorSpecies<Byte> BYTES=ByteVector.SPECIES_64;
+    private static final VectorSpecies<Double> DOUBLES=DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS=FloatVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(Math.max(64, DOUBLES.vectorBitSize()/2)));
+    private static final VectorSpecies<Integer> INTS=IntVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(Math.max(64, DOUBLES.vectorBitSize()/2)));
+    private static final VectorSpecies<Short> SHORTS=ShortVector.SPECIES_128;
+
+    /**
+     * Creates a new instance.
+     * Fails if the lanes of the preferred species don't fit the loops.
+     */
+    public VectorKernels() {
+        if ((FLOATS.length()!=DOUBLES.length())
+                || (INTS.length()!=DOUBLES.length())
+                || (0!=BYTES.length()%DOUBLES.length())
+                || (0!=SHORTS.length()%DOUBLES.length())) {
+            throw new UnsupportedOperationException(String.format(
+                    "unsupported vector species; doubles: %1$s, floats: %2$s, ints: %3$s",
+                    DOUBLES, FLOATS, INTS));
+        }
+    }
+
+    @Override
+    public void addDistances(
+            double center, byte[] band, int from, int length, double[] distances, int distancesOffset) {
+        int bound=BYTES.loopBound(length);
+        int parts=BYTES.length()/DOUBLES.length();
+        for (int ii=0; bound>ii; ii+=BYTES.length()) {
+            ByteVector vector=ByteVector.fromArray(BYTES, band, from+ii);
+            for (int pp=0; parts>pp; ++pp) {
+                DoubleVector value=unsigned(
+                        (DoubleVector)vector.convertShape(VectorOperators.B2D, DOUBLES, pp), 256.0);
+                addDistances(center, value, distances, distancesOffset+ii+pp*DOUBLES.length());
+            }
+        }
+        super.addDistances(center, band, from+bound, length-bound, distances, distancesOffset+bound);
+    }
+
+    @Override
+    public void addDistances(
+            double center, float[] band, int from, int length, double[] distances, int distancesOffset) {
+        int bound=FLOATS.loopBound(length);
+        for (int ii=0; bound>ii; ii+=FLOATS.length()) {
+            DoubleVector value=(DoubleVector)FloatVector.fromArray(FLOATS, band, from+ii)
+                    .convertShape(VectorOperators.F2D, DOUBLES, 0);
+            addDistances(center, value, distances, distancesOffset+ii);
+        }
+        super.addDistances(center, band, from+bound, length-bound, distances, distancesOffset+bound);
+    }
+
+    @Override
+    public void addDistances(
+            double center, short[] band, int from, int length, double[] distances, int distancesOffset) {
+        int bound=SHORTS.loopBound(length);
+        int parts=SHORTS.length()/DOUBLES.length();
+        for (int ii=0; bound>ii; ii+=SHORTS.length()) {
+            ShortVector vector=ShortVector.fromArray(SHORTS, band, from+ii);
+            for (int pp=0; parts>pp; ++pp) {
+                DoubleVector value=unsigned(
+                        (DoubleVector)vector.convertShape(VectorOperators.S2D, DOUBLES, pp), 65536.0);
+                addDistances(center, value, distances, distancesOffset+ii+pp*DOUBLES.length());
+            }
+        }
+        super.addDistances(center, band, from+bound, length-bound, distances, distancesOffset+bound);
+    }
+
+    private static void addDistances(double center, DoubleVector value, double[] distances, int offset) {
+        DoubleVector di=value.neg().add(center);
+        DoubleVector.fromArray(DOUBLES, distances, offset)
+                .add(di.mul(di))
+                .intoArray(distances, offset);
+    }
+
+    @Override
+    public void hyperHue(double[] values) {
+        if (DOUBLES.length()>values.length) {
+            super.hyperHue(values);
+            return;
+        }
+        double mean=sum(values)/values.length;
+        int bound=DOUBLES.loopBound(values.length);
+        for (int ii=0; bound>ii; ii+=DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, values, ii)
+                    .sub(mean)
+                    .mul(0.5)
+                    .add(0.5)
+                    .intoArray(values, ii);
+        }
+        for (int ii=bound; values.length>ii; ++ii) {
+            values[ii]=0.5+0.5*(values[ii]-mean);
+        }
+    }
+
+    @Override
+    public void nearestCenters(double[] distances, int stride, int centers, int length, int[] nearestCenters) {
+        int bound=DOUBLES.loopBound(length);
+        for (int ii=0; bound>ii; ii+=DOUBLES.length()) {
+            DoubleVector nd=DoubleVector.fromArray(DOUBLES, distances, ii);
+            IntVector nc=IntVector.zero(INTS);
+            for (int cc=1; centers>cc; ++cc) {
+                DoubleVector dd=DoubleVector.fromArray(DOUBLES, distances, cc*stride+ii);
+                VectorMask<Double> nearer=nd.compare(VectorOperators.GT, dd);
+                nd=nd.blend(dd, nearer);
+                nc=nc.blend(cc, nearer.cast(INTS));
+            }
+            nd.intoArray(distances, ii);
+            nc.intoArray(nearestCenters, ii);
+        }
+        for (int ii=bound; length>ii; ++ii) {
+            int nc=0;
+            double nd=distances[ii];
+            for (int cc=1; centers>cc; ++cc) {
+                double dd=distances[cc*stride+ii];
+                if (nd>dd) {
+                    nc=cc;
+                    nd=dd;
+                }
+            }
+            distances[ii]=nd;
+            nearestCenters[ii]=nc;
+        }
+    }
+
+    @Override
+    public void normalizedHyperHue(double[] values, double maxZero2) {
+        if (DOUBLES.length()>values.length) {
+            super.normalizedHyperHue(values, maxZero2);
+            return;
+        }
+        double mean=sum(values)/values.length;
+        int bound=DOUBLES.loopBound(values.length);
+        DoubleVector lengths=DoubleVector.zero(DOUBLES);
+        for (int ii=0; bound>ii; ii+=DOUBLES.length()) {
+            DoubleVector cc=DoubleVector.fromArray(DOUBLES, values, ii).sub(mean);
+            lengths=lengths.add(cc.mul(cc));
+            cc.intoArray(values, ii);
+        }
+        double length=lengths.reduceLanes(VectorOperators.ADD);
+        for (int ii=bound; values.length>ii; ++ii) {
+            double cc=values[ii]-mean;
+            length+=cc*cc;
+            values[ii]=cc;
+        }
+        if (maxZero2>length) {
+            for (int ii=0; values.length>ii; ++ii) {
+                values[ii]=0.5;
+            }
+        }
+        else {
+            length=Math.sqrt(length);
+            for (int ii=0; bound>ii; ii+=DOUBLES.length()) {
+                DoubleVector.fromArray(DOUBLES, values, ii)
+                        .div(length)
+                        .mul(0.5)
+                        .add(0.5)
+                        .intoArray(values, ii);
+            }
+            for (int ii=bound; values.length>ii; ++ii) {
+                values[ii]=0.5+0.5*values[ii]/length;
+            }
+        }
+    }
+
+    private static double sum(double[] values) {
+        int bound=DOUBLES.loopBound(values.length);
+        DoubleVector sum=DoubleVector.zero(DOUBLES);
+        for (int ii=0; bound>ii; ii+=DOUBLES.length()) {
+            sum=sum.add(DoubleVector.fromArray(DOUBLES, values, ii));
+        }
+        double result=sum.reduceLanes(VectorOperators.ADD);
+        for (int ii=bound; values.length>ii; ++ii) {
+            result+=values[ii];
+        }
+        return result;
+    }
+
+    @Override
+    public double sum(byte[] band, int from, int length) {
+        int bound=BYTES.loopBound(length);
+        int parts=BYTES.length()/DOUBLES.length();
+        DoubleVector sum=DoubleVector.zero(DOUBLES);
+        for (int ii=0; bound>ii; ii+=BYTES.length()) {
+            ByteVector vector=ByteVector.fromArray(BYTES, band, from+ii);
+            for (int pp=0; parts>pp; ++pp) {
+                sum=sum.add(unsigned((DoubleVector)vector.convertShape(VectorOperators.B2D, DOUBLES, pp), 256.0));
+            }
+        }
+        return sum.reduceLanes(VectorOperators.ADD)+super.sum(band, from+bound, length-bound);
+    }
+
+    @Override
+    public double sum(float[] band, int from, int length) {
+        int bound=FLOATS.loopBound(length);
+        DoubleVector sum=DoubleVector.zero(DOUBLES);
+        for (int ii=0; bound>ii; ii+=FLOATS.length()) {
+            sum=sum.add((DoubleVector)FloatVector.fromArray(FLOATS, band, from+ii)
+                    .convertShape(VectorOperators.F2D, DOUBLES, 0));
+        }
+        return sum.reduceLanes(VectorOperators.ADD)+super.sum(band, from+bound, length-bound);
+    }
+
+    @Override
+    public double sum(short[] band, int from, int length) {
+        int bound=SHORTS.loopBound(length);
+        int parts=SHORTS.length()/DOUBLES.length();
+        DoubleVector sum=DoubleVector.zero(DOUBLES);
+        for (int ii=0; bound>ii; ii+=SHORTS.length()) {
+            ShortVector vector=ShortVector.fromArray(SHORTS, band, from+ii);
+            for (int pp=0; parts>pp; ++pp) {
+                sum=sum.add(unsigned((DoubleVector)vector.convertShape(VectorOperators.S2D, DOUBLES, pp), 65536.0));
+            }
+        }
+        return sum.reduceLanes(VectorOperators.ADD)+super.sum(band, from+bound, length-bound);
+    }
+
+    @Override
+    public String type() {
+        return "vector-"+DOUBLES.length()+"x64";
+    }
+
+    /**
+     * Maps the negative values of signed integers converted to doubles to their unsigned values.
+     */
+    private static DoubleVector unsigned(DoubleVector value, double range) {
+        return value.add(range, value.lt(0.0));
+    }
+}
@@ -0,0 +1,36 @@
+package dog.giraffe;
+
+import dog.giraffe.points.MutablePoints;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Test data of points scattered around random centers.
+ */
+public class Blobs {
+    private Blobs() {
+    }
+
+    /**
+     * Fills points with size points, every point is the sum of a randomly selected center and some noise.
+     * The coordinates of the blobs centers are generated by center, the noise of every coordinate by noise.
+     */
+    public static MutablePoints points(
+            MutablePoints points, Random random, int blobs, int size, DoubleSupplier center, DoubleSupplier noise) {
+        int dimensions=points.dimensions();
+        double[][] centers=new double[blobs][dimensions];
+        for (double[] center2: centers) {
+            for (int dd=0; dimensions>dd; ++dd) {
+                center2[dd]=center.getAsDouble();
+            }
+        }
+        points.size(size);
+        for (int ii=0; size>ii; ++ii) {
+            double[] center2=centers[random.nextInt(blobs)];
+            for (int dd=0; dimensions>dd; ++dd) {
+                points.set(dd, ii, center2[dd]+noise.getAsDouble());
+            }
+        }
+        return points;
+    }
+}
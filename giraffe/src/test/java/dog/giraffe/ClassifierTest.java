@@ -0,0 +1,89 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.Classifier;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.points.Distance;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.points.UnsignedShortArrayPoints;
+import dog.giraffe.points.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ClassifierTest {
+    private static void test(MutablePoints points, String readerType, Random random) {
+        int dimensions=points.dimensions();
+        double max=points.maxValue();
+        List<List<Vector>> centers=new ArrayList<>();
+        List<Vector> vectors=new ArrayList<>();
+        Map<Vector, Integer> labels=new HashMap<>();
+        Map<Vector, Vector> colorMap=new HashMap<>();
+        for (int ll=0; 20>ll; ++ll) {
+            List<Vector> center=new ArrayList<>();
+            for (int vv=1+random.nextInt(3); 0<vv; --vv) {
+                Vector vector=new Vector(dimensions);
+                for (int dd=0; dimensions>dd; ++dd) {
+                    vector.coordinate(dd, max*random.nextDouble());
+                }
+                if ((!center.isEmpty()) && (0==random.nextInt(8))) {
+                    vector=vectors.get(random.nextInt(vectors.size())).copy();
+                }
+                center.add(vector);
+                vectors.add(vector);
+                labels.putIfAbsent(vector, ll);
+            }
+            centers.add(center);
+            colorMap.put(center.get(0), new Vector(new double[]{ll/20.0, 1.0, 0.5}));
+        }
+        Classifier classifier=Classifier.create(new Clusters(centers, 0.0, Map.of()), colorMap, 3, points);
+        Map<String, Object> log=new HashMap<>();
+        classifier.log(log);
+        assertEquals(readerType, log.get("reader"));
+        assertEquals(dimensions, classifier.dimensions());
+        assertEquals(20, classifier.labels());
+        for (int ll=0; 20>ll; ++ll) {
+            assertEquals(ll/20.0, classifier.color(ll, 0));
+            assertEquals(0.5, classifier.color(ll, 2));
+        }
+        Classifier.Reader reader=classifier.reader();
+        points.size(2000);
+        for (int ii=0; points.size()>ii; ++ii) {
+            for (int dd=0; dimensions>dd; ++dd) {
+                points.set(dd, ii, (0==(ii%5))?points.get(dd, ii/5):value(points, max*random.nextDouble()));
+            }
+            if (0==(ii%7)) {
+                Vector vector=vectors.get(random.nextInt(vectors.size()));
+                for (int dd=0; dimensions>dd; ++dd) {
+                    points.set(dd, ii, value(points, vector.coordinate(dd)));
+                }
+            }
+            int label=labels.get(Distance.nearestCenter(vectors, points.get(ii)));
+            assertEquals(label, classifier.classify(points, ii));
+            assertEquals(label, reader.classify(points, ii));
+        }
+    }
+
+    private static double value(MutablePoints points, double value) {
+        return (points instanceof FloatArrayPoints)?(float)value:Math.round(value);
+    }
+
+    @Test
+    public void testReaders() {
+        Random random=new Random(1234L);
+        for (int dimensions=1; 4>=dimensions; ++dimensions) {
+            test(new FloatArrayPoints(dimensions, 1), (1==dimensions)?"sorted":"linear", random);
+        }
+        test(new UnsignedByteArrayPoints(1, 1), "table", random);
+        test(new UnsignedByteArrayPoints(2, 1), "table", random);
+        test(new UnsignedByteArrayPoints(3, 1), "cache", random);
+        test(new UnsignedByteArrayPoints(4, 1), "linear", random);
+        test(new UnsignedShortArrayPoints(1, 1), "table", random);
+        test(new UnsignedShortArrayPoints(2, 1), "linear", random);
+    }
+}
@@ -0,0 +1,136 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ElbowTest {
+    private static final double[][] BLOBS={{0.1, 0.1}, {0.1, 0.9}, {0.5, 0.5}, {0.9, 0.1}, {0.9, 0.9}};
+
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public ElbowTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private Clusters cluster(ClusteringStrategy<MutablePoints> strategy, MutablePoints points) throws Throwable {
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        strategy.cluster(context, points, join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        return clusters;
+    }
+
+    private static MutablePoints points() {
+        Random random=new Random(1234L);
+        MutablePoints points=new FloatArrayPoints(2, 5000);
+        for (int ii=0; 5000>ii; ++ii) {
+            double[] blob=BLOBS[ii%BLOBS.length];
+            points.add(new Vector(new double[]{
+                    blob[0]+0.02*random.nextGaussian(),
+                    blob[1]+0.02*random.nextGaussian()}));
+        }
+        return points;
+    }
+
+    private static ClusteringStrategy<MutablePoints> kMeans(
+            int clusters, InitialCenters<MutablePoints> initialCenters) {
+        return KMeans.kMeans(
+                clusters,
+                0.95,
+                (null==initialCenters)?InitialCenters.meanAndFarthest(false):initialCenters,
+                1000,
+                ReplaceEmptyCluster.farthest(false));
+    }
+
+    @Test
+    public void testAdaptive() throws Throwable {
+        MutablePoints points=points();
+        List<Integer> clusterings=new ArrayList<>();
+        Clusters clusters=cluster(
+                ClusteringStrategy.elbowAdaptive(
+                        0.9,
+                        64,
+                        2,
+                        2.0,
+                        (clusters2, initialCenters)->{
+                            clusterings.add(clusters2);
+                            return kMeans(clusters2, initialCenters);
+                        },
+                        1,
+                        false),
+                points);
+        assertEquals(BLOBS.length, clusters.centers.size());
+        assertEquals(List.of(2, 4, 8, 16, 5, 6), clusterings);
+        assertEquals(clusterings.size(), clusters.stats.get("elbow-clusterings"));
+        Clusters expected=cluster(
+                ClusteringStrategy.elbow(0.9, 64, 2, (clusters2)->kMeans(clusters2, null), 1),
+                points);
+        assertEquals(expected.error, clusters.error, 1e-6*expected.error);
+        assertFalse(expected.stats.containsKey("elbow-clusterings"));
+    }
+
+    @Test
+    public void testAdaptiveParallel() throws Throwable {
+        MutablePoints points=points();
+        List<Integer> clusterings=new ArrayList<>();
+        Clusters clusters=cluster(
+                ClusteringStrategy.elbowAdaptive(
+                        0.9,
+                        64,
+                        2,
+                        2.0,
+                        (clusters2, initialCenters)->{
+                            clusterings.add(clusters2);
+                            return kMeans(clusters2, initialCenters);
+                        },
+                        8,
+                        false),
+                points);
+        assertEquals(BLOBS.length, clusters.centers.size());
+        assertEquals(new HashSet<>(clusterings).size(), clusterings.size());
+        assertEquals(clusterings.size(), clusters.stats.get("elbow-clusterings"));
+    }
+
+    @Test
+    public void testWarmStart() throws Throwable {
+        MutablePoints points=points();
+        List<Integer> warmStarts=new ArrayList<>();
+        Clusters clusters=cluster(
+                ClusteringStrategy.elbowWarmStart(
+                        0.9,
+                        10,
+                        2,
+                        (clusters2, initialCenters)->{
+                            if (null!=initialCenters) {
+                                warmStarts.add(clusters2);
+                            }
+                            return kMeans(clusters2, initialCenters);
+                        },
+                        1),
+                points);
+        assertEquals(BLOBS.length, clusters.centers.size());
+        assertEquals(List.of(3, 4, 5, 6), warmStarts);
+        Clusters expected=cluster(
+                ClusteringStrategy.elbow(0.9, 10, 2, (clusters2)->kMeans(clusters2, null), 1),
+                points);
+        assertEquals(expected.error, clusters.error, 1e-6*expected.error);
+    }
+}
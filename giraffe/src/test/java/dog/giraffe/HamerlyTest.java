@@ -0,0 +1,111 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.Hamerly;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.KDTree;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Points;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static dog.giraffe.TestClusters.assertSameClusters;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HamerlyTest {
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public HamerlyTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private <P extends Points> Clusters cluster(ClusteringStrategy<P> strategy, P points) throws Throwable {
+        return TestClusters.cluster(context, executor, strategy, points);
+    }
+
+    private static MutablePoints points(Random random, int blobs, int dimensions, int size) {
+        return Blobs.points(
+                new FloatArrayPoints(dimensions, size),
+                random,
+                blobs,
+                size,
+                ()->10.0*random.nextDouble(),
+                random::nextGaussian);
+    }
+
+    @Test
+    public void testSameAsKMeans() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 10>ii; ++ii) {
+            int clusters=2+random.nextInt(6);
+            MutablePoints points=points(random, 2+random.nextInt(6), 1+random.nextInt(3), 500+random.nextInt(500));
+            Clusters expected=cluster(
+                    KMeans.kMeans(
+                            clusters,
+                            1.0,
+                            InitialCenters.meanAndFarthest(false),
+                            1000,
+                            ReplaceEmptyCluster.farthest(false)),
+                    points);
+            Clusters actual=cluster(
+                    Hamerly.hamerly(
+                            clusters,
+                            1.0,
+                            InitialCenters.meanAndFarthest(false),
+                            1000,
+                            ReplaceEmptyCluster.farthest(false)),
+                    points);
+            assertSameClusters(expected, actual);
+            Clusters actualTree=cluster(
+                    Hamerly.<KDTree>hamerly(
+                            clusters,
+                            1.0,
+                            InitialCenters.meanAndFarthest(false),
+                            1000,
+                            ReplaceEmptyCluster.farthest(false)),
+                    KDTree.create(16, points, context.sum()));
+            assertSameClusters(expected, actualTree);
+        }
+    }
+
+    @Test
+    public void testErrorFarFromOrigin() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 10>ii; ++ii) {
+            int clusters=2+random.nextInt(4);
+            MutablePoints points=Blobs.points(
+                    new FloatArrayPoints(2, 1000),
+                    random,
+                    clusters,
+                    1000,
+                    ()->100000.0+10.0*random.nextDouble(),
+                    ()->0.01*random.nextGaussian());
+            Clusters expected=cluster(
+                    KMeans.kMeans(
+                            clusters,
+                            1.0,
+                            InitialCenters.meanAndFarthest(false),
+                            1000,
+                            ReplaceEmptyCluster.farthest(false)),
+                    points);
+            Clusters actual=cluster(
+                    Hamerly.hamerly(
+                            clusters,
+                            1.0,
+                            InitialCenters.meanAndFarthest(false),
+                            1000,
+                            ReplaceEmptyCluster.farthest(false)),
+                    points);
+            assertSameClusters(expected, actual);
+            assertTrue(0.0<expected.error);
+            assertEquals(expected.error, actual.error, 1e-9*expected.error);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.Isodata;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.points.Deviation;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.KDTree;
+import dog.giraffe.points.Mean;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static dog.giraffe.TestClusters.assertSameClusters;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IsodataTest {
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public IsodataTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private <P extends Points> Clusters cluster(
+            int startClusters, int desiredClusters, double stdDeviation, P points) throws Throwable {
+        ClusteringStrategy<P> strategy=Isodata.isodata(
+                startClusters,
+                desiredClusters,
+                0.95,
+                100,
+                0.05,
+                0.01,
+                2,
+                stdDeviation,
+                InitialCenters.meanAndFarthest(false),
+                ReplaceEmptyCluster.farthest(false));
+        Clusters clusters=TestClusters.cluster(context, executor, strategy, points);
+        assertEquals((double)clusters.centers.size(), clusters.stats.get("number_of_cluster"));
+        assertEquals(clusters.error, clusters.stats.get("error"));
+        return clusters;
+    }
+
+    @Test
+    public void testDeviation() {
+        Random random=new Random(1234L);
+        MutablePoints points=new FloatArrayPoints(3, 100);
+        for (int ii=0; 100>ii; ++ii) {
+            points.add(new Vector(new double[]{random.nextDouble(), 2.0*random.nextDouble(), random.nextGaussian()}));
+        }
+        Mean mean=points.mean().create(points.size(), context.sum());
+        points.addAllTo(mean);
+        Vector mean2=mean.mean();
+        Deviation expected=points.variance().create(points.size(), mean2, context.sum());
+        Deviation actual=points.variance().create(
+                points.size(), new Vector(new double[]{0.3, -1.0, 2.0}), context.sum());
+        points.addAllTo(expected);
+        points.addAllTo(actual);
+        Vector expected2=expected.deviation();
+        Vector actual2=actual.deviation(mean2);
+        for (int dd=0; 3>dd; ++dd) {
+            assertEquals(expected2.coordinate(dd), actual2.coordinate(dd), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSameOnKDTree() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 10>ii; ++ii) {
+            int dimensions=1+random.nextInt(3);
+            double[][] blobs=new double[2+random.nextInt(5)][dimensions];
+            for (double[] blob: blobs) {
+                for (int dd=0; dimensions>dd; ++dd) {
+                    blob[dd]=0.1+0.8*random.nextDouble();
+                }
+            }
+            MutablePoints points=new FloatArrayPoints(dimensions, 3000);
+            for (int jj=0; 3000>jj; ++jj) {
+                double[] blob=blobs[random.nextInt(blobs.length)];
+                double[] coordinates=new double[dimensions];
+                for (int dd=0; dimensions>dd; ++dd) {
+                    coordinates[dd]=blob[dd]+0.05*random.nextGaussian();
+                }
+                points.add(new Vector(coordinates));
+            }
+            int startClusters=2+random.nextInt(3);
+            int desiredClusters=3+random.nextInt(6);
+            double stdDeviation=0.04*random.nextInt(2);
+            Clusters expected=cluster(startClusters, desiredClusters, stdDeviation, points);
+            Clusters actual=cluster(
+                    startClusters, desiredClusters, stdDeviation, KDTree.create(16, points, context.sum()));
+            assertSameClusters(expected, actual);
+            assertEquals(expected.stats.keySet(), actual.stats.keySet());
+        }
+    }
+}
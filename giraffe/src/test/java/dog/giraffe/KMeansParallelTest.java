@@ -0,0 +1,63 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.KMeansParallel;
+import dog.giraffe.points.Distance;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.KDTree;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KMeansParallelTest {
+    private static final double[][] BLOBS={{0.1, 0.1}, {0.1, 0.9}, {0.5, 0.5}, {0.9, 0.1}, {0.9, 0.9}};
+
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public KMeansParallelTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private <P extends Points> List<Vector> initialCenters(int clusters, P points) throws Throwable {
+        SingleThreadedJoin<List<Vector>> join=new SingleThreadedJoin<>();
+        KMeansParallel.<P>kMeansParallel(2.0, 5)
+                .initialCenters(clusters, context, 1000, points, points.split(4), join);
+        List<Vector> centers=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        assertEquals(clusters, centers.size());
+        assertEquals(clusters, new HashSet<>(centers).size());
+        return centers;
+    }
+
+    @Test
+    public void testBlobs() throws Throwable {
+        Random random=new Random(1234L);
+        MutablePoints points=new FloatArrayPoints(2, 5000);
+        for (int ii=0; 5000>ii; ++ii) {
+            double[] blob=BLOBS[ii%BLOBS.length];
+            points.add(new Vector(new double[]{
+                    blob[0]+0.02*random.nextGaussian(),
+                    blob[1]+0.02*random.nextGaussian()}));
+        }
+        for (int rr=0; 5>rr; ++rr) {
+            List<Vector> centers=initialCenters(BLOBS.length, points);
+            for (double[] blob: BLOBS) {
+                Vector blob2=new Vector(blob);
+                assertTrue(
+                        centers.stream().anyMatch((center)->0.01>Distance.distance(blob2, center)),
+                        centers.toString());
+            }
+        }
+        initialCenters(BLOBS.length, KDTree.create(16, points, context.sum()));
+        initialCenters(2*BLOBS.length, points);
+    }
+}
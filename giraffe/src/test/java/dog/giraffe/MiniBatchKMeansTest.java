@@ -0,0 +1,94 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.MiniBatchKMeans;
+import dog.giraffe.cluster.StreamingClusteringStrategy;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MiniBatchKMeansTest {
+    private static final double[][] BLOBS={{0.2, 0.2}, {0.5, 0.8}, {0.8, 0.3}};
+    private static final int HEIGHT=200;
+    private static final int WIDTH=150;
+
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public MiniBatchKMeansTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private static StreamingClusteringStrategy.Lines lines(int[] readLines) {
+        return new StreamingClusteringStrategy.Lines() {
+            @Override
+            public MutablePoints createPoints(int expectedSize) {
+                return new FloatArrayPoints(2, expectedSize);
+            }
+
+            @Override
+            public int lines() {
+                return HEIGHT;
+            }
+
+            @Override
+            public StreamingClusteringStrategy.Reader reader() {
+                return (yy, points)->{
+                    ++readLines[0];
+                    Random random=new Random(yy);
+                    points.size(0);
+                    for (int xx=0; WIDTH>xx; ++xx) {
+                        if (0==(xx+yy)%7) {
+                            continue;
+                        }
+                        double[] blob=BLOBS[random.nextInt(BLOBS.length)];
+                        points.add(new Vector(new double[]{
+                                blob[0]+0.03*random.nextGaussian(),
+                                blob[1]+0.03*random.nextGaussian()}));
+                    }
+                };
+            }
+
+            @Override
+            public int width() {
+                return WIDTH;
+            }
+        };
+    }
+
+    @Test
+    public void testBlobs() throws Throwable {
+        int[] readLines={0};
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        MiniBatchKMeans.miniBatchKMeans(BLOBS.length, 1000, InitialCenters.meanAndFarthest(false), 20)
+                .cluster(context, lines(readLines), join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        assertTrue(21*7>=readLines[0]);
+        List<Vector> centers=new ArrayList<>();
+        clusters.centers.forEach((center)->{
+            assertEquals(1, center.size());
+            centers.add(center.get(0));
+        });
+        centers.sort(Comparator.comparingDouble((center)->center.coordinate(0)));
+        assertEquals(BLOBS.length, centers.size());
+        for (int ii=0; BLOBS.length>ii; ++ii) {
+            for (int dd=0; BLOBS[ii].length>dd; ++dd) {
+                assertEquals(BLOBS[ii][dd], centers.get(ii).coordinate(dd), 0.01);
+            }
+        }
+        double expectedError=2.0*0.03*0.03*HEIGHT*WIDTH*6.0/7.0;
+        assertEquals(expectedError, clusters.error, 0.2*expectedError);
+    }
+}
@@ -2,17 +2,25 @@ package dog.giraffe;
 
 import dog.giraffe.cluster.ClusteringStrategy;
 import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.Isodata;
+import dog.giraffe.cluster.KMeans;
 import dog.giraffe.cluster.Otsu;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
 import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.KDTree;
 import dog.giraffe.points.MutablePoints;
 import dog.giraffe.points.Points;
+import dog.giraffe.points.Sum;
 import dog.giraffe.points.Vector;
 import dog.giraffe.threads.SingleThreadedExecutor;
 import dog.giraffe.threads.SingleThreadedJoin;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.function.DoubleUnaryOperator;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -52,13 +60,28 @@ public class OtsuTest {
 
     private Clusters cluster(
             ClusteringStrategy<Points> clusteringStrategy, DoubleUnaryOperator density) throws Throwable {
-        MutablePoints points=new FloatArrayPoints(1, 16);
-        for (int xx=0; 100>=xx; ++xx) {
-            double x2=xx/100.0;
-            for (int yy=(int)(100.0*density.applyAsDouble(x2)); 0<yy; --yy) {
-                points.add(new Vector(new double[]{x2}));
-            }
-        }
+        return cluster(clusteringStrategy, points(density));
+    }
+
+    private Clusters clusterKDTree(
+            ClusteringStrategy<KDTree> clusteringStrategy, DoubleUnaryOperator density) throws Throwable {
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        clusteringStrategy.cluster(context, KDTree.create(16, points(density), context.sum()), join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        return clusters;
+    }
+
+    private void assertSameClusters(
+            ClusteringStrategy<Points> expected, ClusteringStrategy<Points> actual, DoubleUnaryOperator density)
+            throws Throwable {
+        Clusters expectedClusters=cluster(expected, density);
+        Clusters actualClusters=cluster(actual, density);
+        assertEquals(new HashSet<>(expectedClusters.centers), new HashSet<>(actualClusters.centers));
+        assertEquals(expectedClusters.error, actualClusters.error, 1e-9);
+    }
+
+    private Clusters cluster(ClusteringStrategy<Points> clusteringStrategy, Points points) throws Throwable {
         SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
         clusteringStrategy.cluster(context, points, join);
         Clusters clusters=executor.runJoin(context, join);
@@ -76,6 +99,17 @@ public class OtsuTest {
         };
     }
 
+    private static MutablePoints points(DoubleUnaryOperator density) {
+        MutablePoints points=new FloatArrayPoints(1, 16);
+        for (int xx=0; 100>=xx; ++xx) {
+            double x2=xx/100.0;
+            for (int yy=(int)(100.0*density.applyAsDouble(x2)); 0<yy; --yy) {
+                points.add(new Vector(new double[]{x2}));
+            }
+        }
+        return points;
+    }
+
     @Test
     public void testCircular() throws Throwable {
         assertClusters(
@@ -105,6 +139,111 @@ public class OtsuTest {
                         .centers);
     }
 
+    @Test
+    public void testCircularWork() throws Throwable {
+        int bins=1000;
+        Random random=new Random(1234L);
+        double[] blobs={0.02, 0.3, 0.55, 0.8};
+        MutablePoints points=new FloatArrayPoints(1, 10000);
+        for (int ii=0; 10000>ii; ++ii) {
+            double value=blobs[random.nextInt(blobs.length)]+0.03*random.nextGaussian();
+            points.add(new Vector(new double[]{value-Math.floor(value)}));
+        }
+        Clusters expected=cluster(Otsu.circular(bins, 2, true), points);
+        Clusters actual=cluster(Otsu.circular(bins, 2), points);
+        assertEquals(expected.error, actual.error, 1e-9*expected.error);
+        long exhaustive=(long)bins*(bins-1);
+        assertTrue(exhaustive>(Long)actual.stats.get("variance-evaluations"));
+        assertTrue(0L<(Long)actual.stats.get("skipped-starts"));
+        actual=cluster(Otsu.circular(bins, 3), points);
+        exhaustive=(long)bins*(bins-1)*(bins-2)/2;
+        assertTrue(exhaustive/4>(Long)actual.stats.get("variance-evaluations"));
+    }
+
+    @Test
+    public void testCompensatedSums() throws Throwable {
+        TestContext compensatedContext=new TestContext(executor, Sum.KAHAN);
+        for (ClusteringStrategy<Points> strategy: List.<ClusteringStrategy<Points>>of(
+                Otsu.circular(20, 3), Otsu.linear(20, 3))) {
+            Clusters expected=cluster(strategy, density(0.2, 0.8));
+            SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+            strategy.cluster(compensatedContext, points(density(0.2, 0.8)), join);
+            Clusters actual=executor.runJoin(compensatedContext, join);
+            assertTrue(executor.isEmpty());
+            assertEquals(new HashSet<>(expected.centers), new HashSet<>(actual.centers));
+            assertEquals(expected.error, actual.error, 1e-9);
+        }
+    }
+
+    @Test
+    public void testDynamicProgramming() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 20>ii; ++ii) {
+            int bins=random.nextInt(12)+4;
+            int clusters=random.nextInt(Math.min(4, bins-1))+2;
+            double[] minimums=new double[random.nextInt(3)+1];
+            for (int jj=0; minimums.length>jj; ++jj) {
+                minimums[jj]=random.nextDouble();
+            }
+            assertSameClusters(
+                    Otsu.linear(bins, clusters, true),
+                    Otsu.linear(bins, clusters, false),
+                    density(minimums));
+            assertSameClusters(
+                    Otsu.circular(bins, clusters, true),
+                    Otsu.circular(bins, clusters, false),
+                    density(minimums));
+        }
+    }
+
+    @Test
+    public void testHistogram() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 10>ii; ++ii) {
+            double[] minimums=new double[random.nextInt(3)+1];
+            for (int jj=0; minimums.length>jj; ++jj) {
+                minimums[jj]=random.nextDouble();
+            }
+            ClusteringStrategy<KDTree> kMeans=KMeans.kMeans(
+                    random.nextInt(4)+2,
+                    1.0,
+                    InitialCenters.meanAndFarthest(false),
+                    1000,
+                    ReplaceEmptyCluster.farthest(false));
+            Clusters expected=clusterKDTree(kMeans, density(minimums));
+            Clusters actual=clusterKDTree(Otsu.histogram(200, kMeans), density(minimums));
+            assertEquals(expected.centers.size(), actual.centers.size());
+            List<Double> expectedCenters=new ArrayList<>();
+            List<Double> actualCenters=new ArrayList<>();
+            expected.centers.forEach((center)->expectedCenters.add(center.get(0).coordinate(0)));
+            actual.centers.forEach((center)->actualCenters.add(center.get(0).coordinate(0)));
+            expectedCenters.sort(null);
+            actualCenters.sort(null);
+            for (int jj=0; expectedCenters.size()>jj; ++jj) {
+                assertEquals(expectedCenters.get(jj), actualCenters.get(jj), 1e-6);
+            }
+            assertEquals(expected.error, actual.error, 1e-6*Math.max(1.0, expected.error));
+        }
+    }
+
+    @Test
+    public void testHistogramStats() throws Throwable {
+        ClusteringStrategy<KDTree> isodata=Isodata.isodata(
+                2,
+                3,
+                0.95,
+                100,
+                0.05,
+                0.01,
+                2,
+                0.0,
+                InitialCenters.meanAndFarthest(false),
+                ReplaceEmptyCluster.farthest(false));
+        Clusters clusters=clusterKDTree(Otsu.histogram(200, isodata), density(0.2, 0.8));
+        assertEquals(clusters.error, clusters.stats.get("error"));
+        assertTrue(0.0<(Double)clusters.stats.get("histogram-bins-error"));
+    }
+
     @Test
     public void testLinear() throws Throwable {
         assertClusters(
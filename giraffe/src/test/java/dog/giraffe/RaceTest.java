@@ -0,0 +1,107 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RaceTest {
+    private static final double[][] BLOBS={{0.1, 0.1}, {0.1, 0.9}, {0.5, 0.5}, {0.9, 0.1}, {0.9, 0.9}};
+
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public RaceTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    /**
+     * Reports the errors one by one, in separate tasks.
+     */
+    private static ClusteringStrategy<MutablePoints> reporting(double... errors) {
+        return new ClusteringStrategy<>() {
+            @Override
+            public void cluster(Context context, MutablePoints points, Continuation<Clusters> continuation)
+                    throws Throwable {
+                report(context, 0, continuation);
+            }
+
+            @Override
+            public void log(Map<String, Object> log) {
+                log.put("type", "reporting");
+            }
+
+            private void report(Context context, int index, Continuation<Clusters> continuation) throws Throwable {
+                context.checkStopped();
+                if (errors.length<=index) {
+                    continuation.completed(Clusters.create(List.of(), errors[errors.length-1]));
+                    return;
+                }
+                context.clusteringError(errors[index]);
+                context.executor().execute(()->{
+                    try {
+                        report(context, index+1, continuation);
+                    }
+                    catch (Throwable throwable) {
+                        continuation.failed(throwable);
+                    }
+                });
+            }
+        };
+    }
+
+    private Clusters cluster(ClusteringStrategy<MutablePoints> strategy, MutablePoints points) throws Throwable {
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        strategy.cluster(context, points, join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        return clusters;
+    }
+
+    @Test
+    public void testRace() throws Throwable {
+        Random random=new Random(1234L);
+        MutablePoints points=new FloatArrayPoints(2, 5000);
+        for (int ii=0; 5000>ii; ++ii) {
+            double[] blob=BLOBS[ii%BLOBS.length];
+            points.add(new Vector(new double[]{
+                    blob[0]+0.02*random.nextGaussian(),
+                    blob[1]+0.02*random.nextGaussian()}));
+        }
+        List<ClusteringStrategy<MutablePoints>> strategies=new ArrayList<>();
+        for (int ii=0; 8>ii; ++ii) {
+            strategies.add(KMeans.kMeans(
+                    BLOBS.length, 0.999, InitialCenters.random(), 1000, ReplaceEmptyCluster.farthest(false)));
+        }
+        Clusters expected=cluster(ClusteringStrategy.best(strategies), points);
+        Clusters actual=cluster(ClusteringStrategy.race(strategies, 1.1, 3), points);
+        assertEquals(BLOBS.length, actual.centers.size());
+        assertTrue(1.1*expected.error>=actual.error, expected.error+" "+actual.error);
+        assertTrue(0<(Integer)actual.stats.get("race-stopped"), actual.stats.toString());
+    }
+
+    @Test
+    public void testRaceLastRunning() throws Throwable {
+        MutablePoints points=new FloatArrayPoints(2, 1);
+        Clusters clusters=cluster(
+                ClusteringStrategy.race(List.of(reporting(1.0, 10.0, 10.0), reporting(2.0, 2.0, 2.0)), 1.1, 1),
+                points);
+        assertEquals(10.0, clusters.error);
+        assertEquals(1, clusters.stats.get("race-stopped"));
+    }
+}
@@ -0,0 +1,63 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.Vector;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Helpers to run clustering strategies and compare their results.
+ */
+public class TestClusters {
+    private TestClusters() {
+    }
+
+    /**
+     * Asserts that the centers and the errors of expected and actual are the same, regardless of the order of centers.
+     */
+    public static void assertSameClusters(Clusters expected, Clusters actual) {
+        List<Vector> expectedCenters=sort(expected.centers);
+        List<Vector> actualCenters=sort(actual.centers);
+        assertEquals(expectedCenters.size(), actualCenters.size());
+        for (int ii=0; expectedCenters.size()>ii; ++ii) {
+            Vector ec=expectedCenters.get(ii);
+            Vector ac=actualCenters.get(ii);
+            for (int dd=0; ec.dimensions()>dd; ++dd) {
+                assertEquals(ec.coordinate(dd), ac.coordinate(dd), 1e-6);
+            }
+        }
+        assertEquals(expected.error, actual.error, 1e-6*Math.max(1.0, expected.error));
+    }
+
+    /**
+     * Runs strategy on points until it completes, executor must be the executor of context.
+     */
+    public static <P extends Points> Clusters cluster(
+            TestContext context, SingleThreadedExecutor executor, ClusteringStrategy<P> strategy, P points)
+            throws Throwable {
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        strategy.cluster(context, points, join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        return clusters;
+    }
+
+    /**
+     * Returns all the vectors of all the centers ordered by their first coordinates.
+     */
+    public static List<Vector> sort(List<List<Vector>> centers) {
+        List<Vector> result=new ArrayList<>(centers.size());
+        for (List<Vector> center: centers) {
+            result.addAll(center);
+        }
+        result.sort(Comparator.comparingDouble((center)->center.coordinate(0)));
+        return result;
+    }
+}
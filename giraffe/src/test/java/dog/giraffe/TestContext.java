@@ -8,9 +8,15 @@ import static org.junit.jupiter.api.Assertions.fail;
 public class TestContext implements Context {
     private final Executor executor;
     private final Random random=new Random(123L);
+    private final Sum.Factory sum;
 
-    public TestContext(Executor executor) {
+    public TestContext(Executor executor, Sum.Factory sum) {
         this.executor=executor;
+        this.sum=sum;
+    }
+
+    public TestContext(Executor executor) {
+        this(executor, Sum.SINGLE_VARIABLE);
     }
 
     @Override
@@ -35,6 +41,6 @@ public class TestContext implements Context {
 
     @Override
     public Sum.Factory sum() {
-        return Sum.SINGLE_VARIABLE;
+        return sum;
     }
 }
@@ -0,0 +1,118 @@
+package dog.giraffe;
+
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.Hamerly;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.Otsu;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.points.KDTree;
+import dog.giraffe.points.Mean;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.Points;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.points.Vector;
+import dog.giraffe.points.WeightedPoints;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static dog.giraffe.TestClusters.assertSameClusters;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WeightedPointsTest {
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+
+    public WeightedPointsTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private <P extends Points> Clusters cluster(ClusteringStrategy<P> strategy, P points) throws Throwable {
+        return TestClusters.cluster(context, executor, strategy, points);
+    }
+
+    private static MutablePoints points(Random random, int blobs, int dimensions, int size) {
+        return Blobs.points(
+                new UnsignedByteArrayPoints(dimensions, size),
+                random,
+                blobs,
+                size,
+                ()->8+random.nextInt(240),
+                ()->random.nextInt(15)-7);
+    }
+
+    private static WeightedPoints weighted(MutablePoints points) {
+        WeightedPoints.Counter counter0=new WeightedPoints.Counter(points.dimensions());
+        WeightedPoints.Counter counter1=new WeightedPoints.Counter(points.dimensions());
+        for (int ii=0; points.size()>ii; ++ii) {
+            ((0==(ii%2))?counter0:counter1).add(points, ii);
+        }
+        counter0.add(counter1);
+        return counter0.points();
+    }
+
+    @Test
+    public void testCounter() {
+        Random random=new Random(1234L);
+        for (int dimensions=1; WeightedPoints.MAX_DIMENSIONS>=dimensions; ++dimensions) {
+            MutablePoints points=points(random, 5, dimensions, 10000);
+            Map<Vector, Integer> expected=new HashMap<>();
+            for (int ii=0; points.size()>ii; ++ii) {
+                expected.merge(points.get(ii), 1, Integer::sum);
+            }
+            WeightedPoints weighted=weighted(points);
+            assertEquals(expected.size(), weighted.size());
+            assertEquals(points.size(), weighted.weight());
+            for (int ii=0; weighted.size()>ii; ++ii) {
+                assertEquals(expected.get(weighted.get(ii)), weighted.weight(ii));
+            }
+            KDTree tree=KDTree.create(16, weighted, context.sum());
+            assertEquals(points.size(), tree.weight());
+            Mean mean0=points.mean().create(points.size(), context.sum());
+            Mean mean1=points.mean().create(points.size(), context.sum());
+            points.addAllTo(mean0);
+            tree.addAllTo(mean1);
+            Vector mean2=mean0.mean();
+            Vector mean3=mean1.mean();
+            for (int dd=0; dimensions>dd; ++dd) {
+                assertEquals(mean2.coordinate(dd), mean3.coordinate(dd), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSameClusters() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 10>ii; ++ii) {
+            int clusters=2+random.nextInt(6);
+            MutablePoints points=points(random, 2+random.nextInt(6), 1+random.nextInt(3), 2000+random.nextInt(2000));
+            KDTree tree=KDTree.create(16, weighted(points), context.sum());
+            ClusteringStrategy<Points> kMeans=KMeans.kMeans(
+                    clusters,
+                    1.0,
+                    InitialCenters.meanAndFarthest(false),
+                    1000,
+                    ReplaceEmptyCluster.farthest(false));
+            Clusters expected=cluster(kMeans, points);
+            assertSameClusters(expected, cluster(kMeans, tree));
+            assertSameClusters(
+                    expected,
+                    cluster(
+                            Hamerly.<KDTree>hamerly(
+                                    clusters,
+                                    1.0,
+                                    InitialCenters.meanAndFarthest(false),
+                                    1000,
+                                    ReplaceEmptyCluster.farthest(false)),
+                            tree));
+            if (1==points.dimensions()) {
+                ClusteringStrategy<Points> otsu=Otsu.linear(256, clusters);
+                assertSameClusters(cluster(otsu, points), cluster(otsu, tree));
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dog.giraffe.image;
+
+import dog.giraffe.Context;
+import dog.giraffe.TestContext;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileImageReaderTest {
+    @TempDir
+    public Path directory;
+
+    private void test(String format, int type, double max) throws Throwable {
+        int width=37;
+        int height=5*FileImageReader.STRIP_LINES+11;
+        Random random=new Random(1234L);
+        BufferedImage image=new BufferedImage(width, height, type);
+        WritableRaster raster=image.getRaster();
+        for (int yy=0; height>yy; ++yy) {
+            for (int xx=0; width>xx; ++xx) {
+                for (int dd=0; raster.getNumBands()>dd; ++dd) {
+                    raster.setSample(xx, yy, dd, random.nextInt((int)max+1));
+                }
+            }
+        }
+        Path path=directory.resolve("image."+format);
+        assertTrue(ImageIO.write(image, format, path.toFile()));
+        BufferedImage expected=ImageIO.read(path.toFile());
+        SingleThreadedExecutor executor=new SingleThreadedExecutor();
+        Context context=new TestContext(executor);
+        try (FileImageReader reader=FileImageReader.create(path)) {
+            Map<String, Object> log=new HashMap<>();
+            reader.log(log);
+            assertEquals(true, log.get("streaming"));
+            SingleThreadedJoin<Void> join=new SingleThreadedJoin<>();
+            reader.prepare(context, join);
+            executor.runJoin(context, join);
+            assertTrue(executor.isEmpty());
+            Image.Reader reader2=reader.reader();
+            Image.Reader reader3=reader.reader();
+            MutablePoints points=reader.createPoints(reader.dimensions(), width);
+            points.size(width);
+            int[] pixels=null;
+            for (int ii=0; height>ii; ++ii) {
+                int yy;
+                switch (ii%3) {
+                    case 0:
+                        yy=ii/3;
+                        reader2.setNormalizedLineTo(yy, points, 0);
+                        break;
+                    case 1:
+                        yy=(height+ii)/2;
+                        reader3.setNormalizedLineTo(yy, points, 0);
+                        break;
+                    default:
+                        yy=random.nextInt(height);
+                        reader2.setNormalizedLineTo(yy, points, 0);
+                        break;
+                }
+                pixels=expected.getRaster().getPixels(0, yy, width, 1, pixels);
+                for (int xx=0; width>xx; ++xx) {
+                    for (int dd=0; reader.dimensions()>dd; ++dd) {
+                        assertEquals(pixels[reader.dimensions()*xx+dd]/max, points.getNormalized(dd, xx), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testJpeg() throws Throwable {
+        test("jpeg", BufferedImage.TYPE_3BYTE_BGR, 255.0);
+    }
+
+    @Test
+    public void testPng() throws Throwable {
+        test("png", BufferedImage.TYPE_4BYTE_ABGR, 255.0);
+        test("png", BufferedImage.TYPE_USHORT_GRAY, 65535.0);
+    }
+}
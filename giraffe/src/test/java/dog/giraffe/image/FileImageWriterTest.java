@@ -0,0 +1,52 @@
+package dog.giraffe.image;
+
+import java.awt.image.Raster;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FileImageWriterTest {
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void testOutOfOrder() throws Throwable {
+        int dimensions=3;
+        int height=3*FileImageWriter.QUEUE_LINES+FileImageWriter.STRIP_LINES/2;
+        int width=29;
+        List<Integer> lines=new ArrayList<>(height);
+        for (int yy=0; height>yy; ++yy) {
+            lines.add(yy);
+        }
+        Random random=new Random(1234L);
+        Collections.shuffle(lines.subList(0, height/2), random);
+        Path path=directory.resolve("image.tiff");
+        try (ImageWriter writer=FileImageWriter.factory("tiff", path).create(width, height, dimensions)) {
+            for (int yy: lines) {
+                ImageWriter.Line line=writer.getLine(yy);
+                for (int xx=0; width>xx; ++xx) {
+                    for (int dd=0; dimensions>dd; ++dd) {
+                        line.setNormalized(dd, xx, ((yy*7+xx*3+dd)%256)/255.0);
+                    }
+                }
+                line.write();
+            }
+        }
+        Raster raster=ImageIO.read(path.toFile()).getRaster();
+        assertEquals(height, raster.getHeight());
+        assertEquals(width, raster.getWidth());
+        for (int yy=0; height>yy; ++yy) {
+            for (int xx=0; width>xx; ++xx) {
+                for (int dd=0; dimensions>dd; ++dd) {
+                    assertEquals((yy*7+xx*3+dd)%256, raster.getSample(xx, yy, dd));
+                }
+            }
+        }
+    }
+}
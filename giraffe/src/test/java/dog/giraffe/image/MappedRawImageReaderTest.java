@@ -0,0 +1,148 @@
+package dog.giraffe.image;
+
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedRawImageReaderTest {
+    private static final int DIMENSIONS=7;
+    private static final int HEADER_OFFSET=13;
+    private static final int HEIGHT=11;
+    private static final int WIDTH=17;
+
+    @TempDir
+    public Path directory;
+
+    private void test(String interleave, boolean unsignedShort, boolean bigEndian) throws Throwable {
+        int max=unsignedShort?65535:255;
+        int[][][] samples=new int[HEIGHT][WIDTH][DIMENSIONS];
+        Random random=new Random(1234L);
+        for (int[][] line: samples) {
+            for (int[] pixel: line) {
+                for (int dd=0; DIMENSIONS>dd; ++dd) {
+                    pixel[dd]=random.nextInt(max+1);
+                }
+            }
+        }
+        ByteBuffer data=ByteBuffer.allocate(HEADER_OFFSET+(unsignedShort?2:1)*HEIGHT*WIDTH*DIMENSIONS)
+                .order(bigEndian?ByteOrder.BIG_ENDIAN:ByteOrder.LITTLE_ENDIAN);
+        data.position(HEADER_OFFSET);
+        for (int aa=0; ("bsq".equals(interleave)?DIMENSIONS:HEIGHT)>aa; ++aa) {
+            for (int bb=0; ("bip".equals(interleave)?WIDTH:("bil".equals(interleave)?DIMENSIONS:HEIGHT))>bb; ++bb) {
+                for (int cc=0; ("bip".equals(interleave)?DIMENSIONS:WIDTH)>cc; ++cc) {
+                    int sample;
+                    switch (interleave) {
+                        case "bil":
+                            sample=samples[aa][cc][bb];
+                            break;
+                        case "bip":
+                            sample=samples[aa][bb][cc];
+                            break;
+                        default:
+                            sample=samples[bb][cc][aa];
+                            break;
+                    }
+                    if (unsignedShort) {
+                        data.putShort((short)sample);
+                    }
+                    else {
+                        data.put((byte)sample);
+                    }
+                }
+            }
+        }
+        Path dataPath=directory.resolve("image.img");
+        Path headerPath=directory.resolve("image.hdr");
+        Files.write(dataPath, data.array());
+        Files.writeString(
+                headerPath,
+                "ENVI\n"
+                        +"description = {\n  test image,\n  "+interleave+"}\n"
+                        +"samples = "+WIDTH+"\n"
+                        +"lines   = "+HEIGHT+"\n"
+                        +"bands   = "+DIMENSIONS+"\n"
+                        +"header offset = "+HEADER_OFFSET+"\n"
+                        +"file type = ENVI Standard\n"
+                        +"data type = "+(unsignedShort?12:1)+"\n"
+                        +"interleave = "+interleave+"\n"
+                        +"byte order = "+(bigEndian?1:0)+"\n");
+        for (Path path: new Path[]{dataPath, headerPath}) {
+            try (MappedRawImageReader reader=(MappedRawImageReader)MappedRawImageReader.factory(
+                    path, ()->{
+                        throw new IllegalStateException();
+                    })
+                    .get()) {
+                assertEquals(DIMENSIONS, reader.dimensions());
+                assertEquals(HEIGHT, reader.height());
+                assertEquals(WIDTH, reader.width());
+            }
+        }
+        MappedRawImageReader closed;
+        try (MappedRawImageReader reader=MappedRawImageReader.create(dataPath, headerPath, 4)) {
+            closed=reader;
+            Image.Reader reader2=reader.reader();
+            MutablePoints points=reader.createPoints(DIMENSIONS, WIDTH);
+            points.size(WIDTH);
+            MutablePoints points2=new FloatArrayPoints(DIMENSIONS, WIDTH);
+            points2.size(WIDTH);
+            for (int yy=0; HEIGHT>yy; ++yy) {
+                reader2.setNormalizedLineTo(yy, points, 0);
+                reader2.setNormalizedLineTo(yy, points2, 0);
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    for (int dd=0; DIMENSIONS>dd; ++dd) {
+                        assertEquals(samples[yy][xx][dd], points.get(dd, xx));
+                        assertEquals(samples[yy][xx][dd]/(double)max, points.getNormalized(dd, xx), 1e-9);
+                        assertEquals(samples[yy][xx][dd]/(double)max, points2.getNormalized(dd, xx), 1e-6);
+                    }
+                }
+            }
+        }
+        assertThrows(IllegalStateException.class, closed::reader);
+    }
+
+    @Test
+    public void testInterleaves() throws Throwable {
+        for (String interleave: new String[]{"bil", "bip", "bsq"}) {
+            test(interleave, false, false);
+            test(interleave, true, false);
+            test(interleave, true, true);
+        }
+    }
+
+    @Test
+    public void testTiffSidecar() throws Throwable {
+        Path dataPath=directory.resolve("image.tif");
+        Path headerPath=directory.resolve("image.hdr");
+        Files.write(dataPath, new byte[WIDTH*HEIGHT]);
+        Files.writeString(
+                headerPath,
+                "ENVI\n"
+                        +"samples = "+WIDTH+"\n"
+                        +"lines   = "+HEIGHT+"\n"
+                        +"bands   = 1\n"
+                        +"file type = TIFF\n"
+                        +"data type = 1\n"
+                        +"interleave = bsq\n");
+        for (Path path: new Path[]{dataPath, headerPath}) {
+            int[] fallbacks={0};
+            assertNull(MappedRawImageReader.factory(
+                    path, ()->{
+                        ++fallbacks[0];
+                        return null;
+                    })
+                    .get());
+            assertEquals(1, fallbacks[0]);
+        }
+        assertThrows(IOException.class, ()->MappedRawImageReader.create(dataPath, headerPath, 4));
+    }
+}
@@ -0,0 +1,185 @@
+package dog.giraffe.image;
+
+import dog.giraffe.points.MutablePoints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class TiffImageReaderTest {
+    private static final int HEIGHT=53;
+    private static final int WIDTH=41;
+
+    @TempDir
+    public Path directory;
+
+    private static void assertSame(Raster expected, double max, Path path) throws Throwable {
+        try (TiffImageReader reader=TiffImageReader.create(path)) {
+            assertNotNull(reader);
+            assertEquals(expected.getNumBands(), reader.dimensions());
+            assertEquals(HEIGHT, reader.height());
+            assertEquals(WIDTH, reader.width());
+            Image.Reader reader2=reader.reader();
+            MutablePoints points=reader.createPoints(reader.dimensions(), WIDTH);
+            points.size(WIDTH);
+            for (int yy: new int[]{0, 1, 2, 17, 18, 3, HEIGHT-1, 30}) {
+                reader2.setNormalizedLineTo(yy, points, 0);
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    for (int dd=0; reader.dimensions()>dd; ++dd) {
+                        assertEquals(expected.getSample(xx, yy, dd)/max, points.getNormalized(dd, xx), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    private static WritableRaster raster(BufferedImage image, int max) {
+        Random random=new Random(1234L);
+        WritableRaster raster=image.getRaster();
+        for (int yy=0; HEIGHT>yy; ++yy) {
+            for (int xx=0; WIDTH>xx; ++xx) {
+                for (int dd=0; raster.getNumBands()>dd; ++dd) {
+                    raster.setSample(xx, yy, dd, (0==random.nextInt(3))?random.nextInt(max+1):(7*xx+dd)%(max+1));
+                }
+            }
+        }
+        return raster;
+    }
+
+    @Test
+    public void testImageIO() throws Throwable {
+        for (int type: new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_GRAY}) {
+            BufferedImage image=new BufferedImage(WIDTH, HEIGHT, type);
+            Raster raster=raster(image, (BufferedImage.TYPE_USHORT_GRAY==type)?65535:255);
+            for (String compression: new String[]{null, "PackBits", "LZW", "Deflate"}) {
+                for (boolean tiled: new boolean[]{false, true}) {
+                    Path path=directory.resolve("image.tiff");
+                    Files.deleteIfExists(path);
+                    javax.imageio.ImageWriter writer=ImageIO.getImageWritersByFormatName("tiff").next();
+                    try (ImageOutputStream stream=ImageIO.createImageOutputStream(path.toFile())) {
+                        writer.setOutput(stream);
+                        ImageWriteParam param=writer.getDefaultWriteParam();
+                        if (null!=compression) {
+                            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                            param.setCompressionType(compression);
+                        }
+                        if (tiled) {
+                            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+                            param.setTiling(16, 16, 0, 0);
+                        }
+                        writer.write(null, new IIOImage(image, null, null), param);
+                    }
+                    finally {
+                        writer.dispose();
+                    }
+                    assertSame(
+                            ImageIO.read(path.toFile()).getRaster(),
+                            (BufferedImage.TYPE_USHORT_GRAY==type)?65535.0:255.0,
+                            path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a little-endian, planar, deflate compressed, horizontally differenced 16 bit TIFF, one strip per band.
+     */
+    @Test
+    public void testPlanarPredictor() throws Throwable {
+        int dimensions=5;
+        short[][] samples=new short[dimensions][HEIGHT*WIDTH];
+        Random random=new Random(1234L);
+        for (short[] band: samples) {
+            for (int ii=0; band.length>ii; ++ii) {
+                band[ii]=(short)random.nextInt(65536);
+            }
+        }
+        byte[][] strips=new byte[dimensions][];
+        for (int dd=0; dimensions>dd; ++dd) {
+            ByteBuffer strip=ByteBuffer.allocate(2*HEIGHT*WIDTH).order(ByteOrder.LITTLE_ENDIAN);
+            for (int yy=0; HEIGHT>yy; ++yy) {
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    int ii=yy*WIDTH+xx;
+                    strip.putShort((short)(samples[dd][ii]-((0==xx)?0:samples[dd][ii-1])));
+                }
+            }
+            Deflater deflater=new Deflater();
+            deflater.setInput(strip.array());
+            deflater.finish();
+            ByteArrayOutputStream compressed=new ByteArrayOutputStream();
+            byte[] buffer=new byte[4096];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            strips[dd]=compressed.toByteArray();
+        }
+        int entries=11;
+        int arrays=8+2+12*entries+4;
+        ByteBuffer tiff=ByteBuffer.allocate(1<<20).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte)'I').put((byte)'I').putShort((short)42).putInt(8);
+        tiff.putShort((short)entries);
+        int[][] tags={
+                {256, 3, 1, WIDTH},
+                {257, 3, 1, HEIGHT},
+                {258, 3, dimensions, arrays},
+                {259, 3, 1, 8},
+                {262, 3, 1, 1},
+                {273, 4, dimensions, arrays+2*dimensions},
+                {277, 3, 1, dimensions},
+                {278, 3, 1, HEIGHT},
+                {279, 4, dimensions, arrays+6*dimensions},
+                {284, 3, 1, 2},
+                {317, 3, 1, 2}};
+        for (int[] tag: tags) {
+            tiff.putShort((short)tag[0]).putShort((short)tag[1]).putInt(tag[2]);
+            if ((3==tag[1]) && (1==tag[2])) {
+                tiff.putShort((short)tag[3]).putShort((short)0);
+            }
+            else {
+                tiff.putInt(tag[3]);
+            }
+        }
+        tiff.putInt(0);
+        for (int dd=0; dimensions>dd; ++dd) {
+            tiff.putShort((short)16);
+        }
+        int offset=arrays+10*dimensions;
+        for (byte[] strip: strips) {
+            tiff.putInt(offset);
+            offset+=strip.length;
+        }
+        for (byte[] strip: strips) {
+            tiff.putInt(strip.length);
+        }
+        for (byte[] strip: strips) {
+            tiff.put(strip);
+        }
+        Path path=directory.resolve("planar.tiff");
+        Files.write(path, Arrays.copyOf(tiff.array(), tiff.position()));
+        WritableRaster expected=Raster.createBandedRaster(
+                DataBuffer.TYPE_USHORT, WIDTH, HEIGHT, dimensions, null);
+        for (int dd=0; dimensions>dd; ++dd) {
+            for (int ii=0; HEIGHT*WIDTH>ii; ++ii) {
+                expected.setSample(ii%WIDTH, ii/WIDTH, dd, samples[dd][ii]&0xffff);
+            }
+        }
+        assertSame(expected, 65535.0, path);
+    }
+}
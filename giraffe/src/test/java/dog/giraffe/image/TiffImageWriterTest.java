@@ -0,0 +1,83 @@
+package dog.giraffe.image;
+
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class TiffImageWriterTest {
+    private static final int HEIGHT=3*TiffImageWriter.STRIP_LINES+TiffImageWriter.STRIP_LINES/3;
+    private static final int WIDTH=37;
+
+    @TempDir
+    public Path directory;
+
+    private static int sample(int xx, int yy, int dimension) {
+        return (0==(yy%3))?((xx*xx+yy*dimension)%256):((yy+3*(xx/4)+dimension)%256);
+    }
+
+    private void test(int compression, int dimensions) throws Throwable {
+        Path path=directory.resolve("image.tiff");
+        SingleThreadedExecutor executor=new SingleThreadedExecutor();
+        List<Integer> lines=new ArrayList<>(HEIGHT);
+        for (int yy=0; HEIGHT>yy; ++yy) {
+            lines.add(yy);
+        }
+        Collections.shuffle(lines, new Random(1234L));
+        try (ImageWriter writer=TiffImageWriter.factory(path, compression, executor)
+                .create(WIDTH, HEIGHT, dimensions)) {
+            for (int yy: lines.subList(1, HEIGHT)) {
+                ImageWriter.Line line=writer.getLine(yy);
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    for (int dd=0; dimensions>dd; ++dd) {
+                        line.setNormalized(dd, xx, sample(xx, yy, dd)/255.0);
+                    }
+                }
+                line.write();
+                if (0==(yy%2)) {
+                    executor.runOne();
+                }
+            }
+        }
+        int missing=lines.get(0);
+        try (TiffImageReader reader=TiffImageReader.create(path)) {
+            assertNotNull(reader);
+            assertEquals(dimensions, reader.dimensions());
+            assertEquals(HEIGHT, reader.height());
+            assertEquals(WIDTH, reader.width());
+            Image.Reader reader2=reader.reader();
+            MutablePoints points=reader.createPoints(dimensions, WIDTH);
+            points.size(WIDTH);
+            for (int yy=0; HEIGHT>yy; ++yy) {
+                reader2.setNormalizedLineTo(yy, points, 0);
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    for (int dd=0; dimensions>dd; ++dd) {
+                        assertEquals((missing==yy)?0:sample(xx, yy, dd), (int)points.get(dd, xx));
+                    }
+                }
+            }
+        }
+        while (!executor.isEmpty()) {
+            executor.runOne();
+        }
+    }
+
+    @Test
+    public void testCompressions() throws Throwable {
+        for (int compression: new int[]{
+                TiffImageWriter.COMPRESSION_DEFLATE,
+                TiffImageWriter.COMPRESSION_LZW,
+                TiffImageWriter.COMPRESSION_NONE}) {
+            for (int dimensions: new int[]{1, 3, 6}) {
+                test(compression, dimensions);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dog.giraffe.image.transform;
+
+import dog.giraffe.Context;
+import dog.giraffe.TestContext;
+import dog.giraffe.cluster.ClusterColors;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.image.Image;
+import dog.giraffe.image.PrepareImages;
+import dog.giraffe.points.FloatArrayPoints;
+import dog.giraffe.points.MutablePoints;
+import dog.giraffe.points.UnsignedByteArrayPoints;
+import dog.giraffe.threads.Continuation;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LabelsTest {
+    private static final int BLOBS=3;
+    private static final int DIMENSIONS=2;
+    private static final int HEIGHT=20;
+    private static final int WIDTH=30;
+
+    private static class TestImage extends Image.Abstract {
+        private final boolean bytes;
+        private final MutablePoints pixels;
+
+        public TestImage(boolean bytes, Random random) {
+            super(List.of());
+            this.bytes=bytes;
+            pixels=createPoints(DIMENSIONS, HEIGHT*WIDTH);
+            pixels.size(HEIGHT*WIDTH);
+            for (int yy=0, ii=0; HEIGHT>yy; ++yy) {
+                for (int xx=0; WIDTH>xx; ++xx, ++ii) {
+                    double center=(0.5+blob(xx, yy))/BLOBS;
+                    for (int dd=0; DIMENSIONS>dd; ++dd) {
+                        pixels.setNormalized(dd, ii, center+0.05*(random.nextDouble()-0.5));
+                    }
+                }
+            }
+        }
+
+        public static int blob(int xx, int yy) {
+            return (xx/3+yy)%BLOBS;
+        }
+
+        @Override
+        public MutablePoints createPoints(int dimensions, int expectedSize) {
+            return bytes
+                    ?new UnsignedByteArrayPoints(dimensions, expectedSize)
+                    :new FloatArrayPoints(dimensions, expectedSize);
+        }
+
+        @Override
+        public void log(Map<String, Object> log) {
+            log.put("type", "test-image");
+        }
+
+        @Override
+        protected void prepareImpl(Context context, Continuation<Dimensions> continuation) throws Throwable {
+            continuation.completed(new Dimensions(DIMENSIONS, HEIGHT, WIDTH));
+        }
+
+        @Override
+        public Reader reader() {
+            return (yy, points, offset)->{
+                for (int xx=0; WIDTH>xx; ++xx) {
+                    for (int dd=0; DIMENSIONS>dd; ++dd) {
+                        points.setNormalized(dd, offset+xx, pixels.getNormalized(dd, yy*WIDTH+xx));
+                    }
+                }
+            };
+        }
+    }
+
+    private void test(boolean bytes, Random random) throws Throwable {
+        SingleThreadedExecutor executor=new SingleThreadedExecutor();
+        Context context=new TestContext(executor);
+        Image image=Cluster1.create(
+                new TestImage(bytes, random),
+                ClusterColors.falseColors(0, 1, 1),
+                true,
+                Mask.all(),
+                KMeans.kMeans(
+                        BLOBS,
+                        0.95,
+                        InitialCenters.meanAndFarthest(false),
+                        1000,
+                        ReplaceEmptyCluster.farthest(false)));
+        SingleThreadedJoin<Void> join=new SingleThreadedJoin<>();
+        PrepareImages.prepareImages(context, List.of(image), join);
+        executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        assertEquals(1, image.dimensions());
+        assertEquals(HEIGHT, image.height());
+        assertEquals(WIDTH, image.width());
+        Map<Integer, Double> blobLabels=new HashMap<>();
+        Set<Double> labels=new HashSet<>();
+        MutablePoints line=image.createPoints(image.dimensions(), WIDTH);
+        line.size(WIDTH);
+        Image.Reader reader=image.reader();
+        for (int yy=0; HEIGHT>yy; ++yy) {
+            reader.setNormalizedLineTo(yy, line, 0);
+            for (int xx=0; WIDTH>xx; ++xx) {
+                double label=line.getNormalized(0, xx);
+                Double expected=blobLabels.putIfAbsent(TestImage.blob(xx, yy), label);
+                if (null==expected) {
+                    assertTrue(labels.add(label), "two blobs share a label");
+                }
+                else {
+                    assertEquals(expected, label);
+                }
+            }
+        }
+        assertEquals(BLOBS, labels.size());
+        for (int ii=0; BLOBS>ii; ++ii) {
+            assertTrue(labels.contains(Labels.normalize(ii)));
+        }
+    }
+
+    @Test
+    public void test() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 5>ii; ++ii) {
+            test(false, random);
+            test(true, random);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dog.giraffe.points;
+
+import dog.giraffe.util.Function;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class BandPointsTest {
+    private static void assertSamePoints(MutablePoints expected, MutablePoints actual) {
+        assertEquals(expected.dimensions(), actual.dimensions());
+        assertEquals(expected.size(), actual.size());
+        for (int ii=0; expected.size()>ii; ++ii) {
+            for (int dd=0; expected.dimensions()>dd; ++dd) {
+                assertEquals(expected.get(dd, ii), actual.get(dd, ii));
+                assertEquals(expected.getNormalized(dd, ii), actual.getNormalized(dd, ii));
+            }
+        }
+    }
+
+    private static List<Vector> centers(MutablePoints points, Random random, int size) {
+        List<Vector> centers=new ArrayList<>(size);
+        for (int ii=0; size>ii; ++ii) {
+            centers.add(points.get(random.nextInt(points.size())));
+        }
+        centers.add(centers.get(0));
+        return centers;
+    }
+
+    private static List<Vector> classify(Points points, List<Vector> centers) throws Throwable {
+        List<Vector> result=new ArrayList<>(points.size());
+        for (int ii=0; points.size()>ii; ++ii) {
+            result.add(null);
+        }
+        points.classify(
+                Function.identity(),
+                centers,
+                new Points.Classification<>() {
+                    @Override
+                    public void nearestCenter(Vector center, Points points2) {
+                        throw new IllegalStateException();
+                    }
+
+                    @Override
+                    public void nearestCenter(Vector center, Points points2, int index) {
+                        assertSame(points, points2);
+                        result.set(index, center);
+                    }
+                });
+        return result;
+    }
+
+    private static void fill(MutablePoints points0, MutablePoints points1, Random random, int size) {
+        points0.size(size);
+        points1.size(size);
+        for (int ii=0; size>ii; ++ii) {
+            for (int dd=0; points0.dimensions()>dd; ++dd) {
+                double value=random.nextDouble();
+                points0.setNormalized(dd, ii, value);
+                points1.setNormalized(dd, ii, value);
+            }
+        }
+    }
+
+    private static void test(MutablePoints points0, MutablePoints points1, Random random) throws Throwable {
+        fill(points0, points1, random, 1000+random.nextInt(1000));
+        assertSamePoints(points0, points1);
+        for (int ii=0; 100>ii; ++ii) {
+            int index0=random.nextInt(points0.size());
+            int index1=random.nextInt(points0.size());
+            points0.swap(index0, index1);
+            points1.swap(index0, index1);
+        }
+        assertSamePoints(points0, points1);
+        int from=random.nextInt(points0.size()/2);
+        int to=points0.size()/2+random.nextInt(points0.size()/2);
+        assertSamePoints(points0.subPoints(from, to), points1.subPoints(from, to));
+        List<Vector> centers=centers(points0, random, 1+random.nextInt(20));
+        for (int ii=0; 3>ii; ++ii) {
+            Vector center=new Vector(points0.dimensions());
+            for (int dd=0; points0.dimensions()>dd; ++dd) {
+                center.coordinate(dd, points0.maxValue()*random.nextDouble());
+            }
+            centers.add(center);
+        }
+        assertEquals(classify(points0, centers), classify(points1, centers));
+        assertEquals(
+                classify(points0.subPoints(from, to), centers),
+                classify(points1.subPoints(from, to), centers));
+        Mean mean0=points0.mean().create(points0.size(), Sum.SINGLE_VARIABLE);
+        Mean mean1=points1.mean().create(points1.size(), Sum.SINGLE_VARIABLE);
+        points0.addAllTo(mean0);
+        points1.addAllTo(mean1);
+        for (int dd=0; points0.dimensions()>dd; ++dd) {
+            assertEquals(mean0.mean().coordinate(dd), mean1.mean().coordinate(dd), 1e-9*points0.maxValue());
+        }
+        List<MutablePoints.Interval> intervals=List.of(
+                new MutablePoints.Interval(0, from/2),
+                new MutablePoints.Interval(from, to));
+        points0.compact(intervals);
+        points1.compact(intervals);
+        assertSamePoints(points0, points1);
+    }
+
+    @Test
+    public void test() throws Throwable {
+        Random random=new Random(1234L);
+        for (int ii=0; 20>ii; ++ii) {
+            int dimensions=1+random.nextInt(8);
+            test(new FloatArrayPoints(dimensions, 1), new FloatBandPoints(dimensions, 1), random);
+            test(new UnsignedByteArrayPoints(dimensions, 1), new UnsignedByteBandPoints(dimensions, 1), random);
+            test(new UnsignedShortArrayPoints(dimensions, 1), new UnsignedShortBandPoints(dimensions, 1), random);
+        }
+    }
+}
@@ -1,14 +1,56 @@
 package dog.giraffe.points;
 
+import dog.giraffe.TestContext;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
 import dog.giraffe.util.Function;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class KDTreeTest {
+    private static void assertSplit(KDTree tree) {
+        Deque<KDTree> deque=new ArrayDeque<>(2);
+        if (!tree.split(deque)) {
+            return;
+        }
+        KDTree left=deque.removeFirst();
+        KDTree right=deque.removeFirst();
+        assertTrue(1>=Math.abs(left.size()-right.size()));
+        boolean split=false;
+        for (int dd=0; tree.dimensions()>dd; ++dd) {
+            double max=Double.NEGATIVE_INFINITY;
+            for (int ii=0; left.size()>ii; ++ii) {
+                max=Math.max(max, left.get(dd, ii));
+            }
+            double min=Double.POSITIVE_INFINITY;
+            for (int ii=0; right.size()>ii; ++ii) {
+                min=Math.min(min, right.get(dd, ii));
+            }
+            split|=max<=min;
+        }
+        assertTrue(split);
+        assertSplit(left);
+        assertSplit(right);
+    }
+
+    private static Map<Vector, Integer> counts(Points points) {
+        Map<Vector, Integer> counts=new HashMap<>();
+        for (int ii=0; points.size()>ii; ++ii) {
+            counts.merge(points.get(ii), 1, Integer::sum);
+        }
+        return counts;
+    }
+
     private static List<Vector> create(int dimensions, Random random, int size) {
         List<Vector> list=new ArrayList<>();
         for (; 0<size; --size) {
@@ -51,4 +93,38 @@ public class KDTreeTest {
                     });
         }
     }
+
+    @Test
+    public void testParallel() throws Throwable {
+        SingleThreadedExecutor executor=new SingleThreadedExecutor() {
+            @Override
+            public int threads() {
+                return 4;
+            }
+        };
+        TestContext context=new TestContext(executor);
+        Random random=new Random(1234L);
+        for (int ii=0; 100>ii; ++ii) {
+            int dimensions=1+random.nextInt(4);
+            MutablePoints points=(0==(ii%2))
+                    ?new FloatArrayPoints(dimensions, 1)
+                    :new UnsignedByteArrayPoints(dimensions, 1);
+            points.size(100+random.nextInt(2000));
+            int values=1+random.nextInt(16);
+            for (int jj=0; points.size()>jj; ++jj) {
+                for (int dd=0; dimensions>dd; ++dd) {
+                    points.set(dd, jj, (0==dd)?random.nextInt(values):(points.maxValue()*random.nextDouble()));
+                }
+            }
+            Map<Vector, Integer> expected=counts(points);
+            SingleThreadedJoin<KDTree> join=new SingleThreadedJoin<>();
+            new KDTreeBuilder(1+random.nextInt(10), 2+random.nextInt(64)).build(context, points, join);
+            KDTree tree=executor.runJoin(context, join);
+            assertTrue(executor.isEmpty());
+            assertEquals(points.size(), tree.size());
+            assertEquals(expected, counts(points));
+            assertEquals(expected, counts(tree));
+            assertSplit(tree);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package dog.giraffe.points;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class KernelsTest {
+    private final Kernels kernels=Kernels.kernels();
+    private final Kernels scalar=new Kernels();
+
+    @Test
+    public void testDistances() {
+        Random random=new Random(1234L);
+        for (int ii=0; 100>ii; ++ii) {
+            int from=random.nextInt(10);
+            int length=random.nextInt(100);
+            int centers=1+random.nextInt(10);
+            byte[] bytes=new byte[from+length];
+            float[] floats=new float[from+length];
+            short[] shorts=new short[from+length];
+            random.nextBytes(bytes);
+            for (int jj=0; from+length>jj; ++jj) {
+                floats[jj]=random.nextFloat();
+                shorts[jj]=(short)random.nextInt(65536);
+            }
+            double[] expected=new double[centers*length];
+            double[] actual=new double[centers*length];
+            for (int cc=0; centers>cc; ++cc) {
+                double center=random.nextDouble();
+                scalar.addDistances(255.0*center, bytes, from, length, expected, cc*length);
+                kernels.addDistances(255.0*center, bytes, from, length, actual, cc*length);
+                scalar.addDistances(center, floats, from, length, expected, cc*length);
+                kernels.addDistances(center, floats, from, length, actual, cc*length);
+                scalar.addDistances(65535.0*center, shorts, from, length, expected, cc*length);
+                kernels.addDistances(65535.0*center, shorts, from, length, actual, cc*length);
+            }
+            assertArrayEquals(expected, actual);
+            if (0<length) {
+                expected[random.nextInt(expected.length)]=expected[0];
+            }
+            actual=Arrays.copyOf(expected, expected.length);
+            int[] expectedCenters=new int[length];
+            int[] actualCenters=new int[length];
+            scalar.nearestCenters(expected, length, centers, length, expectedCenters);
+            kernels.nearestCenters(actual, length, centers, length, actualCenters);
+            assertArrayEquals(expectedCenters, actualCenters);
+            assertArrayEquals(expected, actual);
+            assertEquals(scalar.sum(bytes, from, length), kernels.sum(bytes, from, length));
+            assertEquals(scalar.sum(floats, from, length), kernels.sum(floats, from, length), 1e-9);
+            assertEquals(scalar.sum(shorts, from, length), kernels.sum(shorts, from, length));
+        }
+    }
+
+    @Test
+    public void testHyperHue() {
+        Random random=new Random(1234L);
+        for (int ii=0; 100>ii; ++ii) {
+            double[] expected=new double[1+random.nextInt(20)];
+            for (int dd=0; expected.length>dd; ++dd) {
+                expected[dd]=random.nextDouble();
+            }
+            double[] actual=Arrays.copyOf(expected, expected.length);
+            scalar.hyperHue(expected);
+            kernels.hyperHue(actual);
+            assertArrayEquals(expected, actual, 1e-12);
+            for (int dd=0; expected.length>dd; ++dd) {
+                expected[dd]=random.nextDouble();
+            }
+            actual=Arrays.copyOf(expected, expected.length);
+            double maxZero2=(0==(ii%10))?100.0:0.01*random.nextDouble();
+            scalar.normalizedHyperHue(expected, maxZero2);
+            kernels.normalizedHyperHue(actual, maxZero2);
+            assertArrayEquals(expected, actual, 1e-12);
+        }
+    }
+
+    @Test
+    public void testType() {
+        assertEquals("scalar", scalar.type());
+        assertEquals(kernels.getClass().getSimpleName().startsWith("Vector"), kernels.type().startsWith("vector"));
+    }
+}
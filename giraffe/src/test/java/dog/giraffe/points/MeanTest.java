@@ -0,0 +1,98 @@
+package dog.giraffe.points;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MeanTest {
+    private static void assertSameVector(Vector expected, Vector actual, double delta) {
+        assertEquals(expected.dimensions(), actual.dimensions());
+        for (int dd=0; expected.dimensions()>dd; ++dd) {
+            assertEquals(expected.coordinate(dd), actual.coordinate(dd), delta);
+        }
+    }
+
+    private static void testBulk(MutablePoints points, Random random, Sum.Factory sumFactory) {
+        points.size(100+random.nextInt(1000));
+        for (int ii=0; points.size()>ii; ++ii) {
+            for (int dd=0; points.dimensions()>dd; ++dd) {
+                points.setNormalized(dd, ii, random.nextDouble());
+            }
+        }
+        int from=random.nextInt(points.size()/2);
+        Points subPoints=points.subPoints(from, from+random.nextInt(points.size()/2)+1);
+        Mean mean0=subPoints.mean().create(subPoints.size(), sumFactory);
+        Mean mean1=subPoints.mean().create(subPoints.size(), sumFactory);
+        for (int ii=0; subPoints.size()>ii; ++ii) {
+            subPoints.addTo(ii, mean0);
+        }
+        subPoints.addAllTo(mean1);
+        Vector mean=mean0.mean();
+        assertSameVector(mean, mean1.mean(), 0.0);
+        Deviation deviation0=subPoints.variance().create(subPoints.size(), mean, sumFactory);
+        Deviation deviation1=subPoints.variance().create(subPoints.size(), mean, sumFactory);
+        for (int ii=0; subPoints.size()>ii; ++ii) {
+            subPoints.addTo(ii, deviation0);
+        }
+        subPoints.addAllTo(deviation1);
+        assertSameVector(deviation0.deviation(), deviation1.deviation(), 0.0);
+        KDTree tree=KDTree.create(1+random.nextInt(32), points, sumFactory);
+        Deviation deviation2=tree.variance().create(tree.size(), mean, sumFactory);
+        Deviation deviation3=tree.variance().create(tree.size(), mean, sumFactory);
+        for (int ii=0; tree.size()>ii; ++ii) {
+            tree.addTo(ii, deviation2);
+        }
+        tree.addAllTo(deviation3);
+        assertSameVector(deviation2.deviation(), deviation3.deviation(), 0.0);
+    }
+
+    @Test
+    public void testBulk() {
+        Random random=new Random(1234L);
+        for (Sum.Factory sumFactory: new Sum.Factory[]{Sum.SINGLE_VARIABLE, Sum.KAHAN}) {
+            for (int ii=0; 20>ii; ++ii) {
+                int dimensions=1+random.nextInt(5);
+                testBulk(new FloatArrayPoints(dimensions, 1), random, sumFactory);
+                testBulk(new UnsignedByteArrayPoints(dimensions, 1), random, sumFactory);
+                testBulk(new UnsignedShortArrayPoints(dimensions, 1), random, sumFactory);
+            }
+        }
+    }
+
+    @Test
+    public void testCompensated() {
+        Mean mean0=new Mean.Factory(1).create(1, Sum.SINGLE_VARIABLE);
+        Mean mean1=new Mean.Factory(1).create(1, Sum.KAHAN);
+        Sum sum=Sum.KAHAN.create(1);
+        Vector vector=new Vector(1);
+        vector.coordinate(0, 0.1);
+        for (int ii=0; 1000000>ii; ++ii) {
+            mean0.addAll(0, vector);
+            mean1.addAll(0, vector);
+            sum.add(0.1);
+        }
+        vector.coordinate(0, 1.0);
+        mean0.addAll(1, vector);
+        mean1.addAll(1, vector);
+        assertEquals(100000.0, sum.sum(), 1e-10);
+        assertEquals(100001.0, mean1.mean().coordinate(0), 1e-10);
+        assertEquals(100001.0, mean0.mean().coordinate(0), 1e-5);
+        Mean mean2=new Mean.Factory(1).create(1, Sum.KAHAN);
+        mean1.addTo(mean2);
+        assertEquals(100001.0, mean2.mean().coordinate(0), 1e-10);
+    }
+
+    @Test
+    public void testNotFinite() {
+        Mean mean=new Mean.Factory(2).create(1, Sum.SINGLE_VARIABLE);
+        Vector vector=new Vector(2);
+        vector.coordinate(0, 1.0);
+        vector.coordinate(1, Double.NaN);
+        mean.add(vector);
+        vector.coordinate(1, 1.0);
+        mean.add(vector);
+        assertThrows(IllegalArgumentException.class, mean::mean);
+        assertThrows(IllegalArgumentException.class, ()->Sum.KAHAN.create(1).add(Double.POSITIVE_INFINITY));
+    }
+}
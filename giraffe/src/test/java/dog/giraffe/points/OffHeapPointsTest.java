@@ -0,0 +1,118 @@
+package dog.giraffe.points;
+
+import dog.giraffe.TestContext;
+import dog.giraffe.cluster.ClusteringStrategy;
+import dog.giraffe.cluster.Clusters;
+import dog.giraffe.cluster.InitialCenters;
+import dog.giraffe.cluster.KMeans;
+import dog.giraffe.cluster.ReplaceEmptyCluster;
+import dog.giraffe.threads.SingleThreadedExecutor;
+import dog.giraffe.threads.SingleThreadedJoin;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapPointsTest {
+    private final TestContext context;
+    private final SingleThreadedExecutor executor;
+    @TempDir
+    public Path scratchDirectory;
+
+    public OffHeapPointsTest() {
+        executor=new SingleThreadedExecutor();
+        context=new TestContext(executor);
+    }
+
+    private static void assertSamePoints(Points expected, Points actual) {
+        assertEquals(expected.dimensions(), actual.dimensions());
+        assertEquals(expected.size(), actual.size());
+        for (int ii=0; expected.size()>ii; ++ii) {
+            for (int dd=0; expected.dimensions()>dd; ++dd) {
+                assertEquals(expected.get(dd, ii), actual.get(dd, ii));
+                assertEquals(expected.getNormalized(dd, ii), actual.getNormalized(dd, ii));
+            }
+        }
+    }
+
+    private Clusters cluster(Points points) throws Throwable {
+        ClusteringStrategy<Points> kMeans=KMeans.kMeans(
+                3,
+                1.0,
+                InitialCenters.meanAndFarthest(false),
+                1000,
+                ReplaceEmptyCluster.farthest(false));
+        SingleThreadedJoin<Clusters> join=new SingleThreadedJoin<>();
+        kMeans.cluster(context, points, join);
+        Clusters clusters=executor.runJoin(context, join);
+        assertTrue(executor.isEmpty());
+        return clusters;
+    }
+
+    private void test(MutablePoints points0, Path directory, Random random) throws Throwable {
+        MutablePoints points1=OffHeapPoints.create(
+                points0, points0.dimensions(), directory, 6+random.nextInt(4));
+        int size=1000+random.nextInt(1000);
+        points0.size(size);
+        points1.size(size);
+        for (int ii=0; size>ii; ++ii) {
+            for (int dd=0; points0.dimensions()>dd; ++dd) {
+                double value=random.nextDouble();
+                points0.setNormalized(dd, ii, value);
+                points1.setNormalized(dd, ii, value);
+            }
+        }
+        assertSamePoints(points0, points1);
+        for (int ii=0; 100>ii; ++ii) {
+            int index0=random.nextInt(size);
+            int index1=random.nextInt(size);
+            points0.swap(index0, index1);
+            points1.swap(index0, index1);
+        }
+        assertSamePoints(points0, points1);
+        int from=random.nextInt(size/2);
+        int to=size/2+random.nextInt(size/2);
+        assertSamePoints(points0.subPoints(from, to), points1.subPoints(from, to));
+        List<MutablePoints.Interval> intervals=List.of(
+                new MutablePoints.Interval(0, from/2),
+                new MutablePoints.Interval(from, to));
+        points0.compact(intervals);
+        points1.compact(intervals);
+        assertSamePoints(points0, points1);
+        Clusters clusters0=cluster(points0);
+        Clusters clusters1=cluster(points1);
+        assertEquals(clusters0.centers, clusters1.centers);
+        assertEquals(clusters0.error, clusters1.error);
+        KDTree tree0=KDTree.create(16, points0, context.sum());
+        KDTree tree1=KDTree.create(16, points1, context.sum());
+        assertSamePoints(tree0, tree1);
+        assertSamePoints(points0, points1);
+    }
+
+    @Test
+    public void test() throws Throwable {
+        Random random=new Random(1234L);
+        for (Path directory: new Path[]{null, scratchDirectory}) {
+            for (int ii=0; 10>ii; ++ii) {
+                int dimensions=1+random.nextInt(8);
+                test(new FloatArrayPoints(dimensions, 1), directory, random);
+                test(new UnsignedByteArrayPoints(dimensions, 1), directory, random);
+                test(new UnsignedShortArrayPoints(dimensions, 1), directory, random);
+            }
+        }
+        try (Stream<Path> files=Files.list(scratchDirectory)) {
+            assertEquals(0L, files.count());
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertNull(OffHeapPoints.create(new WeightedPoints.Counter(2).points(), 2, null));
+    }
+}